@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetSource} that parses another source completely on a worker thread and keeps the cells in memory.
+ * Used to parse the sheets of a workbook in parallel. The parsing starts when this source is created; cursors wait
+ * until the sheet is parsed completely.
+ * 
+ * @author Adam
+ */
+class BufferedSheetSource extends SheetSource {
+    
+    private @NonNull SheetSource source;
+    
+    private @NonNull Future<@NonNull SheetBuffer> buffer;
+    
+    /**
+     * Creates a source that parses the given source on the given executor.
+     * 
+     * @param source The sheet to parse.
+     * @param executor The executor to parse the sheet on.
+     */
+    BufferedSheetSource(@NonNull SheetSource source, @NonNull ExecutorService executor) {
+        super(source.getName());
+        this.source = source;
+        this.buffer = notNull(executor.submit(() -> SheetBuffer.read(source)));
+    }
+    
+    @Override
+    public @NonNull SheetCursor openCursor() throws IOException {
+        SheetBuffer result;
+        try {
+            result = notNull(buffer.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for sheet " + getName());
+        } catch (CancellationException e) {
+            throw new IOException("Parsing sheet " + getName() + " was cancelled", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Can't parse sheet " + getName(), cause);
+        }
+        return result.openCursor();
+    }
+    
+    @Override
+    protected @NonNull Dimension readDimension() throws IOException {
+        return source.getDimension();
+    }
+    
+    @Override
+    @Nullable List<@NonNull Group> getGroups() {
+        return source.getGroups();
+    }
+    
+    @Override
+    void setGroups(@NonNull List<@NonNull Group> groups) {
+        source.setGroups(groups);
+    }
+    
+}
@@ -0,0 +1,772 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A sheet that is loaded into memory as typed columns. The first row of the sheet is the header, which names the
+ * columns. The type of each column is inferred from the types of its cells: columns of whole numbers are stored as
+ * <code>long[]</code>, other numeric columns as <code>double[]</code>, boolean columns as a {@link BitSet} and all
+ * other columns as dictionary-encoded strings (an <code>int</code> code per row and one {@link String} per distinct
+ * value). This needs far less memory than a list of <code>String[]</code> rows, and numeric columns can be scanned
+ * and aggregated without parsing texts.
+ * <p>
+ * Tables are created with {@link #load(ExcelSheetReader)}. Empty (blank) cells are stored as missing values, see
+ * {@link #isMissing(int, int)}.
+ * 
+ * @author Adam
+ */
+public class ColumnTable {
+    
+    /**
+     * The inferred type of a column.
+     */
+    public static enum ColumnType {
+        
+        /**
+         * Only whole numbers (and empty cells).
+         */
+        LONG,
+        
+        /**
+         * Only numbers (and empty cells), not all of them whole numbers.
+         */
+        DOUBLE,
+        
+        /**
+         * Only boolean values (and empty cells).
+         */
+        BOOLEAN,
+        
+        /**
+         * Texts or mixed values. Empty columns are string columns, too.
+         */
+        STRING;
+    }
+    
+    /**
+     * The number of rows that are read from the reader at once.
+     */
+    private static final int BATCH_ROWS = 1024;
+    
+    private int numRows;
+    
+    private @NonNull TypedColumn @NonNull [] columns;
+    
+    /**
+     * Creates a table.
+     * 
+     * @param numRows The number of rows, without the header.
+     * @param columns The columns.
+     */
+    private ColumnTable(int numRows, @NonNull TypedColumn @NonNull [] columns) {
+        this.numRows = numRows;
+        this.columns = columns;
+    }
+    
+    /**
+     * Loads the sheet of the given reader. The reader is restarted at the first row of the sheet (see
+     * {@link ExcelSheetReader#close()}), which is read as header. The number of columns is the number of cells of the
+     * header; further cells of longer rows are not loaded. Afterwards, the reader is closed.
+     * 
+     * @param reader The reader of the sheet to load. Its settings (e.g. {@link ExcelSheetReader#selectColumns(int...)}
+     *      or {@link ExcelSheetReader#setFormulaResults(boolean)}) are used.
+     * @return The loaded table.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    public static @NonNull ColumnTable load(@NonNull ExcelSheetReader reader) throws IOException {
+        reader.close();
+        ColumnTable result;
+        try {
+            RowBatch batch = new RowBatch(BATCH_ROWS);
+            int read = reader.readRows(batch);
+            
+            // the header is the first row of the first batch
+            TypedColumn[] columns = new TypedColumn[read > 0 ? batch.getCellCount(0) : 0];
+            for (int column = 0; column < columns.length; column++) {
+                columns[column] = new TypedColumn(batch.getString(0, column), column);
+            }
+            
+            int numRows = 0;
+            int firstRow = 1;
+            while (read > 0) {
+                for (int row = firstRow; row < read; row++) {
+                    for (TypedColumn column : columns) {
+                        column.add(batch, row, numRows);
+                    }
+                    numRows++;
+                }
+                firstRow = 0;
+                read = reader.readRows(batch);
+            }
+            
+            for (TypedColumn column : columns) {
+                column.trim(numRows);
+            }
+            result = new ColumnTable(numRows, columns);
+            
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the number of rows of this table.
+     * 
+     * @return The number of rows, without the header.
+     */
+    public int getRowCount() {
+        return numRows;
+    }
+    
+    /**
+     * Returns the number of columns of this table.
+     * 
+     * @return The number of columns, i.e. the number of cells of the header.
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+    
+    /**
+     * Returns the name of a column.
+     * 
+     * @param column The 0-based index of the column.
+     * @return The text of the header cell of the column.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public @NonNull String getColumnName(int column) throws IndexOutOfBoundsException {
+        return getColumn(column).name;
+    }
+    
+    /**
+     * Returns the index of the column with the given name.
+     * 
+     * @param name The text of the header cell of the column.
+     * @return The 0-based index of the first column with this name, -1 if there is no such column.
+     */
+    public int getColumnIndex(@NonNull String name) {
+        int result = -1;
+        for (int column = 0; column < columns.length && result == -1; column++) {
+            if (columns[column].name.equals(name)) {
+                result = column;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the inferred type of a column.
+     * 
+     * @param column The 0-based index of the column.
+     * @return The type of the column.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public @NonNull ColumnType getColumnType(int column) throws IndexOutOfBoundsException {
+        return getColumn(column).getType();
+    }
+    
+    /**
+     * Checks whether a cell is empty.
+     * 
+     * @param row The 0-based row, without the header.
+     * @param column The 0-based index of the column.
+     * @return Whether the cell is empty (or not defined in the sheet).
+     * 
+     * @throws IndexOutOfBoundsException If the cell does not exist.
+     */
+    public boolean isMissing(int row, int column) throws IndexOutOfBoundsException {
+        checkRow(row);
+        return !getColumn(column).present.get(row);
+    }
+    
+    /**
+     * Returns the value of a cell of a {@link ColumnType#LONG} or {@link ColumnType#DOUBLE} column as a whole number.
+     * 
+     * @param row The 0-based row, without the header.
+     * @param column The 0-based index of the column.
+     * @return The value, truncated towards zero; 0 for empty cells and cells of other columns.
+     * 
+     * @throws IndexOutOfBoundsException If the cell does not exist.
+     */
+    public long getLong(int row, int column) throws IndexOutOfBoundsException {
+        checkRow(row);
+        TypedColumn typed = getColumn(column);
+        long[] longs = typed.longs;
+        return longs != null ? longs[row] : (long) getDouble(row, column);
+    }
+    
+    /**
+     * Returns the value of a cell of a {@link ColumnType#LONG} or {@link ColumnType#DOUBLE} column.
+     * 
+     * @param row The 0-based row, without the header.
+     * @param column The 0-based index of the column.
+     * @return The value; {@link Double#NaN} for empty cells and cells of other columns.
+     * 
+     * @throws IndexOutOfBoundsException If the cell does not exist.
+     */
+    public double getDouble(int row, int column) throws IndexOutOfBoundsException {
+        checkRow(row);
+        return getColumn(column).getDouble(row);
+    }
+    
+    /**
+     * Returns the value of a cell of a {@link ColumnType#BOOLEAN} column.
+     * 
+     * @param row The 0-based row, without the header.
+     * @param column The 0-based index of the column.
+     * @return The value; <code>false</code> for empty cells and cells of other columns.
+     * 
+     * @throws IndexOutOfBoundsException If the cell does not exist.
+     */
+    public boolean getBoolean(int row, int column) throws IndexOutOfBoundsException {
+        checkRow(row);
+        BitSet booleans = getColumn(column).booleans;
+        return booleans != null && booleans.get(row);
+    }
+    
+    /**
+     * Returns the text of a cell, as {@link ExcelSheetReader#readNextRow()} returns it. The texts of numeric and
+     * boolean cells are rendered on each call.
+     * 
+     * @param row The 0-based row, without the header.
+     * @param column The 0-based index of the column.
+     * @return The text of the cell; an empty string for empty cells.
+     * 
+     * @throws IndexOutOfBoundsException If the cell does not exist.
+     */
+    public @NonNull String getString(int row, int column) throws IndexOutOfBoundsException {
+        checkRow(row);
+        TypedColumn typed = getColumn(column);
+        return typed.present.get(row) ? typed.render(row) : "";
+    }
+    
+    /**
+     * Returns the number of non-empty cells of a column.
+     * 
+     * @param column The 0-based index of the column.
+     * @return The number of values in the column.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public int count(int column) throws IndexOutOfBoundsException {
+        return getColumn(column).present.cardinality();
+    }
+    
+    /**
+     * Returns the sum of a {@link ColumnType#LONG} or {@link ColumnType#DOUBLE} column. For
+     * {@link ColumnType#BOOLEAN} columns, this is the number of <code>true</code> values.
+     * 
+     * @param column The 0-based index of the column.
+     * @return The sum of the values of the column; 0 for string columns.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public double sum(int column) throws IndexOutOfBoundsException {
+        TypedColumn typed = getColumn(column);
+        long[] longs = typed.longs;
+        double[] doubles = typed.doubles;
+        BitSet booleans = typed.booleans;
+        double result = 0;
+        if (longs != null) {
+            // missing values are stored as 0
+            long sum = 0;
+            for (long value : longs) {
+                sum += value;
+            }
+            result = sum;
+        } else if (doubles != null) {
+            for (double value : doubles) {
+                result += value;
+            }
+        } else if (booleans != null) {
+            result = booleans.cardinality();
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the smallest value of a {@link ColumnType#LONG} or {@link ColumnType#DOUBLE} column.
+     * 
+     * @param column The 0-based index of the column.
+     * @return The smallest value; {@link Double#NaN} if the column has no numeric values.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public double min(int column) throws IndexOutOfBoundsException {
+        return extreme(column, true);
+    }
+    
+    /**
+     * Returns the largest value of a {@link ColumnType#LONG} or {@link ColumnType#DOUBLE} column.
+     * 
+     * @param column The 0-based index of the column.
+     * @return The largest value; {@link Double#NaN} if the column has no numeric values.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public double max(int column) throws IndexOutOfBoundsException {
+        return extreme(column, false);
+    }
+    
+    /**
+     * Computes the smallest or largest value of a numeric column.
+     * 
+     * @param column The 0-based index of the column.
+     * @param min <code>true</code> for the smallest value, <code>false</code> for the largest value.
+     * @return The smallest or largest value; {@link Double#NaN} if the column has no numeric values.
+     */
+    private double extreme(int column, boolean min) {
+        TypedColumn typed = getColumn(column);
+        double result = Double.NaN;
+        if (typed.longs != null || typed.doubles != null) {
+            BitSet present = typed.present;
+            for (int row = present.nextSetBit(0); row != -1; row = present.nextSetBit(row + 1)) {
+                double value = typed.getDouble(row);
+                if (Double.isNaN(result) || (min ? value < result : value > result)) {
+                    result = value;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Finds the rows whose cell in the given column has the given text. For string columns, the text is looked up
+     * in the dictionary of the column once; the rows are compared by their code.
+     * 
+     * @param column The 0-based index of the column.
+     * @param value The text to find, as {@link #getString(int, int)} returns it.
+     * @return The 0-based indices of the matching rows, in ascending order.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public int @NonNull [] findRows(int column, @NonNull String value) throws IndexOutOfBoundsException {
+        TypedColumn typed = getColumn(column);
+        int[] result = new int[16];
+        int count = 0;
+        int[] codes = typed.codes;
+        if (codes != null) {
+            Integer code = notNull(typed.codeIndex).get(value);
+            for (int row = 0; code != null && row < numRows; row++) {
+                if (codes[row] == code && typed.present.get(row)) {
+                    result = add(result, count, row);
+                    count++;
+                }
+            }
+        } else {
+            for (int row = 0; row < numRows; row++) {
+                if (getString(row, column).equals(value)) {
+                    result = add(result, count, row);
+                    count++;
+                }
+            }
+        }
+        return notNull(Arrays.copyOf(result, count));
+    }
+    
+    /**
+     * Finds the rows whose value in the given {@link ColumnType#LONG} or {@link ColumnType#DOUBLE} column is
+     * accepted by the given predicate. Empty cells are never accepted.
+     * 
+     * @param column The 0-based index of the column.
+     * @param predicate The predicate to test the values.
+     * @return The 0-based indices of the matching rows, in ascending order; empty for other columns.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public int @NonNull [] findRows(int column, @NonNull DoublePredicate predicate)
+            throws IndexOutOfBoundsException {
+        
+        TypedColumn typed = getColumn(column);
+        int[] result = new int[16];
+        int count = 0;
+        if (typed.longs != null || typed.doubles != null) {
+            BitSet present = typed.present;
+            for (int row = present.nextSetBit(0); row != -1; row = present.nextSetBit(row + 1)) {
+                if (predicate.test(typed.getDouble(row))) {
+                    result = add(result, count, row);
+                    count++;
+                }
+            }
+        }
+        return notNull(Arrays.copyOf(result, count));
+    }
+    
+    /**
+     * Counts how often each text occurs in the given column. For string columns, the rows are counted by their code.
+     * 
+     * @param column The 0-based index of the column.
+     * @return The number of rows for each (non-empty) text of the column.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    public @NonNull Map<@NonNull String, Integer> countValues(int column) throws IndexOutOfBoundsException {
+        TypedColumn typed = getColumn(column);
+        Map<@NonNull String, Integer> result = new HashMap<>();
+        BitSet present = typed.present;
+        int[] codes = typed.codes;
+        if (codes != null) {
+            List<@NonNull String> dictionary = notNull(typed.dictionary);
+            int[] counts = new int[dictionary.size()];
+            for (int row = present.nextSetBit(0); row != -1; row = present.nextSetBit(row + 1)) {
+                counts[codes[row]]++;
+            }
+            for (int code = 0; code < counts.length; code++) {
+                if (counts[code] > 0) {
+                    result.put(notNull(dictionary.get(code)), counts[code]);
+                }
+            }
+        } else {
+            for (int row = present.nextSetBit(0); row != -1; row = present.nextSetBit(row + 1)) {
+                result.merge(typed.render(row), 1, Integer::sum);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Appends a row index to the given result array.
+     * 
+     * @param result The array.
+     * @param count The number of rows in the array.
+     * @param row The row to append.
+     * @return The array, or a larger copy of it.
+     */
+    private static int @NonNull [] add(int @NonNull [] result, int count, int row) {
+        int[] array = result;
+        if (count == array.length) {
+            array = Arrays.copyOf(array, count * 2);
+        }
+        array[count] = row;
+        return notNull(array);
+    }
+    
+    /**
+     * Returns the given column.
+     * 
+     * @param column The 0-based index of the column.
+     * @return The column.
+     * 
+     * @throws IndexOutOfBoundsException If the column does not exist.
+     */
+    private @NonNull TypedColumn getColumn(int column) throws IndexOutOfBoundsException {
+        if (column < 0 || column >= columns.length) {
+            throw new IndexOutOfBoundsException("Column " + column + " is not within the table (" + columns.length
+                    + " columns)");
+        }
+        return columns[column];
+    }
+    
+    /**
+     * Checks that the given row is within this table.
+     * 
+     * @param row The row to check.
+     * 
+     * @throws IndexOutOfBoundsException If the row is not within this table.
+     */
+    private void checkRow(int row) throws IndexOutOfBoundsException {
+        if (row < 0 || row >= numRows) {
+            throw new IndexOutOfBoundsException("Row " + row + " is not within the table (" + numRows + " rows)");
+        }
+    }
+    
+    /**
+     * The values of a single column. The column starts without a type; the type is inferred from the first value and
+     * widened when a value of another type is added: whole numbers become doubles, and mixed columns become string
+     * columns. Exactly one of the value arrays is used, depending on the type.
+     */
+    private static final class TypedColumn {
+        
+        private @NonNull String name;
+        
+        /**
+         * The 0-based index of this column in the read rows.
+         */
+        private int index;
+        
+        /**
+         * The type of the values so far, <code>null</code> if only empty cells were added.
+         */
+        private @Nullable ColumnType type;
+        
+        private int capacity = 64;
+        
+        /**
+         * The rows with a value.
+         */
+        private @NonNull BitSet present = new BitSet();
+        
+        private long @Nullable [] longs;
+        
+        private double @Nullable [] doubles;
+        
+        private @Nullable BitSet booleans;
+        
+        /**
+         * The codes of the texts in the {@link #dictionary}.
+         */
+        private int @Nullable [] codes;
+        
+        private @Nullable List<@NonNull String> dictionary;
+        
+        private @Nullable Map<@NonNull String, Integer> codeIndex;
+        
+        /**
+         * Creates an empty column.
+         * 
+         * @param name The name of the column.
+         * @param index The 0-based index of this column in the read rows.
+         */
+        TypedColumn(@NonNull String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+        
+        /**
+         * Returns the type of this column.
+         * 
+         * @return The type; {@link ColumnType#STRING} if this column has no values.
+         */
+        @NonNull ColumnType getType() {
+            ColumnType type = this.type;
+            return type != null ? type : ColumnType.STRING;
+        }
+        
+        /**
+         * Adds the cell of the given batch to this column.
+         * 
+         * @param batch The batch of rows.
+         * @param batchRow The row in the batch.
+         * @param row The row in this column.
+         */
+        void add(@NonNull RowBatch batch, int batchRow, int row) {
+            int column = index;
+            CellType cellType = column < batch.getColumnCount() ? batch.getCellType(batchRow, column)
+                    : CellType.BLANK;
+            if (row == capacity) {
+                grow();
+            }
+            
+            if (cellType != CellType.BLANK) {
+                ColumnType valueType;
+                if (cellType == CellType.NUMERIC) {
+                    double value = batch.getNumericValue(batchRow, column);
+                    // -0.0 is rendered differently than 0
+                    valueType = Numbers.isInteger(value) && !Numbers.isNegativeZero(value) ? ColumnType.LONG
+                            : ColumnType.DOUBLE;
+                } else if (cellType == CellType.BOOLEAN) {
+                    valueType = ColumnType.BOOLEAN;
+                } else {
+                    valueType = ColumnType.STRING;
+                }
+                widen(valueType, row);
+                
+                switch (getType()) {
+                case LONG:
+                    notNull(longs)[row] = (long) batch.getNumericValue(batchRow, column);
+                    break;
+                case DOUBLE:
+                    notNull(doubles)[row] = batch.getNumericValue(batchRow, column);
+                    break;
+                case BOOLEAN:
+                    notNull(booleans).set(row, batch.getBooleanValue(batchRow, column));
+                    break;
+                default:
+                    notNull(codes)[row] = encode(batch.getString(batchRow, column));
+                    break;
+                }
+                present.set(row);
+            }
+        }
+        
+        /**
+         * Widens the type of this column, so that it can hold a value of the given type. Converts the values that
+         * were added before.
+         * 
+         * @param valueType The type of the new value.
+         * @param numRows The number of rows added before.
+         */
+        private void widen(@NonNull ColumnType valueType, int numRows) {
+            ColumnType type = this.type;
+            ColumnType newType;
+            if (type == null || type == valueType) {
+                newType = valueType;
+            } else if ((type == ColumnType.LONG || type == ColumnType.DOUBLE)
+                    && (valueType == ColumnType.LONG || valueType == ColumnType.DOUBLE)) {
+                newType = ColumnType.DOUBLE;
+            } else {
+                newType = ColumnType.STRING;
+            }
+            
+            if (newType != type) {
+                switch (newType) {
+                case LONG:
+                    longs = new long[capacity];
+                    break;
+                case DOUBLE:
+                    double[] doubles = new double[capacity];
+                    long[] longs = this.longs;
+                    for (int row = 0; longs != null && row < numRows; row++) {
+                        doubles[row] = longs[row];
+                    }
+                    this.doubles = doubles;
+                    this.longs = null;
+                    break;
+                case BOOLEAN:
+                    booleans = new BitSet();
+                    break;
+                default:
+                    codes = new int[capacity];
+                    dictionary = new ArrayList<>();
+                    codeIndex = new HashMap<>();
+                    for (int row = present.nextSetBit(0); row != -1; row = present.nextSetBit(row + 1)) {
+                        notNull(codes)[row] = encode(render(row));
+                    }
+                    this.longs = null;
+                    this.doubles = null;
+                    this.booleans = null;
+                    break;
+                }
+                this.type = newType;
+            }
+        }
+        
+        /**
+         * Returns the code of the given text in the dictionary. Adds the text, if it is not contained yet.
+         * 
+         * @param text The text.
+         * @return The code of the text.
+         */
+        private int encode(@NonNull String text) {
+            Map<@NonNull String, Integer> codeIndex = notNull(this.codeIndex);
+            Integer result = codeIndex.get(text);
+            if (result == null) {
+                List<@NonNull String> dictionary = notNull(this.dictionary);
+                result = dictionary.size();
+                dictionary.add(text);
+                codeIndex.put(text, result);
+            }
+            return result;
+        }
+        
+        /**
+         * Returns the text of a value of this column, as {@link ExcelSheetReader#readNextRow()} returns it.
+         * 
+         * @param row The row of the value, which must not be empty.
+         * @return The text of the value.
+         */
+        @NonNull String render(int row) {
+            String result;
+            long[] longs = this.longs;
+            double[] doubles = this.doubles;
+            BitSet booleans = this.booleans;
+            int[] codes = this.codes;
+            if (longs != null) {
+                // numeric cells are read as doubles
+                result = Double.toString(longs[row]);
+            } else if (doubles != null) {
+                result = Double.toString(doubles[row]);
+            } else if (booleans != null) {
+                result = Boolean.toString(booleans.get(row));
+            } else if (codes != null) {
+                result = notNull(this.dictionary).get(codes[row]);
+            } else {
+                result = "";
+            }
+            return notNull(result);
+        }
+        
+        /**
+         * Returns a numeric value of this column.
+         * 
+         * @param row The row of the value.
+         * @return The value; {@link Double#NaN} if the cell is empty or this is not a numeric column.
+         */
+        double getDouble(int row) {
+            double result = Double.NaN;
+            long[] longs = this.longs;
+            double[] doubles = this.doubles;
+            if (present.get(row)) {
+                if (longs != null) {
+                    result = longs[row];
+                } else if (doubles != null) {
+                    result = doubles[row];
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * Doubles the capacity of the value arrays.
+         */
+        private void grow() {
+            capacity *= 2;
+            resize(capacity);
+        }
+        
+        /**
+         * Releases the unused capacity of the value arrays, after all rows are added.
+         * 
+         * @param numRows The number of rows of this column.
+         */
+        void trim(int numRows) {
+            capacity = numRows;
+            resize(numRows);
+        }
+        
+        /**
+         * Resizes the value arrays.
+         * 
+         * @param size The new size of the arrays.
+         */
+        private void resize(int size) {
+            long[] longs = this.longs;
+            double[] doubles = this.doubles;
+            int[] codes = this.codes;
+            if (longs != null) {
+                this.longs = Arrays.copyOf(longs, size);
+            }
+            if (doubles != null) {
+                this.doubles = Arrays.copyOf(doubles, size);
+            }
+            if (codes != null) {
+                this.codes = Arrays.copyOf(codes, size);
+            }
+        }
+        
+    }
+    
+}
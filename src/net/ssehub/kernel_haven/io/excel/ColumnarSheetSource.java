@@ -0,0 +1,566 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetSource} that reads a sheet from a cache file, which was written by the {@link ColumnarSheetWriter}.
+ * The file is mapped into memory; cursors read the cells directly from the mapped file, without parsing.
+ * <p>
+ * The cells are stored column by column: for each column, the types of all rows and then (in a second section) the
+ * values of all rows. A value is the bits of a number, 1 or 0 for booleans or the index of the text (or formula)
+ * in a dictionary of all texts of the sheet. The cached results of formula cells are stored in a separate section,
+ * sorted by the position of their cell in the column-major sections. The file starts with the key of the workbook,
+ * which identifies the state of the workbook the file was created from.
+ * 
+ * @author Adam
+ */
+class ColumnarSheetSource extends SheetSource {
+    
+    /**
+     * The first bytes of a cache file: <code>KHXC</code>.
+     */
+    static final int MAGIC = 0x4B485843;
+    
+    static final int VERSION = 2;
+    
+    /**
+     * The type of cells that are not defined.
+     */
+    static final byte UNDEFINED = -1;
+    
+    private static final @NonNull CellType[] CELL_TYPES = CellType.values();
+    
+    private @NonNull ByteBuffer data;
+    
+    private @NonNull Dimension declaredDimension;
+    
+    private int numRows;
+    
+    private int numColumns;
+    
+    private int rowIndicesOffset;
+    
+    private int outlineLevelsOffset;
+    
+    private int cellCountsOffset;
+    
+    private int typesOffset;
+    
+    private int valuesOffset;
+    
+    private int numFormulas;
+    
+    private int formulaValuesOffset;
+    
+    private int formulaCellsOffset;
+    
+    private int formulaTypesOffset;
+    
+    private int textOffsetsOffset;
+    
+    private int textDataOffset;
+    
+    /**
+     * The decoded texts of the dictionary, decoded on first access.
+     */
+    private @Nullable String @NonNull [] texts;
+    
+    /**
+     * Creates a source for the given mapped file. The file header is already read.
+     * 
+     * @param name The name of the sheet.
+     * @param data The mapped file, positioned after the header.
+     * 
+     * @throws IOException If the file is not valid.
+     */
+    private ColumnarSheetSource(@NonNull String name, @NonNull ByteBuffer data) throws IOException {
+        super(name);
+        this.data = data;
+        
+        try {
+            declaredDimension = new Dimension(data.getInt(), data.getInt());
+            numRows = data.getInt();
+            numColumns = data.getInt();
+            numFormulas = data.getInt();
+            int numTexts = data.getInt();
+            if (numRows < 0 || numColumns < 0 || numFormulas < 0 || numTexts < 0) {
+                throw new IOException("Invalid cache file");
+            }
+            
+            Layout layout = new Layout(data.position(), numRows, numColumns, numFormulas, numTexts);
+            rowIndicesOffset = layout.getRowIndices();
+            outlineLevelsOffset = layout.getOutlineLevels();
+            cellCountsOffset = layout.getCellCounts();
+            typesOffset = layout.getTypes();
+            valuesOffset = layout.getValues();
+            formulaValuesOffset = layout.getFormulaValues();
+            formulaCellsOffset = layout.getFormulaCells();
+            formulaTypesOffset = layout.getFormulaTypes();
+            textOffsetsOffset = layout.getTextOffsets();
+            textDataOffset = layout.getTextData();
+            if (textDataOffset > data.limit()) {
+                throw new IOException("Cache file is truncated");
+            }
+            texts = new String[numTexts];
+            
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Cache file is truncated", e);
+        }
+    }
+    
+    /**
+     * Opens the given cache file.
+     * 
+     * @param name The name of the sheet.
+     * @param file The cache file.
+     * @param key The key of the current state of the workbook.
+     * @return The source, <code>null</code> if the file does not exist, is not valid or was created for another state
+     *      of the workbook.
+     */
+    static @Nullable ColumnarSheetSource open(@NonNull String name, @NonNull File file, byte @NonNull [] key) {
+        ColumnarSheetSource result = null;
+        if (file.isFile() && file.length() <= Integer.MAX_VALUE) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                // the mapping stays valid after the channel is closed
+                ByteBuffer data = channel.map(MapMode.READ_ONLY, 0, channel.size());
+                
+                if (data.remaining() >= 12 && data.getInt() == MAGIC && data.getInt() == VERSION) {
+                    byte[] storedKey = new byte[data.getInt()];
+                    if (storedKey.length <= data.remaining()) {
+                        data.get(storedKey);
+                        if (Arrays.equals(storedKey, key)) {
+                            result = new ColumnarSheetSource(name, data);
+                        }
+                    }
+                }
+            } catch (IOException | BufferUnderflowException e) {
+                // not a valid cache file; it is overwritten
+                result = null;
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public @NonNull SheetCursor openCursor() {
+        return new ColumnarSheetCursor();
+    }
+    
+    @Override
+    protected @NonNull Dimension readDimension() {
+        return declaredDimension;
+    }
+    
+    /**
+     * Returns a text of the dictionary.
+     * 
+     * @param index The index of the text.
+     * @return The text.
+     */
+    private @NonNull String getDictionaryText(int index) {
+        String result = texts[index];
+        if (result == null) {
+            int start = data.getInt(textOffsetsOffset + index * 4);
+            int end = data.getInt(textOffsetsOffset + (index + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = data.get(textDataOffset + start + i);
+            }
+            result = new String(bytes, StandardCharsets.UTF_8);
+            // Strings are immutable, thus concurrent cursors may safely decode the same text twice
+            texts[index] = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Finds the cached result of the given formula cell.
+     * 
+     * @param cell The position of the cell in the column-major sections.
+     * @return The index of the result in the formula sections, -1 if the cell has no entry.
+     */
+    private int findFormula(int cell) {
+        int low = 0;
+        int high = numFormulas - 1;
+        int result = -1;
+        while (result == -1 && low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleCell = data.getInt(formulaCellsOffset + middle * 4);
+            if (middleCell < cell) {
+                low = middle + 1;
+            } else if (middleCell > cell) {
+                high = middle - 1;
+            } else {
+                result = middle;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Thrown if a sheet is too large for a cache file, which must be small enough to be mapped into memory.
+     */
+    static final class TooLargeException extends IOException {
+        
+        private static final long serialVersionUID = -5016432519398409377L;
+        
+        /**
+         * Creates the exception.
+         */
+        TooLargeException() {
+            super("Sheet is too large for a cache file");
+        }
+        
+    }
+    
+    /**
+     * The positions of the sections of a cache file.
+     */
+    static final class Layout {
+        
+        private int rowIndices;
+        
+        private int outlineLevels;
+        
+        private int cellCounts;
+        
+        private int types;
+        
+        private int values;
+        
+        private int formulaValues;
+        
+        private int formulaCells;
+        
+        private int formulaTypes;
+        
+        private int textOffsets;
+        
+        private int textData;
+        
+        /**
+         * Computes the layout of a cache file.
+         * 
+         * @param headerLength The length of the file header.
+         * @param numRows The number of rows.
+         * @param numColumns The number of columns.
+         * @param numFormulas The number of formula cells with a cached result.
+         * @param numTexts The number of texts in the dictionary.
+         * 
+         * @throws TooLargeException If the file would be too large to be mapped into memory.
+         */
+        Layout(int headerLength, int numRows, int numColumns, int numFormulas, int numTexts)
+                throws TooLargeException {
+            long cells = (long) numRows * numColumns;
+            long position = headerLength;
+            rowIndices = checkSize(position);
+            position += numRows * 4L;
+            outlineLevels = checkSize(position);
+            position += numRows * 4L;
+            cellCounts = checkSize(position);
+            position += numRows * 4L;
+            types = checkSize(position);
+            position += cells;
+            // align the values to 8 bytes
+            position = (position + 7) & ~7L;
+            values = checkSize(position);
+            position += cells * 8;
+            // the values are a multiple of 8 bytes, thus the formula values are aligned, too
+            formulaValues = checkSize(position);
+            position += numFormulas * 8L;
+            formulaCells = checkSize(position);
+            position += numFormulas * 4L;
+            formulaTypes = checkSize(position);
+            position += numFormulas;
+            textOffsets = checkSize(position);
+            position += (numTexts + 1) * 4L;
+            textData = checkSize(position);
+        }
+        
+        /**
+         * Checks that the given position can be addressed in a mapped file.
+         * 
+         * @param position The position.
+         * @return The position.
+         * 
+         * @throws TooLargeException If the position is too large.
+         */
+        static int checkSize(long position) throws TooLargeException {
+            if (position > Integer.MAX_VALUE) {
+                throw new TooLargeException();
+            }
+            return (int) position;
+        }
+        
+        /**
+         * Returns the position of the row indices (one <code>int</code> per row).
+         * 
+         * @return The position.
+         */
+        int getRowIndices() {
+            return rowIndices;
+        }
+        
+        /**
+         * Returns the position of the outline levels (one <code>int</code> per row).
+         * 
+         * @return The position.
+         */
+        int getOutlineLevels() {
+            return outlineLevels;
+        }
+        
+        /**
+         * Returns the position of the cell counts (one <code>int</code> per row): the column of the last defined cell
+         * plus one.
+         * 
+         * @return The position.
+         */
+        int getCellCounts() {
+            return cellCounts;
+        }
+        
+        /**
+         * Returns the position of the cell types (one <code>byte</code> per cell, column by column).
+         * 
+         * @return The position.
+         */
+        int getTypes() {
+            return types;
+        }
+        
+        /**
+         * Returns the position of the cell values (one <code>long</code> per cell, column by column).
+         * 
+         * @return The position.
+         */
+        int getValues() {
+            return values;
+        }
+        
+        /**
+         * Returns the position of the cached results of formula cells (one <code>long</code> per formula), stored
+         * like the values of other cells.
+         * 
+         * @return The position.
+         */
+        int getFormulaValues() {
+            return formulaValues;
+        }
+        
+        /**
+         * Returns the position of the cells of the formula results (one <code>int</code> per formula, the position
+         * of the cell in the column-major sections, in ascending order).
+         * 
+         * @return The position.
+         */
+        int getFormulaCells() {
+            return formulaCells;
+        }
+        
+        /**
+         * Returns the position of the types of the formula results (one <code>byte</code> per formula).
+         * 
+         * @return The position.
+         */
+        int getFormulaTypes() {
+            return formulaTypes;
+        }
+        
+        /**
+         * Returns the position of the text offsets (one <code>int</code> per text plus the end of the last text).
+         * 
+         * @return The position.
+         */
+        int getTextOffsets() {
+            return textOffsets;
+        }
+        
+        /**
+         * Returns the position of the UTF-8 encoded texts.
+         * 
+         * @return The position.
+         */
+        int getTextData() {
+            return textData;
+        }
+        
+    }
+    
+    /**
+     * A cursor over the mapped file.
+     */
+    private class ColumnarSheetCursor extends SheetCursor {
+        
+        private int row = -1;
+        
+        private int cellCount;
+        
+        private int column = -1;
+        
+        /**
+         * The position of the current cell in the column-major sections.
+         */
+        private int cell;
+        
+        private byte type;
+        
+        /**
+         * The index of the cached result of the current formula cell, -1 if the current cell has none.
+         */
+        private int formula = -1;
+        
+        @Override
+        public boolean nextRow() {
+            if (row < numRows) {
+                row++;
+            }
+            column = -1;
+            cellCount = row < numRows ? data.getInt(cellCountsOffset + row * 4) : 0;
+            return row < numRows;
+        }
+        
+        @Override
+        public int getRowIndex() {
+            return data.getInt(rowIndicesOffset + row * 4);
+        }
+        
+        @Override
+        public int getOutlineLevel() {
+            return data.getInt(outlineLevelsOffset + row * 4);
+        }
+        
+        @Override
+        public boolean nextCell() {
+            boolean result = false;
+            while (!result && column + 1 < cellCount) {
+                column++;
+                cell = column * numRows + row;
+                type = data.get(typesOffset + cell);
+                result = type != UNDEFINED;
+            }
+            formula = result && getCellType() == CellType.FORMULA ? findFormula(cell) : -1;
+            if (!result) {
+                column = cellCount;
+            }
+            return result;
+        }
+        
+        @Override
+        public int getColumnIndex() {
+            return column;
+        }
+        
+        @Override
+        public @NonNull CellType getCellType() {
+            return notNull(CELL_TYPES[type]);
+        }
+        
+        /**
+         * Returns the value of the current cell.
+         * 
+         * @return The value of the current cell.
+         */
+        private long getValue() {
+            return data.getLong(valuesOffset + cell * 8);
+        }
+        
+        /**
+         * Returns the type of the value of the current cell: the type of the cell or, for formula cells, the type
+         * of their result.
+         * 
+         * @return The type of the value, <code>null</code> for formula cells without a result.
+         */
+        private @Nullable CellType getValueType() {
+            CellType result = getCellType();
+            if (result == CellType.FORMULA) {
+                result = getCachedResultType();
+            }
+            return result;
+        }
+        
+        /**
+         * Returns the value of the current cell, or the result of the current formula cell.
+         * 
+         * @return The value, as stored in the file.
+         */
+        private long getResultValue() {
+            return formula != -1 ? data.getLong(formulaValuesOffset + formula * 8) : getValue();
+        }
+        
+        @Override
+        public @NonNull String getStringValue() {
+            CellType valueType = getValueType();
+            String result = "";
+            if (valueType != null && valueType != CellType.NUMERIC && valueType != CellType.BOOLEAN) {
+                result = getDictionaryText((int) getResultValue());
+            }
+            return result;
+        }
+        
+        @Override
+        public double getNumericValue() {
+            return getValueType() == CellType.NUMERIC ? Double.longBitsToDouble(getResultValue()) : 0;
+        }
+        
+        @Override
+        public boolean getBooleanValue() {
+            return getValueType() == CellType.BOOLEAN && getResultValue() != 0;
+        }
+        
+        @Override
+        public @Nullable String getFormula() {
+            return getCellType() == CellType.FORMULA ? getDictionaryText((int) getValue()) : null;
+        }
+        
+        @Override
+        public @Nullable CellType getCachedResultType() {
+            byte resultType = formula != -1 ? data.get(formulaTypesOffset + formula) : UNDEFINED;
+            return resultType != UNDEFINED ? CELL_TYPES[resultType] : null;
+        }
+        
+        @Override
+        public boolean isTextShared() {
+            // the texts of the dictionary are decoded once
+            CellType cellType = getCellType();
+            return cellType != CellType.NUMERIC && cellType != CellType.BOOLEAN;
+        }
+        
+        @Override
+        public void close() {
+            // nothing to close, the mapped file is shared by all cursors
+        }
+        
+    }
+    
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.io.excel.ColumnarSheetSource.Layout;
+import net.ssehub.kernel_haven.io.excel.ColumnarSheetSource.TooLargeException;
+import net.ssehub.kernel_haven.io.excel.SheetSource.Dimension;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Transcodes a sheet into a cache file, which is read by the {@link ColumnarSheetSource}.
+ * <p>
+ * The sheet is parsed once. The cells are written row by row into a temporary file, while the texts are collected in
+ * a dictionary and the cached results of formula cells are collected in memory. Afterwards, the number of rows and
+ * columns is known and the temporary file is read again to write the cells column by column; this is done in blocks
+ * of rows, to avoid holding the complete sheet in memory.
+ * <p>
+ * A sheet, which is too large for a cache file, is detected from its declared dimension before it is parsed, or
+ * while it is parsed. This is remembered in a marker file with the key of the workbook, so that the sheet is not
+ * parsed again for the same state of the workbook.
+ * 
+ * @author Adam
+ */
+class ColumnarSheetWriter {
+    
+    /**
+     * The maximum number of cells that are held in memory while the columns are written.
+     */
+    private static final int BLOCK_CELLS = 512 * 1024;
+    
+    private @NonNull Map<@NonNull String, Integer> textIndices = new HashMap<>();
+    
+    private @NonNull ByteArrayOutputStream textData = new ByteArrayOutputStream();
+    
+    /**
+     * The start offsets of the texts in {@link #textData}, followed by the end of the last text.
+     */
+    private int @NonNull [] textOffsets = new int[1024];
+    
+    private int numRows;
+    
+    private int numColumns;
+    
+    private int numFormulas;
+    
+    /**
+     * The row (counted from the first defined row) and the column of each formula cell with a cached result,
+     * <code>row &lt;&lt; 32 | column</code>.
+     */
+    private long @NonNull [] formulaPositions = new long[64];
+    
+    private byte @NonNull [] formulaTypes = new byte[64];
+    
+    /**
+     * The cached results of the formulas, stored like the values of other cells.
+     */
+    private long @NonNull [] formulaValues = new long[64];
+    
+    /**
+     * Creates a writer.
+     */
+    private ColumnarSheetWriter() {
+    }
+    
+    /**
+     * Returns the cache file for the given sheet of the given workbook.
+     * 
+     * @param workbook The workbook.
+     * @param index The 0-based index of the sheet.
+     * @return The cache file next to the workbook.
+     */
+    static @NonNull File getFile(@NonNull File workbook, int index) {
+        return new File(workbook.getPath() + ".sheet" + index + ".cache");
+    }
+    
+    /**
+     * Returns the marker file, which records that a sheet is too large for the given cache file.
+     * 
+     * @param file The cache file.
+     * @return The marker file next to the cache file.
+     */
+    static @NonNull File getTooLargeFile(@NonNull File file) {
+        return new File(file.getPath() + ".toolarge");
+    }
+    
+    /**
+     * Checks whether the sheet of the given cache file was found to be too large for the given state of the
+     * workbook.
+     * 
+     * @param file The cache file.
+     * @param key The key of the current state of the workbook.
+     * @return Whether the sheet is too large; it should not be transcoded.
+     */
+    static boolean isTooLarge(@NonNull File file, byte @NonNull [] key) {
+        File marker = getTooLargeFile(file);
+        boolean result = false;
+        if (marker.isFile()) {
+            try {
+                result = Arrays.equals(Files.readAllBytes(marker.toPath()), key);
+            } catch (IOException e) {
+                // the sheet is transcoded (again), which writes a new marker if it is too large
+                result = false;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Transcodes the given sheet into the given cache file. An existing file is replaced. If the sheet is too large
+     * for a cache file, the existing file is deleted and this is recorded in the marker file (see
+     * {@link #isTooLarge(File, byte[])}).
+     * 
+     * @param source The sheet to transcode.
+     * @param file The cache file to write.
+     * @param key The key of the current state of the workbook, which is stored in the file.
+     * 
+     * @throws IOException If reading the sheet or writing the file fails, or if the sheet is too large for a cache
+     *      file.
+     */
+    static void write(@NonNull SheetSource source, @NonNull File file, byte @NonNull [] key) throws IOException {
+        File rows = new File(file.getPath() + ".rows");
+        File tmp = new File(file.getPath() + ".tmp");
+        File marker = getTooLargeFile(file);
+        int headerLength = getHeaderLength(key);
+        try {
+            Dimension dimension = source.getDimension();
+            if (dimension.getRowCount() > 0 && dimension.getColumnCount() > 0) {
+                // the cells of the declared dimension must fit, before the sheet is parsed
+                new Layout(headerLength, dimension.getRowCount(), dimension.getColumnCount(), 0, 0);
+            }
+            
+            ColumnarSheetWriter writer = new ColumnarSheetWriter();
+            writer.writeRows(source, rows, headerLength);
+            writer.writeColumns(dimension, rows, tmp, key);
+            
+            // readers, which still have the old file mapped, keep reading the old file
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(marker.toPath());
+            
+        } catch (TooLargeException e) {
+            Files.deleteIfExists(file.toPath());
+            Files.write(marker.toPath(), key);
+            throw e;
+            
+        } finally {
+            Files.deleteIfExists(rows.toPath());
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+    
+    /**
+     * Parses the sheet and writes its cells row by row into the given file. For each row, the row index and
+     * outline level are written, followed by the column, type and value of each cell and a column of -1.
+     * 
+     * @param source The sheet to parse.
+     * @param rows The file to write.
+     * @param headerLength The length of the header of the cache file.
+     * 
+     * @throws IOException If reading the sheet or writing the file fails.
+     * @throws TooLargeException If the rows parsed so far are too large for a cache file.
+     */
+    private void writeRows(@NonNull SheetSource source, @NonNull File rows, int headerLength)
+            throws IOException, TooLargeException {
+        try (SheetCursor cursor = source.openCursor();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                        rows.toPath())))) {
+            
+            while (cursor.nextRow()) {
+                out.writeInt(cursor.getRowIndex());
+                out.writeInt(cursor.getOutlineLevel());
+                while (cursor.nextCell()) {
+                    int column = cursor.getColumnIndex();
+                    CellType type = cursor.getCellType();
+                    out.writeInt(column);
+                    out.writeByte(type.ordinal());
+                    out.writeLong(getValue(cursor, type));
+                    if (type == CellType.FORMULA) {
+                        addResult(cursor, column);
+                    }
+                    numColumns = Math.max(numColumns, column + 1);
+                }
+                out.writeInt(-1);
+                numRows++;
+                checkSize(headerLength);
+            }
+        }
+    }
+    
+    /**
+     * Returns the length of the header of a cache file.
+     * 
+     * @param key The key of the workbook, which is stored in the header.
+     * @return The length of the header in bytes.
+     */
+    private static int getHeaderLength(byte @NonNull [] key) {
+        return 12 + key.length + 24;
+    }
+    
+    /**
+     * Checks that the cells and texts, which were parsed so far, fit into a cache file.
+     * 
+     * @param headerLength The length of the header of the cache file.
+     * 
+     * @throws TooLargeException If the cache file would be too large.
+     */
+    private void checkSize(int headerLength) throws TooLargeException {
+        Layout layout = new Layout(headerLength, numRows, numColumns, numFormulas, textIndices.size());
+        Layout.checkSize(layout.getTextData() + (long) textData.size());
+    }
+    
+    /**
+     * Returns the value of the current cell, as it is stored in the cache file.
+     * 
+     * @param cursor The cursor, positioned on a cell.
+     * @param type The type of the cell.
+     * @return The bits of a number, 1 or 0 for booleans or the index of the text in the dictionary.
+     * 
+     * @throws IOException If the formula of the cell can't be read.
+     */
+    private long getValue(@NonNull SheetCursor cursor, @NonNull CellType type) throws IOException {
+        long result;
+        switch (type) {
+        case NUMERIC:
+            result = Double.doubleToRawLongBits(cursor.getNumericValue());
+            break;
+        case BOOLEAN:
+            result = cursor.getBooleanValue() ? 1 : 0;
+            break;
+        case FORMULA:
+            String formula = cursor.getFormula();
+            result = addText(formula != null ? formula : "");
+            break;
+        default:
+            result = addText(cursor.getStringValue());
+            break;
+        }
+        return result;
+    }
+    
+    /**
+     * Adds the cached result of the current formula cell, if it has one.
+     * 
+     * @param cursor The cursor, positioned on a formula cell in the row {@link #numRows}.
+     * @param column The column of the cell.
+     * 
+     * @throws IOException If the result can't be read.
+     */
+    private void addResult(@NonNull SheetCursor cursor, int column) throws IOException {
+        CellType resultType = cursor.getCachedResultType();
+        if (resultType != null) {
+            if (numFormulas == formulaPositions.length) {
+                int newSize = numFormulas * 2;
+                formulaPositions = Arrays.copyOf(formulaPositions, newSize);
+                formulaTypes = Arrays.copyOf(formulaTypes, newSize);
+                formulaValues = Arrays.copyOf(formulaValues, newSize);
+            }
+            formulaPositions[numFormulas] = (long) numRows << 32 | column;
+            formulaTypes[numFormulas] = (byte) resultType.ordinal();
+            formulaValues[numFormulas] = getValue(cursor, resultType);
+            numFormulas++;
+        }
+    }
+    
+    /**
+     * Adds the given text to the dictionary, if it is not contained yet.
+     * 
+     * @param text The text.
+     * @return The index of the text in the dictionary.
+     */
+    private int addText(@NonNull String text) {
+        Integer result = textIndices.get(text);
+        if (result == null) {
+            result = textIndices.size();
+            textIndices.put(text, result);
+            
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            textData.write(bytes, 0, bytes.length);
+            if (result + 1 == textOffsets.length) {
+                textOffsets = Arrays.copyOf(textOffsets, textOffsets.length * 2);
+            }
+            textOffsets[result + 1] = textData.size();
+        }
+        return result;
+    }
+    
+    /**
+     * Writes the cache file from the rows written by {@link #writeRows(SheetSource, File)}.
+     * 
+     * @param dimension The declared dimension of the sheet.
+     * @param rows The file with the cells of the sheet, row by row.
+     * @param file The cache file to write.
+     * @param key The key of the current state of the workbook.
+     * 
+     * @throws IOException If reading or writing the files fails.
+     */
+    private void writeColumns(@NonNull Dimension dimension, @NonNull File rows, @NonNull File file,
+            byte @NonNull [] key) throws IOException {
+        
+        int numTexts = textIndices.size();
+        ByteBuffer header = ByteBuffer.allocate(getHeaderLength(key));
+        header.putInt(ColumnarSheetSource.MAGIC);
+        header.putInt(ColumnarSheetSource.VERSION);
+        header.putInt(key.length);
+        header.put(key);
+        header.putInt(dimension.getRowCount());
+        header.putInt(dimension.getColumnCount());
+        header.putInt(numRows);
+        header.putInt(numColumns);
+        header.putInt(numFormulas);
+        header.putInt(numTexts);
+        header.flip();
+        Layout layout = new Layout(header.remaining(), numRows, numColumns, numFormulas, numTexts);
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(
+                        rows.toPath())))) {
+            
+            writeFully(channel, header, 0);
+            
+            int blockRows = Math.max(1, Math.min(numRows, BLOCK_CELLS / Math.max(1, numColumns)));
+            ByteBuffer rowIndices = ByteBuffer.allocate(blockRows * 4);
+            ByteBuffer outlineLevels = ByteBuffer.allocate(blockRows * 4);
+            ByteBuffer cellCounts = ByteBuffer.allocate(blockRows * 4);
+            ByteBuffer types = ByteBuffer.allocate(blockRows * numColumns);
+            ByteBuffer values = ByteBuffer.allocate(blockRows * numColumns * 8);
+            
+            for (int firstRow = 0; firstRow < numRows; firstRow += blockRows) {
+                int count = Math.min(blockRows, numRows - firstRow);
+                Arrays.fill(types.array(), ColumnarSheetSource.UNDEFINED);
+                
+                // the cells of column c are stored at c * blockRows + i in the block buffers
+                for (int i = 0; i < count; i++) {
+                    rowIndices.putInt(i * 4, in.readInt());
+                    outlineLevels.putInt(i * 4, in.readInt());
+                    int cellCount = 0;
+                    int column = in.readInt();
+                    while (column != -1) {
+                        int cell = column * blockRows + i;
+                        types.put(cell, in.readByte());
+                        values.putLong(cell * 8, in.readLong());
+                        cellCount = Math.max(cellCount, column + 1);
+                        column = in.readInt();
+                    }
+                    cellCounts.putInt(i * 4, cellCount);
+                }
+                
+                writeSlice(channel, rowIndices, 0, count * 4, layout.getRowIndices() + firstRow * 4L);
+                writeSlice(channel, outlineLevels, 0, count * 4, layout.getOutlineLevels() + firstRow * 4L);
+                writeSlice(channel, cellCounts, 0, count * 4, layout.getCellCounts() + firstRow * 4L);
+                for (int column = 0; column < numColumns; column++) {
+                    long cell = (long) column * numRows + firstRow;
+                    writeSlice(channel, types, column * blockRows, count, layout.getTypes() + cell);
+                    writeSlice(channel, values, column * blockRows * 8, count * 8, layout.getValues() + cell * 8);
+                }
+            }
+            
+            writeFormulas(channel, layout);
+            
+            ByteBuffer offsets = ByteBuffer.allocate((numTexts + 1) * 4);
+            for (int i = 0; i <= numTexts; i++) {
+                offsets.putInt(textOffsets[i]);
+            }
+            offsets.flip();
+            writeFully(channel, offsets, layout.getTextOffsets());
+            writeFully(channel, ByteBuffer.wrap(textData.toByteArray()), layout.getTextData());
+        }
+    }
+    
+    /**
+     * Writes the cached results of the formula cells, sorted by the position of their cell in the column-major
+     * sections.
+     * 
+     * @param channel The file to write to.
+     * @param layout The layout of the file.
+     * 
+     * @throws IOException If writing fails.
+     */
+    private void writeFormulas(@NonNull FileChannel channel, @NonNull Layout layout) throws IOException {
+        // sort the formulas by their cell; the index of the formula is kept in the lower bits
+        long[] order = new long[numFormulas];
+        for (int i = 0; i < numFormulas; i++) {
+            long row = formulaPositions[i] >>> 32;
+            long column = formulaPositions[i] & 0xFFFFFFFFL;
+            order[i] = (column * numRows + row) << 32 | i;
+        }
+        Arrays.sort(order);
+        
+        ByteBuffer cells = ByteBuffer.allocate(numFormulas * 4);
+        ByteBuffer types = ByteBuffer.allocate(numFormulas);
+        ByteBuffer values = ByteBuffer.allocate(numFormulas * 8);
+        for (long entry : order) {
+            int formula = (int) entry;
+            cells.putInt((int) (entry >>> 32));
+            types.put(formulaTypes[formula]);
+            values.putLong(formulaValues[formula]);
+        }
+        cells.flip();
+        types.flip();
+        values.flip();
+        writeFully(channel, values, layout.getFormulaValues());
+        writeFully(channel, cells, layout.getFormulaCells());
+        writeFully(channel, types, layout.getFormulaTypes());
+    }
+    
+    /**
+     * Writes a part of the given buffer at the given position of the file.
+     * 
+     * @param channel The file to write to.
+     * @param buffer The buffer, whose limit and position are changed.
+     * @param offset The offset of the part in the buffer.
+     * @param length The length of the part.
+     * @param position The position in the file.
+     * 
+     * @throws IOException If writing fails.
+     */
+    private static void writeSlice(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, int offset, int length,
+            long position) throws IOException {
+        
+        buffer.limit(offset + length);
+        buffer.position(offset);
+        writeFully(channel, buffer, position);
+        buffer.clear();
+    }
+    
+    /**
+     * Writes the remaining bytes of the given buffer at the given position of the file.
+     * 
+     * @param channel The file to write to.
+     * @param buffer The buffer to write.
+     * @param position The position in the file.
+     * 
+     * @throws IOException If writing fails.
+     */
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+            throws IOException {
+        
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += channel.write(buffer, current);
+        }
+    }
+    
+}
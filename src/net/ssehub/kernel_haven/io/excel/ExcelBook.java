@@ -17,10 +17,13 @@ package net.ssehub.kernel_haven.io.excel;
 
 import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -28,11 +31,18 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.poi.POIXMLProperties;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.openxml4j.exceptions.OpenXML4JRuntimeException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.openxml4j.util.ZipSecureFile;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -41,7 +51,11 @@ import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.apache.poi.ss.util.WorkbookUtil;
 import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
+import net.ssehub.kernel_haven.SetUpException;
 import net.ssehub.kernel_haven.config.Configuration;
+import net.ssehub.kernel_haven.config.Setting;
+import net.ssehub.kernel_haven.config.Setting.Type;
+import net.ssehub.kernel_haven.io.excel.XlsxStreamWriter.SheetStream;
 import net.ssehub.kernel_haven.util.Logger;
 import net.ssehub.kernel_haven.util.io.ITableCollection;
 import net.ssehub.kernel_haven.util.io.TableCollectionReaderFactory;
@@ -78,6 +92,146 @@ public class ExcelBook implements ITableCollection {
     
     private static final int ROW_WINDOW_SIZE = 10;
     
+    /**
+     * The number of threads that parse the sheets of a streamed workbook in parallel, see
+     * {@link #getAllSheetReaders()}.
+     */
+    public static final @NonNull Setting<@NonNull Integer> PARALLEL_READ_THREADS = new Setting<>(
+            "io.excel.parallel_read_threads", Type.INTEGER, true, "1", "Number of threads used to parse the sheets "
+            + "of an existing Excel workbook in parallel, when all sheets are read at once. With 1, the sheets are "
+            + "parsed while their rows are read. Otherwise, each sheet is parsed completely on a worker thread and "
+            + "kept in memory until its reader is no longer used.");
+    
+    /**
+     * The number of threads that deflate the sheets of a new workbook in parallel, see {@link XlsxAssembler}.
+     */
+    public static final @NonNull Setting<@NonNull Integer> PARALLEL_WRITE_THREADS = new Setting<>(
+            "io.excel.parallel_write_threads", Type.INTEGER, true, "1", "Number of threads used to compress the "
+            + "sheets of a new Excel workbook in parallel, when the workbook is closed and written to disk. With 1, "
+            + "the sheets are compressed one after another. Otherwise, each sheet is compressed into a temporary file "
+            + "on a worker thread, and the compressed sheets are copied into the workbook without recompression.");
+    
+    /**
+     * Whether new XLSX workbooks are written directly as SpreadsheetML, see {@link XlsxStreamWriter}.
+     */
+    public static final @NonNull Setting<@NonNull Boolean> DIRECT_XLSX_WRITER = new Setting<>(
+            "io.excel.direct_xlsx_writer", Type.BOOLEAN, true, "false", "Whether new XLSX workbooks are written "
+            + "directly as SpreadsheetML into the destination file, instead of using the streaming usermodel of POI. "
+            + "This is considerably faster and needs no temporary files, but the sheets of such a workbook can't be "
+            + "read before it is closed, and only the bold header style is supported. Sheets that are written at the "
+            + "same time are compressed into memory until the sheets created before them are closed.");
+    
+    /**
+     * Whether streamed XLSX workbooks use an index file, see {@link SidecarIndex}.
+     */
+    public static final @NonNull Setting<@NonNull Boolean> SIDECAR_INDEX = new Setting<>(
+            "io.excel.sidecar_index", Type.BOOLEAN, true, "false", "Whether an index file is stored next to existing "
+            + "XLSX workbooks, which are read in streaming mode. The index file contains the sheet catalog, the sizes "
+            + "and row groups of the sheets and the positions of the rows, as far as they were computed while the "
+            + "workbook was open. When the unchanged workbook is opened again, this information is taken from the "
+            + "index file instead of scanning the workbook. Changed workbooks are detected by their size, "
+            + "modification time and a hash of their content; their index file is rebuilt.");
+    
+    /**
+     * Whether readers return the results of formula cells instead of their formulas, see
+     * {@link ExcelSheetReader#setFormulaResults(boolean)}.
+     */
+    public static final @NonNull Setting<@NonNull Boolean> FORMULA_RESULTS = new Setting<>(
+            "io.excel.formula_results", Type.BOOLEAN, true, "false", "Whether formula cells of Excel sheets are read "
+            + "as their results instead of their formulas. The result that is stored in the workbook is used; "
+            + "formulas without a stored result are evaluated. All readers of a workbook share one evaluator, which "
+            + "keeps the evaluated results until the workbook is closed. For streamed workbooks, the complete "
+            + "workbook is loaded into memory when the first formula without a stored result is evaluated.");
+    
+    /**
+     * Whether the shared strings table of streamed XLSX workbooks is kept off the heap, see
+     * {@link OffHeapStringTable}.
+     */
+    public static final @NonNull Setting<@NonNull Boolean> OFF_HEAP_SHARED_STRINGS = new Setting<>(
+            "io.excel.off_heap_shared_strings", Type.BOOLEAN, true, "false", "Whether the shared strings table of "
+            + "existing XLSX workbooks, which are read in streaming mode, is stored UTF-8 encoded outside of the Java "
+            + "heap. The strings are decoded when their cells are read; recently read strings are cached. This "
+            + "reduces the heap usage for workbooks with huge shared strings tables, at the cost of decoding.");
+    
+    /**
+     * Whether the sheets of streamed workbooks are transcoded into cache files, see {@link ColumnarSheetSource}.
+     */
+    public static final @NonNull Setting<@NonNull Boolean> TRANSCODE_CACHE = new Setting<>(
+            "io.excel.transcode_cache", Type.BOOLEAN, true, "false", "Whether the sheets of existing Excel "
+            + "workbooks, which are read in streaming mode, are transcoded into binary cache files next to the "
+            + "workbook. A sheet is transcoded when it is read for the first time; afterwards, its rows are read from "
+            + "the memory-mapped cache file without parsing the workbook. Changed workbooks are detected by their "
+            + "size, modification time and a hash of their content; their cache files are rebuilt.");
+    
+    /**
+     * The number of rows that are parsed ahead on a producer thread, see {@link PrefetchCursor}.
+     */
+    public static final @NonNull Setting<@NonNull Integer> PREFETCH_ROWS = new Setting<>(
+            "io.excel.prefetch_rows", Type.INTEGER, true, "0", "Number of rows of a sheet of an existing Excel "
+            + "workbook, which is read in streaming mode, that are parsed ahead on a background thread while the "
+            + "previous rows are processed. When this many rows are parsed ahead, the background thread waits until "
+            + "rows are read. 0 disables the background parsing.");
+    
+    /**
+     * The number of rows that are passed from the producer thread to the reader at once, see {@link PrefetchCursor}.
+     */
+    public static final @NonNull Setting<@NonNull Integer> PREFETCH_BATCH_ROWS = new Setting<>(
+            "io.excel.prefetch_batch_rows", Type.INTEGER, true, "256", "Number of rows that are passed from the "
+            + "background thread to the reader at once, if io.excel.prefetch_rows is enabled. When the "
+            + "background thread waits because the maximum number of rows is parsed ahead, it resumes after this many "
+            + "rows were read. Smaller values reduce the latency of the first rows, larger values reduce the "
+            + "synchronization overhead.");
+    
+    /**
+     * Whether readers return the same instance for equal cell texts, see
+     * {@link ExcelSheetReader#setStringDictionary(boolean)}.
+     */
+    public static final @NonNull Setting<@NonNull Boolean> STRING_DICTIONARY = new Setting<>(
+            "io.excel.string_dictionary", Type.BOOLEAN, true, "false", "Whether the readers of Excel sheets return "
+            + "the same String instance for all cells with the same text. This reduces the memory needed to keep the "
+            + "rows of sheets with many repeated values.");
+    
+    /**
+     * The maximum time that {@link #close()} waits for open sheet writers.
+     */
+    public static final @NonNull Setting<@NonNull Integer> CLOSE_TIMEOUT = new Setting<>(
+            "io.excel.close_timeout", Type.INTEGER, true, "5000", "Maximum time in milliseconds that closing an Excel "
+            + "workbook waits for sheet writers, which are still open. Closing continues as soon as the last writer "
+            + "is closed. Writers that are still open after this time are closed by the workbook; they reject "
+            + "further rows. 0 doesn't wait, a negative value waits without limit.");
+    
+    private static int parallelReadThreads = 1;
+    
+    private static int parallelWriteThreads = 1;
+    
+    private static int prefetchRows = 0;
+    
+    private static int prefetchBatchRows = 256;
+    
+    private static boolean directXlsxWriter = false;
+    
+    private static int closeTimeout = 5000;
+    
+    private static boolean sidecarIndex = false;
+    
+    private static boolean transcodeCache = false;
+    
+    private static boolean offHeapSharedStrings = false;
+    
+    private static boolean stringDictionary = false;
+    
+    private static boolean formulaResults = false;
+    
+    /**
+     * The thread pool for parsing sheets in parallel. Created on first use, shared by all books.
+     */
+    private static @Nullable ExecutorService parallelReadExecutor;
+    
+    /**
+     * The thread pool for deflating sheets in parallel. Created on first use, shared by all books.
+     */
+    private static @Nullable ExecutorService parallelWriteExecutor;
+    
     /**
      * The read/write mode to open an {@link ExcelBook} with.
      */
@@ -87,13 +241,71 @@ public class ExcelBook implements ITableCollection {
         // Existing workbook, which shall not be changed
         READ_ONLY,
         
+        // Existing workbook, which shall not be changed; sheets are parsed while they are read
+        READ_STREAMING,
+        
         // New workbook, read (temporary) data and add new data
-        WRITE_NEW_WB;
+        WRITE_NEW_WB,
+        
+        // New XLSX workbook, which is written directly as SpreadsheetML; can't be read before it is closed
+        WRITE_DIRECT;
     }
     
     private static final Logger LOGGER = Logger.get();
     
     private Workbook wb;
+    
+    /**
+     * The opened XLSX package in {@link Mode#READ_STREAMING}, <code>null</code> in all other modes and for XLS files.
+     */
+    private @Nullable OPCPackage pkg;
+    
+    /**
+     * The sheets of the workbook in {@link Mode#READ_STREAMING}, <code>null</code> in all other modes.
+     */
+    private @Nullable WorkbookCatalog catalog;
+    
+    /**
+     * The index file of the XLSX workbook in {@link Mode#READ_STREAMING}, if {@link #SIDECAR_INDEX} is enabled.
+     * Written when this book is closed.
+     */
+    private @Nullable SidecarIndex sidecar;
+    
+    /**
+     * The sheets read from cache files in {@link Mode#READ_STREAMING}, if {@link #TRANSCODE_CACHE} is enabled. An
+     * element is <code>null</code> until the sheet is read for the first time; sheets that can't be cached are stored
+     * as their original source.
+     */
+    private @Nullable SheetSource @Nullable [] cachedSheets;
+    
+    /**
+     * The key of the current state of the {@link #destinationFile}, see {@link #getWorkbookKey()}.
+     */
+    private byte @Nullable [] workbookKey;
+    
+    private boolean workbookKeyComputed;
+    
+    /**
+     * The evaluator for formulas without a cached result, shared by all readers. Created on first use; not used for
+     * new workbooks, which are still written.
+     */
+    private @Nullable FormulaResultCache formulaResultCache;
+    
+    /**
+     * The writer of the workbook in {@link Mode#WRITE_DIRECT}, <code>null</code> in all other modes.
+     */
+    private @Nullable XlsxStreamWriter directWriter;
+    
+    /**
+     * Whether {@link #close()} was called. Guarded by this book.
+     */
+    private boolean closing;
+    
+    /**
+     * Whether {@link #close()} is complete. Guarded by this book.
+     */
+    private boolean closed;
+    
     private CellStyle headerStyle = null;
     private POIXMLProperties.CoreProperties wbProperties = null;
     
@@ -125,24 +337,52 @@ public class ExcelBook implements ITableCollection {
      * @throws IOException if an error occurs while reading the data
      */
     public ExcelBook(@NonNull File destinationFile, boolean ignoreEmptyRows) throws IOException {
+        this(destinationFile, ignoreEmptyRows, true);
+    }
+    
+    /**
+     * Constructor for reading and writing a Excel documents (XLSX, XLS).
+     * The third parameter may be used to specify whether existing documents shall be streamed. In streaming
+     * mode, only the sheet catalog is read when the book is opened; the sheets are parsed while their rows are read,
+     * which keeps the memory consumption independent of the size of the sheets. Otherwise, the complete workbook is
+     * loaded into memory. Encrypted documents and XLS documents older than Excel 97 are always loaded completely.
+     * 
+     * @param destinationFile An Excel document, which shall be parsed (if existing) or be written (if not existing).
+     * @param ignoreEmptyRows <tt>true</tt> empty rows will be skipped, <tt>false</tt> all lines will be read.
+     * @param streaming <tt>true</tt> existing documents are parsed while reading, <tt>false</tt> they are
+     *     completely loaded into memory.
+     * 
+     * @throws IOException if an error occurs while reading the data
+     */
+    public ExcelBook(@NonNull File destinationFile, boolean ignoreEmptyRows, boolean streaming) throws IOException {
         
         this.ignoreEmptyRows = ignoreEmptyRows;
         this.destinationFile = destinationFile;
         openWriters = new HashSet<>();
         if (!destinationFile.exists()) {
             if (destinationFile.createNewFile()) {
-                mode = Mode.WRITE_NEW_WB;
-                SXSSFWorkbook wb = new SXSSFWorkbook(ROW_WINDOW_SIZE); 
-                wb.setCompressTempFiles(true);
-                this.wb = wb;
-                
-                POIXMLProperties xmlProps = wb.getXSSFWorkbook().getProperties();  
-                wbProperties = xmlProps.getCoreProperties();
-                wbProperties.setCreator("KernelHaven");
+                if (isDirectXlsxWriter() && destinationFile.getName().toLowerCase().endsWith(".xlsx")) {
+                    mode = Mode.WRITE_DIRECT;
+                    directWriter = new XlsxStreamWriter(destinationFile);
+                } else {
+                    mode = Mode.WRITE_NEW_WB;
+                    SXSSFWorkbook wb = new SXSSFWorkbook(ROW_WINDOW_SIZE); 
+                    wb.setCompressTempFiles(true);
+                    this.wb = wb;
+                    
+                    POIXMLProperties xmlProps = wb.getXSSFWorkbook().getProperties();  
+                    wbProperties = xmlProps.getCoreProperties();
+                    wbProperties.setCreator("KernelHaven");
+                }
             } else {
                 throw new IOException("Specified file does not exist and could not be created: "
                     + destinationFile.getAbsolutePath());
             }
+        } else if (streaming && openStreaming()) {
+            mode = Mode.READ_STREAMING;
+            if (isTranscodeCache()) {
+                cachedSheets = new SheetSource[notNull(catalog).getSheets().size()];
+            }
         } else {
             try {
                 mode = Mode.READ_ONLY;
@@ -156,16 +396,246 @@ public class ExcelBook implements ITableCollection {
         }
     }
     
+    /**
+     * Opens the {@link #destinationFile} for streaming and collects its sheets. Does not parse any sheet data.
+     * 
+     * @return <code>true</code> if the file was opened for streaming, <code>false</code> if the file has to be
+     *     loaded completely (e.g. because it is encrypted).
+     * 
+     * @throws IOException If the file is not a valid Excel document.
+     */
+    private boolean openStreaming() throws IOException {
+        FileMagic magic;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(destinationFile))) {
+            magic = FileMagic.valueOf(in);
+        }
+        
+        boolean result;
+        switch (magic) {
+        case OOXML:
+            openStreamingXlsx();
+            result = true;
+            break;
+            
+        case OLE2:
+            result = openStreamingXls();
+            break;
+        
+        default:
+            // let WorkbookFactory decide how to handle this
+            result = false;
+            break;
+        }
+        return result;
+    }
+    
+    /**
+     * Opens the XLSX package of the {@link #destinationFile} for streaming and reads its sheet catalog. Only the
+     * workbook part is parsed, see {@link WorkbookCatalog#readXlsx(OPCPackage, boolean)}. If {@link #SIDECAR_INDEX} is
+     * enabled and the index file of the workbook is up to date, the catalog is read from the index file instead.
+     * 
+     * @throws IOException If the file is not a valid XLSX document.
+     */
+    private void openStreamingXlsx() throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(destinationFile, PackageAccess.READ);
+        } catch (InvalidFormatException | OpenXML4JRuntimeException | IllegalArgumentException
+                | IllegalStateException e) {
+            throw new IOException("Can't open existing workbook", e);
+        }
+        
+        try {
+            SidecarIndex sidecar = isSidecarIndex() ? openSidecar() : null;
+            boolean offHeap = isOffHeapSharedStrings();
+            WorkbookCatalog catalog = sidecar != null ? sidecar.read(notNull(pkg), offHeap) : null;
+            if (catalog == null) {
+                catalog = WorkbookCatalog.readXlsx(notNull(pkg), offHeap);
+            }
+            this.catalog = catalog;
+            this.sidecar = sidecar;
+        } catch (IOException e) {
+            pkg.revert();
+            throw e;
+        } catch (OpenXML4JRuntimeException | IllegalArgumentException | IllegalStateException e) {
+            pkg.revert();
+            throw new IOException("Can't open existing workbook", e);
+        }
+        this.pkg = pkg;
+    }
+    
+    /**
+     * Creates the index file of the {@link #destinationFile}.
+     * 
+     * @return The index file, <code>null</code> if the key of the workbook can't be computed.
+     */
+    private @Nullable SidecarIndex openSidecar() {
+        byte[] key = getWorkbookKey();
+        return key != null ? new SidecarIndex(destinationFile, key) : null;
+    }
+    
+    /**
+     * Returns the key of the current state of the {@link #destinationFile}, which identifies the index and cache
+     * files that were created for this state. Computed on first use.
+     * 
+     * @return The key, <code>null</code> if it can't be computed.
+     */
+    private synchronized byte @Nullable [] getWorkbookKey() {
+        if (!workbookKeyComputed) {
+            workbookKeyComputed = true;
+            try {
+                workbookKey = SidecarIndex.computeKey(destinationFile);
+            } catch (IOException e) {
+                LOGGER.logWarning("Can't use index or cache files for " + destinationFile + ": " + e.getMessage());
+            }
+        }
+        return workbookKey;
+    }
+    
+    /**
+     * Returns the source to read the given sheet from. If {@link #TRANSCODE_CACHE} is enabled, this is the cache file
+     * of the sheet; the sheet is transcoded into the cache file if it does not exist or is outdated.
+     * 
+     * @param index The 0-based index of the sheet.
+     * @param sheet The source of the sheet in the workbook.
+     * @return The source to read the sheet from.
+     */
+    private @NonNull SheetSource getCachedSheet(int index, @NonNull SheetSource sheet) {
+        SheetSource @Nullable [] cachedSheets = this.cachedSheets;
+        SheetSource result = sheet;
+        if (cachedSheets != null) {
+            // transcoding a sheet only blocks readers of the same sheet
+            synchronized (sheet) {
+                result = cachedSheets[index];
+                if (result == null) {
+                    result = openCachedSheet(index, sheet);
+                    cachedSheets[index] = result;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Opens the cache file of the given sheet. Transcodes the sheet if the cache file does not exist or is
+     * outdated.
+     * 
+     * @param index The 0-based index of the sheet.
+     * @param sheet The source of the sheet in the workbook.
+     * @return The source for the cache file, or the given source if the sheet can't be cached.
+     */
+    private @NonNull SheetSource openCachedSheet(int index, @NonNull SheetSource sheet) {
+        SheetSource result = sheet;
+        byte[] key = getWorkbookKey();
+        if (key != null) {
+            File file = ColumnarSheetWriter.getFile(destinationFile, index);
+            ColumnarSheetSource cached = ColumnarSheetSource.open(sheet.getName(), file, key);
+            // a sheet, which is too large for a cache file, is not parsed again for the same workbook
+            if (cached == null && !ColumnarSheetWriter.isTooLarge(file, key)) {
+                try {
+                    ColumnarSheetWriter.write(sheet, file, key);
+                    cached = ColumnarSheetSource.open(sheet.getName(), file, key);
+                } catch (IOException e) {
+                    LOGGER.logWarning("Can't write cache file for sheet " + sheet.getName() + " of "
+                            + destinationFile + ": " + e.getMessage());
+                }
+            }
+            if (cached != null) {
+                result = cached;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the source to read the given streamed sheet from. If {@link #PREFETCH_ROWS} is enabled, this is a
+     * source that parses the sheet ahead on a producer thread.
+     * 
+     * @param sheet The source of the streamed sheet.
+     * @return The source to read the sheet from.
+     */
+    private static synchronized @NonNull SheetSource getPrefetchSheet(@NonNull SheetSource sheet) {
+        SheetSource result = sheet;
+        // cached sheets are read without parsing, thus there is nothing to parse ahead
+        if (prefetchRows > 0 && !(sheet instanceof ColumnarSheetSource)) {
+            result = new PrefetchSheetSource(sheet, prefetchRows, prefetchBatchRows);
+        }
+        return result;
+    }
+    
+    /**
+     * Reads the globals of the XLS {@link #destinationFile} and collects its sheets.
+     * 
+     * @return <code>true</code> if the file can be streamed, <code>false</code> if it is encrypted or not a
+     *     BIFF8 (Excel 97 or later) workbook.
+     * 
+     * @throws IOException If the file is not a valid XLS document.
+     */
+    private boolean openStreamingXls() throws IOException {
+        XlsGlobals globals;
+        try {
+            globals = XlsGlobals.open(destinationFile);
+        } catch (RuntimeException e) {
+            // POI signals malformed records with different runtime exceptions
+            throw new IOException("Can't open existing workbook", e);
+        }
+        
+        if (globals != null) {
+            catalog = new WorkbookCatalog(globals.getSheets());
+        }
+        return globals != null;
+    }
+    
+    /**
+     * Returns the sources for all sheets in this book.
+     * 
+     * @return The sheets of this book, in the order of the workbook.
+     */
+    private @NonNull List<@NonNull SheetSource> getSheetSources() {
+        WorkbookCatalog catalog = this.catalog;
+        List<@NonNull SheetSource> result;
+        if (catalog != null) {
+            // the catalog is not modified after opening, thus no locking is required
+            result = catalog.getSheets();
+        } else {
+            checkReadable();
+            result = new ArrayList<>();
+            synchronized (this) {
+                for (Sheet sheet : wb) {
+                    result.add(new PoiSheetSource(notNull(sheet)));
+                }
+            }
+        }
+        return result;
+    }
+    
     /**
      * Returns {@link ExcelSheetReader}s for all sheets in this book.
+     * <p>
+     * If {@link #PARALLEL_READ_THREADS} is larger than 1 and this book is streamed, the sheets are parsed in
+     * parallel on a thread pool and kept in memory. The returned readers wait until their sheet is parsed, thus
+     * the first sheets can be read while the others are still parsed.
+     * <p>
+     * If {@link #TRANSCODE_CACHE} is enabled and this book is streamed, all sheets are transcoded into their cache
+     * files (if not done before) and read from them. Otherwise, if {@link #PREFETCH_ROWS} is enabled, the streamed
+     * sheets are parsed ahead on a producer thread while they are read.
      * 
      * @return Readers for all sheets of the Excel document.
      */
-    public synchronized @NonNull List<@NonNull ExcelSheetReader> getAllSheetReaders() {
-        List<@NonNull ExcelSheetReader> result = new ArrayList<>();
+    public @NonNull List<@NonNull ExcelSheetReader> getAllSheetReaders() {
+        List<@NonNull SheetSource> sheets = getSheetSources();
+        ExecutorService executor = (catalog != null && sheets.size() > 1) ? getParallelReadExecutor() : null;
         
-        for (Sheet sheet : wb) {
-            result.add(new ExcelSheetReader(notNull(sheet), ignoreEmptyRows));
+        List<@NonNull ExcelSheetReader> result = new ArrayList<>();
+        for (int i = 0; i < sheets.size(); i++) {
+            SheetSource sheet = getCachedSheet(i, notNull(sheets.get(i)));
+            // cached sheets are read without parsing, thus there is nothing to do in parallel
+            if (executor != null && !(sheet instanceof ColumnarSheetSource)) {
+                sheet = new BufferedSheetSource(sheet, executor);
+            } else {
+                sheet = getPrefetchSheet(sheet);
+            }
+            result.add(createReader(sheet));
         }
         
         return result;
@@ -179,47 +649,142 @@ public class ExcelBook implements ITableCollection {
      * 
      * @throws IllegalArgumentException if the index is out of range (index
      *            &lt; 0 || index &gt;= getNumberOfSheets()).
+     * @throws UnsupportedOperationException If this book is written directly, see {@link #DIRECT_XLSX_WRITER}.
      */
-    public synchronized @NonNull ExcelSheetReader getReader(int index) {
-        Sheet sheet = notNull(wb.getSheetAt(index));
+    public @NonNull ExcelSheetReader getReader(int index) {
+        WorkbookCatalog catalog = this.catalog;
+        SheetSource sheet;
+        if (catalog != null) {
+            sheet = getPrefetchSheet(getCachedSheet(index, catalog.getSheet(index)));
+        } else {
+            checkReadable();
+            synchronized (this) {
+                sheet = new PoiSheetSource(notNull(wb.getSheetAt(index)));
+            }
+        }
         
-        return new ExcelSheetReader(sheet, ignoreEmptyRows);
+        return createReader(sheet);
+    }
+    
+    /**
+     * Checks that the sheets of this book can be read.
+     * 
+     * @throws UnsupportedOperationException If this book is written directly, see {@link #DIRECT_XLSX_WRITER}.
+     */
+    private void checkReadable() throws UnsupportedOperationException {
+        if (mode == Mode.WRITE_DIRECT) {
+            throw new UnsupportedOperationException("Workbook is written directly and can't be read before it is "
+                + "closed: " + destinationFile.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * Creates a reader for the given sheet.
+     * 
+     * @param sheet The sheet to read.
+     * @return A new reader, configured by the settings of this class.
+     */
+    private @NonNull ExcelSheetReader createReader(@NonNull SheetSource sheet) {
+        ExcelSheetReader result = new ExcelSheetReader(sheet, ignoreEmptyRows);
+        result.setStringDictionary(isStringDictionary());
+        result.setFormulaResults(isFormulaResults());
+        result.setFormulaResultCache(getFormulaResultCache());
+        return result;
+    }
+    
+    /**
+     * Returns the evaluator for formulas without a cached result, see
+     * {@link ExcelSheetReader#setFormulaResults(boolean)}. The evaluator is created on the first call; the workbook
+     * is only loaded when the first formula is evaluated.
+     * 
+     * @return The evaluator shared by all readers of this book, <code>null</code> if this book is a new workbook,
+     *      which is still written.
+     */
+    private synchronized @Nullable FormulaResultCache getFormulaResultCache() {
+        FormulaResultCache result = this.formulaResultCache;
+        if (result == null && mode != Mode.WRITE_NEW_WB && mode != Mode.WRITE_DIRECT) {
+            Workbook wb = this.wb;
+            result = wb != null ? new FormulaResultCache(wb) : new FormulaResultCache(destinationFile);
+            this.formulaResultCache = result;
+        }
+        return result;
     }
     
     @Override
-    public synchronized @NonNull Set<@NonNull String> getTableNames() throws IOException {
+    public @NonNull Set<@NonNull String> getTableNames() throws IOException {
         Set<@NonNull String> result = new HashSet<>();
         
-        for (Sheet sheet : wb) {
-            result.add(notNull(sheet.getSheetName()));
+        XlsxStreamWriter directWriter = this.directWriter;
+        if (directWriter != null) {
+            result.addAll(directWriter.getSheetNames());
+        } else {
+            for (SheetSource sheet : getSheetSources()) {
+                result.add(sheet.getName());
+            }
         }
         
         return result;
     }
     
-    @Override
-    public synchronized @NonNull ExcelSheetReader getReader(@NonNull String name) throws IOException {
-        ExcelSheetReader result = null;
-        for (Sheet sheet : wb) {
-            if (sheet.getSheetName().equals(name)) {
-                result = new ExcelSheetReader(sheet, ignoreEmptyRows);
-                break;
+    /**
+     * Returns the index of the sheet with the given name. The name must match exactly (case sensitive), in all modes.
+     * For streamed workbooks, this is a lookup in the sheet catalog; no sheet is parsed.
+     * 
+     * @param name The name of the sheet.
+     * @return The 0-based index of the sheet, or -1 if this book does not contain a sheet with the given name.
+     */
+    public int getSheetIndex(@NonNull String name) {
+        WorkbookCatalog catalog = this.catalog;
+        int result = -1;
+        XlsxStreamWriter directWriter = this.directWriter;
+        if (catalog != null) {
+            result = catalog.getIndex(name);
+        } else if (directWriter != null) {
+            List<@NonNull String> names = directWriter.getSheetNames();
+            for (int i = 0; i < names.size() && result == -1; i++) {
+                if (names.get(i).equals(name)) {
+                    result = i;
+                }
+            }
+        } else {
+            // Workbook.getSheetIndex(String) ignores the case
+            synchronized (this) {
+                for (int i = 0; i < wb.getNumberOfSheets() && result == -1; i++) {
+                    if (wb.getSheetName(i).equals(name)) {
+                        result = i;
+                    }
+                }
             }
         }
-        
-        if (result == null) {
+        return result;
+    }
+    
+    @Override
+    public @NonNull ExcelSheetReader getReader(@NonNull String name) throws IOException {
+        int index = getSheetIndex(name);
+        if (index == -1) {
             throw new IOException("Workbook does not contain a sheet with name " + name);
         }
         
-        return result;
+        return getReader(index);
     }
 
     @Override
     public synchronized @NonNull ExcelSheetWriter getWriter(@NonNull String name) throws IOException {
+        if (closing) {
+            throw new IOException("Workbook is already closed: " + destinationFile.getAbsolutePath());
+        }
         switch (mode) {
         case READ_ONLY:
+            // falls through
+        case READ_STREAMING:
             throw new UnsupportedOperationException("Sheet was oppened in read only mode: "
                 + destinationFile.getAbsolutePath());
+        case WRITE_DIRECT:
+            ExcelSheetWriter directSheetWriter = new ExcelSheetWriter(this,
+                    notNull(directWriter).createSheet(WorkbookUtil.createSafeSheetName(name)));
+            openWriters.add(directSheetWriter);
+            return directSheetWriter;
         case WRITE_NEW_WB:
             // falls through
         default:
@@ -252,22 +817,103 @@ public class ExcelBook implements ITableCollection {
                 throw new IOException("Could not create sheet \"" + safeName + "\"" + cause);
             }
             
-            ExcelSheetWriter writer = new ExcelSheetWriter(this, sheet);
+            ExcelSheetWriter writer = new ExcelSheetWriter(this, sheet, getHeaderStyle());
             openWriters.add(writer);
             return writer;
         }
     }
     
+    /**
+     * Closes this book. Waits until all sheet writers are closed, but at most for {@link #CLOSE_TIMEOUT}; the book
+     * isn't locked while waiting. If this book is closed by another thread already, waits until that is done.
+     */
     @Override
     public synchronized void close() throws IOException {
-        closingLoop();
+        if (closing) {
+            awaitClosed();
+        } else {
+            closing = true;
+            try {
+                closeBook();
+            } finally {
+                closed = true;
+                notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Closes this book on a new thread, see {@link #close()}.
+     * 
+     * @return The future, which is completed when the book is closed. Completed exceptionally, if closing fails.
+     */
+    public @NonNull CompletableFuture<Void> closeAsync() {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                close();
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }, "ExcelBook-Close");
+        thread.start();
+        return result;
+    }
+    
+    /**
+     * Waits until another thread has closed this book. Must be called while holding the lock of this book.
+     */
+    private void awaitClosed() {
+        boolean interrupted = false;
+        while (!closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Closes this book, after the open sheet writers.
+     * 
+     * @throws IOException If writing the workbook fails.
+     */
+    private void closeBook() throws IOException {
+        closeWriters();
         write();
         
         if (mode == Mode.WRITE_NEW_WB) {
             ((SXSSFWorkbook) wb).dispose();
         }
         
-        wb.close();
+        FormulaResultCache formulaResultCache = this.formulaResultCache;
+        if (formulaResultCache != null) {
+            formulaResultCache.close();
+        }
+        if (wb != null) {
+            wb.close();
+        }
+        SidecarIndex sidecar = this.sidecar;
+        WorkbookCatalog catalog = this.catalog;
+        if (sidecar != null && catalog != null) {
+            // store what was computed while the book was open, for the next time it is opened
+            try {
+                sidecar.write(catalog);
+            } catch (IOException e) {
+                LOGGER.logWarning("Can't write index file for " + destinationFile + ": " + e.getMessage());
+            }
+        }
+        
+        OPCPackage pkg = this.pkg;
+        if (pkg != null) {
+            // the package was opened read-only, thus there is nothing to save
+            pkg.revert();
+        }
     }
 
     @Override
@@ -283,7 +929,7 @@ public class ExcelBook implements ITableCollection {
      *     or <tt>null</tt> if this workbook was opened in read only mode.
      */
     synchronized @Nullable CellStyle getHeaderStyle() {
-        if (null == headerStyle && mode != Mode.READ_ONLY) {
+        if (null == headerStyle && mode == Mode.WRITE_NEW_WB) {
             headerStyle = wb.createCellStyle();
             Font font = wb.createFont();
             font.setBold(true);
@@ -301,9 +947,23 @@ public class ExcelBook implements ITableCollection {
      *     be created, or cannot be opened for any other reason, or if anything could not be written
      * @throws IllegalStateException If a future version of this class does not consider all possible states
      */
-    synchronized void closeWriter(@NonNull ExcelSheetWriter writer) throws IOException, IllegalStateException {
-        openWriters.remove(writer);
-        // TODO: if we figure out whether we can flush the streaming workbook, do it here
+    void closeWriter(@NonNull ExcelSheetWriter writer) throws IOException, IllegalStateException {
+        SheetStream stream = writer.getStream();
+        try {
+            if (stream != null) {
+                // completes the sheet in the file and lets the next sheet stream into the file; the stream writer has
+                // its own lock, thus the other sheets of this book can still be opened and closed meanwhile
+                notNull(directWriter).closeSheet(stream);
+            }
+            // sheets of POI workbooks keep their last rows in memory, so that they can be read until the book is
+            // closed
+        } finally {
+            synchronized (this) {
+                openWriters.remove(writer);
+                // wakes up close(), which waits for the last writer; only after its sheet is complete
+                notifyAll();
+            }
+        }
     }
 
     /**
@@ -315,6 +975,14 @@ public class ExcelBook implements ITableCollection {
      */
     private void write() throws IOException, IllegalStateException {
         switch (mode) {
+        case WRITE_DIRECT:
+            XlsxStreamWriter directWriter = notNull(this.directWriter);
+            List<@NonNull String> names = directWriter.getSheetNames();
+            if (!directWriter.close(names.isEmpty() ? null : createTitle(notNull(names.get(0))))) {
+                // opening the workbook created an empty file; delete it, since we have no data to write
+                destinationFile.delete();
+            }
+            break;
         case WRITE_NEW_WB:
             // check that there are sheets; if not, then no data was written and we do not create this book
             if (wb.getNumberOfSheets() > 0) {
@@ -322,20 +990,15 @@ public class ExcelBook implements ITableCollection {
                 BufferedOutputStream fileOut = new BufferedOutputStream(new FileOutputStream(destinationFile));
                 
                 if (null != wbProperties) {
-                    String dateOfToday = null;
-                    try {
-                        Date date = Calendar.getInstance().getTime();
-                        SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
-                        dateOfToday = sdf.format(date);
-                    } catch (NumberFormatException | NullPointerException exc) {
-                        LOGGER.logException("Could not determine date of today", exc);
-                    }
-                    // First sheet is usually named after the most relevant analysis
-                    String title = (null != dateOfToday) ? wb.getSheetName(0) + " " + dateOfToday : wb.getSheetName(0);
-                    wbProperties.setTitle(title);
+                    wbProperties.setTitle(createTitle(notNull(wb.getSheetName(0))));
                 }
                 
-                wb.write(fileOut);
+                ExecutorService executor = wb.getNumberOfSheets() > 1 ? getParallelWriteExecutor() : null;
+                if (executor != null) {
+                    XlsxAssembler.write((SXSSFWorkbook) wb, fileOut, executor);
+                } else {
+                    wb.write(fileOut);
+                }
                 fileOut.close();
             } else {
                 // opening the workbook created an empty file; delete it, since we have no data to write
@@ -344,6 +1007,7 @@ public class ExcelBook implements ITableCollection {
             
             // falls through
         case READ_ONLY:
+        case READ_STREAMING:
             break;
         default:
             // Should not happen, this is only to ensure that future versions consider all states.
@@ -352,39 +1016,327 @@ public class ExcelBook implements ITableCollection {
     }
     
     /**
-     * Will wait for open writers 5 seconds until it will close all writers.
-     * Will also suppress but log all exceptions to avoid crashing of whole Workbook.
+     * Creates the title of a new workbook.
+     * 
+     * @param firstSheet The name of the first sheet.
+     * @return The title: the name of the first sheet and the date of today.
+     */
+    private static @NonNull String createTitle(@NonNull String firstSheet) {
+        String dateOfToday = null;
+        try {
+            Date date = Calendar.getInstance().getTime();
+            SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
+            dateOfToday = sdf.format(date);
+        } catch (NumberFormatException | NullPointerException exc) {
+            LOGGER.logException("Could not determine date of today", exc);
+        }
+        // First sheet is usually named after the most relevant analysis
+        return (null != dateOfToday) ? firstSheet + " " + dateOfToday : firstSheet;
+    }
+    
+    /**
+     * Waits until all open writers are closed, but at most for {@link #CLOSE_TIMEOUT}. Afterwards, closes the
+     * remaining writers; these reject further rows. Must be called while holding the lock of this book, which is
+     * released while waiting, so that writers can be closed.
      */
-    private void closingLoop() {
+    private void closeWriters() {
         // Wait for open writers, maybe they still receive data.
-        int attemptNo = 0;
-        while (!openWriters.isEmpty() && attemptNo < 5) {
+        int timeout = getCloseTimeout();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean interrupted = false;
+        boolean waiting = !openWriters.isEmpty() && timeout != 0;
+        while (waiting) {
             try {
-                Thread.sleep(1000);
+                if (timeout < 0) {
+                    wait();
+                } else {
+                    TimeUnit.NANOSECONDS.timedWait(this, deadline - System.nanoTime());
+                }
             } catch (InterruptedException e) {
-                LOGGER.logWarning("Error while ExcelBook is waiting for its sheets: " + e.getMessage());
+                LOGGER.logWarning("Interrupted while ExcelBook is waiting for its sheets: " + e.getMessage());
+                interrupted = true;
             }
-            attemptNo++;
+            waiting = !openWriters.isEmpty() && !interrupted && (timeout < 0 || deadline - System.nanoTime() > 0);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
         
-        // Close open writers
-        List<@NonNull ExcelSheetWriter> tmp = new ArrayList<>(openWriters);
-        for (ExcelSheetWriter excelSheetWriter : tmp) {
-            try {
-                closeWriter(excelSheetWriter);
-            } catch (IOException e) {
-                LOGGER.logError("Error while writing sheet: " + e.getMessage());
+        // Close open writers; this waits until their current rows are written
+        for (ExcelSheetWriter excelSheetWriter : openWriters) {
+            excelSheetWriter.markClosed();
+        }
+        openWriters.clear();
+    }
+    
+    /**
+     * Returns the thread pool for parsing sheets in parallel.
+     * 
+     * @return The thread pool, or <code>null</code> if sheets should not be parsed in parallel.
+     */
+    private static synchronized @Nullable ExecutorService getParallelReadExecutor() {
+        ExecutorService result = parallelReadExecutor;
+        if (result == null && parallelReadThreads > 1) {
+            result = Executors.newFixedThreadPool(parallelReadThreads, (runnable) -> {
+                Thread thread = new Thread(runnable, "ExcelBook-SheetParser");
+                // don't keep the JVM alive only for idle parser threads
+                thread.setDaemon(true);
+                return thread;
+            });
+            parallelReadExecutor = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Sets the number of threads that parse sheets in parallel, see {@link #PARALLEL_READ_THREADS}.
+     * 
+     * @param threads The number of threads; 1 or less disables parallel parsing.
+     */
+    static synchronized void setParallelReadThreads(int threads) {
+        if (threads != parallelReadThreads) {
+            ExecutorService executor = parallelReadExecutor;
+            if (executor != null) {
+                // already submitted sheets are still parsed
+                executor.shutdown();
+                parallelReadExecutor = null;
             }
+            parallelReadThreads = threads;
+        }
+    }
+    
+    /**
+     * Returns the thread pool for deflating sheets in parallel.
+     * 
+     * @return The thread pool, or <code>null</code> if sheets should not be deflated in parallel.
+     */
+    private static synchronized @Nullable ExecutorService getParallelWriteExecutor() {
+        ExecutorService result = parallelWriteExecutor;
+        if (result == null && parallelWriteThreads > 1) {
+            result = Executors.newFixedThreadPool(parallelWriteThreads, (runnable) -> {
+                Thread thread = new Thread(runnable, "ExcelBook-SheetWriter");
+                // don't keep the JVM alive only for idle writer threads
+                thread.setDaemon(true);
+                return thread;
+            });
+            parallelWriteExecutor = result;
         }
+        return result;
+    }
+    
+    /**
+     * Sets the number of threads that deflate sheets in parallel, see {@link #PARALLEL_WRITE_THREADS}.
+     * 
+     * @param threads The number of threads; 1 or less disables parallel deflating.
+     */
+    static synchronized void setParallelWriteThreads(int threads) {
+        if (threads != parallelWriteThreads) {
+            ExecutorService executor = parallelWriteExecutor;
+            if (executor != null) {
+                // already submitted sheets are still deflated
+                executor.shutdown();
+                parallelWriteExecutor = null;
+            }
+            parallelWriteThreads = threads;
+        }
+    }
+    
+    /**
+     * Sets the number of rows that are parsed ahead, see {@link #PREFETCH_ROWS}. Only affects readers that are created
+     * afterwards.
+     * 
+     * @param rows The number of rows; 0 or less disables parsing ahead.
+     */
+    static synchronized void setPrefetchRows(int rows) {
+        prefetchRows = rows;
+    }
+    
+    /**
+     * Sets the number of rows that are passed from the producer thread to the reader at once, see
+     * {@link #PREFETCH_BATCH_ROWS}. Only affects readers that are created afterwards.
+     * 
+     * @param rows The number of rows per batch.
+     */
+    static synchronized void setPrefetchBatchRows(int rows) {
+        prefetchBatchRows = rows;
+    }
+    
+    /**
+     * Returns the maximum time that {@link #close()} waits for open writers, see {@link #CLOSE_TIMEOUT}.
+     * 
+     * @return The timeout in milliseconds; 0 doesn't wait, a negative value waits without limit.
+     */
+    private static synchronized int getCloseTimeout() {
+        return closeTimeout;
+    }
+    
+    /**
+     * Sets the maximum time that {@link #close()} waits for open writers, see {@link #CLOSE_TIMEOUT}.
+     * 
+     * @param millis The timeout in milliseconds; 0 doesn't wait, a negative value waits without limit.
+     */
+    static synchronized void setCloseTimeout(int millis) {
+        closeTimeout = millis;
+    }
+    
+    /**
+     * Returns whether new XLSX workbooks are written directly, see {@link #DIRECT_XLSX_WRITER}.
+     * 
+     * @return Whether new XLSX workbooks are written directly.
+     */
+    private static synchronized boolean isDirectXlsxWriter() {
+        return directXlsxWriter;
+    }
+    
+    /**
+     * Sets whether new XLSX workbooks are written directly, see {@link #DIRECT_XLSX_WRITER}. Only affects books that
+     * are created afterwards.
+     * 
+     * @param enabled Whether new XLSX workbooks are written directly.
+     */
+    static synchronized void setDirectXlsxWriter(boolean enabled) {
+        directXlsxWriter = enabled;
+    }
+    
+    /**
+     * Returns whether streamed XLSX workbooks use an index file, see {@link #SIDECAR_INDEX}.
+     * 
+     * @return Whether the index file is used.
+     */
+    private static synchronized boolean isSidecarIndex() {
+        return sidecarIndex;
+    }
+    
+    /**
+     * Sets whether streamed XLSX workbooks use an index file, see {@link #SIDECAR_INDEX}. Only affects books that
+     * are opened afterwards.
+     * 
+     * @param enabled Whether the index file is used.
+     */
+    static synchronized void setSidecarIndex(boolean enabled) {
+        sidecarIndex = enabled;
+    }
+    
+    /**
+     * Returns whether the sheets of streamed workbooks are transcoded into cache files, see
+     * {@link #TRANSCODE_CACHE}.
+     * 
+     * @return Whether the cache files are used.
+     */
+    private static synchronized boolean isTranscodeCache() {
+        return transcodeCache;
+    }
+    
+    /**
+     * Sets whether the sheets of streamed workbooks are transcoded into cache files, see {@link #TRANSCODE_CACHE}.
+     * Only affects books that are opened afterwards.
+     * 
+     * @param enabled Whether the cache files are used.
+     */
+    static synchronized void setTranscodeCache(boolean enabled) {
+        transcodeCache = enabled;
+    }
+    
+    /**
+     * Returns whether readers return the results of formula cells, see {@link #FORMULA_RESULTS}.
+     * 
+     * @return Whether formula results are read.
+     */
+    private static synchronized boolean isFormulaResults() {
+        return formulaResults;
+    }
+    
+    /**
+     * Sets whether readers return the results of formula cells, see {@link #FORMULA_RESULTS}. Only affects readers
+     * that are created afterwards.
+     * 
+     * @param enabled Whether formula results are read.
+     */
+    static synchronized void setFormulaResults(boolean enabled) {
+        formulaResults = enabled;
+    }
+    
+    /**
+     * Returns whether the shared strings table of streamed XLSX workbooks is kept off the heap, see
+     * {@link #OFF_HEAP_SHARED_STRINGS}.
+     * 
+     * @return Whether the shared strings are kept off the heap.
+     */
+    private static synchronized boolean isOffHeapSharedStrings() {
+        return offHeapSharedStrings;
+    }
+    
+    /**
+     * Sets whether the shared strings table of streamed XLSX workbooks is kept off the heap, see
+     * {@link #OFF_HEAP_SHARED_STRINGS}. Only affects books that are opened afterwards.
+     * 
+     * @param enabled Whether the shared strings are kept off the heap.
+     */
+    static synchronized void setOffHeapSharedStrings(boolean enabled) {
+        offHeapSharedStrings = enabled;
+    }
+    
+    /**
+     * Returns whether readers return the same instance for equal cell texts, see {@link #STRING_DICTIONARY}.
+     * 
+     * @return Whether the readers use a dictionary.
+     */
+    private static synchronized boolean isStringDictionary() {
+        return stringDictionary;
+    }
+    
+    /**
+     * Sets whether readers return the same instance for equal cell texts, see {@link #STRING_DICTIONARY}. Only
+     * affects readers that are created afterwards.
+     * 
+     * @param enabled Whether the readers use a dictionary.
+     */
+    static synchronized void setStringDictionary(boolean enabled) {
+        stringDictionary = enabled;
     }
     
     /**
      * Initialization method called by KernelHaven. See loadClasses.txt
      * 
      * @param config The global pipeline configuration.
+     * 
+     * @throws SetUpException If the configuration is not valid.
      */
-    public static void initialize(@NonNull Configuration config) {
-        // everything already done in the static block
+    public static void initialize(@NonNull Configuration config) throws SetUpException {
+        // registering the handlers is already done in the static block
+        
+        config.registerSetting(PARALLEL_READ_THREADS);
+        setParallelReadThreads(config.getValue(PARALLEL_READ_THREADS));
+        
+        config.registerSetting(PARALLEL_WRITE_THREADS);
+        setParallelWriteThreads(config.getValue(PARALLEL_WRITE_THREADS));
+        
+        config.registerSetting(PREFETCH_ROWS);
+        setPrefetchRows(config.getValue(PREFETCH_ROWS));
+        
+        config.registerSetting(PREFETCH_BATCH_ROWS);
+        setPrefetchBatchRows(config.getValue(PREFETCH_BATCH_ROWS));
+        
+        config.registerSetting(STRING_DICTIONARY);
+        setStringDictionary(config.getValue(STRING_DICTIONARY));
+        
+        config.registerSetting(FORMULA_RESULTS);
+        setFormulaResults(config.getValue(FORMULA_RESULTS));
+        
+        config.registerSetting(CLOSE_TIMEOUT);
+        setCloseTimeout(config.getValue(CLOSE_TIMEOUT));
+        
+        config.registerSetting(DIRECT_XLSX_WRITER);
+        setDirectXlsxWriter(config.getValue(DIRECT_XLSX_WRITER));
+        
+        config.registerSetting(SIDECAR_INDEX);
+        setSidecarIndex(config.getValue(SIDECAR_INDEX));
+        
+        config.registerSetting(TRANSCODE_CACHE);
+        setTranscodeCache(config.getValue(TRANSCODE_CACHE));
+        
+        config.registerSetting(OFF_HEAP_SHARED_STRINGS);
+        setOffHeapSharedStrings(config.getValue(OFF_HEAP_SHARED_STRINGS));
     }
     
 }
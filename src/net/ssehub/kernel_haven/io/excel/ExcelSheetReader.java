@@ -18,17 +18,18 @@ package net.ssehub.kernel_haven.io.excel;
 import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 
 import net.ssehub.kernel_haven.util.io.ITableReader;
 import net.ssehub.kernel_haven.util.null_checks.NonNull;
@@ -43,7 +44,13 @@ import net.ssehub.kernel_haven.util.null_checks.Nullable;
  */
 public class ExcelSheetReader implements ITableReader {
 
-    private @NonNull Sheet sheet;
+    /**
+     * The minimum number of rows of a part of the {@link #spliterator()}. Smaller parts are not worth the overhead
+     * of starting to read at a new position.
+     */
+    private static final int MIN_SPLIT_ROWS = 1024;
+    
+    private @NonNull SheetSource source;
     
     private @NonNull String sheetName;
     
@@ -52,12 +59,17 @@ public class ExcelSheetReader implements ITableReader {
      */
     private @Nullable List<@NonNull Group> groupedRows;
     
+    /**
+     * Index over the {@link #groupedRows} for {@link #getRowGroups(int)}. <code>null</code> if not yet created.
+     */
+    private @Nullable GroupIndex groupIndex;
+    
     private boolean ignoreEmptyRows;
     
     /**
-     * Iterator for the rows in the sheet. Reset when {@link #close()} is called.
+     * Cursor over the rows in the sheet. Opened on the first read, closed and reset when {@link #close()} is called.
      */
-    private @NonNull Iterator<Row> rowIterator;
+    private @Nullable SheetCursor cursor;
     
     /**
      * The number of columns we expect. (read from the first row)
@@ -69,22 +81,81 @@ public class ExcelSheetReader implements ITableReader {
      */
     private int currentRowNumber;
     
+    /**
+     * The physical index of the current row, -1 if this reader is not positioned on a row.
+     */
+    private int currentRowIndex = -1;
+    
+    /**
+     * The cells of the current row, reused for all rows.
+     */
+    private @NonNull RowBuffer row = new RowBuffer();
+    
+    /**
+     * Computes the {@link #groupedRows} while the rows are read, if they are not known yet. <code>null</code> if the
+     * groups are known or the reading did not start at the first row.
+     */
+    private @Nullable GroupCollector groupCollector;
+    
+    /**
+     * The columns selected by {@link #selectColumns(int...)}, in the order of the returned rows. <code>null</code>
+     * if all columns are read.
+     */
+    private int @Nullable [] projection;
+    
+    /**
+     * The columns set by {@link #setRowFilter(int[], Predicate)}. <code>null</code> if all rows are read.
+     */
+    private int @Nullable [] filterColumns;
+    
+    private @Nullable Predicate<@NonNull CharSequence @NonNull []> rowFilter;
+    
+    /**
+     * The values of the {@link #filterColumns} passed to the {@link #rowFilter}; reused for all rows.
+     */
+    private @NonNull CharSequence @NonNull [] filterValues = new @NonNull CharSequence[0];
+    
+    /**
+     * The last of the {@link #filterColumns}. The cells of a row are read up to this column, the remaining cells
+     * only if the row is accepted by the {@link #rowFilter}.
+     */
+    private int lastFilterColumn = Integer.MAX_VALUE;
+    
+    /**
+     * The columns of the {@link #projection} and the {@link #filterColumns}, passed to the cursor to skip all other
+     * cells. <code>null</code> if all columns are read.
+     */
+    private @Nullable BitSet readColumns;
+    
+    /**
+     * The dictionary for the texts returned by {@link #readNextRow()}, see {@link #setStringDictionary(boolean)}.
+     * <code>null</code> if disabled.
+     */
+    private @Nullable StringDictionary dictionary;
+    
+    /**
+     * Whether formula cells are read as their results, see {@link #setFormulaResults(boolean)}.
+     */
+    private boolean formulaResults;
+    
+    /**
+     * The evaluator for formulas without a cached result, shared by all readers of the book. <code>null</code> if
+     * such formulas can't be evaluated.
+     */
+    private @Nullable FormulaResultCache formulaResultCache;
+    
     /**
      * Creates an reader for the given sheet.
      * 
-     * @param sheet The sheet to create this reader for.
+     * @param source The sheet to create this reader for.
      * @param ignoreEmptyRows Whether empty rows should be ignored or not.
      */
-    ExcelSheetReader(@NonNull Sheet sheet, boolean ignoreEmptyRows) {
-        this.sheet = sheet;
-        this.sheetName = notNull(sheet.getSheetName());
+    ExcelSheetReader(@NonNull SheetSource source, boolean ignoreEmptyRows) {
+        this.source = source;
+        this.sheetName = source.getName();
         this.ignoreEmptyRows = ignoreEmptyRows;
         
         this.nColumns = 0;
-        if (sheet.getRow(0) != null) {
-            this.nColumns = sheet.getRow(0).getLastCellNum();
-        }
-        this.rowIterator = notNull(sheet.rowIterator());
     }
     
     /**
@@ -97,64 +168,60 @@ public class ExcelSheetReader implements ITableReader {
     }
     
     /**
-     * Returns a list of row groupings of this sheet.
+     * Returns the estimated number of rows of this sheet. The estimation is taken from the header of the sheet, which
+     * is written by the application that created the file; the rows of the sheet are not parsed. Leading empty rows
+     * are included in the count, thus this is the index of the last used row plus one.
+     * 
+     * @return The estimated number of rows, or -1 if the sheet does not declare its size.
+     * 
+     * @throws IOException If reading the header of the sheet fails.
+     */
+    public int getEstimatedRowCount() throws IOException {
+        return source.getDimension().getRowCount();
+    }
+    
+    /**
+     * Returns the estimated number of columns of this sheet. Like {@link #getEstimatedRowCount()}, this is taken from
+     * the header of the sheet and includes leading empty columns.
+     * 
+     * @return The estimated number of columns, or -1 if the sheet does not declare its size.
+     * 
+     * @throws IOException If reading the header of the sheet fails.
+     */
+    public int getEstimatedColumnCount() throws IOException {
+        return source.getDimension().getColumnCount();
+    }
+    
+    /**
+     * Returns a list of row groupings of this sheet. If all rows were read before, the groups were computed while
+     * reading. Otherwise, a separate scan over the row headers computes them. The groups are shared by all readers of
+     * the sheet (and may be restored from the index file of the workbook, see {@link ExcelBook#SIDECAR_INDEX}).
      * 
      * @return A list containing all {@link Group}s of rows in this sheet.
+     * 
+     * @throws UncheckedIOException If reading the sheet fails.
      */
     public @NonNull List<@NonNull Group> getGroupedRows() {
         if (this.groupedRows == null) {
-            // only read group information on-demand
-            List<@NonNull Group> newGroupedRows = new ArrayList<>();
-            
-            Deque<Integer> groupedRows = new ArrayDeque<>();
-            int groupLevel = 0;
-            int previousRow = -1;
-            int lastNonEmptyRow = 0;
+            this.groupedRows = source.getGroups();
+        }
+        if (this.groupedRows == null) {
+            // only read group information on-demand; if all rows were read before, the groups are already known
+            GroupCollector collector = new GroupCollector();
             
-            Iterator<Row> rowIterator = sheet.rowIterator();
-            while (rowIterator.hasNext()) {
-                Row currentRow = rowIterator.next();
-                int currentGroupLevel = currentRow.getOutlineLevel();
-                
-                if (currentGroupLevel != groupLevel) {
-                    while (currentGroupLevel > groupLevel) {
-                        // Current row is sub element of the row before
-                        groupedRows.addFirst(previousRow + 1);
-                        groupLevel++;
-                    }
-                    while (currentGroupLevel < groupLevel) {
-                        // Current row does not belong to the current row anymore, save last grouping
-                        Integer groupingStart = groupedRows.pollFirst();
-                        newGroupedRows.add(new Group(groupingStart, previousRow));
-                        groupLevel--;
-                    }
-                }
-
-                previousRow++;
-                
-                // check if row is empty
-                boolean hasContent = false;
-                Iterator<Cell> cellIterator = currentRow.iterator();
-                while (!hasContent && cellIterator.hasNext()) {
-                    Cell currentCell = cellIterator.next();
-                    if (currentCell.getCellTypeEnum() != CellType.BLANK && !currentCell.toString().isEmpty()) {
-                        hasContent = true;
-                    }
-                }
-                if (hasContent) {
-                    lastNonEmptyRow++;
+            // use a separate cursor, so that the position of this reader is not changed
+            try (SheetCursor rowCursor = source.openCursor()) {
+                while (rowCursor.nextRow()) {
+                    // only the row header and the first cell with content are parsed
+                    collector.addRow(rowCursor.getOutlineLevel(), rowCursor.hasContent());
                 }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
             
-            while (groupLevel > 0) {
-                // Group ends at the last line
-                Integer groupingStart = groupedRows.pollFirst();
-                int lastRow = Math.min(previousRow, lastNonEmptyRow - 1);
-                newGroupedRows.add(new Group(groupingStart, lastRow));
-                groupLevel--;
-            }
-            
-            this.groupedRows = newGroupedRows;
+            List<@NonNull Group> groups = collector.finish();
+            source.setGroups(groups);
+            this.groupedRows = groups;
         }
         
         return notNull(Collections.unmodifiableList(this.groupedRows));
@@ -169,95 +236,576 @@ public class ExcelSheetReader implements ITableReader {
      * @return A list of grouped rows, may be empty.
      */
     public @NonNull List<@NonNull Group> getRowGroups(int rowIndex) {
-        List<@NonNull Group> relevantGroups = new ArrayList<>();
-        for (Group rowGroup : getGroupedRows()) {
-            if (rowGroup.getStartIndex() <= rowIndex && rowGroup.getEndIndex() >= rowIndex) {
-                relevantGroups.add(rowGroup);
+        GroupIndex groupIndex = this.groupIndex;
+        if (groupIndex == null) {
+            // the index is created once, lookups are logarithmic (or constant if the rows are queried in order)
+            groupIndex = new GroupIndex(getGroupedRows());
+            this.groupIndex = groupIndex;
+        }
+        return groupIndex.getGroups(rowIndex);
+    }
+    
+    /**
+     * Restricts the following rows to the given columns. {@link #readNextRow()} returns only the values of these
+     * columns, in the given order, and the cell index of {@link #getCellText(int)} etc. refers to the position in
+     * the given columns. The cells of other columns are skipped while parsing the sheet, without reading their
+     * values. Rows that have no cells in the selected columns are considered as empty rows.
+     * 
+     * @param columns The 0-based indices of the columns to read. A column may be selected more than once.
+     * 
+     * @throws IllegalArgumentException If a column index is negative.
+     */
+    public void selectColumns(int @NonNull ... columns) throws IllegalArgumentException {
+        checkColumns(columns);
+        this.projection = notNull(columns.clone());
+        updateReadColumns();
+    }
+    
+    /**
+     * Restricts the following rows to the columns with the given headers, see {@link #selectColumns(int...)}. The
+     * headers are the texts of the cells in the first row of the sheet; if a header occurs more than once, the first
+     * column with this header is selected. The first row itself is still returned as the first row of this reader.
+     * 
+     * @param headers The headers of the columns to read.
+     * 
+     * @throws IOException If reading the first row of the sheet fails.
+     * @throws IllegalArgumentException If a header is not found in the first row.
+     */
+    public void selectColumns(@NonNull String @NonNull ... headers) throws IOException, IllegalArgumentException {
+        RowBuffer headerRow = new RowBuffer();
+        // use a separate cursor, so that the position of this reader is not changed
+        try (SheetCursor headerCursor = source.openCursor()) {
+            if (headerCursor.nextRow()) {
+                headerRow.readCells(headerCursor);
+            }
+        }
+        
+        int[] columns = new int[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            columns[i] = -1;
+            for (int column = 0; column < headerRow.getSize() && columns[i] == -1; column++) {
+                if (headerRow.getText(column).toString().equals(headers[i])) {
+                    columns[i] = column;
+                }
+            }
+            if (columns[i] == -1) {
+                throw new IllegalArgumentException("Sheet " + sheetName + " has no column " + headers[i]);
             }
         }
         
-        // Sorts elements by start index in descending order
-        relevantGroups.sort((g1, g2) -> Integer.compare(g2.getStartIndex(), g1.getStartIndex()));
+        selectColumns(columns);
+    }
+    
+    /**
+     * Removes the restriction of {@link #selectColumns(int...)}; the following rows contain all columns again.
+     */
+    public void selectAllColumns() {
+        this.projection = null;
+        updateReadColumns();
+    }
+    
+    /**
+     * Restricts the following rows to the rows accepted by the given filter. The filter is tested with the texts of
+     * the given columns (the same texts as {@link #readNextRow()} returns, empty for undefined cells) as soon as
+     * these cells of a row are parsed; the remaining cells of rejected rows are skipped without reading their values.
+     * The filter is tested for all rows, including the first row. Rejected rows are still counted by
+     * {@link #getLineNumber()}, thus the line number of a returned row is the same as without a filter.
+     * 
+     * @param columns The 0-based indices of the columns in the sheet that the filter tests. Independent of the
+     *      columns selected by {@link #selectColumns(int...)}.
+     * @param filter The filter. The passed array contains the texts of the given columns, in the given order. The
+     *      array and its elements are reused; they are only valid while the filter is tested.
+     * 
+     * @throws IllegalArgumentException If a column index is negative.
+     */
+    public void setRowFilter(int @NonNull [] columns, @NonNull Predicate<@NonNull CharSequence @NonNull []> filter)
+            throws IllegalArgumentException {
+        
+        checkColumns(columns);
+        int lastColumn = -1;
+        for (int column : columns) {
+            lastColumn = Math.max(lastColumn, column);
+        }
+        
+        this.filterColumns = notNull(columns.clone());
+        this.filterValues = new @NonNull CharSequence[columns.length];
+        this.lastFilterColumn = lastColumn;
+        this.rowFilter = filter;
+        updateReadColumns();
+    }
+    
+    /**
+     * Restricts the following rows to the rows accepted by the given filter on a single column, see
+     * {@link #setRowFilter(int[], Predicate)}.
+     * 
+     * @param column The 0-based index of the column in the sheet that the filter tests.
+     * @param filter The filter. The passed text is only valid while the filter is tested.
+     * 
+     * @throws IllegalArgumentException If the column index is negative.
+     */
+    public void setRowFilter(int column, @NonNull Predicate<@NonNull CharSequence> filter)
+            throws IllegalArgumentException {
+        setRowFilter(new int[] {column}, (values) -> filter.test(values[0]));
+    }
+    
+    /**
+     * Removes the filter of {@link #setRowFilter(int[], Predicate)}; the following rows are all rows again.
+     */
+    public void removeRowFilter() {
+        this.filterColumns = null;
+        this.filterValues = new @NonNull CharSequence[0];
+        this.lastFilterColumn = Integer.MAX_VALUE;
+        this.rowFilter = null;
+        updateReadColumns();
+    }
+    
+    /**
+     * Checks that the given column indices are valid.
+     * 
+     * @param columns The 0-based column indices.
+     * 
+     * @throws IllegalArgumentException If a column index is negative.
+     */
+    private static void checkColumns(int @NonNull [] columns) throws IllegalArgumentException {
+        for (int column : columns) {
+            if (column < 0) {
+                throw new IllegalArgumentException("Invalid column index: " + column);
+            }
+        }
+    }
+    
+    /**
+     * Updates the {@link #readColumns} after the projection or the filter changed.
+     */
+    private void updateReadColumns() {
+        int[] projection = this.projection;
+        BitSet readColumns = null;
+        if (projection != null) {
+            readColumns = new BitSet();
+            for (int column : projection) {
+                readColumns.set(column);
+            }
+            int[] filterColumns = this.filterColumns;
+            if (filterColumns != null) {
+                for (int column : filterColumns) {
+                    readColumns.set(column);
+                }
+            }
+        }
+        this.readColumns = readColumns;
+        
+        if (projection != null || rowFilter != null) {
+            // only complete rows show whether a row is empty; a later getGroupedRows() scans the sheet instead
+            this.groupCollector = null;
+        }
+    }
+    
+    /**
+     * Sets whether {@link #readNextRow()} returns the same {@link String} instance for all cells with the same text.
+     * This reduces the memory needed to keep the rows of sheets with many repeated values (e.g. file names or numbers
+     * that occur in many rows). Texts from the shared strings table of the workbook are already shared; all other
+     * texts are looked up in a dictionary, which holds up to {@value StringDictionary#MAX_SIZE} distinct texts.
+     * 
+     * @param enabled Whether equal texts are returned as the same instance.
+     */
+    public void setStringDictionary(boolean enabled) {
+        if (!enabled) {
+            dictionary = null;
+        } else if (dictionary == null) {
+            dictionary = new StringDictionary();
+        }
+    }
+    
+    /**
+     * Sets whether formula cells are read as their results instead of their formulas. The result that was stored in
+     * the workbook when it was saved is used; formulas without a stored result are evaluated. The evaluator is
+     * shared by all readers of the {@link ExcelBook}, and its results are kept until the book is closed. Formulas that
+     * can't be evaluated are read as empty cells. Only affects rows that are read after the next {@link #close()}
+     * (or before the first row is read).
+     * 
+     * @param enabled Whether the results of formula cells are read.
+     */
+    public void setFormulaResults(boolean enabled) {
+        this.formulaResults = enabled;
+    }
+    
+    /**
+     * Sets the evaluator for formulas without a cached result, see {@link #setFormulaResults(boolean)}.
+     * 
+     * @param formulaResultCache The evaluator of the book, <code>null</code> if formulas can't be evaluated.
+     */
+    void setFormulaResultCache(@Nullable FormulaResultCache formulaResultCache) {
+        this.formulaResultCache = formulaResultCache;
+    }
+    
+    /**
+     * Wraps the given cursor into a {@link FormulaResultCursor}, if {@link #setFormulaResults(boolean)} is enabled.
+     * 
+     * @param cursor The cursor over the sheet.
+     * @return The cursor to read the rows from.
+     */
+    private @NonNull SheetCursor wrapCursor(@NonNull SheetCursor cursor) {
+        return formulaResults ? new FormulaResultCursor(cursor, sheetName, formulaResultCache) : cursor;
+    }
+    
+    /**
+     * Restarts this reader at the given range of rows: the following rows are the rows of the sheet from the first to
+     * the last given row. The rows before the range are not returned and, if possible, not parsed: for XLSX files, an
+     * index of the rows is created by a scan over the sheet on the first call, so that this and later calls start
+     * parsing near the first row of the range. {@link #getLineNumber()} counts the rows before the range, thus the
+     * line numbers are the same as when reading the whole sheet. {@link #close()} restarts this reader at the first
+     * row of the sheet again.
+     * 
+     * @param firstRow The 0-based index of the first row to read.
+     * @param lastRow The 0-based index of the last row to read (inclusive). {@link Integer#MAX_VALUE} to read all
+     *      remaining rows.
+     * 
+     * @throws IOException If reading the sheet fails.
+     * @throws IllegalArgumentException If the range is invalid.
+     */
+    public void openRange(int firstRow, int lastRow) throws IOException, IllegalArgumentException {
+        if (firstRow < 0 || lastRow < firstRow) {
+            throw new IllegalArgumentException("Invalid range of rows: " + firstRow + " to " + lastRow);
+        }
+        close();
+        
+        if (firstRow > 0) {
+            // the first row defines the number of columns we expect
+            nColumns = 0;
+            try (SheetCursor headerCursor = source.openCursor()) {
+                if (headerCursor.nextRow() && headerCursor.getRowIndex() == 0) {
+                    row.readCells(headerCursor);
+                    nColumns = row.getSize();
+                    row.clear();
+                }
+            }
+        }
         
-        return notNull(Collections.unmodifiableList(relevantGroups));
+        RangeCursor cursor = source.openCursor(firstRow, lastRow);
+        this.cursor = wrapCursor(cursor);
+        this.currentRowNumber = cursor.getPrecedingRows();
     }
     
     @Override
-    public void close() {
-        // no need to close anything, just reset the iterator
-        this.rowIterator = notNull(sheet.rowIterator());
+    public void close() throws IOException {
+        // release the underlying sheet data; the next read starts at the first row again
+        SheetCursor cursor = this.cursor;
+        this.cursor = null;
         currentRowNumber = 0;
+        currentRowIndex = -1;
+        row.clear();
+        groupCollector = null;
+        if (cursor != null) {
+            cursor.close();
+        }
     }
 
     @Override
     public @NonNull String @Nullable [] readNextRow() throws IOException {
         @NonNull String[] result = null;
+        if (nextRow()) {
+            int[] projection = this.projection;
+            if (projection != null) {
+                result = new @NonNull String[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    result[i] = row.getString(projection[i], dictionary);
+                }
+            } else {
+                result = row.toStringArray(dictionary);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Moves to the next row of this sheet. This is an alternative to {@link #readNextRow()}, which does not create
+     * new objects for each row: the cells of the row are accessed through {@link #getCellCount()},
+     * {@link #getCellType(int)}, {@link #getCellText(int)}, {@link #getNumericValue(int)} and
+     * {@link #getBooleanValue(int)}. The rows are the same as {@link #readNextRow()} returns, and both methods
+     * move the same position.
+     * 
+     * @return <code>true</code> if this reader is positioned on the next row, <code>false</code> if the end of the
+     *      sheet is reached.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    public boolean nextRow() throws IOException {
+        boolean result = advance();
+        if (result) {
+            padRow();
+        }
+        return result;
+    }
+    
+    /**
+     * Reads the next rows of this sheet into the given batch. This is an alternative to {@link #readNextRow()} for
+     * consumers that process many rows: the rows are the same as {@link #readNextRow()} returns, but they are stored
+     * column by column in the reused arrays of the batch. The rows are not padded to the number of columns of the
+     * first row; cells after the end of a row are blank cells of the batch. Afterwards, this reader is positioned on
+     * the last row of the batch.
+     * 
+     * @param batch The batch to fill. Its previous rows are removed.
+     * @return The number of rows read into the batch; less than the capacity of the batch only if the end of the
+     *      sheet is reached, 0 if there are no more rows.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    public int readRows(@NonNull RowBatch batch) throws IOException {
+        batch.clear();
+        int[] projection = this.projection;
+        boolean read = false;
+        while (batch.getRowCount() < batch.getCapacity() && advance()) {
+            int cellCount = projection != null ? projection.length : Math.max(row.getSize(), nColumns);
+            batch.addRow(currentRowNumber, currentRowIndex, row, projection, cellCount, dictionary);
+            read = true;
+        }
+        if (read) {
+            padRow();
+        }
+        return batch.getRowCount();
+    }
+    
+    /**
+     * Reads the next rows of this sheet into a new batch, see {@link #readRows(RowBatch)}.
+     * 
+     * @param maxRows The maximum number of rows to read.
+     * @return The batch with the next rows, <code>null</code> if there are no more rows.
+     * 
+     * @throws IOException If reading the sheet fails.
+     * @throws IllegalArgumentException If the maximum number of rows is not positive.
+     */
+    public @Nullable RowBatch readRows(int maxRows) throws IOException, IllegalArgumentException {
+        RowBatch result = new RowBatch(maxRows);
+        return readRows(result) > 0 ? result : null;
+    }
+    
+    /**
+     * Moves to the next row of this sheet, without padding it to the expected number of columns.
+     * 
+     * @return <code>true</code> if this reader is positioned on the next row, <code>false</code> if the end of the
+     *      sheet is reached.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    private boolean advance() throws IOException {
+        SheetCursor cursor = this.cursor;
+        if (cursor == null) {
+            // only start parsing the sheet when the first row is requested
+            cursor = wrapCursor(source.openCursor());
+            this.cursor = cursor;
+            if (groupedRows == null) {
+                groupedRows = source.getGroups();
+            }
+            if (groupedRows == null && projection == null && rowFilter == null) {
+                groupCollector = new GroupCollector();
+            }
+        }
+        GroupCollector groupCollector = this.groupCollector;
         
-        List<String> rowContents;
-        boolean isEmpty = true;
         boolean isEnd = false;
+        boolean accepted = true;
 
         // don't directly increment this.currentRowNumber
         // only set the value, if we actually find a non-empty line (this is important at the end of the file)
         int currentRowNumberCopy = this.currentRowNumber;
+        int rowIndex = -1;
         
         do {
-            rowContents = new ArrayList<>();
+            row.clear();
             
-            if (!this.rowIterator.hasNext()) {
+            if (!cursor.nextRow()) {
                 isEnd = true; // to break the loop
                 
+                if (groupCollector != null) {
+                    // all rows were read, thus the groups are complete
+                    List<@NonNull Group> groups = groupCollector.finish();
+                    source.setGroups(groups);
+                    groupedRows = groups;
+                    this.groupCollector = null;
+                }
+                
             } else {
-                Row currentRow = this.rowIterator.next();
                 currentRowNumberCopy++;
+                rowIndex = cursor.getRowIndex();
+                
+                // Handle missing/undefined cells
+                // the first row is read completely, since it defines the number of columns
+                int lastColumn = cursor.getRowIndex() != 0 ? lastFilterColumn : Integer.MAX_VALUE;
+                boolean incomplete = row.readCells(cursor, readColumns, lastColumn);
+                accepted = acceptRow();
+                if (accepted && incomplete) {
+                    row.readCells(cursor, readColumns);
+                }
+                
+                if (groupCollector != null) {
+                    groupCollector.addRow(cursor.getOutlineLevel(), row.hasContent());
+                }
                 
-                Iterator<Cell> cellIterator = currentRow.iterator();
-                while (cellIterator.hasNext()) {
-                    Cell currentCell = cellIterator.next();
-                    
-                    // Handle missing/undefined cells
-                    while (currentCell.getColumnIndex() > rowContents.size()) {
-                        rowContents.add("");
-                    }
-                    
-                    String value;
-                    switch (currentCell.getCellTypeEnum()) {
-                    case STRING:
-                        value = currentCell.getStringCellValue();
-                        break;
-                    case NUMERIC:
-                        value = Double.toString(currentCell.getNumericCellValue());
-                        break;
-                    case BOOLEAN:
-                        value = Boolean.toString(currentCell.getBooleanCellValue());
-                        break;
-                    case FORMULA:
-                        value = currentCell.getCellFormula();
-                        break;
-                    default: 
-                        // getStringCellValue() returns "" for empty cells
-                        value = currentCell.getStringCellValue();
-                        break;
-                    }
-                    
-                    isEmpty &= value == null;
-                    rowContents.add(value);
+                if (cursor.getRowIndex() == 0 && projection == null) {
+                    // the first row defines the number of columns we expect
+                    nColumns = row.getSize();
                 }
             }
             
-        } while (!isEnd && (isEmpty && ignoreEmptyRows));
+        } while (!isEnd && ((row.getSize() == 0 && ignoreEmptyRows) || !accepted));
+        
+        if (isEnd) {
+            this.currentRowIndex = -1;
+        }
         
         if (!isEnd) {
             this.currentRowNumber = currentRowNumberCopy;
-            
-            // Handle missing/undefined cells at the end of row
-            while (rowContents.size() < nColumns) {
-                rowContents.add("");
-            }
-            
-            result = rowContents.toArray(new @NonNull String[0]);
+            this.currentRowIndex = rowIndex;
         }
         
+        return !isEnd;
+    }
+    
+    /**
+     * Adds blank cells to the current row, up to the number of columns of the first row and all selected columns.
+     */
+    private void padRow() {
+        // Handle missing/undefined cells at the end of row
+        int[] projection = this.projection;
+        if (projection != null) {
+            for (int column : projection) {
+                row.padTo(column + 1);
+            }
+        } else {
+            row.padTo(nColumns);
+        }
+    }
+    
+    /**
+     * Tests the {@link #rowFilter} on the current {@link #row}.
+     * 
+     * @return Whether the row is accepted; <code>true</code> if there is no filter.
+     */
+    private boolean acceptRow() {
+        Predicate<@NonNull CharSequence @NonNull []> rowFilter = this.rowFilter;
+        boolean result = true;
+        int[] filterColumns = this.filterColumns;
+        if (rowFilter != null && filterColumns != null) {
+            for (int i = 0; i < filterColumns.length; i++) {
+                int column = filterColumns[i];
+                filterValues[i] = column < row.getSize() ? row.getText(column) : "";
+            }
+            result = rowFilter.test(filterValues);
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the number of cells in the current row, see {@link #nextRow()}. Undefined cells are included; rows
+     * are padded to the number of cells in the first row.
+     * 
+     * @return The number of cells in the current row, 0 if this reader is not positioned on a row.
+     */
+    public int getCellCount() {
+        int[] projection = this.projection;
+        int result = row.getSize();
+        if (projection != null && result > 0) {
+            result = projection.length;
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the type of a cell in the current row, see {@link #nextRow()}.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The type of the cell; {@link CellType#BLANK} for undefined cells.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within the current row.
+     */
+    public @NonNull CellType getCellType(int column) throws IndexOutOfBoundsException {
+        return row.getType(toRowColumn(column));
+    }
+    
+    /**
+     * Returns the content of a cell in the current row, see {@link #nextRow()}. This is the same text as returned by
+     * {@link #readNextRow()}. The returned sequence is reused, it is only valid until the next row is read.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The content of the cell.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within the current row.
+     */
+    public @NonNull CharSequence getCellText(int column) throws IndexOutOfBoundsException {
+        return row.getText(toRowColumn(column));
+    }
+    
+    /**
+     * Returns the value of a {@link CellType#NUMERIC} cell in the current row, see {@link #nextRow()}.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The value of the cell; 0 if the cell is not numeric.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within the current row.
+     */
+    public double getNumericValue(int column) throws IndexOutOfBoundsException {
+        int rowColumn = toRowColumn(column);
+        return row.getType(rowColumn) == CellType.NUMERIC ? row.getNumber(rowColumn) : 0;
+    }
+    
+    /**
+     * Returns the value of a {@link CellType#NUMERIC} cell in the current row as a whole number, see
+     * {@link #nextRow()}. Use {@link #isIntegerValue(int)} to check whether the value is a whole number.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The value of the cell, truncated towards zero; 0 if the cell is not numeric.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within the current row.
+     */
+    public long getLongValue(int column) throws IndexOutOfBoundsException {
+        return (long) getNumericValue(column);
+    }
+    
+    /**
+     * Checks whether a cell in the current row is a {@link CellType#NUMERIC} cell with a whole number, which can be
+     * read with {@link #getLongValue(int)} without losing precision.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return Whether the cell contains a whole number.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within the current row.
+     */
+    public boolean isIntegerValue(int column) throws IndexOutOfBoundsException {
+        int rowColumn = toRowColumn(column);
+        return row.getType(rowColumn) == CellType.NUMERIC && Numbers.isInteger(row.getNumber(rowColumn));
+    }
+    
+    /**
+     * Returns the value of a {@link CellType#BOOLEAN} cell in the current row, see {@link #nextRow()}.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The value of the cell; <code>false</code> if the cell is not boolean.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within the current row.
+     */
+    public boolean getBooleanValue(int column) throws IndexOutOfBoundsException {
+        return row.getBoolean(toRowColumn(column));
+    }
+    
+    /**
+     * Converts a cell index of the current row to the column in the {@link #row} buffer, considering the columns
+     * selected by {@link #selectColumns(int...)}.
+     * 
+     * @param column The 0-based cell index.
+     * @return The 0-based column in the sheet.
+     * 
+     * @throws IndexOutOfBoundsException If the cell index is not within the current row.
+     */
+    private int toRowColumn(int column) throws IndexOutOfBoundsException {
+        int[] projection = this.projection;
+        int result = column;
+        if (projection != null && row.getSize() > 0) {
+            if (column < 0 || column >= projection.length) {
+                throw new IndexOutOfBoundsException("Column " + column + " is not within the row ("
+                        + projection.length + " cells)");
+            }
+            result = projection[column];
+        }
         return result;
     }
     
@@ -265,5 +813,90 @@ public class ExcelSheetReader implements ITableReader {
     public int getLineNumber() {
         return currentRowNumber;
     }
+    
+    /**
+     * Returns the physical index of the current row in the sheet. In contrast to {@link #getLineNumber()}, this is the
+     * row number shown by Excel (minus one): undefined rows, which are skipped when reading the sheet, are counted.
+     * 
+     * @return The 0-based index of the current row, -1 if this reader is not positioned on a row.
+     */
+    public int getRowIndex() {
+        return currentRowIndex;
+    }
+    
+    /**
+     * Returns a {@link Spliterator} over the rows of this sheet. The rows are the same as {@link #readNextRow()}
+     * returns, with the same selected columns, row filter and line numbers. The spliterator can be split into ranges
+     * of rows, which are read independently (see {@link #openRange(int, int)}); thus, the parts can be processed on
+     * different threads. The position of this reader is not changed.
+     * <p>
+     * The row filter of this reader is called from multiple threads if the parts are processed in parallel.
+     * 
+     * @return A spliterator over the rows of this sheet.
+     * 
+     * @throws IOException If reading the size of this sheet fails.
+     */
+    public @NonNull Spliterator<@NonNull SheetRow> spliterator() throws IOException {
+        return spliterator(MIN_SPLIT_ROWS, ConcurrentHashMap.newKeySet());
+    }
+    
+    /**
+     * Returns a spliterator over the rows of this sheet, see {@link #spliterator()}.
+     * 
+     * @param minSplitRows The minimum number of rows of a part.
+     * @param openReaders Collects the readers of the parts, which are not finished yet.
+     * @return A spliterator over the rows of this sheet.
+     * 
+     * @throws IOException If reading the size of this sheet fails.
+     */
+    @NonNull SheetRowSpliterator spliterator(int minSplitRows, @NonNull Set<@NonNull ExcelSheetReader> openReaders)
+            throws IOException {
+        
+        int estimatedLastRow = Math.max(0, source.getDimension().getRowCount() - 1);
+        return new SheetRowSpliterator(this, 0, Integer.MAX_VALUE, estimatedLastRow, minSplitRows, openReaders);
+    }
+    
+    /**
+     * Returns a stream over the rows of this sheet, see {@link #spliterator()}. Call {@link Stream#parallel()} to
+     * process the rows on multiple threads. The stream should be closed if it is not consumed completely, to close the
+     * readers of the unfinished parts. {@link IOException}s while reading the sheet are thrown as
+     * {@link UncheckedIOException}s.
+     * 
+     * @return A stream over the rows of this sheet.
+     * 
+     * @throws IOException If reading the size of this sheet fails.
+     */
+    public @NonNull Stream<@NonNull SheetRow> stream() throws IOException {
+        Set<@NonNull ExcelSheetReader> openReaders = ConcurrentHashMap.newKeySet();
+        return notNull(StreamSupport.stream(spliterator(MIN_SPLIT_ROWS, openReaders), false).onClose(() -> {
+            for (ExcelSheetReader reader : openReaders) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }));
+    }
+    
+    /**
+     * Creates a new reader for the sheet of this reader, with the same selected columns and row filter.
+     * 
+     * @return A new reader, positioned before the first row.
+     */
+    @NonNull ExcelSheetReader copy() {
+        ExcelSheetReader result = new ExcelSheetReader(source, ignoreEmptyRows);
+        result.groupedRows = groupedRows;
+        result.projection = projection;
+        result.filterColumns = filterColumns;
+        result.rowFilter = rowFilter;
+        result.filterValues = new @NonNull CharSequence[filterValues.length];
+        result.lastFilterColumn = lastFilterColumn;
+        result.readColumns = readColumns;
+        result.setStringDictionary(dictionary != null);
+        result.formulaResults = formulaResults;
+        result.formulaResultCache = formulaResultCache;
+        return result;
+    }
 
 }
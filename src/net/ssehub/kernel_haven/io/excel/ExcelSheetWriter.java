@@ -23,16 +23,24 @@ import java.util.List;
 
 import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 
+import net.ssehub.kernel_haven.io.excel.XlsxStreamWriter.SheetStream;
 import net.ssehub.kernel_haven.util.io.AbstractTableWriter;
 import net.ssehub.kernel_haven.util.null_checks.NonNull;
 import net.ssehub.kernel_haven.util.null_checks.Nullable;
 
 /**
  * Writes a table to an existing sheet of an existing Excel workbook (XLS/XLSX-File).
+ * <p>
+ * Rows are written under the lock of the sheet only, thus the sheets of a book can be written from different
+ * threads without blocking each other. The book is only involved when the writer is created and closed.
+ * <p>
+ * The rows are either written to a sheet of a POI workbook, or directly as XML into a sheet of an
+ * {@link XlsxStreamWriter}.
  * @see <a href="https://poi.apache.org/spreadsheet/quick-guide.html">
  * https://poi.apache.org/spreadsheet/quick-guide.html</a>
  * @author El-Sharkawy
@@ -42,38 +50,120 @@ public class ExcelSheetWriter extends AbstractTableWriter {
     
     private static final int MAX_TEXT_LENGTH = SpreadsheetVersion.EXCEL2007.getMaxTextLength();
     
-    private @NonNull Sheet sheet;
+    private @Nullable Sheet sheet;
+    private @Nullable SheetStream stream;
     private int currentRow;
     private @NonNull ExcelBook wb;
     
+    /**
+     * The name of the sheet.
+     */
+    private @NonNull String name;
+    
+    /**
+     * The lock of the sheet: the {@link #sheet} or the {@link #stream}.
+     */
+    private @NonNull Object lock;
+    
+    /**
+     * The style of the header cells, shared by all sheets of the book.
+     */
+    private @Nullable CellStyle headerStyle;
+    
+    /**
+     * Whether this writer is closed. Guarded by the {@link #lock}.
+     */
+    private boolean closed;
+    
     /**
      * Creates a sheet writer for the given sheet.
      * 
-     * @param wb The workbook to write in. Used for synchronization only.
+     * @param wb The workbook to write in. Notified when this writer is closed.
      * @param sheet The sheet to write.
+     * @param headerStyle The style of the header cells, see {@link ExcelBook#getHeaderStyle()}.
      */
-    ExcelSheetWriter(@NonNull ExcelBook wb, @NonNull Sheet sheet) {
+    ExcelSheetWriter(@NonNull ExcelBook wb, @NonNull Sheet sheet, @Nullable CellStyle headerStyle) {
         this.wb = wb;
         this.sheet = sheet;
+        this.headerStyle = headerStyle;
+        this.name = notNull(sheet.getSheetName());
+        this.lock = sheet;
         currentRow = sheet.getPhysicalNumberOfRows();
     }
+    
+    /**
+     * Creates a sheet writer for the given sheet of a workbook, which is written directly.
+     * 
+     * @param wb The workbook to write in. Notified when this writer is closed.
+     * @param stream The sheet to write.
+     */
+    ExcelSheetWriter(@NonNull ExcelBook wb, @NonNull SheetStream stream) {
+        this.wb = wb;
+        this.stream = stream;
+        this.name = stream.getName();
+        this.lock = stream;
+    }
+    
+    /**
+     * Returns the sheet of a workbook, which is written directly.
+     * 
+     * @return The sheet, <code>null</code> if this writer writes to a POI workbook.
+     */
+    @Nullable SheetStream getStream() {
+        return stream;
+    }
 
     @Override
     public void close() throws IOException {
-        wb.closeWriter(this);
+        boolean wasOpen;
+        synchronized (lock) {
+            wasOpen = !closed;
+            closed = true;
+        }
+        // don't hold the lock of the sheet while waiting for the book
+        if (wasOpen) {
+            wb.closeWriter(this);
+        }
+    }
+    
+    /**
+     * Closes this writer without notifying the book. Called by the book before it writes the workbook to disk;
+     * waits until a row, which is currently written, is complete.
+     */
+    void markClosed() {
+        synchronized (lock) {
+            closed = true;
+        }
+    }
+    
+    /**
+     * Checks that this writer is not closed. Must be called while holding the {@link #lock}.
+     * 
+     * @throws IOException If this writer is closed.
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer for sheet \"" + name + "\" is already closed");
+        }
     }
 
     @Override
     public void writeRow(@Nullable Object /*@NonNull*/ ... columns) throws IOException {
         // TODO: commented out @NonNull annotation because checkstyle can't parse it
         
-        // make sure we don't modify the content while the workbook is writing to disk
-        synchronized (wb) {
-            List<CellValue> cellValues = prepareFields(columns);
-            Row row = sheet.createRow(currentRow++);
-            for (int i = 0; i < cellValues.size(); i++) {
-                Cell cell = notNull(row.createCell(i));
-                cellValues.get(i).applyTo(cell);
+        List<@NonNull CellValue> cellValues = prepareFields(columns);
+        // only writers of the same sheet need to be serialized
+        synchronized (lock) {
+            checkOpen();
+            Sheet sheet = this.sheet;
+            if (sheet != null) {
+                Row row = sheet.createRow(currentRow++);
+                for (int i = 0; i < cellValues.size(); i++) {
+                    Cell cell = notNull(row.createCell(i));
+                    cellValues.get(i).applyTo(cell);
+                }
+            } else {
+                notNull(stream).writeRow(currentRow++, cellValues, false);
             }
         }
     }
@@ -82,23 +172,29 @@ public class ExcelSheetWriter extends AbstractTableWriter {
     public void writeHeader(@Nullable Object /*@NonNull*/ ... fields) throws IOException {
         // TODO: commented out @NonNull annotation because checkstyle can't parse it
         
-        // make sure we don't modify the content while the workbook is writing to disk
-        synchronized (wb) {
-            List<CellValue> cellValues = prepareFields(fields);
-            Row row = sheet.createRow(currentRow++);
-            for (int i = 0; i < cellValues.size(); i++) {
-                Cell cell = row.createCell(i);
-                cell.setCellStyle(wb.getHeaderStyle());
-                cellValues.get(i).applyTo(cell);
+        List<@NonNull CellValue> cellValues = prepareFields(fields);
+        // only writers of the same sheet need to be serialized
+        synchronized (lock) {
+            checkOpen();
+            Sheet sheet = this.sheet;
+            if (sheet != null) {
+                Row row = sheet.createRow(currentRow++);
+                for (int i = 0; i < cellValues.size(); i++) {
+                    Cell cell = row.createCell(i);
+                    cell.setCellStyle(headerStyle);
+                    cellValues.get(i).applyTo(cell);
+                }
+                sheet.createFreezePane(0, 1);
+            } else {
+                notNull(stream).writeRow(currentRow++, cellValues, true);
             }
-            sheet.createFreezePane(0, 1);
         }
     }
     
     /**
      * A single cell value, with a type, to be written into the sheet.
      */
-    private static class CellValue {
+    static class CellValue {
         
         private @NonNull CellType type;
         
@@ -115,6 +211,26 @@ public class ExcelSheetWriter extends AbstractTableWriter {
             this.value = value;
         }
         
+        /**
+         * Returns the type of this cell.
+         * 
+         * @return The cell type; {@link CellType#BLANK}, {@link CellType#NUMERIC}, {@link CellType#BOOLEAN} or
+         *      {@link CellType#STRING}.
+         */
+        @NonNull CellType getType() {
+            return type;
+        }
+        
+        /**
+         * Returns the value of this cell.
+         * 
+         * @return The value: <code>null</code> for blank cells, a {@link Number}, a {@link Boolean} or a
+         *      {@link String}.
+         */
+        @Nullable Object getValue() {
+            return value;
+        }
+        
         /**
          * Applies this value to the given cell. Properly sets the cell type.
          * 
@@ -158,9 +274,9 @@ public class ExcelSheetWriter extends AbstractTableWriter {
      * @return The values to write, should be the same values unless there were some values to long.
      * 
      */
-    private @NonNull List<CellValue> prepareFields(@Nullable Object /*@NonNull*/ ... fields) {
+    private @NonNull List<@NonNull CellValue> prepareFields(@Nullable Object /*@NonNull*/ ... fields) {
         // TODO: commented out @NonNull annotation because checkstyle can't parse it
-        List<CellValue> result = new ArrayList<>();
+        List<@NonNull CellValue> result = new ArrayList<>();
         
         for (Object field : fields) {
             
@@ -203,9 +319,21 @@ public class ExcelSheetWriter extends AbstractTableWriter {
         return result;
     }
     
+    /**
+     * Pushes the written rows out of memory. In a workbook, which is written directly, the rows are written to the
+     * destination file (or to a temporary file, if another sheet of the book is streaming into the destination file
+     * at the moment). A streaming POI workbook already keeps only the last few rows in memory (the others are in a
+     * temporary file); these rows stay, so that the sheet can still be read before the book is closed.
+     */
     @Override
     public void flush() throws IOException {
-        // don't do anything, we can't flush the streaming workbook
+        synchronized (lock) {
+            checkOpen();
+            SheetStream stream = this.stream;
+            if (stream != null) {
+                stream.flush();
+            }
+        }
     }
 
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JRuntimeException;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * Evaluates the formula cells of a workbook, which have no cached result. One evaluator is shared by all readers of
+ * an {@link ExcelBook}, thus the intermediate results of referenced cells are only computed once; the results of
+ * the evaluated cells are kept until the book is closed.
+ * <p>
+ * The evaluator needs the complete workbook in memory. For streamed workbooks, the workbook is loaded when the first
+ * formula without a cached result is evaluated.
+ * 
+ * @author Adam
+ */
+class FormulaResultCache implements Closeable {
+    
+    private @Nullable File file;
+    
+    /**
+     * The workbook to evaluate. Loaded from the {@link #file} on first use, if the book is streamed.
+     */
+    private @Nullable Workbook workbook;
+    
+    private @Nullable FormulaEvaluator evaluator;
+    
+    private @NonNull Map<@NonNull CellReference, @NonNull CellValue> results = new HashMap<>();
+    
+    /**
+     * Creates a cache for a workbook, which is already loaded into memory. The workbook is not closed by this cache.
+     * 
+     * @param workbook The loaded workbook.
+     */
+    FormulaResultCache(@NonNull Workbook workbook) {
+        this.workbook = workbook;
+    }
+    
+    /**
+     * Creates a cache for a streamed workbook. The workbook is loaded on first use and closed by {@link #close()}.
+     * 
+     * @param file The workbook file.
+     */
+    FormulaResultCache(@NonNull File file) {
+        this.file = file;
+    }
+    
+    /**
+     * Evaluates the formula of the given cell.
+     * 
+     * @param sheetName The name of the sheet of the cell.
+     * @param row The 0-based row index of the cell.
+     * @param column The 0-based column index of the cell.
+     * @return The result of the formula; <code>null</code> if the cell does not exist.
+     * 
+     * @throws IOException If loading the workbook fails or the formula can't be evaluated (e.g. because it uses a
+     *      function that is not supported by Apache POI).
+     */
+    synchronized @Nullable CellValue evaluate(@NonNull String sheetName, int row, int column) throws IOException {
+        CellReference reference = new CellReference(sheetName, row, column, false, false);
+        CellValue result = results.get(reference);
+        if (result == null) {
+            Workbook workbook = getWorkbook();
+            Sheet sheet = workbook.getSheet(sheetName);
+            Row sheetRow = sheet != null ? sheet.getRow(row) : null;
+            Cell cell = sheetRow != null ? sheetRow.getCell(column) : null;
+            if (cell != null) {
+                try {
+                    result = getEvaluator(workbook).evaluate(cell);
+                } catch (RuntimeException e) {
+                    throw new IOException("Can't evaluate formula in cell " + reference.formatAsString(), e);
+                }
+                if (result != null) {
+                    results.put(reference, result);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the workbook to evaluate. Loads it, if this was not done before.
+     * 
+     * @return The workbook.
+     * 
+     * @throws IOException If loading the workbook fails.
+     */
+    private @NonNull Workbook getWorkbook() throws IOException {
+        Workbook result = this.workbook;
+        File file = this.file;
+        if (result == null && file != null) {
+            try {
+                result = WorkbookFactory.create(file, null, true);
+            } catch (InvalidFormatException | IllegalStateException | OpenXML4JRuntimeException e) {
+                throw new IOException("Can't load workbook to evaluate formulas", e);
+            }
+            this.workbook = result;
+        }
+        if (result == null) {
+            throw new IOException("Workbook was closed");
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the evaluator for the given workbook. Creates it, if this was not done before.
+     * 
+     * @param workbook The workbook to evaluate.
+     * @return The shared evaluator.
+     */
+    private @NonNull FormulaEvaluator getEvaluator(@NonNull Workbook workbook) {
+        FormulaEvaluator result = this.evaluator;
+        if (result == null) {
+            result = notNull(workbook.getCreationHelper().createFormulaEvaluator());
+            this.evaluator = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Releases the evaluated results. Closes the workbook, if it was loaded by this cache.
+     * 
+     * @throws IOException If closing the workbook fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        Workbook workbook = this.workbook;
+        boolean loaded = file != null;
+        this.workbook = null;
+        this.file = null;
+        evaluator = null;
+        results.clear();
+        if (loaded && workbook != null) {
+            workbook.close();
+        }
+    }
+    
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.FormulaError;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A cursor that returns the results of formula cells instead of their formulas: formula cells appear as cells of the
+ * type of their result. The cached result, which was stored when the workbook was saved, is used if available;
+ * otherwise the formula is evaluated by the {@link FormulaResultCache} of the book. Formula cells that can't be
+ * evaluated appear as {@link CellType#BLANK} cells. All other cells are passed through unchanged.
+ * 
+ * @author Adam
+ */
+class FormulaResultCursor extends SheetCursor {
+    
+    private @NonNull SheetCursor cursor;
+    
+    private @NonNull String sheetName;
+    
+    private @Nullable FormulaResultCache cache;
+    
+    /**
+     * Whether the current cell is a formula cell.
+     */
+    private boolean formula;
+    
+    /**
+     * The type of the current cell; the type of the result for formula cells.
+     */
+    private @NonNull CellType type = CellType.BLANK;
+    
+    /**
+     * The evaluated result of the current formula cell, <code>null</code> if the cached result is used or the
+     * formula could not be evaluated.
+     */
+    private @Nullable CellValue evaluated;
+    
+    /**
+     * Creates a cursor that returns formula results.
+     * 
+     * @param cursor The cursor to read the cells from.
+     * @param sheetName The name of the sheet, to evaluate its formulas.
+     * @param cache The evaluator for formulas without a cached result. <code>null</code> if such formulas can't be
+     *      evaluated.
+     */
+    FormulaResultCursor(@NonNull SheetCursor cursor, @NonNull String sheetName, @Nullable FormulaResultCache cache) {
+        this.cursor = cursor;
+        this.sheetName = sheetName;
+        this.cache = cache;
+    }
+    
+    @Override
+    public boolean nextRow() throws IOException {
+        return cursor.nextRow();
+    }
+    
+    @Override
+    public int getRowIndex() {
+        return cursor.getRowIndex();
+    }
+    
+    @Override
+    public int getOutlineLevel() {
+        return cursor.getOutlineLevel();
+    }
+    
+    @Override
+    public boolean nextCell() throws IOException {
+        boolean result = cursor.nextCell();
+        if (result) {
+            readResult();
+        }
+        return result;
+    }
+    
+    @Override
+    public boolean nextCell(@NonNull BitSet columns) throws IOException {
+        boolean result = cursor.nextCell(columns);
+        if (result) {
+            readResult();
+        }
+        return result;
+    }
+    
+    /**
+     * Determines the type and, if needed, evaluates the result of the current cell.
+     * 
+     * @throws IOException If evaluating the formula fails.
+     */
+    private void readResult() throws IOException {
+        CellType type = cursor.getCellType();
+        formula = type == CellType.FORMULA;
+        evaluated = null;
+        if (formula) {
+            type = cursor.getCachedResultType();
+            FormulaResultCache cache = this.cache;
+            if (type == null && cache != null) {
+                CellValue evaluated = cache.evaluate(sheetName, cursor.getRowIndex(), cursor.getColumnIndex());
+                type = evaluated != null ? evaluated.getCellTypeEnum() : null;
+                this.evaluated = evaluated;
+            }
+            if (type == null) {
+                type = CellType.BLANK;
+            }
+        }
+        this.type = type;
+    }
+    
+    @Override
+    public int getColumnIndex() {
+        return cursor.getColumnIndex();
+    }
+    
+    @Override
+    public @NonNull CellType getCellType() {
+        return type;
+    }
+    
+    @Override
+    public @NonNull String getStringValue() {
+        CellValue evaluated = this.evaluated;
+        String result;
+        if (evaluated != null) {
+            if (type == CellType.ERROR) {
+                result = FormulaError.forInt(evaluated.getErrorValue()).getString();
+            } else {
+                result = evaluated.getStringValue();
+            }
+        } else if (type == CellType.STRING || type == CellType.ERROR || !formula) {
+            result = cursor.getStringValue();
+        } else {
+            // the result is a number, a boolean or missing
+            result = "";
+        }
+        return result != null ? result : "";
+    }
+    
+    @Override
+    public double getNumericValue() {
+        CellValue evaluated = this.evaluated;
+        return evaluated != null ? evaluated.getNumberValue() : cursor.getNumericValue();
+    }
+    
+    @Override
+    public boolean getBooleanValue() {
+        CellValue evaluated = this.evaluated;
+        return evaluated != null ? evaluated.getBooleanValue() : cursor.getBooleanValue();
+    }
+    
+    @Override
+    public @Nullable String getFormula() {
+        // formula cells appear as cells of their result
+        return null;
+    }
+    
+    @Override
+    public @NonNull CharSequence getText() throws IOException {
+        return formula ? getStringValue() : cursor.getText();
+    }
+    
+    @Override
+    public boolean isTextShared() {
+        return !formula && cursor.isTextShared();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        cursor.close();
+    }
+    
+}
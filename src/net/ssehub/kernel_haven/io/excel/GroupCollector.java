@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Computes the {@link Group}s of rows from the outline levels of the rows, one row at a time. This allows to compute
+ * the groups while the rows are read, or with a scan that only looks at the row headers.
+ * 
+ * @author El-Sharkawy
+ * @author Adam
+ */
+class GroupCollector {
+    
+    private @NonNull List<@NonNull Group> groups = new ArrayList<>();
+    
+    /**
+     * The start rows of the currently open groups, the innermost group first.
+     */
+    private @NonNull Deque<Integer> openGroups = new ArrayDeque<>();
+    
+    private int groupLevel = 0;
+    
+    private int previousRow = -1;
+    
+    private int lastNonEmptyRow = 0;
+    
+    /**
+     * Adds the next (physical) row of the sheet.
+     * 
+     * @param outlineLevel The outline level of the row.
+     * @param hasContent Whether the row contains a cell with content.
+     */
+    public void addRow(int outlineLevel, boolean hasContent) {
+        if (outlineLevel != groupLevel) {
+            while (outlineLevel > groupLevel) {
+                // Current row is sub element of the row before
+                openGroups.addFirst(previousRow + 1);
+                groupLevel++;
+            }
+            while (outlineLevel < groupLevel) {
+                // Current row does not belong to the current row anymore, save last grouping
+                Integer groupingStart = openGroups.pollFirst();
+                groups.add(new Group(groupingStart, previousRow));
+                groupLevel--;
+            }
+        }
+        
+        previousRow++;
+        
+        if (hasContent) {
+            lastNonEmptyRow++;
+        }
+    }
+    
+    /**
+     * Closes the groups that are still open at the end of the sheet. No further rows may be added afterwards.
+     * 
+     * @return All groups of the sheet.
+     */
+    public @NonNull List<@NonNull Group> finish() {
+        while (groupLevel > 0) {
+            // Group ends at the last line
+            Integer groupingStart = openGroups.pollFirst();
+            int lastRow = Math.min(previousRow, lastNonEmptyRow - 1);
+            groups.add(new Group(groupingStart, lastRow));
+            groupLevel--;
+        }
+        return groups;
+    }
+    
+}
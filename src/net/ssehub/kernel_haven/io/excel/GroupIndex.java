@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * An index over the {@link Group}s of a sheet, which finds all groups that contain a given row. The rows are split
+ * into segments at every start and end of a group; all rows of a segment are contained in the same groups, thus the
+ * result of each segment is computed once when the index is created. A lookup is a binary search over the segments;
+ * if the rows are queried in ascending order, the segment of the previous lookup is checked first.
+ * 
+ * @author Adam
+ */
+class GroupIndex {
+    
+    /**
+     * The first row of each segment, in ascending order.
+     */
+    private int @NonNull [] segmentStarts;
+    
+    /**
+     * The groups that contain the rows of each segment, the innermost group first.
+     */
+    private @NonNull List<@NonNull List<@NonNull Group>> segmentGroups;
+    
+    /**
+     * The segment of the last lookup.
+     */
+    private int lastSegment;
+    
+    /**
+     * Creates an index for the given groups.
+     * 
+     * @param groups The groups of a sheet, as computed by the {@link GroupCollector}.
+     */
+    GroupIndex(@NonNull List<@NonNull Group> groups) {
+        int[] boundaries = new int[groups.size() * 2];
+        int numBoundaries = 0;
+        for (Group group : groups) {
+            if (group.getStartIndex() <= group.getEndIndex()) {
+                boundaries[numBoundaries++] = group.getStartIndex();
+                boundaries[numBoundaries++] = group.getEndIndex() + 1;
+            }
+        }
+        Arrays.sort(boundaries, 0, numBoundaries);
+        
+        int numSegments = 0;
+        for (int i = 0; i < numBoundaries; i++) {
+            if (numSegments == 0 || boundaries[numSegments - 1] != boundaries[i]) {
+                boundaries[numSegments++] = boundaries[i];
+            }
+        }
+        segmentStarts = notNull(Arrays.copyOf(boundaries, numSegments));
+        
+        // collect the groups of each segment; groups are added in the order of the list, so sorting by start index
+        // keeps the same order for groups with the same start as a linear scan over the list does
+        List<@NonNull List<@NonNull Group>> segments = new ArrayList<>(numSegments);
+        for (int i = 0; i < numSegments; i++) {
+            segments.add(new ArrayList<>());
+        }
+        for (Group group : groups) {
+            if (group.getStartIndex() <= group.getEndIndex()) {
+                int first = Arrays.binarySearch(segmentStarts, group.getStartIndex());
+                for (int i = first; i < numSegments && segmentStarts[i] <= group.getEndIndex(); i++) {
+                    segments.get(i).add(group);
+                }
+            }
+        }
+        for (int i = 0; i < numSegments; i++) {
+            List<@NonNull Group> segment = segments.get(i);
+            if (segment.isEmpty()) {
+                segments.set(i, notNull(Collections.emptyList()));
+            } else {
+                // Sorts elements by start index in descending order
+                segment.sort((g1, g2) -> Integer.compare(g2.getStartIndex(), g1.getStartIndex()));
+                segments.set(i, notNull(Collections.unmodifiableList(segment)));
+            }
+        }
+        segmentGroups = segments;
+    }
+    
+    /**
+     * Returns all groups that contain the given row. The elements are sorted in descending order of the start index,
+     * thus, the most inner group comes first, the most outer group comes last.
+     * 
+     * @param rowIndex A 0-based row index.
+     * @return An unmodifiable list of the groups containing the row, may be empty.
+     */
+    public synchronized @NonNull List<@NonNull Group> getGroups(int rowIndex) {
+        int segment = lastSegment;
+        if (!isInSegment(segment, rowIndex)) {
+            segment++;
+            if (!isInSegment(segment, rowIndex)) {
+                // not queried in ascending order; search the segment that starts at or before the row
+                segment = Arrays.binarySearch(segmentStarts, rowIndex);
+                if (segment < 0) {
+                    segment = -segment - 2;
+                }
+            }
+        }
+        
+        List<@NonNull Group> result;
+        if (segment < 0) {
+            result = notNull(Collections.emptyList());
+        } else {
+            lastSegment = segment;
+            result = notNull(segmentGroups.get(segment));
+        }
+        return result;
+    }
+    
+    /**
+     * Checks whether the given row is within the given segment.
+     * 
+     * @param segment The index of the segment. May be out of range.
+     * @param rowIndex The row to check.
+     * @return Whether the segment exists and contains the row.
+     */
+    private boolean isInSegment(int segment, int rowIndex) {
+        return segment < segmentStarts.length && segmentStarts[segment] <= rowIndex
+                && (segment + 1 == segmentStarts.length || rowIndex < segmentStarts[segment + 1]);
+    }
+    
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Fast paths for parsing and rendering the numbers of numeric cells. Most cells in measurement sheets contain
+ * short integers or decimals, which can be converted exactly without the general algorithms of {@link Double}.
+ * 
+ * @author Adam
+ */
+class Numbers {
+    
+    /**
+     * Exact powers of ten. All of these are exactly representable as doubles.
+     */
+    private static final double @NonNull [] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+    
+    /**
+     * The largest number of digits, for which the digits are exactly representable as double (&lt; 2^53).
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+    
+    /**
+     * {@link Double#toString(double)} switches to the scientific notation at this magnitude.
+     */
+    private static final double SCIENTIFIC_THRESHOLD = 1e7;
+    
+    /**
+     * Don't allow any instances.
+     */
+    private Numbers() {
+    }
+    
+    /**
+     * Parses a number as stored in a cell, like {@link Double#parseDouble(String)} does. Plain decimal numbers with up
+     * to 15 digits (e.g. <code>-123</code> or <code>4.25</code>) are parsed without creating a {@link String}; the
+     * result is the same, since the digits and the power of ten are exact and the division is correctly rounded.
+     * 
+     * @param text The text to parse.
+     * @return The parsed number.
+     * 
+     * @throws NumberFormatException If the text is not a valid number.
+     */
+    static double parseDouble(@NonNull CharSequence text) throws NumberFormatException {
+        int length = text.length();
+        int pos = 0;
+        boolean negative = false;
+        if (pos < length && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+            negative = text.charAt(pos) == '-';
+            pos++;
+        }
+        
+        long digits = 0;
+        int numDigits = 0;
+        int fractionDigits = -1;
+        boolean simple = pos < length;
+        for (; simple && pos < length; pos++) {
+            char c = text.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                digits = digits * 10 + (c - '0');
+                if (digits != 0) {
+                    numDigits++;
+                }
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                simple = false;
+            }
+        }
+        
+        double result;
+        if (simple && numDigits <= MAX_EXACT_DIGITS && fractionDigits != 0
+                && fractionDigits < POWERS_OF_TEN.length) {
+            result = digits;
+            if (fractionDigits > 0) {
+                result /= POWERS_OF_TEN[fractionDigits];
+            }
+            if (negative) {
+                result = -result;
+            }
+        } else {
+            result = Double.parseDouble(text.toString());
+        }
+        return result;
+    }
+    
+    /**
+     * Appends the given number in the format of {@link Double#toString(double)}. Whole numbers below 10^7 (e.g.
+     * <code>42.0</code>) are rendered without the general floating point algorithm.
+     * 
+     * @param builder The builder to append to.
+     * @param value The number to append.
+     */
+    static void appendDouble(@NonNull StringBuilder builder, double value) {
+        if (isInteger(value) && Math.abs(value) < SCIENTIFIC_THRESHOLD && !isNegativeZero(value)) {
+            builder.append((long) value).append(".0");
+        } else {
+            builder.append(value);
+        }
+    }
+    
+    /**
+     * Checks whether the given number is a whole number, which fits into a <code>long</code>.
+     * 
+     * @param value The number to check.
+     * @return Whether the number is a whole number within the range of <code>long</code>.
+     */
+    static boolean isInteger(double value) {
+        return value == Math.rint(value) && value >= Long.MIN_VALUE && value <= Long.MAX_VALUE;
+    }
+    
+    /**
+     * Checks whether the given number is <code>-0.0</code>, which is rendered as <code>-0.0</code>.
+     * 
+     * @param value The number to check.
+     * @return Whether the number is negative zero.
+     */
+    static boolean isNegativeZero(double value) {
+        return value == 0 && Double.doubleToRawLongBits(value) != 0;
+    }
+    
+}
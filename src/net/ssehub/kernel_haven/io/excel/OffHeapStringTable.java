@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A table of strings that is stored outside of the Java heap: the strings are encoded as UTF-8 into direct
+ * {@link ByteBuffer}s, with their start offsets in further direct buffers. A string is only decoded when it is
+ * accessed; the most recently accessed strings are kept decoded in a small cache.
+ * <p>
+ * The buffers are allocated in chunks of a fixed size, which are never copied. Thus, the table uses at most one
+ * chunk of each kind more direct memory than its content, also while it is built (a growing buffer would keep its
+ * old copies until they are garbage collected).
+ * <p>
+ * Strings are appended while the table is built; afterwards, the table can be read by multiple threads.
+ * 
+ * @author Adam
+ */
+class OffHeapStringTable {
+    
+    /**
+     * The number of decoded strings that are cached.
+     */
+    static final int CACHE_SIZE = 4096;
+    
+    /**
+     * The size of the chunks of the buffers in bytes.
+     */
+    static final int CHUNK_SIZE = 256 * 1024;
+    
+    private static final int OFFSETS_PER_CHUNK = CHUNK_SIZE / 4;
+    
+    /**
+     * The UTF-8 encoded strings. A string may continue in the next chunk.
+     */
+    private final @NonNull List<@NonNull ByteBuffer> data = new ArrayList<>();
+    
+    /**
+     * The start offsets of the strings in {@link #data} (one <code>int</code> per string), followed by the end of the
+     * last string.
+     */
+    private final @NonNull List<@NonNull ByteBuffer> offsets = new ArrayList<>();
+    
+    private int size;
+    
+    private int dataLength;
+    
+    /**
+     * The recently accessed strings, in access order.
+     */
+    private @NonNull Map<Integer, @NonNull String> cache = new LinkedHashMap<Integer, @NonNull String>(
+            CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+        
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, @NonNull String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+        
+    };
+    
+    /**
+     * Creates an empty table.
+     */
+    OffHeapStringTable() {
+        setOffset(0, 0);
+    }
+    
+    /**
+     * Appends a string to this table.
+     * 
+     * @param text The string to append.
+     * 
+     * @throws IOException If the table would exceed 2 GiB.
+     */
+    void add(@NonNull String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if ((long) dataLength + bytes.length > Integer.MAX_VALUE || size * 4L + 8 > Integer.MAX_VALUE) {
+            throw new IOException("Shared strings table is too large");
+        }
+        
+        int written = 0;
+        while (written < bytes.length) {
+            int chunk = dataLength / CHUNK_SIZE;
+            if (chunk == data.size()) {
+                data.add(notNull(ByteBuffer.allocateDirect(CHUNK_SIZE)));
+            }
+            int offset = dataLength % CHUNK_SIZE;
+            int length = Math.min(bytes.length - written, CHUNK_SIZE - offset);
+            
+            ByteBuffer buffer = data.get(chunk);
+            buffer.position(offset);
+            buffer.put(bytes, written, length);
+            written += length;
+            dataLength += length;
+        }
+        size++;
+        setOffset(size, dataLength);
+    }
+    
+    /**
+     * Returns the number of strings in this table.
+     * 
+     * @return The number of strings.
+     */
+    int size() {
+        return size;
+    }
+    
+    /**
+     * Checks whether the string at the given index is empty, without decoding it.
+     * 
+     * @param index The 0-based index of the string.
+     * @return Whether the string is empty.
+     */
+    boolean isEmpty(int index) {
+        return getOffset(index) == getOffset(index + 1);
+    }
+    
+    /**
+     * Returns the string at the given index. Decodes the string, if it is not cached.
+     * 
+     * @param index The 0-based index of the string.
+     * @return The string.
+     */
+    @NonNull String get(int index) {
+        String result;
+        synchronized (cache) {
+            result = cache.get(index);
+        }
+        
+        if (result == null) {
+            int start = getOffset(index);
+            byte[] bytes = new byte[getOffset(index + 1) - start];
+            int read = 0;
+            while (read < bytes.length) {
+                int position = start + read;
+                // a duplicate has its own position, thus multiple threads can read the chunk
+                ByteBuffer chunk = data.get(position / CHUNK_SIZE).duplicate();
+                chunk.position(position % CHUNK_SIZE);
+                int length = Math.min(bytes.length - read, chunk.remaining());
+                chunk.get(bytes, read, length);
+                read += length;
+            }
+            result = new String(bytes, StandardCharsets.UTF_8);
+            
+            synchronized (cache) {
+                cache.put(index, result);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns an entry of {@link #offsets}.
+     * 
+     * @param index The index of the entry, i.e. of the string that starts at the offset.
+     * @return The offset in {@link #data}.
+     */
+    private int getOffset(int index) {
+        // absolute reads don't change the position, thus multiple threads can read the chunk
+        return offsets.get(index / OFFSETS_PER_CHUNK).getInt(index % OFFSETS_PER_CHUNK * 4);
+    }
+    
+    /**
+     * Sets an entry of {@link #offsets}. Adds a chunk, if the entry is the first one of a new chunk.
+     * 
+     * @param index The index of the entry, at most the number of entries.
+     * @param offset The offset in {@link #data}.
+     */
+    private void setOffset(int index, int offset) {
+        int chunk = index / OFFSETS_PER_CHUNK;
+        if (chunk == offsets.size()) {
+            offsets.add(notNull(ByteBuffer.allocateDirect(CHUNK_SIZE)));
+        }
+        offsets.get(chunk).putInt(index % OFFSETS_PER_CHUNK * 4, offset);
+    }
+    
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.util.Iterator;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetSource} for a {@link Sheet} of an Apache POI {@link org.apache.poi.ss.usermodel.Workbook}, which
+ * is already loaded into memory. Used for workbooks that are currently written and for workbooks that can't be
+ * streamed.
+ * 
+ * @author Adam
+ */
+class PoiSheetSource extends SheetSource {
+    
+    private @NonNull Sheet sheet;
+    
+    /**
+     * Creates a source for the given sheet.
+     * 
+     * @param sheet The sheet to read.
+     */
+    PoiSheetSource(@NonNull Sheet sheet) {
+        super(notNull(sheet.getSheetName()));
+        this.sheet = sheet;
+    }
+    
+    @Override
+    public @NonNull SheetCursor openCursor() {
+        return new PoiSheetCursor(notNull(sheet.rowIterator()));
+    }
+    
+    /**
+     * {@inheritDoc} The sheet may still be written, thus the size is computed on each call: the rows are taken from
+     * the sheet, the columns from the first row (like {@link ExcelSheetReader#readNextRow()} does).
+     */
+    @Override
+    public @NonNull Dimension getDimension() {
+        return readDimension();
+    }
+    
+    @Override
+    protected @NonNull Dimension readDimension() {
+        int rowCount = 0;
+        int columnCount = 0;
+        if (sheet.getPhysicalNumberOfRows() > 0) {
+            rowCount = sheet.getLastRowNum() + 1;
+            Row firstRow = sheet.getRow(0);
+            columnCount = firstRow != null ? Math.max(firstRow.getLastCellNum(), 0) : 0;
+        }
+        return new Dimension(rowCount, columnCount);
+    }
+    
+    /**
+     * A cursor that iterates over the rows and cells of a {@link Sheet}.
+     */
+    private static class PoiSheetCursor extends SheetCursor {
+        
+        private @NonNull Iterator<Row> rowIterator;
+        
+        private @Nullable Row currentRow;
+        
+        private @Nullable Iterator<Cell> cellIterator;
+        
+        private @Nullable Cell currentCell;
+        
+        /**
+         * Creates a cursor for the given rows.
+         * 
+         * @param rowIterator The rows of the sheet.
+         */
+        public PoiSheetCursor(@NonNull Iterator<Row> rowIterator) {
+            this.rowIterator = rowIterator;
+        }
+        
+        @Override
+        public boolean nextRow() {
+            currentCell = null;
+            if (rowIterator.hasNext()) {
+                Row row = notNull(rowIterator.next());
+                currentRow = row;
+                cellIterator = row.cellIterator();
+            } else {
+                currentRow = null;
+                cellIterator = null;
+            }
+            return currentRow != null;
+        }
+        
+        @Override
+        public int getRowIndex() {
+            return notNull(currentRow).getRowNum();
+        }
+        
+        @Override
+        public int getOutlineLevel() {
+            return notNull(currentRow).getOutlineLevel();
+        }
+        
+        @Override
+        public boolean nextCell() {
+            Iterator<Cell> cellIterator = this.cellIterator;
+            currentCell = (cellIterator != null && cellIterator.hasNext()) ? cellIterator.next() : null;
+            return currentCell != null;
+        }
+        
+        @Override
+        public int getColumnIndex() {
+            return notNull(currentCell).getColumnIndex();
+        }
+        
+        @Override
+        public @NonNull CellType getCellType() {
+            return notNull(notNull(currentCell).getCellTypeEnum());
+        }
+        
+        @Override
+        public @NonNull String getStringValue() {
+            Cell cell = notNull(currentCell);
+            CellType type = cell.getCellTypeEnum();
+            if (type == CellType.FORMULA) {
+                type = cell.getCachedFormulaResultTypeEnum();
+            }
+            
+            String value;
+            if (type == CellType.ERROR) {
+                // getStringCellValue() would throw an exception for error cells
+                value = FormulaError.forInt(cell.getErrorCellValue()).getString();
+            } else if (type == CellType.STRING || type == CellType.BLANK) {
+                // getStringCellValue() returns "" for empty cells
+                value = cell.getStringCellValue();
+            } else {
+                // getStringCellValue() would throw an exception for numeric and boolean results
+                value = "";
+            }
+            return value != null ? value : "";
+        }
+        
+        @Override
+        public double getNumericValue() {
+            return notNull(currentCell).getNumericCellValue();
+        }
+        
+        @Override
+        public boolean getBooleanValue() {
+            return notNull(currentCell).getBooleanCellValue();
+        }
+        
+        @Override
+        public @Nullable String getFormula() {
+            Cell cell = notNull(currentCell);
+            return cell.getCellTypeEnum() == CellType.FORMULA ? cell.getCellFormula() : null;
+        }
+        
+        @Override
+        public @Nullable CellType getCachedResultType() {
+            Cell cell = notNull(currentCell);
+            CellType result = null;
+            // XSSF formula cells, which were never evaluated, have no value; for them, POI assumes a numeric result
+            if (cell.getCellTypeEnum() == CellType.FORMULA
+                    && !(cell instanceof XSSFCell && ((XSSFCell) cell).getRawValue() == null)) {
+                result = cell.getCachedFormulaResultTypeEnum();
+            }
+            return result;
+        }
+        
+        @Override
+        public void close() {
+            // nothing to close, the sheet stays in memory
+        }
+    
+    }
+    
+}
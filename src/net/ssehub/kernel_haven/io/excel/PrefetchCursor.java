@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetCursor} that parses ahead on a producer thread. The producer reads the rows of the wrapped cursor
+ * into batches ({@link SheetBuffer}s) and passes them to this cursor, which returns the rows of the batches.
+ * <p>
+ * The number of batches is bounded: when all batches are filled, the producer waits until this cursor has returned
+ * all rows of a batch, which is then reused. Thus, the producer parses at most the given number of rows ahead and
+ * resumes when a batch of rows was read. If the producer fails, the rows before the failing row are returned
+ * normally and {@link #nextRow()} throws the exception of the producer for the failing row.
+ * 
+ * @author Adam
+ */
+class PrefetchCursor extends SheetCursor {
+    
+    /**
+     * A batch of rows, passed from the producer to the consumer.
+     */
+    private static class Batch {
+        
+        private @NonNull SheetBuffer rows = new SheetBuffer();
+        
+        /**
+         * Whether this is the last batch, i.e. the end of the sheet or an error follows the rows of this batch.
+         */
+        private boolean last;
+        
+        /**
+         * The exception that occurred after the rows of this batch. <code>null</code> if no error occurred.
+         */
+        private @Nullable IOException error;
+        
+    }
+    
+    private @NonNull String name;
+    
+    private @NonNull SheetCursor cursor;
+    
+    private int batchRows;
+    
+    /**
+     * The batches that can be filled by the producer.
+     */
+    private @NonNull BlockingQueue<@NonNull Batch> free;
+    
+    /**
+     * The batches filled by the producer, in the order of the rows. Not bounded, since there are only as many
+     * batches as were put into {@link #free}.
+     */
+    private @NonNull BlockingQueue<@NonNull Batch> ready = new LinkedBlockingQueue<>();
+    
+    private @NonNull Thread producer;
+    
+    /**
+     * The batch that the rows are currently returned from. <code>null</code> before the first row.
+     */
+    private @Nullable Batch batch;
+    
+    /**
+     * The cursor over the rows of the current {@link #batch}.
+     */
+    private @Nullable SheetCursor batchCursor;
+    
+    private boolean finished;
+    
+    /**
+     * Creates a cursor that parses the given cursor ahead. The producer thread starts immediately.
+     * 
+     * @param cursor The cursor to parse ahead. Will be closed by the producer thread, when the end of the sheet is
+     *      reached or this cursor is closed.
+     * @param name The name of the sheet.
+     * @param bufferRows The maximum number of rows that are parsed ahead.
+     * @param batchRows The number of rows that are passed to the consumer at once.
+     */
+    PrefetchCursor(@NonNull SheetCursor cursor, @NonNull String name, int bufferRows, int batchRows) {
+        this.cursor = cursor;
+        this.name = name;
+        this.batchRows = Math.max(1, Math.min(batchRows, bufferRows));
+        
+        // at least two batches, so that the producer can fill a batch while the rows of another one are read
+        int numBatches = Math.max(2, (bufferRows + this.batchRows - 1) / this.batchRows);
+        this.free = new ArrayBlockingQueue<>(numBatches);
+        for (int i = 0; i < numBatches; i++) {
+            free.add(new Batch());
+        }
+        
+        producer = new Thread(this::produce, "ExcelSheetReader-Prefetch");
+        // don't keep the JVM alive only for a reader that is not closed
+        producer.setDaemon(true);
+        producer.start();
+    }
+    
+    /**
+     * Fills the free batches with the rows of the wrapped cursor, until the end of the sheet is reached, an error
+     * occurs or the thread is interrupted. Runs on the producer thread.
+     */
+    private void produce() {
+        try {
+            boolean last = false;
+            while (!last) {
+                Batch batch = free.take();
+                batch.rows.clear();
+                try {
+                    last = batch.rows.readRows(cursor, batchRows, name);
+                } catch (IOException e) {
+                    batch.error = e;
+                    last = true;
+                } catch (RuntimeException e) {
+                    // POI signals malformed records with different runtime exceptions
+                    batch.error = new IOException("Can't parse sheet " + name, e);
+                    last = true;
+                }
+                batch.last = last;
+                ready.add(batch);
+            }
+        } catch (InterruptedException e) {
+            // this cursor was closed
+        } finally {
+            try {
+                cursor.close();
+            } catch (IOException e) {
+                // nothing to do, the cursor was only read
+            }
+        }
+    }
+    
+    @Override
+    public boolean nextRow() throws IOException {
+        boolean result = false;
+        while (!result && !finished) {
+            SheetCursor batchCursor = this.batchCursor;
+            Batch batch = this.batch;
+            if (batchCursor != null && batchCursor.nextRow()) {
+                result = true;
+                
+            } else if (batch != null && batch.last) {
+                finished = true;
+                IOException error = batch.error;
+                if (error != null) {
+                    throw error;
+                }
+                
+            } else {
+                if (batch != null) {
+                    // all rows of the batch were returned; let the producer reuse it
+                    free.add(batch);
+                }
+                batch = take();
+                this.batch = batch;
+                this.batchCursor = batch.rows.openCursor();
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Takes the next batch filled by the producer. Waits until the producer has filled it.
+     * 
+     * @return The next batch.
+     * 
+     * @throws IOException If the current thread is interrupted while waiting.
+     */
+    private @NonNull Batch take() throws IOException {
+        try {
+            return ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for sheet " + name);
+        }
+    }
+    
+    /**
+     * Returns the cursor over the current batch.
+     * 
+     * @return The cursor of the current row.
+     * 
+     * @throws IllegalStateException If this cursor is not positioned on a row.
+     */
+    private @NonNull SheetCursor current() throws IllegalStateException {
+        SheetCursor result = batchCursor;
+        if (result == null) {
+            throw new IllegalStateException("Cursor is not positioned on a row");
+        }
+        return result;
+    }
+    
+    @Override
+    public int getRowIndex() {
+        return current().getRowIndex();
+    }
+    
+    @Override
+    public int getOutlineLevel() {
+        return current().getOutlineLevel();
+    }
+    
+    @Override
+    public boolean nextCell() throws IOException {
+        return current().nextCell();
+    }
+    
+    @Override
+    public int getColumnIndex() {
+        return current().getColumnIndex();
+    }
+    
+    @Override
+    public @NonNull CellType getCellType() {
+        return current().getCellType();
+    }
+    
+    @Override
+    public @NonNull String getStringValue() {
+        return current().getStringValue();
+    }
+    
+    @Override
+    public double getNumericValue() {
+        return current().getNumericValue();
+    }
+    
+    @Override
+    public boolean getBooleanValue() {
+        return current().getBooleanValue();
+    }
+    
+    @Override
+    public @Nullable String getFormula() throws IOException {
+        return current().getFormula();
+    }
+    
+    @Override
+    public @Nullable CellType getCachedResultType() {
+        return current().getCachedResultType();
+    }
+    
+    /**
+     * Stops the producer thread and waits until it has closed the wrapped cursor.
+     * 
+     * @throws IOException If the current thread is interrupted while waiting.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        producer.interrupt();
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing sheet " + name);
+        }
+    }
+    
+}
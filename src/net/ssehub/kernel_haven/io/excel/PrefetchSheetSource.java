@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.IOException;
+import java.util.List;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetSource} whose cursors parse another source ahead on a producer thread, see {@link PrefetchCursor}.
+ * Thus, the sheet is parsed while the reader processes the previous rows.
+ * 
+ * @author Adam
+ */
+class PrefetchSheetSource extends SheetSource {
+    
+    private @NonNull SheetSource source;
+    
+    private int bufferRows;
+    
+    private int batchRows;
+    
+    /**
+     * Creates a source that parses the given source ahead.
+     * 
+     * @param source The sheet to parse.
+     * @param bufferRows The maximum number of rows that are parsed ahead.
+     * @param batchRows The number of rows that are passed from the producer thread to the reader at once.
+     */
+    PrefetchSheetSource(@NonNull SheetSource source, int bufferRows, int batchRows) {
+        super(source.getName());
+        this.source = source;
+        this.bufferRows = bufferRows;
+        this.batchRows = batchRows;
+    }
+    
+    @Override
+    public @NonNull SheetCursor openCursor() throws IOException {
+        return new PrefetchCursor(source.openCursor(), getName(), bufferRows, batchRows);
+    }
+    
+    @Override
+    public @NonNull RangeCursor openCursor(int firstRow, int lastRow) throws IOException {
+        // the wrapped source skips the rows before the range (with its row index, if it has one)
+        RangeCursor range = source.openCursor(firstRow, lastRow);
+        return new RangeCursor(new PrefetchCursor(range, getName(), bufferRows, batchRows), range.getPrecedingRows(),
+                firstRow, lastRow);
+    }
+    
+    @Override
+    protected @NonNull Dimension readDimension() throws IOException {
+        return source.getDimension();
+    }
+    
+    @Override
+    @Nullable List<@NonNull Group> getGroups() {
+        return source.getGroups();
+    }
+    
+    @Override
+    void setGroups(@NonNull List<@NonNull Group> groups) {
+        source.setGroups(groups);
+    }
+    
+}
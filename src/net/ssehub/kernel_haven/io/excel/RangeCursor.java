@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetCursor} over a range of rows of a sheet. Wraps a cursor that starts at (or before) the first row of
+ * the range; rows before the range are skipped when this cursor is created, rows after the range are not visited.
+ * 
+ * @author Adam
+ */
+class RangeCursor extends SheetCursor {
+    
+    /**
+     * Selects no columns; used to skip the cells of rows before the range.
+     */
+    private static final @NonNull BitSet NO_COLUMNS = new BitSet();
+    
+    private @NonNull SheetCursor cursor;
+    
+    private int lastRow;
+    
+    /**
+     * The number of (physical) rows of the sheet before the first row of this range.
+     */
+    private int precedingRows;
+    
+    /**
+     * Whether the wrapped cursor is positioned on the first row of the range, which was not visited yet.
+     */
+    private boolean pending;
+    
+    /**
+     * Whether the end of the range is reached.
+     */
+    private boolean finished;
+    
+    /**
+     * Creates a cursor over the given range. Skips the rows before the range.
+     * 
+     * @param cursor The cursor to wrap, positioned before a row that is not after the first row of the range. Will
+     *      be closed by {@link #close()}.
+     * @param precedingRows The number of (physical) rows of the sheet before the first row of the wrapped cursor.
+     * @param firstRow The 0-based index of the first row of the range.
+     * @param lastRow The 0-based index of the last row of the range (inclusive).
+     * 
+     * @throws IOException If skipping the rows before the range fails.
+     */
+    RangeCursor(@NonNull SheetCursor cursor, int precedingRows, int firstRow, int lastRow) throws IOException {
+        this.cursor = cursor;
+        this.lastRow = lastRow;
+        this.precedingRows = precedingRows;
+        
+        try {
+            while (!pending && !finished) {
+                if (!cursor.nextRow()) {
+                    finished = true;
+                } else if (cursor.getRowIndex() >= firstRow) {
+                    pending = true;
+                } else {
+                    // visit the cells, since cursors may need earlier cells (e.g. shared formulas) for later cells
+                    while (cursor.nextCell(NO_COLUMNS)) {
+                        // skipped
+                    }
+                    this.precedingRows++;
+                }
+            }
+        } catch (IOException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Returns the number of (physical) rows of the sheet before the first row of this range.
+     * 
+     * @return The number of rows before this range.
+     */
+    public int getPrecedingRows() {
+        return precedingRows;
+    }
+    
+    @Override
+    public boolean nextRow() throws IOException {
+        if (pending) {
+            pending = false;
+        } else if (!finished) {
+            finished = !cursor.nextRow();
+        }
+        if (!finished && cursor.getRowIndex() > lastRow) {
+            finished = true;
+        }
+        return !finished;
+    }
+    
+    @Override
+    public int getRowIndex() {
+        return cursor.getRowIndex();
+    }
+    
+    @Override
+    public int getOutlineLevel() {
+        return cursor.getOutlineLevel();
+    }
+    
+    @Override
+    public boolean nextCell() throws IOException {
+        return !finished && cursor.nextCell();
+    }
+    
+    @Override
+    public boolean nextCell(@NonNull BitSet columns) throws IOException {
+        return !finished && cursor.nextCell(columns);
+    }
+    
+    @Override
+    public int getColumnIndex() {
+        return cursor.getColumnIndex();
+    }
+    
+    @Override
+    public @NonNull CellType getCellType() {
+        return cursor.getCellType();
+    }
+    
+    @Override
+    public @NonNull String getStringValue() {
+        return cursor.getStringValue();
+    }
+    
+    @Override
+    public double getNumericValue() {
+        return cursor.getNumericValue();
+    }
+    
+    @Override
+    public boolean getBooleanValue() {
+        return cursor.getBooleanValue();
+    }
+    
+    @Override
+    public @Nullable String getFormula() throws IOException {
+        return cursor.getFormula();
+    }
+    
+    @Override
+    public @Nullable CellType getCachedResultType() {
+        return cursor.getCachedResultType();
+    }
+    
+    @Override
+    public @NonNull CharSequence getText() throws IOException {
+        return cursor.getText();
+    }
+    
+    @Override
+    public boolean hasContent() throws IOException {
+        return !finished && cursor.hasContent();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        cursor.close();
+    }
+    
+}
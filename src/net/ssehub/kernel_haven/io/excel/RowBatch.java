@@ -0,0 +1,375 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A reusable batch of rows, filled by {@link ExcelSheetReader#readRows(RowBatch)}. The cells are stored column by
+ * column: for each column, the values of all rows of the batch are stored in one array, which can be processed
+ * without accessing the single cells (see {@link #getNumericColumn(int)} and {@link #getStringColumn(int)}).
+ * <p>
+ * A batch holds the same rows and cells as {@link ExcelSheetReader#readNextRow()} returns them. Rows may have
+ * different numbers of cells; cells after the end of a row are read as {@link CellType#BLANK} cells.
+ * 
+ * @author Adam
+ */
+public class RowBatch {
+    
+    private static final @NonNull CellType[] CELL_TYPES = CellType.values();
+    
+    private int capacity;
+    
+    private int numRows;
+    
+    private int numColumns;
+    
+    private int @NonNull [] lineNumbers;
+    
+    private int @NonNull [] rowIndices;
+    
+    /**
+     * The number of cells of each row.
+     */
+    private int @NonNull [] cellCounts;
+    
+    /**
+     * The types of the cells, one array per column.
+     */
+    private byte @NonNull [] @NonNull [] types = new byte[0][];
+    
+    /**
+     * The values of numeric and boolean cells (1 or 0), one array per column.
+     */
+    private double @NonNull [] @NonNull [] numbers = new double[0][];
+    
+    /**
+     * The texts of all other cells, one array per column. <code>null</code> for numeric and boolean cells.
+     */
+    private @Nullable String @NonNull [] @NonNull [] texts = new String[0][];
+    
+    /**
+     * Creates an empty batch.
+     * 
+     * @param capacity The maximum number of rows of this batch.
+     * 
+     * @throws IllegalArgumentException If the capacity is not positive.
+     */
+    public RowBatch(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.lineNumbers = new int[capacity];
+        this.rowIndices = new int[capacity];
+        this.cellCounts = new int[capacity];
+    }
+    
+    /**
+     * Returns the maximum number of rows of this batch.
+     * 
+     * @return The capacity of this batch.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Returns the number of rows in this batch.
+     * 
+     * @return The number of rows.
+     */
+    public int getRowCount() {
+        return numRows;
+    }
+    
+    /**
+     * Returns the number of columns of this batch, i.e. the number of cells of the longest row.
+     * 
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return numColumns;
+    }
+    
+    /**
+     * Removes all rows. The arrays of the columns are kept and reused for the next rows.
+     */
+    public void clear() {
+        for (int column = 0; column < numColumns; column++) {
+            // release the texts
+            Arrays.fill(texts[column], 0, numRows, null);
+        }
+        numRows = 0;
+        numColumns = 0;
+    }
+    
+    /**
+     * Adds the current row of a reader to this batch.
+     * 
+     * @param lineNumber The line number of the row, see {@link ExcelSheetReader#getLineNumber()}.
+     * @param rowIndex The physical index of the row, see {@link ExcelSheetReader#getRowIndex()}.
+     * @param row The cells of the row.
+     * @param projection The selected columns of the row, in the order of the returned cells. <code>null</code> if
+     *      all cells are returned.
+     * @param cellCount The number of cells of the row, including padding.
+     * @param dictionary The dictionary for the texts, see {@link RowBuffer#getString(int, StringDictionary)}.
+     */
+    void addRow(int lineNumber, int rowIndex, @NonNull RowBuffer row, int @Nullable [] projection, int cellCount,
+            @Nullable StringDictionary dictionary) {
+        
+        ensureColumns(cellCount);
+        lineNumbers[numRows] = lineNumber;
+        rowIndices[numRows] = rowIndex;
+        cellCounts[numRows] = cellCount;
+        
+        for (int column = 0; column < cellCount; column++) {
+            int rowColumn = projection != null ? projection[column] : column;
+            CellType type = rowColumn < row.getSize() ? row.getType(rowColumn) : CellType.BLANK;
+            types[column][numRows] = (byte) type.ordinal();
+            if (type == CellType.NUMERIC || type == CellType.BOOLEAN) {
+                numbers[column][numRows] = row.getNumber(rowColumn);
+                texts[column][numRows] = null;
+            } else {
+                numbers[column][numRows] = 0;
+                texts[column][numRows] = type != CellType.BLANK ? row.getString(rowColumn, dictionary) : "";
+            }
+        }
+        for (int column = cellCount; column < numColumns; column++) {
+            // the row is shorter than previous rows
+            types[column][numRows] = (byte) CellType.BLANK.ordinal();
+            numbers[column][numRows] = 0;
+            texts[column][numRows] = "";
+        }
+        numRows++;
+    }
+    
+    /**
+     * Creates the arrays for the given number of columns, if they don't exist yet. Rows, which were added before,
+     * are filled with blank cells in the new columns.
+     * 
+     * @param count The number of columns.
+     */
+    private void ensureColumns(int count) {
+        if (count > types.length) {
+            types = notNull(Arrays.copyOf(types, count));
+            numbers = notNull(Arrays.copyOf(numbers, count));
+            texts = notNull(Arrays.copyOf(texts, count));
+            for (int column = numColumns; column < count; column++) {
+                if (types[column] == null) {
+                    types[column] = new byte[capacity];
+                    numbers[column] = new double[capacity];
+                    texts[column] = new String[capacity];
+                }
+            }
+        }
+        if (count > numColumns) {
+            for (int column = numColumns; column < count; column++) {
+                Arrays.fill(types[column], 0, numRows, (byte) CellType.BLANK.ordinal());
+                Arrays.fill(numbers[column], 0, numRows, 0);
+                Arrays.fill(texts[column], 0, numRows, "");
+            }
+            numColumns = count;
+        }
+    }
+    
+    /**
+     * Returns the line number of a row, as {@link ExcelSheetReader#getLineNumber()} returns it.
+     * 
+     * @param row The 0-based index of the row in this batch.
+     * @return The 1-based line number of the row.
+     * 
+     * @throws IndexOutOfBoundsException If the row is not within this batch.
+     */
+    public int getLineNumber(int row) throws IndexOutOfBoundsException {
+        checkRow(row);
+        return lineNumbers[row];
+    }
+    
+    /**
+     * Returns the physical index of a row in the sheet, as {@link ExcelSheetReader#getRowIndex()} returns it.
+     * 
+     * @param row The 0-based index of the row in this batch.
+     * @return The 0-based index of the row in the sheet.
+     * 
+     * @throws IndexOutOfBoundsException If the row is not within this batch.
+     */
+    public int getRowIndex(int row) throws IndexOutOfBoundsException {
+        checkRow(row);
+        return rowIndices[row];
+    }
+    
+    /**
+     * Returns the number of cells of a row, as {@link ExcelSheetReader#readNextRow()} returns them.
+     * 
+     * @param row The 0-based index of the row in this batch.
+     * @return The number of cells of the row.
+     * 
+     * @throws IndexOutOfBoundsException If the row is not within this batch.
+     */
+    public int getCellCount(int row) throws IndexOutOfBoundsException {
+        checkRow(row);
+        return cellCounts[row];
+    }
+    
+    /**
+     * Returns the type of a cell.
+     * 
+     * @param row The 0-based index of the row in this batch.
+     * @param column The 0-based column of the cell.
+     * @return The type of the cell; {@link CellType#BLANK} for undefined cells and cells after the end of the row.
+     * 
+     * @throws IndexOutOfBoundsException If the row or the column is not within this batch.
+     */
+    public @NonNull CellType getCellType(int row, int column) throws IndexOutOfBoundsException {
+        checkRow(row);
+        checkColumn(column);
+        return notNull(CELL_TYPES[types[column][row]]);
+    }
+    
+    /**
+     * Returns the text of a cell, as {@link ExcelSheetReader#readNextRow()} returns it. The texts of numeric and
+     * boolean cells are rendered on each call.
+     * 
+     * @param row The 0-based index of the row in this batch.
+     * @param column The 0-based column of the cell.
+     * @return The text of the cell.
+     * 
+     * @throws IndexOutOfBoundsException If the row or the column is not within this batch.
+     */
+    public @NonNull String getString(int row, int column) throws IndexOutOfBoundsException {
+        CellType type = getCellType(row, column);
+        String result;
+        if (type == CellType.NUMERIC) {
+            result = notNull(Double.toString(numbers[column][row]));
+        } else if (type == CellType.BOOLEAN) {
+            result = notNull(Boolean.toString(numbers[column][row] != 0));
+        } else {
+            result = notNull(texts[column][row]);
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the value of a {@link CellType#NUMERIC} cell.
+     * 
+     * @param row The 0-based index of the row in this batch.
+     * @param column The 0-based column of the cell.
+     * @return The value of the cell; 1 or 0 for boolean cells, 0 for all other cells.
+     * 
+     * @throws IndexOutOfBoundsException If the row or the column is not within this batch.
+     */
+    public double getNumericValue(int row, int column) throws IndexOutOfBoundsException {
+        checkRow(row);
+        checkColumn(column);
+        return numbers[column][row];
+    }
+    
+    /**
+     * Returns the value of a {@link CellType#BOOLEAN} cell.
+     * 
+     * @param row The 0-based index of the row in this batch.
+     * @param column The 0-based column of the cell.
+     * @return The value of the cell; <code>false</code> if the cell is not boolean.
+     * 
+     * @throws IndexOutOfBoundsException If the row or the column is not within this batch.
+     */
+    public boolean getBooleanValue(int row, int column) throws IndexOutOfBoundsException {
+        return getCellType(row, column) == CellType.BOOLEAN && numbers[column][row] != 0;
+    }
+    
+    /**
+     * Returns the numeric values of a column. The array is not copied: the first {@link #getRowCount()} elements are
+     * the values of the rows of this batch, see {@link #getNumericValue(int, int)}. The array is overwritten when the
+     * batch is filled again.
+     * 
+     * @param column The 0-based column.
+     * @return The values of the column.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this batch.
+     */
+    public double @NonNull [] getNumericColumn(int column) throws IndexOutOfBoundsException {
+        checkColumn(column);
+        return numbers[column];
+    }
+    
+    /**
+     * Returns the texts of a column. The array is not copied: the first {@link #getRowCount()} elements are the texts
+     * of the rows of this batch, <code>null</code> for numeric and boolean cells (use {@link #getString(int, int)} to
+     * render them). The array is overwritten when the batch is filled again.
+     * 
+     * @param column The 0-based column.
+     * @return The texts of the column.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this batch.
+     */
+    public @Nullable String @NonNull [] getStringColumn(int column) throws IndexOutOfBoundsException {
+        checkColumn(column);
+        return texts[column];
+    }
+    
+    /**
+     * Copies the texts of the cells of a row into a new array, as {@link ExcelSheetReader#readNextRow()} returns
+     * them.
+     * 
+     * @param row The 0-based index of the row in this batch.
+     * @return The texts of the cells.
+     * 
+     * @throws IndexOutOfBoundsException If the row is not within this batch.
+     */
+    public @NonNull String @NonNull [] getRow(int row) throws IndexOutOfBoundsException {
+        @NonNull String[] result = new @NonNull String[getCellCount(row)];
+        for (int column = 0; column < result.length; column++) {
+            result[column] = getString(row, column);
+        }
+        return result;
+    }
+    
+    /**
+     * Checks that the given row is within this batch.
+     * 
+     * @param row The row to check.
+     * 
+     * @throws IndexOutOfBoundsException If the row is not within this batch.
+     */
+    private void checkRow(int row) throws IndexOutOfBoundsException {
+        if (row < 0 || row >= numRows) {
+            throw new IndexOutOfBoundsException("Row " + row + " is not within the batch (" + numRows + " rows)");
+        }
+    }
+    
+    /**
+     * Checks that the given column is within this batch.
+     * 
+     * @param column The column to check.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this batch.
+     */
+    private void checkColumn(int column) throws IndexOutOfBoundsException {
+        if (column < 0 || column >= numColumns) {
+            throw new IndexOutOfBoundsException("Column " + column + " is not within the batch (" + numColumns
+                    + " columns)");
+        }
+    }
+    
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * The cells of a single row, copied from a {@link SheetCursor}. The buffer is reused for all rows of a sheet, thus
+ * reading a row does not allocate new objects once the buffer has grown to the width of the sheet. Undefined cells
+ * are stored as {@link CellType#BLANK} cells with an empty text.
+ * 
+ * @author Adam
+ */
+class RowBuffer {
+    
+    private int size;
+    
+    private @NonNull CellType @NonNull [] types = new @NonNull CellType[16];
+    
+    private double @NonNull [] numbers = new double[16];
+    
+    /**
+     * The texts of the cells. <code>null</code> for numeric and boolean cells, whose text is rendered into
+     * {@link #builders} on the first access.
+     */
+    private @Nullable CharSequence @NonNull [] texts = new CharSequence[16];
+    
+    /**
+     * Reusable buffers for cell texts, which are not available as {@link String}s.
+     */
+    private @Nullable StringBuilder @NonNull [] builders = new StringBuilder[16];
+    
+    /**
+     * Whether the text of a cell is a shared instance, see {@link SheetCursor#isTextShared()}.
+     */
+    private boolean @NonNull [] shared = new boolean[16];
+    
+    /**
+     * Removes all cells.
+     */
+    public void clear() {
+        size = 0;
+    }
+    
+    /**
+     * Returns the number of cells in this row.
+     * 
+     * @return The number of cells, including undefined cells before the last defined cell and padding.
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * Copies all (remaining) cells of the current row of the given cursor into this buffer. Undefined cells are
+     * filled with blank cells.
+     * 
+     * @param cursor The cursor, positioned on a row.
+     * 
+     * @throws IOException If reading the cells fails.
+     */
+    public void readCells(@NonNull SheetCursor cursor) throws IOException {
+        readCells(cursor, null);
+    }
+    
+    /**
+     * Copies the (remaining) cells of the current row of the given cursor, which are in the given columns, into this
+     * buffer. Cells in other columns are skipped by the cursor and filled with blank cells, like undefined cells.
+     * 
+     * @param cursor The cursor, positioned on a row.
+     * @param columns The 0-based indices of the columns to copy. <code>null</code> to copy all cells.
+     * 
+     * @throws IOException If reading the cells fails.
+     */
+    public void readCells(@NonNull SheetCursor cursor, @Nullable BitSet columns) throws IOException {
+        readCells(cursor, columns, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Copies the cells of the current row of the given cursor, which are in the given columns, into this buffer,
+     * until a cell in or after the given column is copied. The remaining cells of the row can be copied with a
+     * further call.
+     * 
+     * @param cursor The cursor, positioned on a row.
+     * @param columns The 0-based indices of the columns to copy. <code>null</code> to copy all cells.
+     * @param lastColumn The 0-based column after which to stop.
+     * @return <code>true</code> if the copying stopped because of the given column, <code>false</code> if the end
+     *      of the row is reached.
+     * 
+     * @throws IOException If reading the cells fails.
+     */
+    public boolean readCells(@NonNull SheetCursor cursor, @Nullable BitSet columns, int lastColumn)
+            throws IOException {
+        
+        boolean stopped = false;
+        while (!stopped && (columns != null ? cursor.nextCell(columns) : cursor.nextCell())) {
+            int column = cursor.getColumnIndex();
+            padTo(column);
+            ensureCapacity(column + 1);
+            
+            CellType type = cursor.getCellType();
+            types[column] = type;
+            switch (type) {
+            case NUMERIC:
+                numbers[column] = cursor.getNumericValue();
+                texts[column] = null;
+                shared[column] = false;
+                break;
+            case BOOLEAN:
+                numbers[column] = cursor.getBooleanValue() ? 1 : 0;
+                texts[column] = null;
+                shared[column] = false;
+                break;
+            default:
+                texts[column] = copy(column, cursor.getText());
+                shared[column] = cursor.isTextShared();
+                break;
+            }
+            size = column + 1;
+            stopped = column >= lastColumn;
+        }
+        return stopped;
+    }
+    
+    /**
+     * Checks whether this row contains a cell with content, i.e. a cell that is not blank and whose text is not
+     * empty (see {@link SheetCursor#hasContent()}).
+     * 
+     * @return Whether this row has a cell with content.
+     */
+    public boolean hasContent() {
+        boolean result = false;
+        for (int i = 0; i < size && !result; i++) {
+            CellType type = types[i];
+            if (type == CellType.NUMERIC || type == CellType.BOOLEAN) {
+                result = true;
+            } else if (type != CellType.BLANK) {
+                result = notNull(texts[i]).length() > 0;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Adds blank cells until this row has (at least) the given number of cells.
+     * 
+     * @param count The minimum number of cells.
+     */
+    public void padTo(int count) {
+        ensureCapacity(count);
+        while (size < count) {
+            types[size] = CellType.BLANK;
+            texts[size] = "";
+            shared[size] = true;
+            size++;
+        }
+    }
+    
+    /**
+     * Returns the type of the given cell.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The type of the cell.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this row.
+     */
+    public @NonNull CellType getType(int column) throws IndexOutOfBoundsException {
+        checkColumn(column);
+        return types[column];
+    }
+    
+    /**
+     * Returns the text of the given cell, as {@link ExcelSheetReader#readNextRow()} returns it. The returned sequence
+     * is only valid until this buffer is filled with the next row.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The text of the cell.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this row.
+     */
+    public @NonNull CharSequence getText(int column) throws IndexOutOfBoundsException {
+        checkColumn(column);
+        CharSequence result = texts[column];
+        if (result == null) {
+            StringBuilder builder = getBuilder(column);
+            if (types[column] == CellType.BOOLEAN) {
+                builder.append(numbers[column] != 0);
+            } else {
+                // same format as Double.toString(), without creating a String
+                Numbers.appendDouble(builder, numbers[column]);
+            }
+            result = builder;
+            texts[column] = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the numeric value of the given cell.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The numeric value, 1 or 0 for boolean cells and 0 for all other cells.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this row.
+     */
+    public double getNumber(int column) throws IndexOutOfBoundsException {
+        checkColumn(column);
+        CellType type = types[column];
+        return type == CellType.NUMERIC || type == CellType.BOOLEAN ? numbers[column] : 0;
+    }
+    
+    /**
+     * Returns the boolean value of the given cell.
+     * 
+     * @param column The 0-based column of the cell.
+     * @return The boolean value, <code>false</code> for all cells that are not boolean cells.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this row.
+     */
+    public boolean getBoolean(int column) throws IndexOutOfBoundsException {
+        checkColumn(column);
+        return types[column] == CellType.BOOLEAN && numbers[column] != 0;
+    }
+    
+    /**
+     * Returns the text of the given cell as a {@link String}.
+     * 
+     * @param column The 0-based column of the cell.
+     * @param dictionary The dictionary to look up the text in, so that equal texts are returned as the same
+     *      instance. Shared texts of the cursor are not looked up. <code>null</code> to create a new {@link String}
+     *      for texts that are not available as {@link String}s.
+     * @return The text of the cell.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this row.
+     */
+    public @NonNull String getString(int column, @Nullable StringDictionary dictionary)
+            throws IndexOutOfBoundsException {
+        
+        CharSequence text = getText(column);
+        String result;
+        if (dictionary != null && !shared[column]) {
+            result = dictionary.get(text);
+        } else {
+            result = notNull(text.toString());
+        }
+        return result;
+    }
+    
+    /**
+     * Copies the texts of all cells into a new array.
+     * 
+     * @param dictionary The dictionary to look up the texts in, see {@link #getString(int, StringDictionary)}.
+     * @return The texts of the cells.
+     */
+    public @NonNull String @NonNull [] toStringArray(@Nullable StringDictionary dictionary) {
+        @NonNull String[] result = new @NonNull String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = getString(i, dictionary);
+        }
+        return result;
+    }
+    
+    /**
+     * Stores the given cell text. {@link String}s are stored directly, other sequences (e.g. the reused buffers of
+     * the cursor) are copied into the buffer of the column.
+     * 
+     * @param column The column of the cell.
+     * @param text The text of the cell.
+     * @return The text to store for the cell.
+     */
+    private @NonNull CharSequence copy(int column, @NonNull CharSequence text) {
+        CharSequence result = text;
+        if (!(text instanceof String)) {
+            StringBuilder builder = getBuilder(column);
+            builder.append(text);
+            result = builder;
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the empty, reusable text buffer of the given column.
+     * 
+     * @param column The column.
+     * @return The empty buffer of the column.
+     */
+    private @NonNull StringBuilder getBuilder(int column) {
+        StringBuilder result = builders[column];
+        if (result == null) {
+            result = new StringBuilder();
+            builders[column] = result;
+        } else {
+            result.setLength(0);
+        }
+        return result;
+    }
+    
+    /**
+     * Checks that the given column is within this row.
+     * 
+     * @param column The column to check.
+     * 
+     * @throws IndexOutOfBoundsException If the column is not within this row.
+     */
+    private void checkColumn(int column) throws IndexOutOfBoundsException {
+        if (column < 0 || column >= size) {
+            throw new IndexOutOfBoundsException("Column " + column + " is not within the row (" + size + " cells)");
+        }
+    }
+    
+    /**
+     * Grows the arrays so that they can hold the given number of cells.
+     * 
+     * @param capacity The required number of cells.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > types.length) {
+            int newSize = Math.max(capacity, types.length * 2);
+            types = notNull(Arrays.copyOf(types, newSize));
+            numbers = notNull(Arrays.copyOf(numbers, newSize));
+            texts = notNull(Arrays.copyOf(texts, newSize));
+            builders = notNull(Arrays.copyOf(builders, newSize));
+            shared = notNull(Arrays.copyOf(shared, newSize));
+        }
+    }
+    
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * The parsed cells of (a part of) a sheet. The rows and cells are stored in parallel arrays, to keep the memory
+ * overhead per cell low. Used by the {@link BufferedSheetSource} to hold a complete sheet and by the
+ * {@link PrefetchCursor} to pass batches of rows from the parsing thread to the reader.
+ * 
+ * @author Adam
+ */
+class SheetBuffer {
+    
+    private static final @NonNull CellType[] CELL_TYPES = CellType.values();
+    
+    private int numRows;
+    
+    private int @NonNull [] rowIndices = new int[64];
+    
+    private int @NonNull [] outlineLevels = new int[64];
+    
+    /**
+     * The index of the first cell of each row; the cells of a row end at the first cell of the next row.
+     */
+    private int @NonNull [] firstCells = new int[65];
+    
+    private int numCells;
+    
+    private int @NonNull [] columns = new int[256];
+    
+    private byte @NonNull [] types = new byte[256];
+    
+    /**
+     * The text values of the cells: the content of string, error and blank cells, the formula of formula cells.
+     */
+    private @Nullable String @NonNull [] texts = new String[256];
+    
+    /**
+     * The numeric values of the cells; 1 and 0 for boolean cells. For formula cells, the numeric or boolean result.
+     */
+    private double @NonNull [] numbers = new double[256];
+    
+    /**
+     * The types of the cached results of formula cells (see {@link SheetCursor#getCachedResultType()}), -1 if a
+     * formula has no result. Not used for other cells.
+     */
+    private byte @NonNull [] resultTypes = new byte[256];
+    
+    /**
+     * The string and error results of formula cells. <code>null</code> until the first such result is added, since
+     * most sheets don't contain formulas.
+     */
+    private @Nullable String @Nullable [] resultTexts;
+    
+    /**
+     * Parses the given sheet completely.
+     * 
+     * @param source The sheet to parse.
+     * @return The parsed cells of the sheet.
+     * 
+     * @throws IOException If parsing the sheet fails.
+     */
+    static @NonNull SheetBuffer read(@NonNull SheetSource source) throws IOException {
+        SheetBuffer result = new SheetBuffer();
+        try (SheetCursor cursor = source.openCursor()) {
+            result.readRows(cursor, Integer.MAX_VALUE, source.getName());
+        }
+        return result;
+    }
+    
+    /**
+     * Parses the next rows of the given cursor and adds them to this buffer. If parsing fails, the rows before the
+     * failing row are kept in this buffer.
+     * 
+     * @param cursor The cursor to parse.
+     * @param maxRows The maximum number of rows to add.
+     * @param name The name of the sheet, for error messages.
+     * @return <code>true</code> if the end of the sheet is reached, <code>false</code> if the maximum number of rows
+     *      was added.
+     * 
+     * @throws IOException If parsing the sheet fails or the current thread is interrupted.
+     */
+    boolean readRows(@NonNull SheetCursor cursor, int maxRows, @NonNull String name) throws IOException {
+        int firstRow = numRows;
+        int completeRows = numRows;
+        boolean end = false;
+        try {
+            while (!end && numRows - firstRow < maxRows) {
+                if (cursor.nextRow()) {
+                    addRow(cursor.getRowIndex(), cursor.getOutlineLevel());
+                    while (cursor.nextCell()) {
+                        addCell(cursor);
+                    }
+                    completeRows = numRows;
+                    
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Parsing sheet " + name + " was cancelled");
+                    }
+                } else {
+                    end = true;
+                }
+            }
+        } finally {
+            // if parsing failed within a row, the incomplete row is removed
+            if (numRows > completeRows) {
+                numRows = completeRows;
+                numCells = firstCells[numRows];
+            }
+            firstCells[numRows] = numCells;
+        }
+        return end;
+    }
+    
+    /**
+     * Removes all rows, to reuse this buffer.
+     */
+    void clear() {
+        // release the texts
+        Arrays.fill(texts, 0, numCells, null);
+        String[] resultTexts = this.resultTexts;
+        if (resultTexts != null) {
+            Arrays.fill(resultTexts, 0, numCells, null);
+        }
+        numRows = 0;
+        numCells = 0;
+        firstCells[0] = 0;
+    }
+    
+    /**
+     * Returns the number of rows in this buffer.
+     * 
+     * @return The number of rows.
+     */
+    int getRowCount() {
+        return numRows;
+    }
+    
+    /**
+     * Opens a cursor over the rows of this buffer.
+     * 
+     * @return A new cursor.
+     */
+    @NonNull SheetCursor openCursor() {
+        return new BufferCursor(this);
+    }
+    
+    /**
+     * Adds a row. The following cells are added to this row.
+     * 
+     * @param rowIndex The index of the row.
+     * @param outlineLevel The outline level of the row.
+     */
+    private void addRow(int rowIndex, int outlineLevel) {
+        if (numRows == rowIndices.length) {
+            int newSize = rowIndices.length * 2;
+            rowIndices = notNull(Arrays.copyOf(rowIndices, newSize));
+            outlineLevels = notNull(Arrays.copyOf(outlineLevels, newSize));
+            firstCells = notNull(Arrays.copyOf(firstCells, newSize + 1));
+        }
+        rowIndices[numRows] = rowIndex;
+        outlineLevels[numRows] = outlineLevel;
+        firstCells[numRows] = numCells;
+        numRows++;
+    }
+    
+    /**
+     * Adds the cell the given cursor is positioned on to the last row.
+     * 
+     * @param cursor The cursor to copy the cell from.
+     * 
+     * @throws IOException If the formula of the cell can't be read.
+     */
+    private void addCell(@NonNull SheetCursor cursor) throws IOException {
+        if (numCells == columns.length) {
+            int newSize = columns.length * 2;
+            columns = notNull(Arrays.copyOf(columns, newSize));
+            types = notNull(Arrays.copyOf(types, newSize));
+            texts = notNull(Arrays.copyOf(texts, newSize));
+            numbers = notNull(Arrays.copyOf(numbers, newSize));
+            resultTypes = notNull(Arrays.copyOf(resultTypes, newSize));
+            String[] resultTexts = this.resultTexts;
+            if (resultTexts != null) {
+                this.resultTexts = Arrays.copyOf(resultTexts, newSize);
+            }
+        }
+        
+        CellType type = cursor.getCellType();
+        columns[numCells] = cursor.getColumnIndex();
+        types[numCells] = (byte) type.ordinal();
+        switch (type) {
+        case NUMERIC:
+            numbers[numCells] = cursor.getNumericValue();
+            break;
+        case BOOLEAN:
+            numbers[numCells] = cursor.getBooleanValue() ? 1 : 0;
+            break;
+        case FORMULA:
+            texts[numCells] = cursor.getFormula();
+            addResult(cursor);
+            break;
+        default:
+            texts[numCells] = cursor.getStringValue();
+            break;
+        }
+        numCells++;
+    }
+    
+    /**
+     * Stores the cached result of the formula cell the given cursor is positioned on, as the last cell.
+     * 
+     * @param cursor The cursor to copy the result from.
+     */
+    private void addResult(@NonNull SheetCursor cursor) {
+        CellType resultType = cursor.getCachedResultType();
+        resultTypes[numCells] = resultType != null ? (byte) resultType.ordinal() : -1;
+        if (resultType == CellType.NUMERIC) {
+            numbers[numCells] = cursor.getNumericValue();
+        } else if (resultType == CellType.BOOLEAN) {
+            numbers[numCells] = cursor.getBooleanValue() ? 1 : 0;
+        }
+        
+        String[] resultTexts = this.resultTexts;
+        if (resultType == CellType.STRING || resultType == CellType.ERROR) {
+            if (resultTexts == null) {
+                resultTexts = new String[columns.length];
+                this.resultTexts = resultTexts;
+            }
+            resultTexts[numCells] = cursor.getStringValue();
+        } else if (resultTexts != null) {
+            // the cell may be reused after an incomplete row was removed
+            resultTexts[numCells] = null;
+        }
+    }
+    
+    /**
+     * A cursor over a {@link SheetBuffer}.
+     */
+    private static class BufferCursor extends SheetCursor {
+        
+        private @NonNull SheetBuffer buffer;
+        
+        private int row = -1;
+        
+        private int cell = -1;
+        
+        /**
+         * Creates a cursor for the given buffer.
+         * 
+         * @param buffer The parsed sheet.
+         */
+        BufferCursor(@NonNull SheetBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public boolean nextRow() {
+            if (row < buffer.numRows) {
+                row++;
+                cell = row < buffer.numRows ? buffer.firstCells[row] - 1 : -1;
+            }
+            return row < buffer.numRows;
+        }
+        
+        @Override
+        public int getRowIndex() {
+            return buffer.rowIndices[row];
+        }
+        
+        @Override
+        public int getOutlineLevel() {
+            return buffer.outlineLevels[row];
+        }
+        
+        @Override
+        public boolean nextCell() {
+            boolean result = false;
+            if (row >= 0 && row < buffer.numRows && cell < buffer.firstCells[row + 1]) {
+                cell++;
+                result = cell < buffer.firstCells[row + 1];
+            }
+            return result;
+        }
+        
+        @Override
+        public int getColumnIndex() {
+            return buffer.columns[cell];
+        }
+        
+        @Override
+        public @NonNull CellType getCellType() {
+            return notNull(CELL_TYPES[buffer.types[cell]]);
+        }
+        
+        @Override
+        public @NonNull String getStringValue() {
+            String result;
+            if (getCellType() != CellType.FORMULA) {
+                result = buffer.texts[cell];
+            } else {
+                String[] resultTexts = buffer.resultTexts;
+                result = resultTexts != null ? resultTexts[cell] : null;
+            }
+            return result != null ? result : "";
+        }
+        
+        @Override
+        public double getNumericValue() {
+            return buffer.numbers[cell];
+        }
+        
+        @Override
+        public boolean getBooleanValue() {
+            return buffer.numbers[cell] != 0;
+        }
+        
+        @Override
+        public @Nullable String getFormula() {
+            return getCellType() == CellType.FORMULA ? buffer.texts[cell] : null;
+        }
+        
+        @Override
+        public @Nullable CellType getCachedResultType() {
+            byte resultType = buffer.resultTypes[cell];
+            return getCellType() == CellType.FORMULA && resultType != -1 ? CELL_TYPES[resultType] : null;
+        }
+        
+        @Override
+        public void close() {
+            // nothing to close, the buffer is shared by all cursors
+        }
+    
+    }
+    
+}
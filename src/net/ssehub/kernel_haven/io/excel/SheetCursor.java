@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A forward-only cursor over the rows and cells of a single sheet. Only the row and the cell the cursor is
+ * currently positioned on are accessible; this allows implementations to parse the sheet on the fly without
+ * holding it in memory. Cursors are created by {@link SheetSource#openCursor()}.
+ * <p>
+ * Usage: call {@link #nextRow()} to move to the next (defined) row and then {@link #nextCell()} to move through the
+ * (defined) cells of this row. Rows and cells that are not defined in the sheet are skipped.
+ * 
+ * @author Adam
+ */
+abstract class SheetCursor implements Closeable {
+    
+    /**
+     * Moves this cursor to the next row of the sheet. Cells of the current row, which were not visited yet,
+     * are skipped.
+     * 
+     * @return <code>true</code> if the cursor is positioned on a new row, <code>false</code> if the end of the sheet
+     *      is reached.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    public abstract boolean nextRow() throws IOException;
+    
+    /**
+     * Returns the (physical) index of the current row.
+     * 
+     * @return The 0-based index of the current row.
+     */
+    public abstract int getRowIndex();
+    
+    /**
+     * Returns the outline (grouping) level of the current row.
+     * 
+     * @return The outline level of the current row, 0 if the row is not grouped.
+     */
+    public abstract int getOutlineLevel();
+    
+    /**
+     * Moves this cursor to the next cell of the current row.
+     * 
+     * @return <code>true</code> if the cursor is positioned on a new cell, <code>false</code> if the end of the row
+     *      is reached.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    public abstract boolean nextCell() throws IOException;
+    
+    /**
+     * Moves this cursor to the next cell of the current row, which is in one of the given columns. Cells in other
+     * columns are skipped; implementations may skip them without reading their values.
+     * 
+     * @param columns The 0-based indices of the columns to visit.
+     * @return <code>true</code> if the cursor is positioned on a new cell, <code>false</code> if the end of the row
+     *      is reached.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    public boolean nextCell(@NonNull BitSet columns) throws IOException {
+        boolean result = nextCell();
+        while (result && !columns.get(getColumnIndex())) {
+            result = nextCell();
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the (physical) index of the current cell.
+     * 
+     * @return The 0-based column index of the current cell.
+     */
+    public abstract int getColumnIndex();
+    
+    /**
+     * Returns the type of the current cell.
+     * 
+     * @return The type of the current cell.
+     */
+    public abstract @NonNull CellType getCellType();
+    
+    /**
+     * Returns the text value of the current cell. This is the content of {@link CellType#STRING} cells and
+     * the error code of {@link CellType#ERROR} cells. {@link CellType#BLANK} cells have an empty string as value.
+     * For {@link CellType#FORMULA} cells, this is the text of a string or error result, see
+     * {@link #getCachedResultType()}.
+     * 
+     * @return The text value of the current cell.
+     */
+    public abstract @NonNull String getStringValue();
+    
+    /**
+     * Returns the value of the current {@link CellType#NUMERIC} cell, or the numeric result of the current
+     * {@link CellType#FORMULA} cell.
+     * 
+     * @return The numeric value of the current cell.
+     */
+    public abstract double getNumericValue();
+    
+    /**
+     * Returns the value of the current {@link CellType#BOOLEAN} cell, or the boolean result of the current
+     * {@link CellType#FORMULA} cell.
+     * 
+     * @return The boolean value of the current cell.
+     */
+    public abstract boolean getBooleanValue();
+    
+    /**
+     * Returns the formula of the current {@link CellType#FORMULA} cell.
+     * 
+     * @return The formula (without leading <code>=</code>) of the current cell, <code>null</code> if the cell
+     *      is not a formula cell.
+     * 
+     * @throws IOException If the formula can't be read from the sheet.
+     */
+    public abstract @Nullable String getFormula() throws IOException;
+    
+    /**
+     * Returns the type of the cached result of the current {@link CellType#FORMULA} cell, i.e. the result of the
+     * formula that was stored when the workbook was saved. Depending on this type, the result is read with
+     * {@link #getNumericValue()}, {@link #getBooleanValue()} or {@link #getStringValue()}.
+     * 
+     * @return {@link CellType#NUMERIC}, {@link CellType#STRING}, {@link CellType#BOOLEAN} or {@link CellType#ERROR};
+     *      <code>null</code> if the cell is not a formula cell or no result is stored for the formula.
+     */
+    public @Nullable CellType getCachedResultType() {
+        return null;
+    }
+    
+    /**
+     * Returns the text of the current cell: the formula of {@link CellType#FORMULA} cells and the
+     * {@link #getStringValue() text value} of all other cells. In contrast to the other methods, implementations may
+     * return a buffer, which is overwritten when the cursor moves to the next cell.
+     * 
+     * @return The text of the current cell. Only valid until the cursor is moved.
+     * 
+     * @throws IOException If the formula of the cell can't be read from the sheet.
+     */
+    public @NonNull CharSequence getText() throws IOException {
+        String result = getCellType() == CellType.FORMULA ? getFormula() : getStringValue();
+        return result != null ? result : "";
+    }
+    
+    /**
+     * Checks whether the {@link #getText() text} of the current cell is a shared instance, which is returned for all
+     * cells with the same text (e.g. a string of the shared strings table of the workbook). Such texts don't need to
+     * be looked up in a {@link StringDictionary}.
+     * 
+     * @return Whether the text of the current cell is a shared {@link String}.
+     */
+    public boolean isTextShared() {
+        return false;
+    }
+    
+    /**
+     * Checks whether the current row contains a cell with content, i.e. a cell that is not blank and whose text is
+     * not empty. Moves the cursor over the cells of the row up to the first cell with content; the current cell is
+     * undefined afterwards. Implementations may check the cells without reading their values completely.
+     * 
+     * @return Whether the (remaining cells of the) current row contain a cell with content.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    public boolean hasContent() throws IOException {
+        boolean result = false;
+        while (!result && nextCell()) {
+            result = hasCellContent();
+        }
+        return result;
+    }
+    
+    /**
+     * Checks whether the current cell has content, see {@link #hasContent()}.
+     * 
+     * @return Whether the current cell is not blank and its text is not empty.
+     * 
+     * @throws IOException If the formula of the cell can't be read from the sheet.
+     */
+    protected boolean hasCellContent() throws IOException {
+        boolean result;
+        switch (getCellType()) {
+        case NUMERIC:
+        case BOOLEAN:
+            // rendered as number or true/false
+            result = true;
+            break;
+        case BLANK:
+            result = false;
+            break;
+        default:
+            result = getText().length() > 0;
+            break;
+        }
+        return result;
+    }
+    
+}
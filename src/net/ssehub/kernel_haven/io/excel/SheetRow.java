@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.util.Arrays;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A row of a sheet, as returned by the {@link ExcelSheetReader#stream()} of a sheet. Carries the position of the row
+ * in the sheet, since the rows of a parallel stream are not processed in order.
+ * 
+ * @author Adam
+ */
+public class SheetRow {
+    
+    private int rowIndex;
+    
+    private int lineNumber;
+    
+    private @NonNull String @NonNull [] cells;
+    
+    /**
+     * Creates a row.
+     * 
+     * @param rowIndex The physical 0-based index of the row in the sheet.
+     * @param lineNumber The line number of the row, see {@link ExcelSheetReader#getLineNumber()}.
+     * @param cells The texts of the cells, as {@link ExcelSheetReader#readNextRow()} returns them.
+     */
+    SheetRow(int rowIndex, int lineNumber, @NonNull String @NonNull [] cells) {
+        this.rowIndex = rowIndex;
+        this.lineNumber = lineNumber;
+        this.cells = cells;
+    }
+    
+    /**
+     * Returns the physical index of this row in the sheet, as {@link ExcelSheetReader#getRowIndex()} returns it.
+     * 
+     * @return The 0-based index of this row.
+     */
+    public int getRowIndex() {
+        return rowIndex;
+    }
+    
+    /**
+     * Returns the line number of this row, as {@link ExcelSheetReader#getLineNumber()} returns it.
+     * 
+     * @return The 1-based line number of this row.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+    
+    /**
+     * Returns the texts of the cells of this row, as {@link ExcelSheetReader#readNextRow()} returns them.
+     * 
+     * @return The cells of this row.
+     */
+    public @NonNull String @NonNull [] getCells() {
+        return cells;
+    }
+    
+    @Override
+    public String toString() {
+        // For Debugging only
+        return rowIndex + ": " + Arrays.toString(cells);
+    }
+    
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link Spliterator} over a range of rows of a sheet. Splitting divides the range of physical row indices; each
+ * part reads its range with its own {@link ExcelSheetReader}, see {@link ExcelSheetReader#openRange(int, int)}. Thus,
+ * the parts can be read on different threads, and for XLSX sheets each part starts parsing near its first row.
+ * 
+ * @author Adam
+ */
+class SheetRowSpliterator implements Spliterator<@NonNull SheetRow> {
+    
+    private @NonNull ExcelSheetReader template;
+    
+    private int firstRow;
+    
+    private int lastRow;
+    
+    /**
+     * The estimated index of the last row of the range, used for splitting. The last part of a sheet reads up to
+     * {@link Integer#MAX_VALUE}, in case the declared size of the sheet is too small.
+     */
+    private int estimatedLastRow;
+    
+    private int minSplitRows;
+    
+    /**
+     * The readers of all parts, which are not finished yet. Closed when the stream is closed.
+     */
+    private @NonNull Set<@NonNull ExcelSheetReader> openReaders;
+    
+    /**
+     * The reader of this part. <code>null</code> before the first row is read.
+     */
+    private @Nullable ExcelSheetReader reader;
+    
+    private boolean finished;
+    
+    /**
+     * Creates a spliterator over a range of rows.
+     * 
+     * @param template The reader to copy the settings (e.g. the selected columns) from.
+     * @param firstRow The 0-based index of the first row.
+     * @param lastRow The 0-based index of the last row (inclusive).
+     * @param estimatedLastRow The estimated index of the last row, used for splitting.
+     * @param minSplitRows The minimum number of rows of a part.
+     * @param openReaders The readers of all parts, which are not finished yet.
+     */
+    SheetRowSpliterator(@NonNull ExcelSheetReader template, int firstRow, int lastRow, int estimatedLastRow,
+            int minSplitRows, @NonNull Set<@NonNull ExcelSheetReader> openReaders) {
+        
+        this.template = template;
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.estimatedLastRow = estimatedLastRow;
+        this.minSplitRows = Math.max(1, minSplitRows);
+        this.openReaders = openReaders;
+    }
+    
+    @Override
+    public boolean tryAdvance(@NonNull Consumer<? super @NonNull SheetRow> action) {
+        boolean result = false;
+        if (!finished) {
+            try {
+                ExcelSheetReader reader = this.reader;
+                if (reader == null) {
+                    reader = template.copy();
+                    this.reader = reader;
+                    openReaders.add(reader);
+                    reader.openRange(firstRow, lastRow);
+                }
+                
+                @NonNull String[] cells = reader.readNextRow();
+                if (cells != null) {
+                    action.accept(new SheetRow(reader.getRowIndex(), reader.getLineNumber(), cells));
+                    result = true;
+                } else {
+                    finished = true;
+                    openReaders.remove(reader);
+                    reader.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public @Nullable Spliterator<@NonNull SheetRow> trySplit() {
+        SheetRowSpliterator result = null;
+        // only split parts that did not start reading; the rows of a reader can't be divided
+        if (reader == null && !finished && (long) estimatedLastRow - firstRow + 1 >= 2L * minSplitRows) {
+            int middle = firstRow + (estimatedLastRow - firstRow + 1) / 2;
+            result = new SheetRowSpliterator(template, firstRow, middle - 1, middle - 1, minSplitRows, openReaders);
+            firstRow = middle;
+        }
+        return result;
+    }
+    
+    @Override
+    public long estimateSize() {
+        return finished ? 0 : Math.max(1, (long) estimatedLastRow - firstRow + 1);
+    }
+    
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+    
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A single sheet of an {@link ExcelBook}, which can be read by opening {@link SheetCursor}s on it. Each cursor
+ * reads the sheet independently from other cursors, starting at the first row.
+ * 
+ * @author Adam
+ */
+abstract class SheetSource {
+    
+    private @NonNull String name;
+    
+    private @Nullable Dimension dimension;
+    
+    /**
+     * The groups of rows in this sheet, once computed by an {@link ExcelSheetReader}.
+     */
+    private @Nullable List<@NonNull Group> groups;
+    
+    /**
+     * Creates a source for the sheet with the given name.
+     * 
+     * @param name The name of the sheet.
+     */
+    SheetSource(@NonNull String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Returns the name of this sheet.
+     * 
+     * @return The name of this sheet.
+     */
+    public @NonNull String getName() {
+        return name;
+    }
+    
+    /**
+     * Opens a new cursor, which is positioned before the first row of this sheet.
+     * 
+     * @return A new cursor for this sheet. Must be closed by the caller.
+     * 
+     * @throws IOException If opening the sheet fails.
+     */
+    public abstract @NonNull SheetCursor openCursor() throws IOException;
+    
+    /**
+     * Opens a new cursor over the given range of rows of this sheet. By default, the rows before the range are
+     * skipped by a cursor that starts at the first row; implementations may start directly at the range.
+     * 
+     * @param firstRow The 0-based index of the first row of the range.
+     * @param lastRow The 0-based index of the last row of the range (inclusive).
+     * @return A new cursor, positioned before the first row of the range. Must be closed by the caller.
+     * 
+     * @throws IOException If opening the sheet or skipping the rows before the range fails.
+     */
+    public @NonNull RangeCursor openCursor(int firstRow, int lastRow) throws IOException {
+        return new RangeCursor(openCursor(), 0, firstRow, lastRow);
+    }
+    
+    /**
+     * Returns the size of this sheet, as stored in the header of the sheet. This is only an estimation, since
+     * the header is written by the application that created the file. The header is read on the first call, the
+     * cell data of the sheet is not parsed.
+     * 
+     * @return The size of this sheet.
+     * 
+     * @throws IOException If reading the header of the sheet fails.
+     */
+    public synchronized @NonNull Dimension getDimension() throws IOException {
+        Dimension result = this.dimension;
+        if (result == null) {
+            result = readDimension();
+            this.dimension = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the size of this sheet, if it is already known.
+     * 
+     * @return The size of this sheet, <code>null</code> if {@link #getDimension()} did not read it yet.
+     */
+    synchronized @Nullable Dimension getKnownDimension() {
+        return dimension;
+    }
+    
+    /**
+     * Sets the size of this sheet, e.g. from an index file. {@link #getDimension()} will not read it anymore.
+     * 
+     * @param dimension The size of this sheet.
+     */
+    synchronized void setDimension(@NonNull Dimension dimension) {
+        this.dimension = dimension;
+    }
+    
+    /**
+     * Returns the groups of rows in this sheet, if they are already known. The groups are computed by the
+     * {@link ExcelSheetReader}s of this sheet and shared by all readers.
+     * 
+     * @return The groups of rows, <code>null</code> if not computed yet.
+     */
+    synchronized @Nullable List<@NonNull Group> getGroups() {
+        return groups;
+    }
+    
+    /**
+     * Sets the groups of rows in this sheet, see {@link #getGroups()}.
+     * 
+     * @param groups The groups of rows in this sheet.
+     */
+    synchronized void setGroups(@NonNull List<@NonNull Group> groups) {
+        this.groups = notNull(Collections.unmodifiableList(groups));
+    }
+    
+    /**
+     * Reads the size of this sheet, see {@link #getDimension()}.
+     * 
+     * @return The size of this sheet, {@link Dimension#UNKNOWN} if the sheet does not declare it.
+     * 
+     * @throws IOException If reading the header of the sheet fails.
+     */
+    protected abstract @NonNull Dimension readDimension() throws IOException;
+    
+    /**
+     * The size of a sheet. Counts start at the first row and column of the sheet, thus leading empty rows and
+     * columns are included.
+     */
+    static final class Dimension {
+        
+        /**
+         * The size of a sheet that does not declare its size.
+         */
+        static final @NonNull Dimension UNKNOWN = new Dimension(-1, -1);
+        
+        private int rowCount;
+        
+        private int columnCount;
+        
+        /**
+         * Creates a dimension.
+         * 
+         * @param rowCount The number of rows, -1 if unknown.
+         * @param columnCount The number of columns, -1 if unknown.
+         */
+        Dimension(int rowCount, int columnCount) {
+            this.rowCount = rowCount;
+            this.columnCount = columnCount;
+        }
+        
+        /**
+         * Returns the number of rows (the index of the last row plus one).
+         * 
+         * @return The number of rows, -1 if unknown.
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+        
+        /**
+         * Returns the number of columns (the index of the last column plus one).
+         * 
+         * @return The number of columns, -1 if unknown.
+         */
+        public int getColumnCount() {
+            return columnCount;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * An index file next to a streamed XLSX workbook, which stores the results of the scans over the workbook: the sheet
+ * catalog, the sizes and row groups of the sheets and the {@link XlsxRowIndex}es. When the unchanged workbook is
+ * opened again, the catalog and the sheets are restored from the index file instead of scanning the workbook.
+ * <p>
+ * The index file is only used if the size, the modification time and a hash of the workbook are the same as when the
+ * index file was written. The hash is computed over the central directory of the ZIP file, which contains the
+ * CRC-32 checksums of all parts; thus, it detects changed contents without reading the complete file.
+ * 
+ * @author Adam
+ */
+class SidecarIndex {
+    
+    /**
+     * The first bytes of an index file: <code>KHXI</code>.
+     */
+    private static final int MAGIC = 0x4B485849;
+    
+    private static final int VERSION = 1;
+    
+    /**
+     * The signature of the "end of central directory" record of a ZIP file.
+     */
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054B50;
+    
+    /**
+     * The minimal size of the "end of central directory" record; it may be followed by a comment of up to 64 KiB.
+     */
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    
+    private @NonNull File file;
+    
+    /**
+     * The size, modification time and hash of the workbook.
+     */
+    private byte @NonNull [] key;
+    
+    /**
+     * Creates the index file for the given workbook.
+     * 
+     * @param workbook The XLSX workbook.
+     * @param key The key of the current state of the workbook, see {@link #computeKey(File)}.
+     */
+    SidecarIndex(@NonNull File workbook, byte @NonNull [] key) {
+        this.file = getFile(workbook);
+        this.key = key;
+    }
+    
+    /**
+     * Computes the key of the current state of the given workbook: its size, modification time and hash.
+     * 
+     * @param workbook The workbook.
+     * @return The key.
+     * 
+     * @throws IOException If reading the workbook fails.
+     */
+    static byte @NonNull [] computeKey(@NonNull File workbook) throws IOException {
+        ByteArrayOutputStream key = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(key)) {
+            out.writeLong(workbook.length());
+            out.writeLong(workbook.lastModified());
+            out.write(computeHash(workbook));
+        }
+        return notNull(key.toByteArray());
+    }
+    
+    /**
+     * Returns the index file of the given workbook.
+     * 
+     * @param workbook The workbook.
+     * @return The index file next to the workbook.
+     */
+    static @NonNull File getFile(@NonNull File workbook) {
+        return new File(workbook.getPath() + ".index");
+    }
+    
+    /**
+     * Reads the catalog of the workbook from this index file.
+     * 
+     * @param pkg The opened package of the workbook.
+     * @param offHeapSharedStrings Whether the shared strings table is kept off the heap.
+     * @return The catalog, with the known sizes, groups and row indices set on the sheets. <code>null</code> if the
+     *      index file does not exist, is not valid or was written for another state of the workbook.
+     */
+    @Nullable WorkbookCatalog read(@NonNull OPCPackage pkg, boolean offHeapSharedStrings) {
+        WorkbookCatalog result = null;
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+                result = read(in, pkg, offHeapSharedStrings);
+            } catch (IOException | InvalidFormatException | RuntimeException e) {
+                // not a valid index file (e.g. a corrupt length or part name); it is overwritten when the workbook is
+                // closed
+                result = null;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Reads the catalog of the workbook.
+     * 
+     * @param in The content of the index file.
+     * @param pkg The opened package of the workbook.
+     * @param offHeapSharedStrings Whether the shared strings table is kept off the heap.
+     * @return The catalog, <code>null</code> if the index file belongs to another state of the workbook.
+     * 
+     * @throws IOException If the index file is not valid.
+     * @throws InvalidFormatException If a stored part name is not valid.
+     */
+    private @Nullable WorkbookCatalog read(@NonNull DataInputStream in, @NonNull OPCPackage pkg,
+            boolean offHeapSharedStrings) throws IOException, InvalidFormatException {
+        
+        boolean valid = in.readInt() == MAGIC && in.readInt() == VERSION;
+        if (valid) {
+            byte[] storedKey = new byte[readLength(in, 1)];
+            in.readFully(storedKey);
+            valid = Arrays.equals(storedKey, key);
+        }
+        
+        WorkbookCatalog result = null;
+        if (valid) {
+            String sharedStringsName = in.readUTF();
+            XlsxSharedStrings sharedStrings = new XlsxSharedStrings(!sharedStringsName.isEmpty()
+                    ? getPart(pkg, sharedStringsName) : null, offHeapSharedStrings);
+            
+            // each sheet has at least two empty names and three flags
+            int numSheets = readLength(in, 7);
+            List<@NonNull SheetSource> sheets = new ArrayList<>(numSheets);
+            for (int i = 0; i < numSheets; i++) {
+                String name = in.readUTF();
+                XlsxSheetSource sheet = new XlsxSheetSource(name, getPart(pkg, in.readUTF()), sharedStrings);
+                
+                if (in.readBoolean()) {
+                    sheet.setDimension(new SheetSource.Dimension(in.readInt(), in.readInt()));
+                }
+                if (in.readBoolean()) {
+                    int numGroups = readLength(in, 8);
+                    List<@NonNull Group> groups = new ArrayList<>(numGroups);
+                    for (int j = 0; j < numGroups; j++) {
+                        groups.add(new Group(in.readInt(), in.readInt()));
+                    }
+                    sheet.setGroups(groups);
+                }
+                if (in.readBoolean()) {
+                    sheet.setRowIndex(in.readBoolean() ? XlsxRowIndex.readFrom(in, in.available()) : null);
+                }
+                
+                sheets.add(sheet);
+            }
+            result = new WorkbookCatalog(sheets);
+        }
+        return result;
+    }
+    
+    /**
+     * Reads a length from the index file and checks that the remaining content can hold that many elements. This
+     * rejects corrupt lengths before anything is allocated for them.
+     * 
+     * @param in The content of the index file.
+     * @param elementSize The minimal number of bytes of each element.
+     * @return The length.
+     * 
+     * @throws IOException If reading fails or the length is not valid.
+     */
+    private static int readLength(@NonNull DataInputStream in, int elementSize) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available() / elementSize) {
+            throw new IOException("Invalid length in index file: " + length);
+        }
+        return length;
+    }
+    
+    /**
+     * Writes the given catalog and the known data of its sheets to this index file. The file is only written if its
+     * content changes.
+     * 
+     * @param catalog The catalog of the workbook. All sheets must be {@link XlsxSheetSource}s.
+     * 
+     * @throws IOException If writing the file fails.
+     */
+    void write(@NonNull WorkbookCatalog catalog) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(content)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(key.length);
+            out.write(key);
+            
+            List<@NonNull SheetSource> sheets = catalog.getSheets();
+            PackagePart sharedStrings = sheets.isEmpty() ? null
+                    : ((XlsxSheetSource) sheets.get(0)).getSharedStrings().getPart();
+            out.writeUTF(sharedStrings != null ? sharedStrings.getPartName().getName() : "");
+            
+            out.writeInt(sheets.size());
+            for (SheetSource source : sheets) {
+                XlsxSheetSource sheet = (XlsxSheetSource) source;
+                out.writeUTF(sheet.getName());
+                out.writeUTF(sheet.getPart().getPartName().getName());
+                
+                SheetSource.Dimension dimension = sheet.getKnownDimension();
+                out.writeBoolean(dimension != null);
+                if (dimension != null) {
+                    out.writeInt(dimension.getRowCount());
+                    out.writeInt(dimension.getColumnCount());
+                }
+                
+                List<@NonNull Group> groups = sheet.getGroups();
+                out.writeBoolean(groups != null);
+                if (groups != null) {
+                    out.writeInt(groups.size());
+                    for (Group group : groups) {
+                        out.writeInt(group.getStartIndex());
+                        out.writeInt(group.getEndIndex());
+                    }
+                }
+                
+                out.writeBoolean(sheet.isRowIndexKnown());
+                if (sheet.isRowIndexKnown()) {
+                    XlsxRowIndex rowIndex = sheet.getKnownRowIndex();
+                    out.writeBoolean(rowIndex != null);
+                    if (rowIndex != null) {
+                        rowIndex.writeTo(out);
+                    }
+                }
+            }
+        }
+        
+        byte[] bytes = content.toByteArray();
+        if (!file.isFile() || file.length() != bytes.length
+                || !Arrays.equals(Files.readAllBytes(file.toPath()), bytes)) {
+            // write to a unique temporary file first, so that concurrent readers never see an incomplete file and
+            // concurrent writers don't overwrite each other's temporary file
+            Path tmp = notNull(Files.createTempFile(notNull(file.getAbsoluteFile().getParentFile()).toPath(),
+                    file.getName(), ".tmp"));
+            try {
+                Files.write(tmp, bytes);
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+    
+    /**
+     * Returns the part with the given name.
+     * 
+     * @param pkg The package.
+     * @param name The name of the part.
+     * @return The part.
+     * 
+     * @throws InvalidFormatException If the name is not a valid part name.
+     * @throws IOException If the package does not contain the part.
+     */
+    private static @NonNull PackagePart getPart(@NonNull OPCPackage pkg, @NonNull String name)
+            throws InvalidFormatException, IOException {
+        
+        PackagePart result = pkg.getPart(PackagingURIHelper.createPartName(name));
+        if (result == null) {
+            throw new IOException("Package does not contain " + name);
+        }
+        return result;
+    }
+    
+    /**
+     * Computes the hash of the given workbook. The hash is computed over the central directory of the ZIP file, or
+     * over the complete file, if the central directory can't be found.
+     * 
+     * @param workbook The workbook.
+     * @return The SHA-256 hash.
+     * 
+     * @throws IOException If reading the workbook fails.
+     */
+    private static byte @NonNull [] computeHash(@NonNull File workbook) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        
+        try (RandomAccessFile in = new RandomAccessFile(workbook, "r")) {
+            long length = in.length();
+            int tailLength = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+            byte[] tail = new byte[tailLength];
+            in.seek(length - tailLength);
+            in.readFully(tail);
+            
+            // search the last "end of central directory" record
+            long directoryOffset = -1;
+            long directorySize = -1;
+            for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0 && directoryOffset == -1; i--) {
+                if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY) {
+                    directorySize = readInt(tail, i + 12) & 0xFFFFFFFFL;
+                    directoryOffset = readInt(tail, i + 16) & 0xFFFFFFFFL;
+                }
+            }
+            
+            if (directoryOffset >= 0 && directoryOffset + directorySize <= length) {
+                byte[] directory = new byte[(int) directorySize];
+                in.seek(directoryOffset);
+                in.readFully(directory);
+                digest.update(directory);
+            } else {
+                // not a ZIP file that we understand (e.g. ZIP64); hash the complete file
+                try (InputStream file = Files.newInputStream(workbook.toPath())) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = file.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+        }
+        return digest.digest();
+    }
+    
+    /**
+     * Reads a little-endian 32 bit integer.
+     * 
+     * @param bytes The bytes to read from.
+     * @param offset The offset of the integer.
+     * @return The integer.
+     */
+    private static int readInt(byte @NonNull [] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+    
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A dictionary of cell texts, which returns the same {@link String} instance for all occurrences of the same text.
+ * Texts are looked up by their characters, thus reused buffers (e.g. {@link StringBuilder}s) are only converted to
+ * a {@link String} the first time a text occurs.
+ * <p>
+ * The dictionary is an open addressing hash table with linear probing. Its size is bounded; when it is full, new
+ * texts are returned as new {@link String}s without being added.
+ * 
+ * @author Adam
+ */
+class StringDictionary {
+    
+    /**
+     * The maximum number of texts in a dictionary.
+     */
+    static final int MAX_SIZE = 1 << 20;
+    
+    /**
+     * The texts, at the position given by their hash code. The length is a power of two.
+     */
+    private @Nullable String @NonNull [] table = new String[256];
+    
+    private int size;
+    
+    /**
+     * Returns the canonical instance of the given text.
+     * 
+     * @param text The text.
+     * @return A {@link String} with the characters of the given text; the same instance for all equal texts.
+     */
+    public @NonNull String get(@NonNull CharSequence text) {
+        int mask = table.length - 1;
+        int index = spread(hash(text)) & mask;
+        String result = table[index];
+        while (result != null && !result.contentEquals(text)) {
+            index = (index + 1) & mask;
+            result = table[index];
+        }
+        
+        if (result == null) {
+            result = notNull(text.toString());
+            if (size < MAX_SIZE) {
+                table[index] = result;
+                size++;
+                if (size * 2 > table.length) {
+                    grow();
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the number of texts in this dictionary.
+     * 
+     * @return The number of distinct texts.
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * Computes the hash code of the given text, like {@link String#hashCode()} does.
+     * 
+     * @param text The text.
+     * @return The hash code.
+     */
+    private static int hash(@NonNull CharSequence text) {
+        int result;
+        if (text instanceof String) {
+            // cached by the String
+            result = text.hashCode();
+        } else {
+            result = 0;
+            for (int i = 0; i < text.length(); i++) {
+                result = 31 * result + text.charAt(i);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Spreads the higher bits of the hash code to the lower bits, which are used for the position in the table.
+     * 
+     * @param hash The hash code.
+     * @return The spread hash code.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+    
+    /**
+     * Doubles the size of the table.
+     */
+    private void grow() {
+        @Nullable String[] oldTable = table;
+        table = new String[oldTable.length * 2];
+        int mask = table.length - 1;
+        for (String text : oldTable) {
+            if (text != null) {
+                int index = spread(text.hashCode()) & mask;
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = text;
+            }
+        }
+    }
+    
+}
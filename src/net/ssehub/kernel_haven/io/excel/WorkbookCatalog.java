@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipCollection;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * The sheets of a streamed workbook. The catalog is built from the workbook part only (<code>workbook.xml</code>
+ * or the XLS globals); no sheet data is parsed to build it.
+ * 
+ * @author Adam
+ */
+class WorkbookCatalog {
+    
+    private @NonNull List<@NonNull SheetSource> sheets;
+    
+    private @NonNull Map<String, Integer> indices;
+    
+    /**
+     * Creates a catalog for the given sheets.
+     * 
+     * @param sheets The sheets of the workbook, in the order of the workbook.
+     */
+    WorkbookCatalog(@NonNull List<@NonNull SheetSource> sheets) {
+        this.sheets = notNull(Collections.unmodifiableList(new ArrayList<>(sheets)));
+        this.indices = new HashMap<>();
+        for (int i = 0; i < sheets.size(); i++) {
+            // Excel does not allow duplicate names; if there are some anyway, the first one wins
+            indices.putIfAbsent(sheets.get(i).getName(), i);
+        }
+    }
+    
+    /**
+     * Reads the catalog of an XLSX package. Only the workbook part and its relationships are parsed.
+     * 
+     * @param pkg The opened package.
+     * @param offHeapSharedStrings Whether the shared strings table is kept off the heap.
+     * @return The catalog of the package.
+     * 
+     * @throws IOException If the package does not contain a valid workbook part.
+     */
+    static @NonNull WorkbookCatalog readXlsx(@NonNull OPCPackage pkg, boolean offHeapSharedStrings)
+            throws IOException {
+        
+        PackagePart workbookPart = getWorkbookPart(pkg);
+        
+        XlsxSharedStrings sharedStrings = new XlsxSharedStrings(
+                getRelatedPart(workbookPart, notNull(XSSFRelation.SHARED_STRINGS.getRelation())),
+                offHeapSharedStrings);
+        
+        List<@NonNull SheetSource> sheets = new ArrayList<>();
+        try (InputStream in = workbookPart.getInputStream()) {
+            XMLStreamReader xml = XlsxSharedStrings.XML_FACTORY.createXMLStreamReader(in);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("sheet")) {
+                        String name = xml.getAttributeValue(null, "name");
+                        // r:id; the prefix of the relationships namespace differs between transitional and strict
+                        String id = getAttributeByLocalName(xml, "id");
+                        PackagePart sheetPart = id != null ? getPart(workbookPart, id) : null;
+                        if (name != null && sheetPart != null) {
+                            sheets.add(new XlsxSheetSource(name, sheetPart, sharedStrings));
+                        }
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Can't parse workbook part", e);
+        }
+        
+        return new WorkbookCatalog(sheets);
+    }
+    
+    /**
+     * Returns the main workbook part of the given package.
+     * 
+     * @param pkg The package.
+     * @return The workbook part.
+     * 
+     * @throws IOException If the package has no workbook part.
+     */
+    private static @NonNull PackagePart getWorkbookPart(@NonNull OPCPackage pkg) throws IOException {
+        PackageRelationshipCollection rels = pkg.getRelationshipsByType(PackageRelationshipTypes.CORE_DOCUMENT);
+        if (rels.size() == 0) {
+            rels = pkg.getRelationshipsByType(PackageRelationshipTypes.STRICT_CORE_DOCUMENT);
+        }
+        PackagePart result = rels.size() > 0 ? pkg.getPart(rels.getRelationship(0)) : null;
+        if (result == null) {
+            throw new IOException("Package does not contain a workbook");
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the first part of the given relationship type, which is related to the given part.
+     * 
+     * @param source The source part.
+     * @param relationshipType The relationship type.
+     * @return The target part, <code>null</code> if there is none.
+     * 
+     * @throws IOException If the relationships of the source part can't be read.
+     */
+    private static @Nullable PackagePart getRelatedPart(@NonNull PackagePart source, @NonNull String relationshipType)
+            throws IOException {
+        
+        PackagePart result = null;
+        try {
+            PackageRelationshipCollection rels = source.getRelationshipsByType(relationshipType);
+            if (rels.size() > 0) {
+                result = getPart(source, notNull(rels.getRelationship(0).getId()));
+            }
+        } catch (InvalidFormatException e) {
+            throw new IOException("Can't read relationships of " + source.getPartName(), e);
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the part, which is the target of the given relationship.
+     * 
+     * @param source The source part of the relationship.
+     * @param id The ID of the relationship.
+     * @return The target part, <code>null</code> if the relationship does not exist or is external.
+     * 
+     * @throws IOException If the target is not a valid part name.
+     */
+    private static @Nullable PackagePart getPart(@NonNull PackagePart source, @NonNull String id) throws IOException {
+        PackagePart result = null;
+        try {
+            PackageRelationship rel = source.getRelationship(id);
+            if (rel != null && rel.getTargetMode() != TargetMode.EXTERNAL) {
+                PackagePartName name = PackagingURIHelper.createPartName(rel.getTargetURI());
+                result = source.getPackage().getPart(name);
+            }
+        } catch (InvalidFormatException e) {
+            throw new IOException("Invalid relationship " + id + " of " + source.getPartName(), e);
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the value of the first attribute with the given local name, regardless of its namespace.
+     * 
+     * @param xml The XML reader, positioned on a start tag.
+     * @param localName The local name of the attribute.
+     * @return The attribute value, <code>null</code> if there is no such attribute.
+     */
+    private static @Nullable String getAttributeByLocalName(@NonNull XMLStreamReader xml,
+            @NonNull String localName) {
+        
+        String result = null;
+        for (int i = 0; i < xml.getAttributeCount() && result == null; i++) {
+            if (xml.getAttributeLocalName(i).equals(localName)) {
+                result = xml.getAttributeValue(i);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns all sheets of the workbook.
+     * 
+     * @return The sheets, in the order of the workbook.
+     */
+    public @NonNull List<@NonNull SheetSource> getSheets() {
+        return sheets;
+    }
+    
+    /**
+     * Returns the sheet at the given index.
+     * 
+     * @param index The 0-based index of the sheet.
+     * @return The sheet at the given index.
+     * 
+     * @throws IllegalArgumentException If the index is out of range.
+     */
+    public @NonNull SheetSource getSheet(int index) throws IllegalArgumentException {
+        if (index < 0 || index >= sheets.size()) {
+            throw new IllegalArgumentException("Sheet index (" + index + ") is out of range (0.."
+                + (sheets.size() - 1) + ")");
+        }
+        return notNull(sheets.get(index));
+    }
+    
+    /**
+     * Returns the index of the sheet with the given name. The name must match exactly (case sensitive).
+     * 
+     * @param name The name of the sheet.
+     * @return The 0-based index of the sheet, -1 if there is no sheet with this name.
+     */
+    public int getIndex(@NonNull String name) {
+        Integer result = indices.get(name);
+        return result != null ? result : -1;
+    }
+    
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder.SheetRecordCollectingListener;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FilePassRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactoryInputStream;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * The workbook globals of a legacy XLS (BIFF8) file: the sheet catalog and the shared strings table (SST). Only the
+ * globals substream at the start of the workbook stream is parsed; the sheet substreams are read record by record
+ * by the {@link XlsSheetCursor}s.
+ * 
+ * @author Adam
+ */
+class XlsGlobals {
+    
+    /**
+     * The name of the workbook stream in BIFF8 files. Older formats (BIFF5 and before) use "Book" and are not
+     * supported for streaming.
+     */
+    private static final @NonNull String WORKBOOK_STREAM = "Workbook";
+    
+    private @NonNull File file;
+    
+    private @Nullable SSTRecord sst;
+    
+    private @NonNull SheetRecordCollectingListener recordCollector;
+    
+    private @Nullable HSSFWorkbook stubWorkbook;
+    
+    private @NonNull List<@NonNull SheetSource> sheets;
+    
+    /**
+     * Parses the globals of the given file.
+     * 
+     * @param file The XLS file.
+     * @param recordCollector The listener that received the globals records (for rendering formulas).
+     * @param boundSheets The sheet records, in the order of the workbook.
+     * @param sst The shared strings table, <code>null</code> if the workbook has none.
+     */
+    private XlsGlobals(@NonNull File file, @NonNull SheetRecordCollectingListener recordCollector,
+            @NonNull List<@NonNull BoundSheetRecord> boundSheets, @Nullable SSTRecord sst) {
+        
+        this.file = file;
+        this.recordCollector = recordCollector;
+        this.sst = sst;
+        this.sheets = new ArrayList<>(boundSheets.size());
+        for (BoundSheetRecord sheet : boundSheets) {
+            sheets.add(new XlsSheetSource(notNull(sheet.getSheetname()), this, sheet.getPositionOfBof()));
+        }
+    }
+    
+    /**
+     * Reads the globals of the given XLS file.
+     * 
+     * @param file The file to read.
+     * @return The globals of the file, or <code>null</code> if the file can't be streamed (it is encrypted or uses
+     *      a format older than BIFF8).
+     * 
+     * @throws IOException If the file can't be read.
+     */
+    static @Nullable XlsGlobals open(@NonNull File file) throws IOException {
+        XlsGlobals result = null;
+        
+        try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+            DirectoryNode root = fs.getRoot();
+            if (root.hasEntry(WORKBOOK_STREAM)) {
+                try (InputStream in = root.createDocumentInputStream(WORKBOOK_STREAM)) {
+                    result = readGlobals(file, notNull(in));
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Reads the records of the globals substream, until its {@link EOFRecord}.
+     * 
+     * @param file The XLS file.
+     * @param in The workbook stream, positioned at the start.
+     * @return The globals of the file, or <code>null</code> if the file is encrypted.
+     */
+    private static @Nullable XlsGlobals readGlobals(@NonNull File file, @NonNull InputStream in) {
+        SheetRecordCollectingListener recordCollector = new SheetRecordCollectingListener(record -> { });
+        List<@NonNull BoundSheetRecord> boundSheets = new ArrayList<>();
+        SSTRecord sst = null;
+        boolean encrypted = false;
+        
+        RecordFactoryInputStream records = new RecordFactoryInputStream(in, false);
+        Record record;
+        while ((record = records.nextRecord()) != null && !(record instanceof EOFRecord) && !encrypted) {
+            recordCollector.processRecord(record);
+            
+            if (record instanceof BoundSheetRecord) {
+                boundSheets.add((BoundSheetRecord) record);
+            } else if (record instanceof SSTRecord) {
+                sst = (SSTRecord) record;
+            } else if (record instanceof FilePassRecord) {
+                // the sheet substreams can't be decrypted independently
+                encrypted = true;
+            }
+        }
+        
+        return encrypted ? null : new XlsGlobals(file, recordCollector, boundSheets, sst);
+    }
+    
+    /**
+     * Returns the sheets of this workbook.
+     * 
+     * @return The sheets, in the order of the workbook.
+     */
+    public @NonNull List<@NonNull SheetSource> getSheets() {
+        return sheets;
+    }
+    
+    /**
+     * Returns the entry of the shared strings table at the given index.
+     * 
+     * @param index The index of the entry, as stored in the cell.
+     * @return The text of the entry.
+     * 
+     * @throws IOException If the workbook has no shared strings table.
+     */
+    public @NonNull String getSharedString(int index) throws IOException {
+        SSTRecord sst = this.sst;
+        if (sst == null || index < 0 || index >= sst.getNumUniqueStrings()) {
+            throw new IOException("Invalid shared string index: " + index);
+        }
+        return notNull(sst.getString(index).getString());
+    }
+    
+    /**
+     * Returns a minimal workbook, which contains only the records needed to render formulas.
+     * 
+     * @return The stub workbook.
+     */
+    public synchronized @NonNull HSSFWorkbook getStubWorkbook() {
+        HSSFWorkbook result = this.stubWorkbook;
+        if (result == null) {
+            result = notNull(recordCollector.getStubHSSFWorkbook());
+            this.stubWorkbook = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Opens a file system for the file. Used by the cursors to read the sheet substreams independently.
+     * 
+     * @return A new, read-only file system. Must be closed by the caller.
+     * 
+     * @throws IOException If opening the file fails.
+     */
+    @NonNull POIFSFileSystem openFileSystem() throws IOException {
+        return new POIFSFileSystem(file, true);
+    }
+    
+    /**
+     * Opens the workbook stream of the given file system and moves it to the given position.
+     * 
+     * @param fs The file system, see {@link #openFileSystem()}.
+     * @param position The offset of the first record to read (e.g. the BOF record of a sheet).
+     * @return The workbook stream, positioned at the given offset.
+     * 
+     * @throws IOException If opening the stream fails.
+     */
+    static @NonNull InputStream openWorkbookStream(@NonNull POIFSFileSystem fs, long position) throws IOException {
+        InputStream in = notNull(fs.getRoot().createDocumentInputStream(WORKBOOK_STREAM));
+        long remaining = position;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                in.close();
+                throw new IOException("Sheet position " + position + " is outside of the workbook stream");
+            }
+            remaining -= skipped;
+        }
+        return in;
+    }
+    
+}
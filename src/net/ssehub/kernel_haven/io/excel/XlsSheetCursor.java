@@ -0,0 +1,579 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.record.ArrayRecord;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.MulBlankRecord;
+import org.apache.poi.hssf.record.MulRKRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.RKRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactoryInputStream;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SharedFormulaRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.hssf.record.TableRecord;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.RecordFormatException;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetCursor} that reads the records of an XLS (BIFF8) sheet substream one by one. This is the same record
+ * stream the {@link org.apache.poi.hssf.eventusermodel.HSSFEventFactory} processes, but pulled by the cursor
+ * instead of being pushed to a listener. Only the row records of the current row block (at most 32 rows) and the
+ * cells of the current row are held in memory.
+ * <p>
+ * In BIFF8, the row records of a block come before the cell records of these rows, and cells are ordered by row.
+ * Thus, a row is complete as soon as a cell of a later row (or the end of the sheet) is read.
+ * 
+ * @author Adam
+ */
+class XlsSheetCursor extends SheetCursor {
+    
+    private @NonNull POIFSFileSystem fs;
+    
+    private @NonNull InputStream in;
+    
+    private @NonNull RecordFactoryInputStream records;
+    
+    private @NonNull XlsGlobals globals;
+    
+    /**
+     * A record, which was read ahead but not processed yet.
+     */
+    private @Nullable Record pushedBack;
+    
+    /**
+     * Whether the BOF record of the sheet was read.
+     */
+    private boolean started;
+    
+    /**
+     * Whether the EOF record of the sheet was read.
+     */
+    private boolean sheetEnded;
+    
+    /**
+     * Row records, which were read but not visited yet. Maps row index to outline level.
+     */
+    private final @NonNull TreeMap<Integer, Integer> pendingRows = new TreeMap<>();
+    
+    /**
+     * The shared formula records of this sheet, read so far.
+     */
+    private final @NonNull List<@NonNull SharedFormulaRecord> sharedFormulas = new ArrayList<>();
+    
+    /**
+     * The array formula records of this sheet, read so far.
+     */
+    private final @NonNull List<@NonNull ArrayRecord> arrayFormulas = new ArrayList<>();
+    
+    /**
+     * The data table records of this sheet, read so far.
+     */
+    private final @NonNull List<@NonNull TableRecord> tables = new ArrayList<>();
+    
+    /**
+     * Cells that were expanded from multi-cell records (e.g. {@link MulRKRecord}) and are not read yet.
+     */
+    private final @NonNull Deque<@NonNull XlsCell> expandedCells = new ArrayDeque<>();
+    
+    /**
+     * The next cell, which was read but not visited yet.
+     */
+    private @Nullable XlsCell nextCell;
+    
+    private @Nullable XlsCell currentCell;
+    
+    private int rowIndex = -1;
+    
+    private int outlineLevel;
+    
+    /**
+     * Creates a cursor for the sheet substream of the given stream.
+     * 
+     * @param fs The file system of the stream. Will be closed by {@link #close()}.
+     * @param in The workbook stream, positioned on the BOF record of the sheet. Will be closed by {@link #close()}.
+     * @param globals The globals of the workbook.
+     */
+    XlsSheetCursor(@NonNull POIFSFileSystem fs, @NonNull InputStream in, @NonNull XlsGlobals globals) {
+        this.fs = fs;
+        this.in = in;
+        this.globals = globals;
+        this.records = new RecordFactoryInputStream(in, false);
+    }
+    
+    @Override
+    public boolean nextRow() throws IOException {
+        currentCell = null;
+        
+        // skip remaining cells of the current row
+        XlsCell cell = peekCell();
+        while (cell != null && cell.row == rowIndex) {
+            nextCell = null;
+            cell = peekCell();
+        }
+        
+        // reading the next cell also reads all row records in front of it
+        int cellRow = cell != null ? cell.row : Integer.MAX_VALUE;
+        int recordRow = pendingRows.isEmpty() ? Integer.MAX_VALUE : pendingRows.firstKey();
+        
+        boolean result = cellRow != Integer.MAX_VALUE || recordRow != Integer.MAX_VALUE;
+        if (result) {
+            rowIndex = Math.min(cellRow, recordRow);
+            Integer level = pendingRows.remove(rowIndex);
+            outlineLevel = level != null ? level : 0;
+        }
+        return result;
+    }
+    
+    @Override
+    public int getRowIndex() {
+        return rowIndex;
+    }
+    
+    @Override
+    public int getOutlineLevel() {
+        return outlineLevel;
+    }
+    
+    @Override
+    public boolean nextCell() throws IOException {
+        XlsCell cell = peekCell();
+        if (cell != null && cell.row == rowIndex) {
+            currentCell = cell;
+            nextCell = null;
+        } else {
+            currentCell = null;
+        }
+        return currentCell != null;
+    }
+    
+    /**
+     * Returns the next cell of the sheet, without consuming it.
+     * 
+     * @return The next cell, <code>null</code> if the end of the sheet is reached.
+     * 
+     * @throws IOException If reading the sheet fails.
+     */
+    private @Nullable XlsCell peekCell() throws IOException {
+        XlsCell result = nextCell;
+        if (result == null) {
+            result = expandedCells.pollFirst();
+            if (result == null && !sheetEnded) {
+                try {
+                    result = readCell();
+                } catch (RuntimeException e) {
+                    // POI signals malformed records with different runtime exceptions
+                    throw new IOException("Can't parse sheet", e);
+                }
+            }
+            nextCell = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Reads records until the next cell record. Row records and shared formulas on the way are stored.
+     * 
+     * @return The next cell, <code>null</code> if the end of the sheet is reached.
+     */
+    private @Nullable XlsCell readCell() {
+        XlsCell result = null;
+        while (result == null && !sheetEnded) {
+            Record record = nextRecord();
+            
+            if (record == null || record instanceof EOFRecord) {
+                sheetEnded = true;
+            
+            } else if (record instanceof BOFRecord) {
+                if (started) {
+                    // embedded substream (e.g. a chart); not part of the cell data
+                    skipSubstream();
+                }
+                started = true;
+            
+            } else if (record instanceof RowRecord) {
+                RowRecord row = (RowRecord) record;
+                pendingRows.put(row.getRowNumber(), (int) row.getOutlineLevel());
+            
+            } else if (record instanceof NumberRecord) {
+                NumberRecord number = (NumberRecord) record;
+                result = new XlsCell(number.getRow(), number.getColumn(), CellType.NUMERIC);
+                result.number = number.getValue();
+            
+            } else if (record instanceof RKRecord) {
+                RKRecord number = (RKRecord) record;
+                result = new XlsCell(number.getRow(), number.getColumn(), CellType.NUMERIC);
+                result.number = number.getRKNumber();
+            
+            } else if (record instanceof MulRKRecord) {
+                MulRKRecord numbers = (MulRKRecord) record;
+                for (int i = 0; i < numbers.getNumColumns(); i++) {
+                    XlsCell cell = new XlsCell(numbers.getRow(), numbers.getFirstColumn() + i, CellType.NUMERIC);
+                    cell.number = numbers.getRKNumberAt(i);
+                    expandedCells.addLast(cell);
+                }
+                result = expandedCells.pollFirst();
+            
+            } else if (record instanceof LabelSSTRecord) {
+                LabelSSTRecord label = (LabelSSTRecord) record;
+                result = new XlsCell(label.getRow(), label.getColumn(), CellType.STRING);
+                result.sstIndex = label.getSSTIndex();
+            
+            } else if (record instanceof LabelRecord) {
+                LabelRecord label = (LabelRecord) record;
+                result = new XlsCell(label.getRow(), label.getColumn(), CellType.STRING);
+                result.text = label.getValue();
+            
+            } else if (record instanceof BoolErrRecord) {
+                BoolErrRecord boolErr = (BoolErrRecord) record;
+                if (boolErr.isBoolean()) {
+                    result = new XlsCell(boolErr.getRow(), boolErr.getColumn(), CellType.BOOLEAN);
+                    result.bool = boolErr.getBooleanValue();
+                } else {
+                    result = new XlsCell(boolErr.getRow(), boolErr.getColumn(), CellType.ERROR);
+                    result.text = FormulaError.forInt(boolErr.getErrorValue()).getString();
+                }
+            
+            } else if (record instanceof BlankRecord) {
+                BlankRecord blank = (BlankRecord) record;
+                result = new XlsCell(blank.getRow(), blank.getColumn(), CellType.BLANK);
+            
+            } else if (record instanceof MulBlankRecord) {
+                MulBlankRecord blanks = (MulBlankRecord) record;
+                for (int i = 0; i < blanks.getNumColumns(); i++) {
+                    expandedCells.addLast(new XlsCell(blanks.getRow(), blanks.getFirstColumn() + i, CellType.BLANK));
+                }
+                result = expandedCells.pollFirst();
+            
+            } else if (record instanceof FormulaRecord) {
+                result = readFormula((FormulaRecord) record);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Creates the cell for the given formula record. Reads the records that belong to the formula (e.g. the
+     * definition of a shared formula, an array formula or a data table).
+     * 
+     * @param formula The formula record.
+     * @return The cell for the formula.
+     * 
+     * @throws RecordFormatException If the definition of a shared formula, array formula or data table is missing.
+     */
+    private @NonNull XlsCell readFormula(@NonNull FormulaRecord formula) throws RecordFormatException {
+        // the definitions follow the first formula record of their range
+        String stringResult = "";
+        boolean done = false;
+        while (!done) {
+            Record record = nextRecord();
+            if (record instanceof SharedFormulaRecord) {
+                sharedFormulas.add((SharedFormulaRecord) record);
+            } else if (record instanceof ArrayRecord) {
+                arrayFormulas.add((ArrayRecord) record);
+            } else if (record instanceof TableRecord) {
+                tables.add((TableRecord) record);
+            } else if (record instanceof StringRecord) {
+                // the cached result of a formula with a string result
+                stringResult = ((StringRecord) record).getString();
+            } else {
+                pushedBack = record;
+                done = true;
+            }
+        }
+        
+        XlsCell result = new XlsCell(formula.getRow(), formula.getColumn(), CellType.FORMULA);
+        resolveFormula(formula, result);
+        
+        // the record stores the (deprecated) integer code of the result type
+        switch (formula.getCachedResultType()) {
+        case 4:
+            result.resultType = CellType.BOOLEAN;
+            result.bool = formula.getCachedBooleanValue();
+            break;
+        case 5:
+            result.resultType = CellType.ERROR;
+            result.text = FormulaError.forInt(formula.getCachedErrorValue()).getString();
+            break;
+        case 1:
+            result.resultType = CellType.STRING;
+            result.text = stringResult;
+            break;
+        default:
+            result.resultType = CellType.NUMERIC;
+            result.number = formula.getValue();
+            break;
+        }
+        return result;
+    }
+    
+    /**
+     * Sets the formula of the given cell. The formula of a cell in a shared formula, array formula or data table
+     * only consists of a reference to the first cell of the range; the same as in
+     * {@link org.apache.poi.hssf.record.aggregates.SharedValueManager}, it is replaced by the formula of the range.
+     * 
+     * @param formula The formula record of the cell.
+     * @param cell The cell to set the formula of.
+     * 
+     * @throws RecordFormatException If the definition of the range is missing.
+     */
+    private void resolveFormula(@NonNull FormulaRecord formula, @NonNull XlsCell cell) throws RecordFormatException {
+        cell.formula = formula.getParsedExpression();
+        CellReference first = formula.getFormula().getExpReference();
+        if (first != null) {
+            cell.formula = null;
+            if (formula.isSharedFormula()) {
+                for (SharedFormulaRecord shared : sharedFormulas) {
+                    if (cell.formula == null && shared.isInRange(formula.getRow(), formula.getColumn())) {
+                        cell.formula = shared.getFormulaTokens(formula);
+                    }
+                }
+            }
+            for (ArrayRecord array : arrayFormulas) {
+                if (cell.formula == null && array.isFirstCell(first.getRow(), first.getCol())) {
+                    // all cells of the range show the formula of the array
+                    cell.formula = array.getFormulaTokens();
+                }
+            }
+            for (TableRecord table : tables) {
+                if (cell.formula == null && cell.table == null && table.isFirstCell(first.getRow(), first.getCol())) {
+                    cell.table = getTableFormula(table);
+                }
+            }
+            
+            if (cell.formula == null && cell.table == null) {
+                throw new RecordFormatException("Missing definition of the formula in "
+                        + new CellReference(first.getRow(), first.getCol()).formatAsString() + " for cell "
+                        + new CellReference(formula.getRow(), formula.getColumn()).formatAsString());
+            }
+        }
+    }
+    
+    /**
+     * Returns the formula, which Excel shows for the cells of the given data table: <code>TABLE(row, column)</code>
+     * with the input cells of the table.
+     * 
+     * @param table The data table.
+     * @return The formula of the cells of the data table.
+     */
+    private static @NonNull String getTableFormula(@NonNull TableRecord table) {
+        // the only input cell of a one-variable table is stored as row input cell
+        String first = new CellReference(table.getRowInputRow(), table.getColInputRow()).formatAsString();
+        String result;
+        if (!table.isOneNotTwoVar()) {
+            result = "TABLE(" + first + ","
+                    + new CellReference(table.getRowInputCol(), table.getColInputCol()).formatAsString() + ")";
+        } else if (table.isRowOrColInpCell()) {
+            result = "TABLE(" + first + ",)";
+        } else {
+            result = "TABLE(," + first + ")";
+        }
+        return result;
+    }
+    
+    /**
+     * Skips an embedded substream, until the matching {@link EOFRecord}.
+     */
+    private void skipSubstream() {
+        int depth = 1;
+        while (depth > 0) {
+            Record record = nextRecord();
+            if (record == null) {
+                depth = 0;
+                sheetEnded = true;
+            } else if (record instanceof BOFRecord) {
+                depth++;
+            } else if (record instanceof EOFRecord) {
+                depth--;
+            }
+        }
+    }
+    
+    /**
+     * Returns the next record of the stream.
+     * 
+     * @return The next record, <code>null</code> at the end of the stream.
+     */
+    private @Nullable Record nextRecord() {
+        Record result = pushedBack;
+        if (result != null) {
+            pushedBack = null;
+        } else {
+            result = records.nextRecord();
+        }
+        return result;
+    }
+    
+    @Override
+    public int getColumnIndex() {
+        return notNull(currentCell).column;
+    }
+    
+    @Override
+    public @NonNull CellType getCellType() {
+        return notNull(currentCell).type;
+    }
+    
+    @Override
+    public @NonNull String getStringValue() {
+        XlsCell cell = notNull(currentCell);
+        String result = cell.text;
+        if (cell.sstIndex != -1) {
+            try {
+                result = globals.getSharedString(cell.sstIndex);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't read shared string of cell in row " + (rowIndex + 1), e);
+            }
+        }
+        return result != null ? result : "";
+    }
+    
+    @Override
+    public boolean isTextShared() {
+        // the SST record holds one instance per string
+        XlsCell cell = notNull(currentCell);
+        return cell.type != CellType.FORMULA && cell.sstIndex != -1;
+    }
+    
+    @Override
+    public double getNumericValue() {
+        return notNull(currentCell).number;
+    }
+    
+    @Override
+    public boolean getBooleanValue() {
+        return notNull(currentCell).bool;
+    }
+    
+    @Override
+    public @Nullable String getFormula() throws IOException {
+        XlsCell cell = notNull(currentCell);
+        String result = cell.table;
+        Ptg[] formula = cell.formula;
+        if (formula != null) {
+            try {
+                result = HSSFFormulaParser.toFormulaString(globals.getStubWorkbook(), formula);
+            } catch (RuntimeException e) {
+                // POI signals tokens it can't render with different runtime exceptions
+                throw new IOException("Can't read formula of cell "
+                        + new CellReference(cell.row, cell.column).formatAsString(), e);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public @Nullable CellType getCachedResultType() {
+        return notNull(currentCell).resultType;
+    }
+    
+    @Override
+    protected boolean hasCellContent() throws IOException {
+        XlsCell cell = notNull(currentCell);
+        boolean result;
+        if (cell.type == CellType.FORMULA) {
+            // rendering the formula is expensive; each parsed formula has at least one token and thus a text
+            Ptg[] formula = cell.formula;
+            result = formula != null && formula.length > 0 || cell.table != null;
+        } else {
+            result = super.hasCellContent();
+        }
+        return result;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            fs.close();
+        }
+    }
+    
+    /**
+     * A cell read from the record stream.
+     */
+    private static class XlsCell {
+        
+        private int row;
+        
+        private int column;
+        
+        private @NonNull CellType type;
+        
+        private double number;
+        
+        private boolean bool;
+        
+        private @Nullable String text;
+        
+        private int sstIndex = -1;
+        
+        private Ptg @Nullable [] formula;
+        
+        /**
+         * The formula of a cell in a data table, which has no tokens. <code>null</code> for other cells.
+         */
+        private @Nullable String table;
+        
+        /**
+         * The type of the cached result of a formula cell, stored in {@link #number}, {@link #bool} or
+         * {@link #text}. <code>null</code> for other cells.
+         */
+        private @Nullable CellType resultType;
+        
+        /**
+         * Creates a cell.
+         * 
+         * @param row The row index of the cell.
+         * @param column The column index of the cell.
+         * @param type The type of the cell.
+         */
+        public XlsCell(int row, int column, @NonNull CellType type) {
+            this.row = row;
+            this.column = column;
+            this.type = type;
+        }
+    
+    }
+    
+}
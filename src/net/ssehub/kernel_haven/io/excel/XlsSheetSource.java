@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactoryInputStream;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A {@link SheetSource} for a sheet substream of a legacy XLS (BIFF8) file. The records of the sheet are read while
+ * the cursor moves through it, thus the memory consumption does not depend on the size of the sheet.
+ * 
+ * @author Adam
+ */
+class XlsSheetSource extends SheetSource {
+    
+    private @NonNull XlsGlobals globals;
+    
+    private int bofPosition;
+    
+    /**
+     * Creates a source for the given sheet substream.
+     * 
+     * @param name The name of the sheet.
+     * @param globals The globals of the workbook.
+     * @param bofPosition The offset of the BOF record of the sheet in the workbook stream.
+     */
+    XlsSheetSource(@NonNull String name, @NonNull XlsGlobals globals, int bofPosition) {
+        super(name);
+        this.globals = globals;
+        this.bofPosition = bofPosition;
+    }
+    
+    @Override
+    public @NonNull SheetCursor openCursor() throws IOException {
+        POIFSFileSystem fs = globals.openFileSystem();
+        try {
+            InputStream in = XlsGlobals.openWorkbookStream(fs, bofPosition);
+            return new XlsSheetCursor(fs, in, globals);
+        } catch (IOException | RuntimeException e) {
+            fs.close();
+            throw e;
+        }
+    }
+    
+    @Override
+    protected @NonNull Dimension readDimension() throws IOException {
+        DimensionsRecord dimensions = null;
+        try (POIFSFileSystem fs = globals.openFileSystem();
+                InputStream in = XlsGlobals.openWorkbookStream(fs, bofPosition)) {
+            
+            RecordFactoryInputStream records = new RecordFactoryInputStream(in, false);
+            Record record;
+            // the DIMENSIONS record is part of the sheet header, it precedes all row and cell records
+            while (dimensions == null && (record = records.nextRecord()) != null && !(record instanceof EOFRecord)
+                    && !(record instanceof RowRecord) && !(record instanceof CellValueRecordInterface)) {
+                if (record instanceof DimensionsRecord) {
+                    dimensions = (DimensionsRecord) record;
+                }
+            }
+        }
+        
+        Dimension result = Dimension.UNKNOWN;
+        if (dimensions != null) {
+            // the last row and column in the record are exclusive, i.e. already the counts
+            result = new Dimension(dimensions.getLastRow(), dimensions.getLastCol());
+        }
+        return result;
+    }
+    
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.poi.util.TempFile;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import net.ssehub.kernel_haven.io.excel.ZipPartWriter.DeflatedPart;
+import net.ssehub.kernel_haven.io.excel.ZipPartWriter.PartOutputStream;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * Writes a {@link SXSSFWorkbook} like {@link SXSSFWorkbook#write(OutputStream)}, but deflates the sheets in
+ * parallel. The workbook is first written as a template without sheet data. Then the XML part of each sheet (the
+ * template part with the streamed rows injected) is deflated on a worker thread into a {@link DeflatedPart}. Finally,
+ * the output archive is assembled on the calling thread: the deflated sheets are copied without recompression, the
+ * other (small) parts of the template are deflated again.
+ * 
+ * @author Adam
+ */
+class XlsxAssembler {
+    
+    private static final @NonNull String SHEET_DATA_START = "<sheetData";
+    
+    private static final @NonNull String SHEET_DATA_END = "</sheetData>";
+    
+    /**
+     * Only static methods.
+     */
+    private XlsxAssembler() {
+    }
+    
+    /**
+     * Writes the given workbook.
+     * 
+     * @param wb The workbook to write. Its sheets can't be written afterwards.
+     * @param out The stream to write the XLSX file to. Closed by this method.
+     * @param executor The thread pool to deflate the sheets on.
+     * 
+     * @throws IOException If writing the workbook fails.
+     */
+    static void write(@NonNull SXSSFWorkbook wb, @NonNull OutputStream out, @NonNull ExecutorService executor)
+            throws IOException {
+        
+        Map<@NonNull String, SXSSFSheet> sheets = new HashMap<>();
+        for (int i = 0; i < wb.getNumberOfSheets(); i++) {
+            // the name of the part without the leading slash is the name of the ZIP entry
+            String partName = wb.getXSSFWorkbook().getSheetAt(i).getPackagePart().getPartName().getName();
+            sheets.put(notNull(partName.substring(1)), wb.getSheetAt(i));
+        }
+        
+        File template = TempFile.createTempFile("poi-sxssf-template", ".xlsx");
+        Map<@NonNull String, Future<@Nullable DeflatedPart>> parts = new HashMap<>();
+        // set when the parts are not needed anymore; sheets, which are not started yet, are not deflated then
+        AtomicBoolean abandoned = new AtomicBoolean();
+        try {
+            try (OutputStream templateOut = new FileOutputStream(template)) {
+                wb.getXSSFWorkbook().write(templateOut);
+            }
+            
+            try (ZipFile zip = new ZipFile(template)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    SXSSFSheet sheet = sheets.get(entry.getName());
+                    if (sheet != null) {
+                        byte[] xml = readFully(notNull(zip.getInputStream(entry)));
+                        parts.put(notNull(entry.getName()), executor.submit(
+                                () -> abandoned.get() ? null : deflateSheet(xml, sheet)));
+                    }
+                }
+                
+                try (ZipPartWriter zipOut = new ZipPartWriter(out)) {
+                    entries = zip.entries();
+                    while (entries.hasMoreElements()) {
+                        ZipEntry entry = entries.nextElement();
+                        String name = notNull(entry.getName());
+                        Future<@Nullable DeflatedPart> part = parts.get(name);
+                        if (part != null) {
+                            DeflatedPart deflated = await(part);
+                            try {
+                                zipOut.addEntry(name, deflated);
+                            } finally {
+                                deflated.delete();
+                            }
+                        } else {
+                            try (InputStream in = zip.getInputStream(entry)) {
+                                zipOut.addEntry(name, notNull(in));
+                            }
+                        }
+                    }
+                }
+            }
+            
+        } finally {
+            // wait for all sheets, so that no temporary files are left behind if writing failed
+            abandoned.set(true);
+            for (Future<@Nullable DeflatedPart> part : parts.values()) {
+                discard(notNull(part));
+            }
+            template.delete();
+            out.close();
+        }
+    }
+    
+    /**
+     * Deflates the XML part of a sheet: the template part, with the streamed rows injected as sheet data.
+     * 
+     * @param template The XML of the sheet in the template, with empty sheet data.
+     * @param sheet The sheet with the streamed rows.
+     * @return The deflated part.
+     * 
+     * @throws IOException If reading the rows or writing the part fails.
+     */
+    private static @NonNull DeflatedPart deflateSheet(byte @NonNull [] template, @NonNull SXSSFSheet sheet)
+            throws IOException {
+        
+        String xml = new String(template, StandardCharsets.UTF_8);
+        int start = xml.indexOf(SHEET_DATA_START);
+        if (start == -1) {
+            throw new IOException("Sheet " + sheet.getSheetName() + " has no sheet data in the template");
+        }
+        int end = xml.indexOf('>', start) + 1;
+        if (xml.charAt(end - 2) != '/') {
+            // not empty: <sheetData>...</sheetData>
+            end = xml.indexOf(SHEET_DATA_END, end) + SHEET_DATA_END.length();
+        }
+        
+        PartOutputStream part = new PartOutputStream();
+        DeflatedPart result;
+        try {
+            part.write(xml.substring(0, start).getBytes(StandardCharsets.UTF_8));
+            part.write("<sheetData>".getBytes(StandardCharsets.UTF_8));
+            try (InputStream rows = sheet.getWorksheetXMLInputStream()) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = rows.read(buffer)) != -1) {
+                    part.write(buffer, 0, read);
+                }
+            }
+            part.write(SHEET_DATA_END.getBytes(StandardCharsets.UTF_8));
+            part.write(xml.substring(end).getBytes(StandardCharsets.UTF_8));
+            result = part.finish();
+        } catch (IOException e) {
+            part.discard();
+            throw e;
+        }
+        return result;
+    }
+    
+    /**
+     * Waits until the given sheet is deflated.
+     * 
+     * @param part The pending part.
+     * @return The deflated part.
+     * 
+     * @throws IOException If deflating the sheet failed or the thread was interrupted while waiting.
+     */
+    private static @NonNull DeflatedPart await(@NonNull Future<@Nullable DeflatedPart> part) throws IOException {
+        try {
+            return notNull(part.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for sheet");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Can't write sheet", cause);
+        }
+    }
+    
+    /**
+     * Waits until the given sheet is deflated (even if the current thread is interrupted) and deletes the part, so
+     * that no temporary file is left behind. Errors are ignored; they are reported by {@link #await(Future)}.
+     * 
+     * @param part The pending part.
+     */
+    private static void discard(@NonNull Future<@Nullable DeflatedPart> part) {
+        boolean interrupted = false;
+        boolean done = false;
+        while (!done) {
+            try {
+                DeflatedPart deflated = part.get();
+                if (deflated != null) {
+                    deflated.delete();
+                }
+                done = true;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // the part was not created
+                done = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Reads the given stream completely.
+     * 
+     * @param in The stream to read. Closed by this method.
+     * @return The content of the stream.
+     * 
+     * @throws IOException If reading fails.
+     */
+    private static byte @NonNull [] readFully(@NonNull InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return notNull(result.toByteArray());
+    }
+    
+}
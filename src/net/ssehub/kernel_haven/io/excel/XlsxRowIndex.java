@@ -0,0 +1,536 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * An index of the byte offsets of the rows in the (inflated) XML of an XLSX worksheet. Allows to start parsing a
+ * sheet at a given row: the XML header up to the <code>&lt;sheetData&gt;</code> element is followed directly by the
+ * XML of the row, which results in a well-formed document that only contains the rows from this row on.
+ * <p>
+ * The index is created by a scan over the bytes of the XML, which only looks at the tags and does not parse the
+ * document; only every {@value #CHECKPOINT_INTERVAL}th row is stored. Only UTF-8 documents can be indexed.
+ * 
+ * @author Adam
+ */
+class XlsxRowIndex {
+    
+    /**
+     * The offset of every n-th row is stored in the index.
+     */
+    static final int CHECKPOINT_INTERVAL = 64;
+    
+    /**
+     * The number of bytes up to (and including) the start tag of the <code>&lt;sheetData&gt;</code> element.
+     */
+    private int headerLength;
+    
+    private int numCheckpoints;
+    
+    private int @NonNull [] rows = new int[64];
+    
+    /**
+     * The number of rows before each checkpoint.
+     */
+    private int @NonNull [] precedingRows = new int[64];
+    
+    private long @NonNull [] offsets = new long[64];
+    
+    /**
+     * The offset of the first row that contains a shared formula, -1 if there is none. Parsing must not start after
+     * this row, since the following cells of a shared formula derive their formula from the first cell.
+     */
+    private long sharedFormulaOffset = -1;
+    
+    private int sharedFormulaPrecedingRows;
+    
+    /**
+     * Creates an empty index; filled by {@link #read(InputStream)} or {@link #readFrom(DataInput, long)}.
+     */
+    private XlsxRowIndex() {
+    }
+    
+    /**
+     * Creates the index for the given sheet XML.
+     * 
+     * @param in The XML of the sheet. Not closed by this method.
+     * @return The index, <code>null</code> if the sheet can't be indexed (e.g. it is not encoded in UTF-8 or the
+     *      rows are not sorted).
+     * 
+     * @throws IOException If reading the XML fails.
+     */
+    static @Nullable XlsxRowIndex read(@NonNull InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] start = new byte[2];
+        int startLength = pushback.read(start);
+        if (startLength > 0) {
+            pushback.unread(start, 0, startLength);
+        }
+        
+        XlsxRowIndex result = null;
+        // UTF-16 documents start with a byte order mark or contain a zero byte in the first character
+        if (startLength == 2 && start[0] != (byte) 0xFE && start[0] != (byte) 0xFF && start[0] != 0 && start[1] != 0) {
+            result = new XlsxRowIndex();
+            if (!result.scan(new Scanner(pushback))) {
+                result = null;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Reads an index, which was written by {@link #writeTo(DataOutput)}.
+     * 
+     * @param in The input to read from.
+     * @param available The number of bytes left in the input; used to reject corrupt lengths before allocating.
+     * @return The index.
+     * 
+     * @throws IOException If reading fails or the data is not a valid index.
+     */
+    static @NonNull XlsxRowIndex readFrom(@NonNull DataInput in, long available) throws IOException {
+        XlsxRowIndex result = new XlsxRowIndex();
+        result.headerLength = in.readInt();
+        result.numCheckpoints = in.readInt();
+        // each checkpoint consists of two ints and a long
+        if (result.headerLength < 0 || result.numCheckpoints < 0 || result.numCheckpoints > available / 16) {
+            throw new IOException("Invalid row index");
+        }
+        result.rows = new int[result.numCheckpoints];
+        result.precedingRows = new int[result.numCheckpoints];
+        result.offsets = new long[result.numCheckpoints];
+        for (int i = 0; i < result.numCheckpoints; i++) {
+            result.rows[i] = in.readInt();
+            result.precedingRows[i] = in.readInt();
+            result.offsets[i] = in.readLong();
+        }
+        result.sharedFormulaOffset = in.readLong();
+        result.sharedFormulaPrecedingRows = in.readInt();
+        return result;
+    }
+    
+    /**
+     * Writes this index, so that it can be restored with {@link #readFrom(DataInput, long)}.
+     * 
+     * @param out The output to write to.
+     * 
+     * @throws IOException If writing fails.
+     */
+    void writeTo(@NonNull DataOutput out) throws IOException {
+        out.writeInt(headerLength);
+        out.writeInt(numCheckpoints);
+        for (int i = 0; i < numCheckpoints; i++) {
+            out.writeInt(rows[i]);
+            out.writeInt(precedingRows[i]);
+            out.writeLong(offsets[i]);
+        }
+        out.writeLong(sharedFormulaOffset);
+        out.writeInt(sharedFormulaPrecedingRows);
+    }
+    
+    /**
+     * Scans the XML and fills this index.
+     * 
+     * @param scanner The scanner over the XML.
+     * @return Whether the XML could be indexed.
+     * 
+     * @throws IOException If reading the XML fails.
+     */
+    private boolean scan(@NonNull Scanner scanner) throws IOException {
+        StringBuilder name = new StringBuilder();
+        StringBuilder attributeName = new StringBuilder();
+        StringBuilder attributeValue = new StringBuilder();
+        
+        boolean inSheetData = false;
+        boolean valid = true;
+        boolean done = false;
+        int rowIndex = -1;
+        int numRows = 0;
+        long rowOffset = -1;
+        
+        int next;
+        while (valid && !done && (next = scanner.next()) != -1) {
+            if (next == '<') {
+                long tagOffset = scanner.getOffset() - 1;
+                next = scanner.next();
+                
+                if (next == '!') {
+                    // comment, CDATA section or declaration
+                    next = scanner.next();
+                    scanner.skipTo(next == '-' ? "-->" : next == '[' ? "]]>" : ">");
+                
+                } else if (next == '?') {
+                    scanner.skipTo("?>");
+                
+                } else if (next == '/') {
+                    if (scanner.readName(scanner.next(), name) != '>') {
+                        scanner.skipTo(">");
+                    }
+                    if (inSheetData && isLocalName(name, "sheetData")) {
+                        done = true;
+                    }
+                
+                } else {
+                    next = scanner.readName(next, name);
+                    boolean isRow = inSheetData && isLocalName(name, "row");
+                    boolean isFormula = inSheetData && isLocalName(name, "f");
+                    int rowAttribute = -1;
+                    boolean sharedFormula = false;
+                    boolean selfClosing = false;
+                    
+                    while (next != -1 && next != '>') {
+                        if (next == '/') {
+                            selfClosing = true;
+                            next = scanner.next();
+                        } else if (Scanner.isWhitespace(next)) {
+                            next = scanner.next();
+                        } else {
+                            next = scanner.readAttribute(next, attributeName, attributeValue);
+                            selfClosing = false;
+                            if (isRow && isLocalName(attributeName, "r")) {
+                                rowAttribute = parseRow(attributeValue);
+                            } else if (isFormula && isLocalName(attributeName, "t")) {
+                                sharedFormula = "shared".contentEquals(attributeValue);
+                            }
+                        }
+                    }
+                    
+                    if (isRow) {
+                        int index = rowAttribute != -1 ? rowAttribute : rowIndex + 1;
+                        valid = index > rowIndex;
+                        rowIndex = index;
+                        rowOffset = tagOffset;
+                        if (numRows % CHECKPOINT_INTERVAL == 0) {
+                            addCheckpoint(rowIndex, numRows, tagOffset);
+                        }
+                        numRows++;
+                    
+                    } else if (sharedFormula && sharedFormulaOffset == -1) {
+                        sharedFormulaOffset = rowOffset;
+                        sharedFormulaPrecedingRows = numRows - 1;
+                    
+                    } else if (!inSheetData && isLocalName(name, "sheetData")) {
+                        long length = scanner.getOffset();
+                        valid = length <= Integer.MAX_VALUE;
+                        headerLength = (int) length;
+                        inSheetData = true;
+                        done = selfClosing;
+                    }
+                }
+            }
+        }
+        return valid && inSheetData;
+    }
+    
+    /**
+     * Adds a checkpoint to this index.
+     * 
+     * @param row The index of the row.
+     * @param numPrecedingRows The number of rows before the row.
+     * @param offset The offset of the start tag of the row.
+     */
+    private void addCheckpoint(int row, int numPrecedingRows, long offset) {
+        if (numCheckpoints == rows.length) {
+            int newSize = rows.length * 2;
+            rows = notNull(Arrays.copyOf(rows, newSize));
+            precedingRows = notNull(Arrays.copyOf(precedingRows, newSize));
+            offsets = notNull(Arrays.copyOf(offsets, newSize));
+        }
+        rows[numCheckpoints] = row;
+        precedingRows[numCheckpoints] = numPrecedingRows;
+        offsets[numCheckpoints] = offset;
+        numCheckpoints++;
+    }
+    
+    /**
+     * Finds the position to start parsing at, to read the given row.
+     * 
+     * @param row The 0-based index of the row to read.
+     * @return The position of the last indexed row before (or at) the given row; <code>null</code> if parsing has to
+     *      start at the beginning of the sheet.
+     */
+    public @Nullable Position find(int row) {
+        int checkpoint = Arrays.binarySearch(rows, 0, numCheckpoints, row);
+        if (checkpoint < 0) {
+            checkpoint = -checkpoint - 2;
+        }
+        
+        Position result = null;
+        if (checkpoint >= 0) {
+            if (sharedFormulaOffset != -1 && sharedFormulaOffset < offsets[checkpoint]) {
+                result = new Position(sharedFormulaOffset, sharedFormulaPrecedingRows);
+            } else {
+                result = new Position(offsets[checkpoint], precedingRows[checkpoint]);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Creates the XML of the sheet, starting at the given position. The bytes between the header and the position
+     * are skipped without parsing them.
+     * 
+     * @param in The XML of the sheet. Will be closed when the returned stream is closed.
+     * @param position The position to start at, see {@link #find(int)}.
+     * @return The XML of the sheet, containing only the rows starting at the position.
+     * 
+     * @throws IOException If reading the XML fails.
+     */
+    public @NonNull InputStream open(@NonNull InputStream in, @NonNull Position position) throws IOException {
+        try {
+            byte[] header = new byte[headerLength];
+            int read = 0;
+            while (read < header.length) {
+                int count = in.read(header, read, header.length - read);
+                if (count < 0) {
+                    throw new EOFException("Sheet XML ended in header");
+                }
+                read += count;
+            }
+            
+            long remaining = position.offset - headerLength;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() == -1) {
+                        throw new EOFException("Sheet XML ended before row");
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            
+            return new SequenceInputStream(new ByteArrayInputStream(header), in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Checks whether the given (possibly prefixed) XML name has the given local name.
+     * 
+     * @param name The name to check.
+     * @param localName The local name.
+     * @return Whether the name is the local name, with or without a prefix.
+     */
+    private static boolean isLocalName(@NonNull StringBuilder name, @NonNull String localName) {
+        int prefixLength = name.length() - localName.length();
+        boolean result = prefixLength == 0 || (prefixLength > 0 && name.charAt(prefixLength - 1) == ':');
+        for (int i = 0; result && i < localName.length(); i++) {
+            result = name.charAt(prefixLength + i) == localName.charAt(i);
+        }
+        return result;
+    }
+    
+    /**
+     * Parses the <code>r</code> attribute of a row.
+     * 
+     * @param value The value of the attribute.
+     * @return The 0-based index of the row, -1 if the value is not a row number.
+     */
+    private static int parseRow(@NonNull StringBuilder value) {
+        int result;
+        try {
+            result = XlsxSheetCursor.parseIndex(value) - 1;
+        } catch (IOException e) {
+            result = -1;
+        }
+        return result;
+    }
+    
+    /**
+     * A position in the sheet XML, at which parsing can start.
+     */
+    static final class Position {
+        
+        private long offset;
+        
+        private int precedingRows;
+        
+        /**
+         * Creates a position.
+         * 
+         * @param offset The offset of the start tag of the row.
+         * @param precedingRows The number of rows before the row.
+         */
+        private Position(long offset, int precedingRows) {
+            this.offset = offset;
+            this.precedingRows = precedingRows;
+        }
+        
+        /**
+         * Returns the number of rows of the sheet before this position.
+         * 
+         * @return The number of rows before this position.
+         */
+        public int getPrecedingRows() {
+            return precedingRows;
+        }
+    
+    }
+    
+    /**
+     * Reads the bytes of an XML document and keeps track of the offset.
+     */
+    private static final class Scanner {
+        
+        private @NonNull InputStream in;
+        
+        private byte @NonNull [] buffer = new byte[64 * 1024];
+        
+        private int length;
+        
+        private int position;
+        
+        /**
+         * The offset of the first byte in the {@link #buffer}.
+         */
+        private long bufferOffset;
+        
+        /**
+         * Creates a scanner for the given stream.
+         * 
+         * @param in The stream to read.
+         */
+        Scanner(@NonNull InputStream in) {
+            this.in = in;
+        }
+        
+        /**
+         * Reads the next byte.
+         * 
+         * @return The next byte (0 to 255), -1 at the end of the stream.
+         * 
+         * @throws IOException If reading the stream fails.
+         */
+        int next() throws IOException {
+            if (position == length) {
+                bufferOffset += length;
+                position = 0;
+                length = Math.max(in.read(buffer), 0);
+            }
+            return position < length ? buffer[position++] & 0xFF : -1;
+        }
+        
+        /**
+         * Returns the offset of the next byte.
+         * 
+         * @return The number of bytes read so far.
+         */
+        long getOffset() {
+            return bufferOffset + position;
+        }
+        
+        /**
+         * Skips the bytes up to (and including) the given ASCII text.
+         * 
+         * @param end The text to skip to.
+         * 
+         * @throws IOException If reading the stream fails.
+         */
+        void skipTo(@NonNull String end) throws IOException {
+            // the last bytes read, compared to the text after each byte
+            char[] window = new char[end.length()];
+            boolean found = false;
+            int next;
+            while (!found && (next = next()) != -1) {
+                System.arraycopy(window, 1, window, 0, window.length - 1);
+                window[window.length - 1] = (char) next;
+                found = true;
+                for (int i = 0; found && i < window.length; i++) {
+                    found = window[i] == end.charAt(i);
+                }
+            }
+        }
+        
+        /**
+         * Reads an XML name.
+         * 
+         * @param first The first byte of the name, already read.
+         * @param name The builder to store the name in.
+         * @return The first byte after the name.
+         * 
+         * @throws IOException If reading the stream fails.
+         */
+        int readName(int first, @NonNull StringBuilder name) throws IOException {
+            name.setLength(0);
+            int next = first;
+            while (next != -1 && next != '>' && next != '/' && next != '=' && !isWhitespace(next)) {
+                name.append((char) next);
+                next = next();
+            }
+            return next;
+        }
+        
+        /**
+         * Reads an attribute of a start tag.
+         * 
+         * @param first The first byte of the attribute name, already read.
+         * @param name The builder to store the name in.
+         * @param value The builder to store the (raw) value in. Non-ASCII characters are not decoded.
+         * @return The first byte after the attribute.
+         * 
+         * @throws IOException If reading the stream fails.
+         */
+        int readAttribute(int first, @NonNull StringBuilder name, @NonNull StringBuilder value) throws IOException {
+            value.setLength(0);
+            int next = readName(first, name);
+            while (isWhitespace(next)) {
+                next = next();
+            }
+            if (next == '=') {
+                next = next();
+                while (isWhitespace(next)) {
+                    next = next();
+                }
+                if (next == '"' || next == '\'') {
+                    int quote = next;
+                    while ((next = next()) != -1 && next != quote) {
+                        value.append((char) next);
+                    }
+                    next = next();
+                }
+            }
+            return next;
+        }
+        
+        /**
+         * Checks whether the given byte is XML whitespace.
+         * 
+         * @param value The byte to check.
+         * @return Whether the byte is a space, tab or line break.
+         */
+        static boolean isWhitespace(int value) {
+            return value == ' ' || value == '\t' || value == '\n' || value == '\r';
+        }
+    
+    }
+    
+}
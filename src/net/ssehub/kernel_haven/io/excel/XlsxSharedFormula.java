@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.EvaluationName;
+import org.apache.poi.ss.formula.EvaluationWorkbook.ExternalSheet;
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaRenderer;
+import org.apache.poi.ss.formula.FormulaRenderingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.SharedFormula;
+import org.apache.poi.ss.formula.SheetIdentifier;
+import org.apache.poi.ss.formula.ptg.Area3DPxg;
+import org.apache.poi.ss.formula.ptg.AreaErrPtg;
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.NameXPtg;
+import org.apache.poi.ss.formula.ptg.NameXPxg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Ref3DPxg;
+import org.apache.poi.ss.formula.ptg.RefErrorPtg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.usermodel.Table;
+import org.apache.poi.ss.util.AreaReference;
+import org.apache.poi.ss.util.CellReference;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * The master cell of a shared formula in an XLSX worksheet. The formulas of the other cells in the group are derived
+ * from it by moving its relative references, like {@link org.apache.poi.xssf.usermodel.XSSFCell#getCellFormula()}
+ * does: the formula is parsed into tokens by the {@link FormulaParser}, the tokens are moved by
+ * {@link SharedFormula#convertSharedFormulas(Ptg[], int, int)} and rendered by the {@link FormulaRenderer}.
+ * <p>
+ * Unlike POI, references that are moved beyond the limits of a sheet become <code>#REF!</code> (instead of wrapping
+ * around), and references to other sheets keep their sheet name.
+ * 
+ * @author Adam
+ */
+class XlsxSharedFormula {
+    
+    private static final @NonNull SpreadsheetVersion VERSION = SpreadsheetVersion.EXCEL2007;
+    
+    private @NonNull String formula;
+    
+    private int row;
+    
+    private int column;
+    
+    /**
+     * The workbook, which knows the names of the parsed formula.
+     */
+    private @NonNull ParsingWorkbook workbook = new ParsingWorkbook();
+    
+    /**
+     * The parsed formula, <code>null</code> if not parsed yet.
+     */
+    private Ptg @Nullable [] tokens;
+    
+    /**
+     * Creates a shared formula.
+     * 
+     * @param formula The formula of the master cell.
+     * @param row The row index of the master cell.
+     * @param column The column index of the master cell.
+     */
+    XlsxSharedFormula(@NonNull String formula, int row, int column) {
+        this.formula = formula;
+        this.row = row;
+        this.column = column;
+    }
+    
+    /**
+     * Returns the formula for the cell at the given position, i.e. the formula of the master cell with all
+     * relative references moved by the distance between the two cells.
+     * 
+     * @param targetRow The row index of the cell.
+     * @param targetColumn The column index of the cell.
+     * @return The formula of the cell.
+     * 
+     * @throws FormulaParseException If the formula of the master cell can't be parsed (like in a loaded workbook).
+     * @throws IllegalArgumentException If the formula references an external workbook by name instead of number.
+     */
+    @NonNull String shiftTo(int targetRow, int targetColumn) throws FormulaParseException, IllegalArgumentException {
+        Ptg[] tokens = this.tokens;
+        if (tokens == null) {
+            tokens = FormulaParser.parse(formula, workbook, FormulaType.CELL, 0, row);
+            this.tokens = tokens;
+        }
+        
+        int rowOffset = targetRow - row;
+        int columnOffset = targetColumn - column;
+        Ptg[] result = new SharedFormula(VERSION).convertSharedFormulas(tokens, rowOffset, columnOffset);
+        for (int i = 0; i < tokens.length; i++) {
+            Ptg token = tokens[i];
+            if (token instanceof RefPtgBase) {
+                result[i] = fixReference((RefPtgBase) token, (RefPtgBase) result[i], rowOffset, columnOffset);
+            } else if (token instanceof AreaPtgBase) {
+                result[i] = fixArea((AreaPtgBase) token, (AreaPtgBase) result[i], rowOffset, columnOffset);
+            }
+        }
+        return notNull(FormulaRenderer.toFormulaString(workbook, result));
+    }
+    
+    /**
+     * Fixes a reference, which was moved by {@link SharedFormula}: references beyond the limits of a sheet become
+     * errors, references to other sheets keep their sheet.
+     * 
+     * @param original The reference in the master formula.
+     * @param moved The moved reference.
+     * @param rowOffset The number of rows the reference was moved.
+     * @param columnOffset The number of columns the reference was moved.
+     * @return The fixed reference.
+     */
+    private static @NonNull Ptg fixReference(@NonNull RefPtgBase original, @NonNull RefPtgBase moved, int rowOffset,
+            int columnOffset) {
+        
+        Ptg result = moved;
+        if (!isValidRow(original.getRow(), original.isRowRelative(), rowOffset)
+                || !isValidColumn(original.getColumn(), original.isColRelative(), columnOffset)) {
+            result = new RefErrorPtg();
+        } else if (original instanceof Ref3DPxg) {
+            Ref3DPxg reference = (Ref3DPxg) original.copy();
+            reference.setRow(moved.getRow());
+            reference.setColumn(moved.getColumn());
+            result = reference;
+        }
+        return result;
+    }
+    
+    /**
+     * Fixes an area, which was moved by {@link SharedFormula}: areas beyond the limits of a sheet become errors,
+     * areas in other sheets keep their sheet.
+     * 
+     * @param original The area in the master formula.
+     * @param moved The moved area.
+     * @param rowOffset The number of rows the area was moved.
+     * @param columnOffset The number of columns the area was moved.
+     * @return The fixed area.
+     */
+    private static @NonNull Ptg fixArea(@NonNull AreaPtgBase original, @NonNull AreaPtgBase moved, int rowOffset,
+            int columnOffset) {
+        
+        Ptg result = moved;
+        if (!isValidRow(original.getFirstRow(), original.isFirstRowRelative(), rowOffset)
+                || !isValidRow(original.getLastRow(), original.isLastRowRelative(), rowOffset)
+                || !isValidColumn(original.getFirstColumn(), original.isFirstColRelative(), columnOffset)
+                || !isValidColumn(original.getLastColumn(), original.isLastColRelative(), columnOffset)) {
+            result = new AreaErrPtg();
+        } else if (original instanceof Area3DPxg) {
+            Area3DPxg area = (Area3DPxg) original.copy();
+            area.setFirstRow(moved.getFirstRow());
+            area.setLastRow(moved.getLastRow());
+            area.setFirstColumn(moved.getFirstColumn());
+            area.setLastColumn(moved.getLastColumn());
+            result = area;
+        }
+        return result;
+    }
+    
+    /**
+     * Checks whether the given row is still in a sheet after it is moved.
+     * 
+     * @param row The row index.
+     * @param relative Whether the row is relative, i.e. whether it is moved.
+     * @param offset The number of rows to move.
+     * @return Whether the moved row is valid.
+     */
+    private static boolean isValidRow(int row, boolean relative, int offset) {
+        return !relative || (row + offset >= 0 && row + offset <= VERSION.getLastRowIndex());
+    }
+    
+    /**
+     * Checks whether the given column is still in a sheet after it is moved.
+     * 
+     * @param column The column index.
+     * @param relative Whether the column is relative, i.e. whether it is moved.
+     * @param offset The number of columns to move.
+     * @return Whether the moved column is valid.
+     */
+    private static boolean isValidColumn(int column, boolean relative, int offset) {
+        return !relative || (column + offset >= 0 && column + offset <= VERSION.getLastColumnIndex());
+    }
+    
+    /**
+     * A workbook for parsing and rendering formulas without the other parts of the workbook. References to other
+     * sheets and workbooks, defined names and unknown functions are kept by their names, like in an XLSX file.
+     * Tables are not known, thus structured references can't be parsed.
+     */
+    private static final class ParsingWorkbook implements FormulaParsingWorkbook, FormulaRenderingWorkbook {
+        
+        /**
+         * The defined names (and functions) in the parsed formulas; the index is the index of their {@link NamePtg}.
+         */
+        private @NonNull List<@NonNull String> names = new ArrayList<>();
+        
+        /**
+         * Returns the number of the external workbook referenced by the given sheet identifier.
+         * 
+         * @param sheet The sheet identifier, <code>null</code> for the current sheet.
+         * @return The number of the external workbook (e.g. 1 for <code>[1]Sheet1!A1</code>), -1 for the current
+         *      workbook.
+         * 
+         * @throws IllegalArgumentException If the workbook is not referenced by its number.
+         */
+        private static int getExternalWorkbookNumber(@Nullable SheetIdentifier sheet)
+                throws IllegalArgumentException {
+            int result = -1;
+            String bookName = sheet != null ? sheet.getBookName() : null;
+            if (bookName != null) {
+                try {
+                    result = Integer.parseInt(bookName);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Unknown external workbook: " + bookName);
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        public EvaluationName getName(String name, int sheetIndex) {
+            int index = names.indexOf(name);
+            if (index == -1) {
+                index = names.size();
+                names.add(name);
+            }
+            return new ParsedName(name, index);
+        }
+        
+        @Override
+        public Name createName() {
+            throw new UnsupportedOperationException("Names can't be created while parsing shared formulas");
+        }
+        
+        @Override
+        public @Nullable Table getTable(String name) {
+            return null;
+        }
+        
+        @Override
+        public Ptg getNameXPtg(String name, @Nullable SheetIdentifier sheet) {
+            String sheetName = sheet != null ? sheet.getSheetIdentifier().getName() : null;
+            return new NameXPxg(getExternalWorkbookNumber(sheet), sheetName, name);
+        }
+        
+        @Override
+        public Ptg get3DReferencePtg(CellReference cell, SheetIdentifier sheet) {
+            return new Ref3DPxg(getExternalWorkbookNumber(sheet), sheet, cell);
+        }
+        
+        @Override
+        public Ptg get3DReferencePtg(AreaReference area, SheetIdentifier sheet) {
+            return new Area3DPxg(getExternalWorkbookNumber(sheet), sheet, area);
+        }
+        
+        @Override
+        public int getExternalSheetIndex(String sheetName) {
+            throw new UnsupportedOperationException("Only used for HSSF workbooks");
+        }
+        
+        @Override
+        public int getExternalSheetIndex(String workbookName, String sheetName) {
+            throw new UnsupportedOperationException("Only used for HSSF workbooks");
+        }
+        
+        @Override
+        public SpreadsheetVersion getSpreadsheetVersion() {
+            return VERSION;
+        }
+        
+        @Override
+        public ExternalSheet getExternalSheet(int externSheetIndex) {
+            throw new UnsupportedOperationException("Only used for HSSF workbooks");
+        }
+        
+        @Override
+        public String getSheetFirstNameByExternSheet(int externSheetIndex) {
+            throw new UnsupportedOperationException("Only used for HSSF workbooks");
+        }
+        
+        @Override
+        public String getSheetLastNameByExternSheet(int externSheetIndex) {
+            throw new UnsupportedOperationException("Only used for HSSF workbooks");
+        }
+        
+        @Override
+        public String resolveNameXText(NameXPtg nameX) {
+            throw new UnsupportedOperationException("Only used for HSSF workbooks");
+        }
+        
+        @Override
+        public String getNameText(NamePtg name) {
+            return names.get(name.getIndex());
+        }
+        
+    }
+    
+    /**
+     * A defined name (or function) in a parsed formula. Since its definition is unknown, it may be used as a range
+     * and as a function.
+     */
+    private static final class ParsedName implements EvaluationName {
+        
+        private @NonNull String name;
+        
+        private int index;
+        
+        /**
+         * Creates a name.
+         * 
+         * @param name The name.
+         * @param index The index of the name in the {@link ParsingWorkbook}.
+         */
+        private ParsedName(@NonNull String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+        
+        @Override
+        public String getNameText() {
+            return name;
+        }
+        
+        @Override
+        public boolean isFunctionName() {
+            return true;
+        }
+        
+        @Override
+        public boolean hasFormula() {
+            return false;
+        }
+        
+        @Override
+        public Ptg[] getNameDefinition() {
+            throw new UnsupportedOperationException("The definition of names is unknown");
+        }
+        
+        @Override
+        public boolean isRange() {
+            return true;
+        }
+        
+        @Override
+        public NamePtg createPtg() {
+            return new NamePtg(index);
+        }
+        
+    }
+    
+}
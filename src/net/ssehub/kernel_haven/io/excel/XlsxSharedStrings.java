@@ -0,0 +1,344 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.util.StaxHelper;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * The shared strings table (<code>sharedStrings.xml</code>) of an XLSX workbook. The table is parsed on the first
+ * access, with a streaming parser that keeps only the plain text of the entries (formatting runs are dropped).
+ * <p>
+ * The entries are either kept as {@link String}s on the heap or, for huge tables, encoded into an
+ * {@link OffHeapStringTable}, which decodes them when they are accessed.
+ * 
+ * @author Adam
+ */
+class XlsxSharedStrings {
+    
+    static final @NonNull XMLInputFactory XML_FACTORY = notNull(StaxHelper.newXMLInputFactory());
+    
+    private @Nullable PackagePart part;
+    
+    private boolean offHeap;
+    
+    /**
+     * The parsed entries, if they are kept on the heap. <code>null</code> if not parsed yet.
+     */
+    private @Nullable List<@NonNull String> strings;
+    
+    /**
+     * The parsed entries, if they are kept off the heap. <code>null</code> if not parsed yet.
+     */
+    private @Nullable OffHeapStringTable offHeapStrings;
+    
+    /**
+     * Creates the shared strings table for the given package part. The entries are kept on the heap.
+     * 
+     * @param part The <code>sharedStrings.xml</code> part, <code>null</code> if the workbook has no shared strings.
+     */
+    XlsxSharedStrings(@Nullable PackagePart part) {
+        this(part, false);
+    }
+    
+    /**
+     * Creates the shared strings table for the given package part.
+     * 
+     * @param part The <code>sharedStrings.xml</code> part, <code>null</code> if the workbook has no shared strings.
+     * @param offHeap Whether the entries are kept in an {@link OffHeapStringTable} instead of the heap.
+     */
+    XlsxSharedStrings(@Nullable PackagePart part, boolean offHeap) {
+        this.part = part;
+        this.offHeap = offHeap;
+    }
+    
+    /**
+     * Returns the package part of this table.
+     * 
+     * @return The <code>sharedStrings.xml</code> part, <code>null</code> if the workbook has no shared strings.
+     */
+    @Nullable PackagePart getPart() {
+        return part;
+    }
+    
+    /**
+     * Returns whether {@link #get(int)} returns the same instance for each call with the same index. This is not the
+     * case if the entries are kept off the heap.
+     * 
+     * @return Whether the entries are shared {@link String}s.
+     */
+    boolean isShared() {
+        return !offHeap;
+    }
+    
+    /**
+     * Returns the entry at the given index.
+     * 
+     * @param index The 0-based index of the shared string, as stored in the cell.
+     * @return The text of the entry.
+     * 
+     * @throws IOException If the table could not be parsed or the index is not valid.
+     */
+    public @NonNull String get(int index) throws IOException {
+        String result;
+        parse();
+        OffHeapStringTable offHeapStrings = this.offHeapStrings;
+        if (offHeapStrings != null) {
+            checkIndex(index, offHeapStrings.size());
+            result = offHeapStrings.get(index);
+        } else {
+            List<@NonNull String> strings = notNull(this.strings);
+            checkIndex(index, strings.size());
+            result = notNull(strings.get(index));
+        }
+        return result;
+    }
+    
+    /**
+     * Checks whether the entry at the given index is empty. Does not decode entries that are kept off the heap.
+     * 
+     * @param index The 0-based index of the shared string, as stored in the cell.
+     * @return Whether the text of the entry is empty.
+     * 
+     * @throws IOException If the table could not be parsed or the index is not valid.
+     */
+    public boolean isEmpty(int index) throws IOException {
+        boolean result;
+        parse();
+        OffHeapStringTable offHeapStrings = this.offHeapStrings;
+        if (offHeapStrings != null) {
+            checkIndex(index, offHeapStrings.size());
+            result = offHeapStrings.isEmpty(index);
+        } else {
+            result = get(index).isEmpty();
+        }
+        return result;
+    }
+    
+    /**
+     * Checks that the given index is a valid index of an entry.
+     * 
+     * @param index The index to check.
+     * @param size The number of entries.
+     * 
+     * @throws IOException If the index is not valid.
+     */
+    private static void checkIndex(int index, int size) throws IOException {
+        if (index < 0 || index >= size) {
+            throw new IOException("Invalid shared string index: " + index);
+        }
+    }
+    
+    /**
+     * Parses the table, if this was not done before.
+     * 
+     * @throws IOException If parsing the table fails.
+     */
+    private synchronized void parse() throws IOException {
+        if (strings == null && offHeapStrings == null) {
+            List<@NonNull String> strings = null;
+            OffHeapStringTable offHeapStrings = null;
+            EntryConsumer consumer;
+            if (offHeap) {
+                offHeapStrings = new OffHeapStringTable();
+                consumer = offHeapStrings::add;
+            } else {
+                strings = new ArrayList<>();
+                consumer = strings::add;
+            }
+            
+            PackagePart part = this.part;
+            if (part != null) {
+                try (InputStream in = part.getInputStream()) {
+                    parse(notNull(in), consumer);
+                } catch (XMLStreamException e) {
+                    throw new IOException("Can't parse shared strings table", e);
+                }
+            }
+            this.strings = strings;
+            this.offHeapStrings = offHeapStrings;
+        }
+    }
+    
+    /**
+     * Receives the parsed entries of the table.
+     */
+    private static interface EntryConsumer {
+        
+        /**
+         * Receives the next entry.
+         * 
+         * @param entry The text of the entry.
+         * 
+         * @throws IOException If storing the entry fails.
+         */
+        void add(@NonNull String entry) throws IOException;
+        
+    }
+    
+    /**
+     * Parses the <code>&lt;si&gt;</code> elements of the table.
+     * 
+     * @param in The XML of the table.
+     * @param result Receives the entries.
+     * 
+     * @throws XMLStreamException If the XML is malformed.
+     * @throws IOException If storing an entry fails.
+     */
+    private static void parse(@NonNull InputStream in, @NonNull EntryConsumer result)
+            throws XMLStreamException, IOException {
+        
+        XMLStreamReader xml = XML_FACTORY.createXMLStreamReader(in);
+        try {
+            StringBuilder text = new StringBuilder();
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("si")) {
+                    text.setLength(0);
+                    readRichText(xml, text);
+                    result.add(decode(text));
+                }
+            }
+        } finally {
+            xml.close();
+        }
+    }
+    
+    /**
+     * Reads the plain text of a rich text element (<code>&lt;si&gt;</code> or <code>&lt;is&gt;</code>). Phonetic
+     * runs (<code>&lt;rPh&gt;</code>) are not part of the text. The reader must be positioned on the start tag and
+     * will be positioned on the corresponding end tag afterwards.
+     * 
+     * @param xml The XML reader.
+     * @param text The builder to append the text to.
+     * 
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    static void readRichText(@NonNull XMLStreamReader xml, @NonNull StringBuilder text) throws XMLStreamException {
+        int depth = 1;
+        boolean inText = false;
+        while (depth > 0) {
+            switch (xml.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                if (xml.getLocalName().equals("rPh")) {
+                    skipElement(xml);
+                    depth--;
+                } else {
+                    inText = xml.getLocalName().equals("t");
+                }
+                break;
+            
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                inText = false;
+                break;
+            
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if (inText) {
+                    text.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                }
+                break;
+            
+            default:
+                // ignore comments, processing instructions, etc.
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Skips the element the reader is positioned on, including all of its children. Afterwards the reader is
+     * positioned on the corresponding end tag.
+     * 
+     * @param xml The XML reader, positioned on a start tag.
+     * 
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    static void skipElement(@NonNull XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+    
+    /**
+     * Decodes the <code>_xHHHH_</code> escape sequences, which Excel uses for characters that can't be stored in
+     * XML (e.g. control characters).
+     * 
+     * @param text The text to decode.
+     * @return The decoded text.
+     */
+    static @NonNull String decode(@NonNull CharSequence text) {
+        String str = text.toString();
+        if (str.indexOf("_x") == -1) {
+            return str;
+        }
+        
+        StringBuilder result = new StringBuilder(str.length());
+        int i = 0;
+        while (i < str.length()) {
+            char c = str.charAt(i);
+            if (c == '_' && i + 6 < str.length() && str.charAt(i + 1) == 'x' && str.charAt(i + 6) == '_'
+                    && isHex(str, i + 2, i + 6)) {
+                result.append((char) Integer.parseInt(str.substring(i + 2, i + 6), 16));
+                i += 7;
+            } else {
+                result.append(c);
+                i++;
+            }
+        }
+        return notNull(result.toString());
+    }
+    
+    /**
+     * Checks whether the given range of the string consists only of hexadecimal digits.
+     * 
+     * @param str The string to check.
+     * @param start The start of the range (inclusive).
+     * @param end The end of the range (exclusive).
+     * @return Whether all characters are hexadecimal digits.
+     */
+    private static boolean isHex(@NonNull String str, int start, int end) {
+        boolean result = true;
+        for (int i = start; i < end && result; i++) {
+            result = Character.digit(str.charAt(i), 16) != -1;
+        }
+        return result;
+    }
+    
+}
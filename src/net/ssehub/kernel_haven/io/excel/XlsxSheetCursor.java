@@ -0,0 +1,750 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetCursor} that parses the XML of an XLSX worksheet with a streaming (StAX) parser. Only the current
+ * row and cell are held in memory. The cell types and values are determined the same way as Apache POI does for
+ * the {@link org.apache.poi.xssf.usermodel.XSSFCell}s of a fully loaded workbook.
+ * 
+ * @author Adam
+ */
+class XlsxSheetCursor extends SheetCursor {
+    
+    private @NonNull InputStream in;
+    
+    private @NonNull XMLStreamReader xml;
+    
+    private @NonNull XlsxSharedStrings sharedStrings;
+    
+    /**
+     * Whether the parser has reached the <code>&lt;sheetData&gt;</code> element.
+     */
+    private boolean inSheetData;
+    
+    /**
+     * Whether the end of the <code>&lt;sheetData&gt;</code> element (or the document) is reached.
+     */
+    private boolean finished;
+    
+    /**
+     * Whether the parser is positioned inside a <code>&lt;row&gt;</code> element (i.e. there may be further cells).
+     */
+    private boolean inRow;
+    
+    private int rowIndex = -1;
+    
+    private int outlineLevel;
+    
+    private int columnIndex;
+    
+    /**
+     * The <code>t</code> attribute of the current cell, <code>null</code> if not specified.
+     */
+    private @Nullable String cellType;
+    
+    private final @NonNull StringBuilder value = new StringBuilder();
+    
+    private boolean hasValue;
+    
+    private final @NonNull StringBuilder inlineString = new StringBuilder();
+    
+    private boolean hasInlineString;
+    
+    private final @NonNull StringBuilder formula = new StringBuilder();
+    
+    private boolean hasFormula;
+    
+    /**
+     * The shared formula group (<code>si</code> attribute) of the current cell, -1 if none.
+     */
+    private int sharedFormulaIndex;
+    
+    /**
+     * The master cells of the shared formulas seen so far, by their group index.
+     */
+    private final @NonNull Map<Integer, XlsxSharedFormula> sharedFormulas = new HashMap<>();
+    
+    /**
+     * The range (<code>ref</code> attribute) of the array formula, whose master cell is the current cell.
+     * <code>null</code> if the current cell is not the master cell of an array formula.
+     */
+    private @Nullable String arrayFormulaRange;
+    
+    /**
+     * The array formulas, whose range contains the current or following rows. All cells in the range of an array
+     * formula show the formula of its master cell, like in a loaded workbook.
+     */
+    private final @NonNull List<@NonNull ArrayFormula> arrayFormulas = new ArrayList<>();
+    
+    /**
+     * Creates a cursor for the given sheet XML.
+     * 
+     * @param in The XML of the sheet. Will be closed by {@link #close()}.
+     * @param sharedStrings The shared strings table of the workbook.
+     * 
+     * @throws IOException If creating the XML parser fails.
+     */
+    XlsxSheetCursor(@NonNull InputStream in, @NonNull XlsxSharedStrings sharedStrings) throws IOException {
+        this.in = in;
+        this.sharedStrings = sharedStrings;
+        try {
+            this.xml = notNull(XlsxSharedStrings.XML_FACTORY.createXMLStreamReader(in));
+        } catch (XMLStreamException e) {
+            in.close();
+            throw new IOException("Can't parse sheet", e);
+        }
+    }
+    
+    @Override
+    public boolean nextRow() throws IOException {
+        boolean result = false;
+        try {
+            if (!inSheetData && !finished) {
+                moveToSheetData();
+            }
+            if (inRow) {
+                // skip remaining cells of the previous row
+                XlsxSharedStrings.skipElement(xml);
+                inRow = false;
+            }
+            
+            while (!finished && !result) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (xml.getLocalName().equals("row")) {
+                        readRowAttributes();
+                        inRow = true;
+                        result = true;
+                    } else {
+                        XlsxSharedStrings.skipElement(xml);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+                    // end of <sheetData>
+                    finished = true;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Can't parse sheet", e);
+        }
+        return result;
+    }
+    
+    /**
+     * Moves the parser into the <code>&lt;sheetData&gt;</code> element. Sets {@link #finished} if the sheet has no
+     * data.
+     * 
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    private void moveToSheetData() throws XMLStreamException {
+        while (!inSheetData && !finished) {
+            if (!xml.hasNext()) {
+                finished = true;
+            } else if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("sheetData")) {
+                inSheetData = true;
+            }
+        }
+    }
+    
+    /**
+     * Reads the attributes of the <code>&lt;row&gt;</code> element the parser is positioned on.
+     */
+    private void readRowAttributes() {
+        String r = xml.getAttributeValue(null, "r");
+        rowIndex = r != null ? Integer.parseInt(r) - 1 : rowIndex + 1;
+        
+        String level = xml.getAttributeValue(null, "outlineLevel");
+        outlineLevel = level != null ? Integer.parseInt(level) : 0;
+        
+        columnIndex = -1;
+        
+        // rows are sorted, thus array formulas above the current row are not needed anymore
+        Iterator<@NonNull ArrayFormula> arrays = arrayFormulas.iterator();
+        while (arrays.hasNext()) {
+            if (arrays.next().range.getLastRow() < rowIndex) {
+                arrays.remove();
+            }
+        }
+    }
+    
+    @Override
+    public int getRowIndex() {
+        return rowIndex;
+    }
+    
+    @Override
+    public int getOutlineLevel() {
+        return outlineLevel;
+    }
+    
+    @Override
+    public boolean nextCell() throws IOException {
+        boolean result = false;
+        try {
+            while (inRow && !result) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (xml.getLocalName().equals("c")) {
+                        readCell(readColumn());
+                        result = true;
+                    } else {
+                        XlsxSharedStrings.skipElement(xml);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    // end of <row>
+                    inRow = false;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Can't parse sheet", e);
+        }
+        return result;
+    }
+    
+    @Override
+    public boolean nextCell(@NonNull BitSet columns) throws IOException {
+        boolean result = false;
+        try {
+            while (inRow && !result) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (xml.getLocalName().equals("c")) {
+                        int column = readColumn();
+                        if (columns.get(column)) {
+                            readCell(column);
+                            result = true;
+                        } else {
+                            skipCell(column);
+                        }
+                    } else {
+                        XlsxSharedStrings.skipElement(xml);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    // end of <row>
+                    inRow = false;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Can't parse sheet", e);
+        }
+        return result;
+    }
+    
+    @Override
+    public boolean hasContent() throws IOException {
+        boolean result = false;
+        try {
+            while (inRow && !result) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (xml.getLocalName().equals("c")) {
+                        result = peekCellContent();
+                    } else {
+                        XlsxSharedStrings.skipElement(xml);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    // end of <row>
+                    inRow = false;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Can't parse sheet", e);
+        }
+        return result;
+    }
+    
+    /**
+     * Checks whether the <code>&lt;c&gt;</code> element the parser is positioned on has content, without computing
+     * its value: shared formulas are not resolved, numbers are not parsed and the column is only read if the cell
+     * may be part of an array formula. The result is the same as {@link #hasCellContent()} after
+     * {@link #readCell(int)}. Afterwards, the parser is positioned on the end tag of the cell and the current cell is
+     * undefined.
+     * 
+     * @return Whether the cell has content.
+     * 
+     * @throws XMLStreamException If the XML is malformed.
+     * @throws IOException If the shared strings table can't be read.
+     */
+    private boolean peekCellContent() throws XMLStreamException, IOException {
+        if (!arrayFormulas.isEmpty()) {
+            columnIndex = readColumn();
+        }
+        String type = xml.getAttributeValue(null, "t");
+        value.setLength(0);
+        inlineString.setLength(0);
+        formula.setLength(0);
+        boolean hasValue = false;
+        boolean hasInlineString = false;
+        boolean hasFormula = false;
+        boolean sharedFormula = false;
+        
+        int event;
+        while ((event = xml.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (xml.getLocalName()) {
+                case "v":
+                    hasValue = true;
+                    readText(value);
+                    break;
+                
+                case "f":
+                    hasFormula = true;
+                    sharedFormula = "shared".equals(xml.getAttributeValue(null, "t"));
+                    arrayFormulaRange = null;
+                    readFormulaAttributes();
+                    readText(formula);
+                    addArrayFormula();
+                    break;
+                
+                case "is":
+                    hasInlineString = true;
+                    XlsxSharedStrings.readRichText(xml, inlineString);
+                    break;
+                
+                default:
+                    XlsxSharedStrings.skipElement(xml);
+                    break;
+                }
+            }
+        }
+        
+        // same cases as getCellType() and getText()
+        boolean result;
+        if (hasFormula) {
+            // followers of a shared formula have the (non-empty) formula of their master cell
+            result = formula.length() > 0 || sharedFormula;
+        } else if (getArrayFormula() != null) {
+            // the (non-empty) formula of the master cell of the array
+            result = true;
+        } else if (type == null) {
+            result = hasValue;
+        } else {
+            switch (type) {
+            case "s":
+                result = hasValue && !sharedStrings.isEmpty(parseIndex(value));
+                break;
+            case "str":
+            case "inlineStr":
+            case "e":
+                // escapes in inline strings never decode to an empty text
+                result = hasInlineString ? inlineString.length() > 0 : value.length() > 0;
+                break;
+            case "b":
+                result = true;
+                break;
+            default:
+                result = hasValue;
+                break;
+            }
+        }
+        
+        this.hasValue = false;
+        this.hasInlineString = false;
+        this.hasFormula = false;
+        return result;
+    }
+    
+    /**
+     * Reads the column of the <code>&lt;c&gt;</code> element the parser is positioned on. Cells without a reference
+     * are in the column after the previous cell.
+     * 
+     * @return The 0-based column index of the cell.
+     */
+    private int readColumn() {
+        String r = xml.getAttributeValue(null, "r");
+        return r != null ? parseColumn(r) : columnIndex + 1;
+    }
+    
+    /**
+     * Reads the <code>&lt;c&gt;</code> element the parser is positioned on. Afterwards, the parser is positioned
+     * on the end tag of the cell.
+     * 
+     * @param column The column of the cell, see {@link #readColumn()}.
+     * 
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    private void readCell(int column) throws XMLStreamException {
+        columnIndex = column;
+        cellType = xml.getAttributeValue(null, "t");
+        
+        value.setLength(0);
+        hasValue = false;
+        inlineString.setLength(0);
+        hasInlineString = false;
+        formula.setLength(0);
+        hasFormula = false;
+        sharedFormulaIndex = -1;
+        arrayFormulaRange = null;
+        
+        int event;
+        while ((event = xml.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (xml.getLocalName()) {
+                case "v":
+                    hasValue = true;
+                    readText(value);
+                    break;
+                
+                case "f":
+                    hasFormula = true;
+                    readFormulaAttributes();
+                    readText(formula);
+                    break;
+                
+                case "is":
+                    hasInlineString = true;
+                    XlsxSharedStrings.readRichText(xml, inlineString);
+                    break;
+                
+                default:
+                    XlsxSharedStrings.skipElement(xml);
+                    break;
+                }
+            }
+        }
+        
+        if (sharedFormulaIndex != -1) {
+            if (formula.length() > 0) {
+                // the master cell of a shared formula group
+                sharedFormulas.put(sharedFormulaIndex,
+                        new XlsxSharedFormula(notNull(formula.toString()), rowIndex, columnIndex));
+            } else {
+                XlsxSharedFormula master = sharedFormulas.get(sharedFormulaIndex);
+                if (master != null) {
+                    formula.append(master.shiftTo(rowIndex, columnIndex));
+                }
+            }
+        }
+        
+        addArrayFormula();
+        if (!hasFormula) {
+            String arrayFormula = getArrayFormula();
+            if (arrayFormula != null) {
+                hasFormula = true;
+                formula.append(arrayFormula);
+            }
+        }
+    }
+    
+    /**
+     * Stores the array formula of the current cell, if it is the master cell of an array formula.
+     */
+    private void addArrayFormula() {
+        String range = arrayFormulaRange;
+        if (range != null && formula.length() > 0) {
+            arrayFormulas.add(new ArrayFormula(notNull(CellRangeAddress.valueOf(range)),
+                    notNull(formula.toString())));
+        }
+        arrayFormulaRange = null;
+    }
+    
+    /**
+     * Returns the array formula, whose range contains the current cell.
+     * 
+     * @return The formula of the master cell of the array formula, <code>null</code> if the current cell is not part
+     *      of an array formula.
+     */
+    private @Nullable String getArrayFormula() {
+        String result = null;
+        for (ArrayFormula array : arrayFormulas) {
+            if (result == null && array.range.isInRange(rowIndex, columnIndex)) {
+                result = array.formula;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Skips the <code>&lt;c&gt;</code> element the parser is positioned on, without reading its value. Only the
+     * master cell of a shared or array formula is read, since the following cells of the group (which may be
+     * visited) derive their formula from it. Afterwards, the parser is positioned on the end tag of the cell and the current cell is
+     * undefined.
+     * 
+     * @param column The column of the cell, see {@link #readColumn()}.
+     * 
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    private void skipCell(int column) throws XMLStreamException {
+        columnIndex = column;
+        int event;
+        while ((event = xml.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String type = xml.getLocalName().equals("f") ? xml.getAttributeValue(null, "t") : null;
+                if ("shared".equals(type) || "array".equals(type)) {
+                    // only the master cell of the group has a (non-empty) formula text
+                    sharedFormulaIndex = -1;
+                    arrayFormulaRange = null;
+                    readFormulaAttributes();
+                    formula.setLength(0);
+                    readText(formula);
+                    if (sharedFormulaIndex != -1 && formula.length() > 0) {
+                        sharedFormulas.put(sharedFormulaIndex,
+                                new XlsxSharedFormula(notNull(formula.toString()), rowIndex, columnIndex));
+                    }
+                    addArrayFormula();
+                } else {
+                    XlsxSharedStrings.skipElement(xml);
+                }
+            }
+        }
+        
+        hasValue = false;
+        hasInlineString = false;
+        hasFormula = false;
+    }
+    
+    /**
+     * Reads the attributes of the <code>&lt;f&gt;</code> element the parser is positioned on.
+     */
+    private void readFormulaAttributes() {
+        String type = xml.getAttributeValue(null, "t");
+        if ("shared".equals(type)) {
+            String si = xml.getAttributeValue(null, "si");
+            if (si != null) {
+                sharedFormulaIndex = Integer.parseInt(si);
+            }
+        } else if ("array".equals(type)) {
+            arrayFormulaRange = xml.getAttributeValue(null, "ref");
+        }
+    }
+    
+    /**
+     * Reads the text content of the element the parser is positioned on. Afterwards, the parser is positioned on
+     * the end tag of the element.
+     * 
+     * @param text The builder to append the text to.
+     * 
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    private void readText(@NonNull StringBuilder text) throws XMLStreamException {
+        int event;
+        while ((event = xml.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                text.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                XlsxSharedStrings.skipElement(xml);
+            }
+        }
+    }
+    
+    @Override
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+    
+    @Override
+    public @NonNull CellType getCellType() {
+        return hasFormula ? CellType.FORMULA : getValueType();
+    }
+    
+    @Override
+    public @Nullable CellType getCachedResultType() {
+        // the result of a formula is stored like the value of other cells
+        return hasFormula && hasValue ? getValueType() : null;
+    }
+    
+    /**
+     * Returns the type of the value of the current cell, as given by its type attribute.
+     * 
+     * @return The type of the value.
+     */
+    private @NonNull CellType getValueType() {
+        CellType result;
+        if (cellType == null) {
+            result = hasValue ? CellType.NUMERIC : CellType.BLANK;
+        } else {
+            switch (notNull(cellType)) {
+            case "s":
+            case "str":
+            case "inlineStr":
+                result = CellType.STRING;
+                break;
+            case "b":
+                result = CellType.BOOLEAN;
+                break;
+            case "e":
+                result = CellType.ERROR;
+                break;
+            default:
+                result = hasValue ? CellType.NUMERIC : CellType.BLANK;
+                break;
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public @NonNull String getStringValue() {
+        return notNull(getValueText().toString());
+    }
+    
+    @Override
+    public @NonNull CharSequence getText() {
+        return hasFormula ? formula : getValueText();
+    }
+    
+    @Override
+    public boolean isTextShared() {
+        // the shared strings table holds one instance per string, unless it is kept off the heap
+        return !hasFormula && "s".equals(cellType) && sharedStrings.isShared();
+    }
+    
+    /**
+     * Returns the text value of the current cell, without creating a {@link String} if possible.
+     * 
+     * @return The text value, see {@link #getStringValue()}.
+     */
+    private @NonNull CharSequence getValueText() {
+        CharSequence result;
+        if ("s".equals(cellType)) {
+            try {
+                result = hasValue ? sharedStrings.get(parseIndex(value)) : "";
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't read shared string of cell in row " + (rowIndex + 1), e);
+            }
+        } else if (hasInlineString || "str".equals(cellType)) {
+            // like inline strings, Excel escapes the texts of formula results
+            result = XlsxSharedStrings.decode(hasInlineString ? inlineString : value);
+        } else {
+            result = value;
+        }
+        return notNull(result);
+    }
+    
+    /**
+     * Parses a non-negative integer (e.g. the index of a shared string), without creating a {@link String}.
+     * Surrounding whitespace is ignored.
+     * 
+     * @param text The text to parse.
+     * @return The parsed integer.
+     * 
+     * @throws IOException If the text is not a non-negative integer.
+     */
+    static int parseIndex(@NonNull CharSequence text) throws IOException {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end || end - start > 9) {
+            throw new IOException("Invalid index: " + text);
+        }
+        
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IOException("Invalid index: " + text);
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+    
+    @Override
+    public double getNumericValue() {
+        return value.length() == 0 ? 0.0 : Numbers.parseDouble(value);
+    }
+    
+    @Override
+    public boolean getBooleanValue() {
+        return value.length() == 1 && value.charAt(0) == '1';
+    }
+    
+    @Override
+    public @Nullable String getFormula() {
+        return hasFormula ? formula.toString() : null;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            // ignore, we close the underlying stream anyway
+        }
+        in.close();
+    }
+    
+    /**
+     * An array formula: all cells of its range show the formula of its master cell.
+     */
+    private static final class ArrayFormula {
+        
+        private @NonNull CellRangeAddress range;
+        
+        private @NonNull String formula;
+        
+        /**
+         * Creates an array formula.
+         * 
+         * @param range The range of the array formula.
+         * @param formula The formula of the master cell.
+         */
+        ArrayFormula(@NonNull CellRangeAddress range, @NonNull String formula) {
+            this.range = range;
+            this.formula = formula;
+        }
+        
+    }
+    
+    /**
+     * Parses the column index of a cell reference (e.g. <code>AB12</code>).
+     * 
+     * @param reference The cell reference.
+     * @return The 0-based column index.
+     */
+    static int parseColumn(@NonNull String reference) {
+        int result = 0;
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                result = result * 26 + (c - 'A' + 1);
+            } else if (c >= 'a' && c <= 'z') {
+                result = result * 26 + (c - 'a' + 1);
+            } else if (c != '$') {
+                break;
+            }
+        }
+        return result - 1;
+    }
+    
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link SheetSource} for a worksheet part of an XLSX file. The sheet XML is parsed while the cursor moves
+ * through it, thus the memory consumption does not depend on the size of the sheet.
+ * 
+ * @author Adam
+ */
+class XlsxSheetSource extends SheetSource {
+    
+    private @NonNull PackagePart part;
+    
+    private @NonNull XlsxSharedStrings sharedStrings;
+    
+    /**
+     * The index of the rows in the sheet XML, created by the first {@link #openCursor(int, int)}. <code>null</code>
+     * if not created yet or if the sheet can't be indexed.
+     */
+    private @Nullable XlsxRowIndex rowIndex;
+    
+    private boolean rowIndexCreated;
+    
+    /**
+     * Creates a source for the given worksheet part.
+     * 
+     * @param name The name of the sheet.
+     * @param part The package part containing the sheet XML.
+     * @param sharedStrings The shared strings table of the workbook.
+     */
+    XlsxSheetSource(@NonNull String name, @NonNull PackagePart part, @NonNull XlsxSharedStrings sharedStrings) {
+        super(name);
+        this.part = part;
+        this.sharedStrings = sharedStrings;
+    }
+    
+    @Override
+    public @NonNull SheetCursor openCursor() throws IOException {
+        return new XlsxSheetCursor(notNull(part.getInputStream()), sharedStrings);
+    }
+    
+    @Override
+    public @NonNull RangeCursor openCursor(int firstRow, int lastRow) throws IOException {
+        XlsxRowIndex index = firstRow > 0 ? getRowIndex() : null;
+        XlsxRowIndex.Position position = index != null ? index.find(firstRow) : null;
+        
+        RangeCursor result;
+        if (index != null && position != null) {
+            // skip the XML before the row without parsing it
+            InputStream in = index.open(notNull(part.getInputStream()), position);
+            result = new RangeCursor(new XlsxSheetCursor(in, sharedStrings), position.getPrecedingRows(), firstRow,
+                    lastRow);
+        } else {
+            result = super.openCursor(firstRow, lastRow);
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the index of the rows in the sheet XML. The index is created by a scan over the XML on the first call.
+     * 
+     * @return The index, <code>null</code> if the sheet can't be indexed.
+     * 
+     * @throws IOException If reading the sheet XML fails.
+     */
+    private synchronized @Nullable XlsxRowIndex getRowIndex() throws IOException {
+        if (!rowIndexCreated) {
+            try (InputStream in = part.getInputStream()) {
+                rowIndex = XlsxRowIndex.read(notNull(in));
+            }
+            rowIndexCreated = true;
+        }
+        return rowIndex;
+    }
+    
+    /**
+     * Checks whether the index of the rows was already created (or set), see {@link #getKnownRowIndex()}.
+     * 
+     * @return Whether the index of the rows is known.
+     */
+    synchronized boolean isRowIndexKnown() {
+        return rowIndexCreated;
+    }
+    
+    /**
+     * Returns the index of the rows, if it was already created.
+     * 
+     * @return The index, <code>null</code> if it was not created yet or if the sheet can't be indexed.
+     */
+    synchronized @Nullable XlsxRowIndex getKnownRowIndex() {
+        return rowIndex;
+    }
+    
+    /**
+     * Sets the index of the rows, e.g. from an index file. The sheet will not be scanned anymore.
+     * 
+     * @param rowIndex The index of the rows, <code>null</code> if the sheet can't be indexed.
+     */
+    synchronized void setRowIndex(@Nullable XlsxRowIndex rowIndex) {
+        this.rowIndex = rowIndex;
+        this.rowIndexCreated = true;
+    }
+    
+    /**
+     * Returns the package part of this sheet.
+     * 
+     * @return The package part containing the sheet XML.
+     */
+    @NonNull PackagePart getPart() {
+        return part;
+    }
+    
+    /**
+     * Returns the shared strings table used by this sheet.
+     * 
+     * @return The shared strings table of the workbook.
+     */
+    @NonNull XlsxSharedStrings getSharedStrings() {
+        return sharedStrings;
+    }
+    
+    @Override
+    protected @NonNull Dimension readDimension() throws IOException {
+        String ref = null;
+        try (InputStream in = part.getInputStream()) {
+            XMLStreamReader xml = XlsxSharedStrings.XML_FACTORY.createXMLStreamReader(in);
+            try {
+                boolean done = false;
+                while (!done && xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT) {
+                        switch (xml.getLocalName()) {
+                        case "dimension":
+                            ref = xml.getAttributeValue(null, "ref");
+                            done = true;
+                            break;
+                        case "sheetData":
+                            // the dimension is declared before the data, if at all
+                            done = true;
+                            break;
+                        default:
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Can't parse header of sheet " + getName(), e);
+        }
+        
+        Dimension result = Dimension.UNKNOWN;
+        if (ref != null) {
+            try {
+                CellRangeAddress area = CellRangeAddress.valueOf(ref);
+                result = new Dimension(area.getLastRow() + 1, area.getLastColumn() + 1);
+            } catch (IllegalArgumentException e) {
+                // invalid reference; treat it as not declared
+            }
+        }
+        return result;
+    }
+    
+}
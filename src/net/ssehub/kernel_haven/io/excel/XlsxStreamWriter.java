@@ -0,0 +1,841 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.util.TempFile;
+
+import net.ssehub.kernel_haven.io.excel.ExcelSheetWriter.CellValue;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * Writes a new XLSX workbook directly as SpreadsheetML, without the usermodel of POI. The rows of each sheet are
+ * written as <code>&lt;row&gt;</code> and <code>&lt;c&gt;</code> elements into a deflating stream, which writes into
+ * the ZIP entry of the sheet in the destination file. No temporary files are used. When the workbook is closed, the
+ * workbook part, a fixed styles part (with the bold header style), the content types and the relationships are
+ * appended.
+ * <p>
+ * Only one ZIP entry can be written at a time. The sheet that was created first streams into the file; sheets that
+ * are written at the same time are deflated into memory, until the sheets before them are closed. Thus, sheets that
+ * are written one after another need no buffering. Flushing a sheet, which waits for its turn, moves its deflated
+ * data into a temporary file.
+ * <p>
+ * A sheet is completed in the file as soon as it is closed (and the sheets before it are closed). Thus, closing the
+ * workbook only appends the small parts and the central directory.
+ * <p>
+ * The sheets can't be read before the workbook is closed. Overwriting a sheet removes it from the workbook, but its
+ * already written data stays as an unreferenced part in the file.
+ * 
+ * @author Adam
+ */
+class XlsxStreamWriter {
+    
+    private static final @NonNull String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    
+    private static final @NonNull String NS_MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    
+    private static final @NonNull String NS_RELATIONSHIPS =
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    
+    private static final @NonNull String NS_PACKAGE_RELATIONSHIPS =
+            "http://schemas.openxmlformats.org/package/2006/relationships";
+    
+    private static final @NonNull String CONTENT_TYPE_PREFIX = "application/vnd.openxmlformats-officedocument.";
+    
+    private static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    
+    private static final int MAX_COLUMNS = SpreadsheetVersion.EXCEL2007.getMaxColumns();
+    
+    /**
+     * The index of the bold header style in the fixed styles part.
+     */
+    private static final int HEADER_STYLE = 1;
+    
+    /**
+     * The fixed styles part: the default style and the bold header style.
+     */
+    private static final @NonNull String STYLES = XML_HEADER
+            + "<styleSheet xmlns=\"" + NS_MAIN + "\">"
+            + "<fonts count=\"2\">"
+            + "<font><sz val=\"11\"/><name val=\"Calibri\"/><family val=\"2\"/></font>"
+            + "<font><b/><sz val=\"11\"/><name val=\"Calibri\"/><family val=\"2\"/></font>"
+            + "</fonts>"
+            + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>"
+            + "<fill><patternFill patternType=\"gray125\"/></fill></fills>"
+            + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+            + "<cellXfs count=\"2\">"
+            + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+            + "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"true\"/>"
+            + "</cellXfs>"
+            + "</styleSheet>";
+    
+    private @NonNull File destinationFile;
+    
+    /**
+     * The archive, opened when the first sheet is created. <code>null</code> before.
+     */
+    private @Nullable ZipPartWriter zip;
+    
+    /**
+     * The sheets of the workbook, in the order of creation. Overwritten sheets are removed.
+     */
+    private @NonNull List<@NonNull SheetStream> sheets = new ArrayList<>();
+    
+    /**
+     * The sheet, which currently streams into the archive. <code>null</code> if no sheet is streaming.
+     */
+    private @Nullable SheetStream active;
+    
+    /**
+     * The sheets, which wait to stream into the archive (including overwritten sheets), in the order of creation.
+     */
+    private @NonNull List<@NonNull SheetStream> pending = new ArrayList<>();
+    
+    private int nextSheetId = 1;
+    
+    /**
+     * Creates a writer for a new workbook. The file is not written before the first sheet is created.
+     * 
+     * @param destinationFile The XLSX file to write.
+     */
+    XlsxStreamWriter(@NonNull File destinationFile) {
+        this.destinationFile = destinationFile;
+    }
+    
+    /**
+     * Creates a new sheet. An existing sheet with the same name (ignoring case) is overwritten.
+     * 
+     * @param name The name of the sheet, which must be a valid sheet name.
+     * @return The new sheet.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    synchronized @NonNull SheetStream createSheet(@NonNull String name) throws IOException {
+        for (int i = 0; i < sheets.size(); i++) {
+            if (sheets.get(i).name.equalsIgnoreCase(name)) {
+                sheets.remove(i);
+                break;
+            }
+        }
+        
+        SheetStream sheet = new SheetStream(name, nextSheetId++, sheets.isEmpty());
+        sheets.add(sheet);
+        if (active == null) {
+            activate(sheet);
+        } else {
+            pending.add(sheet);
+        }
+        return sheet;
+    }
+    
+    /**
+     * Returns the names of the sheets.
+     * 
+     * @return The names of the sheets, in the order of the workbook.
+     */
+    synchronized @NonNull List<@NonNull String> getSheetNames() {
+        List<@NonNull String> result = new ArrayList<>();
+        for (SheetStream sheet : sheets) {
+            result.add(sheet.name);
+        }
+        return result;
+    }
+    
+    /**
+     * Finishes the given sheet, after its writer is closed. No further rows can be written to the sheet.
+     * 
+     * @param sheet The sheet to finish.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    synchronized void closeSheet(@NonNull SheetStream sheet) throws IOException {
+        synchronized (sheet) {
+            sheet.finish();
+        }
+        if (sheet == active) {
+            endActive();
+        }
+    }
+    
+    /**
+     * Finishes all sheets and writes the remaining parts of the workbook. If no sheet was created, no file is
+     * written.
+     * 
+     * @param title The title of the workbook, stored in the core properties. <code>null</code> if no title is set.
+     * @return Whether the workbook was written, i.e. whether it contains a sheet.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    synchronized boolean close(@Nullable String title) throws IOException {
+        ZipPartWriter zip = this.zip;
+        boolean result = false;
+        if (zip != null) {
+            try {
+                SheetStream active = this.active;
+                while (active != null) {
+                    closeSheet(active);
+                    active = this.active;
+                }
+                
+                if (!sheets.isEmpty()) {
+                    addPart(zip, "xl/workbook.xml", createWorkbook());
+                    addPart(zip, "xl/_rels/workbook.xml.rels", createWorkbookRelationships());
+                    addPart(zip, "xl/styles.xml", STYLES);
+                    addPart(zip, "docProps/core.xml", createCoreProperties(title));
+                    addPart(zip, "_rels/.rels", createPackageRelationships());
+                    addPart(zip, "[Content_Types].xml", createContentTypes());
+                    result = true;
+                }
+            } finally {
+                for (SheetStream sheet : pending) {
+                    synchronized (sheet) {
+                        sheet.discard();
+                    }
+                }
+                zip.close();
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Lets the given sheet stream into the archive. The data, which the sheet deflated into memory before, is copied
+     * into the archive.
+     * 
+     * @param sheet The sheet to activate.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    private void activate(@NonNull SheetStream sheet) throws IOException {
+        ZipPartWriter zip = this.zip;
+        if (zip == null) {
+            zip = new ZipPartWriter(new FileOutputStream(destinationFile));
+            this.zip = zip;
+        }
+        OutputStream entry = zip.beginEntry(sheet.getPartName());
+        synchronized (sheet) {
+            sheet.sink.switchTo(entry);
+        }
+        active = sheet;
+    }
+    
+    /**
+     * Ends the ZIP entry of the active sheet, which must be finished. Activates the next pending sheet; pending
+     * sheets that are already finished are copied into the archive directly.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    private void endActive() throws IOException {
+        SheetStream sheet = notNull(active);
+        active = null;
+        ZipPartWriter zip = notNull(this.zip);
+        zip.endEntry(sheet.crc.getValue(), sheet.deflater.getBytesRead(), sheet.deflater.getBytesWritten());
+        sheet.deflater.end();
+        // the sheet is complete in the file; no other sheet streams into the archive at this point
+        zip.flush();
+        
+        if (!pending.isEmpty()) {
+            SheetStream next = notNull(pending.remove(0));
+            activate(next);
+            if (next.finished) {
+                endActive();
+            }
+        }
+    }
+    
+    /**
+     * Adds a small part, which is deflated at once.
+     * 
+     * @param zip The archive.
+     * @param name The name of the part.
+     * @param content The XML of the part.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    private static void addPart(@NonNull ZipPartWriter zip, @NonNull String name, @NonNull String content)
+            throws IOException {
+        zip.addEntry(name, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    /**
+     * Creates the workbook part, which lists the sheets.
+     * 
+     * @return The XML of the workbook part.
+     */
+    private @NonNull String createWorkbook() {
+        StringBuilder xml = new StringBuilder(XML_HEADER);
+        xml.append("<workbook xmlns=\"").append(NS_MAIN).append("\" xmlns:r=\"").append(NS_RELATIONSHIPS)
+                .append("\"><bookViews><workbookView activeTab=\"0\"/></bookViews><sheets>");
+        for (int i = 0; i < sheets.size(); i++) {
+            SheetStream sheet = sheets.get(i);
+            xml.append("<sheet name=\"");
+            appendEscaped(xml, sheet.name);
+            xml.append("\" sheetId=\"").append(sheet.id).append("\" r:id=\"rId").append(i + 1).append("\"/>");
+        }
+        xml.append("</sheets></workbook>");
+        return notNull(xml.toString());
+    }
+    
+    /**
+     * Creates the relationships of the workbook part: the sheets and the styles.
+     * 
+     * @return The XML of the relationships.
+     */
+    private @NonNull String createWorkbookRelationships() {
+        StringBuilder xml = new StringBuilder(XML_HEADER);
+        xml.append("<Relationships xmlns=\"").append(NS_PACKAGE_RELATIONSHIPS).append("\">");
+        for (int i = 0; i < sheets.size(); i++) {
+            xml.append("<Relationship Id=\"rId").append(i + 1).append("\" Type=\"").append(NS_RELATIONSHIPS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(sheets.get(i).id).append(".xml\"/>");
+        }
+        xml.append("<Relationship Id=\"rId").append(sheets.size() + 1).append("\" Type=\"")
+                .append(NS_RELATIONSHIPS).append("/styles\" Target=\"styles.xml\"/>");
+        xml.append("</Relationships>");
+        return notNull(xml.toString());
+    }
+    
+    /**
+     * Creates the relationships of the package: the workbook and the core properties.
+     * 
+     * @return The XML of the relationships.
+     */
+    private static @NonNull String createPackageRelationships() {
+        return XML_HEADER + "<Relationships xmlns=\"" + NS_PACKAGE_RELATIONSHIPS + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + NS_RELATIONSHIPS + "/officeDocument\" "
+                + "Target=\"xl/workbook.xml\"/>"
+                + "<Relationship Id=\"rId2\" Type=\"" + NS_PACKAGE_RELATIONSHIPS + "/metadata/core-properties\" "
+                + "Target=\"docProps/core.xml\"/>"
+                + "</Relationships>";
+    }
+    
+    /**
+     * Creates the content types of all parts.
+     * 
+     * @return The XML of the content types.
+     */
+    private @NonNull String createContentTypes() {
+        StringBuilder xml = new StringBuilder(XML_HEADER);
+        xml.append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.")
+                .append("relationships+xml\"/>")
+                .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                .append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"").append(CONTENT_TYPE_PREFIX)
+                .append("spreadsheetml.sheet.main+xml\"/>")
+                .append("<Override PartName=\"/xl/styles.xml\" ContentType=\"").append(CONTENT_TYPE_PREFIX)
+                .append("spreadsheetml.styles+xml\"/>")
+                .append("<Override PartName=\"/docProps/core.xml\" ContentType=\"application/vnd.openxmlformats-")
+                .append("package.core-properties+xml\"/>");
+        for (SheetStream sheet : sheets) {
+            xml.append("<Override PartName=\"/").append(sheet.getPartName()).append("\" ContentType=\"")
+                    .append(CONTENT_TYPE_PREFIX).append("spreadsheetml.worksheet+xml\"/>");
+        }
+        xml.append("</Types>");
+        return notNull(xml.toString());
+    }
+    
+    /**
+     * Creates the core properties: the creator, the creation time and the title.
+     * 
+     * @param title The title of the workbook, <code>null</code> if no title is set.
+     * @return The XML of the core properties.
+     */
+    private static @NonNull String createCoreProperties(@Nullable String title) {
+        StringBuilder xml = new StringBuilder(XML_HEADER);
+        xml.append("<cp:coreProperties xmlns:cp=\"http://schemas.openxmlformats.org/package/2006/metadata/")
+                .append("core-properties\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" ")
+                .append("xmlns:dcterms=\"http://purl.org/dc/terms/\" ")
+                .append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">");
+        if (title != null) {
+            xml.append("<dc:title>");
+            appendEscaped(xml, title);
+            xml.append("</dc:title>");
+        }
+        xml.append("<dc:creator>KernelHaven</dc:creator>")
+                .append("<dcterms:created xsi:type=\"dcterms:W3CDTF\">")
+                .append(Instant.now().truncatedTo(ChronoUnit.SECONDS))
+                .append("</dcterms:created></cp:coreProperties>");
+        return notNull(xml.toString());
+    }
+    
+    /**
+     * Appends the given text, escaped for XML content and attribute values. Characters, which can't be stored in
+     * XML, are written as <code>_xHHHH_</code> escape sequences, like Excel does (see
+     * {@link XlsxSharedStrings#decode(CharSequence)}).
+     * 
+     * @param out The builder to append to.
+     * @param text The text to append.
+     */
+    static void appendEscaped(@NonNull StringBuilder out, @NonNull String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '<':
+                out.append("&lt;");
+                break;
+            case '>':
+                out.append("&gt;");
+                break;
+            case '&':
+                out.append("&amp;");
+                break;
+            case '"':
+                out.append("&quot;");
+                break;
+            case '\t':
+                out.append("&#9;");
+                break;
+            case '\n':
+                out.append("&#10;");
+                break;
+            case '\r':
+                out.append("&#13;");
+                break;
+            case '_':
+                // escape the underscore of texts that look like escape sequences
+                out.append(isEscapeSequence(text, i) ? "_x005F_" : "_");
+                break;
+            default:
+                if (c < ' ' || c == '\uFFFE' || c == '\uFFFF') {
+                    out.append("_x").append(String.format("%04X", (int) c)).append('_');
+                } else {
+                    out.append(c);
+                }
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Checks whether an <code>_xHHHH_</code> escape sequence starts at the given position.
+     * 
+     * @param text The text.
+     * @param index The position of the underscore.
+     * @return Whether the text contains an escape sequence at the position.
+     */
+    private static boolean isEscapeSequence(@NonNull String text, int index) {
+        boolean result = index + 6 < text.length() && text.charAt(index + 1) == 'x' && text.charAt(index + 6) == '_';
+        for (int i = index + 2; result && i < index + 6; i++) {
+            result = Character.digit(text.charAt(i), 16) != -1;
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the name of the given column, e.g. <code>A</code> or <code>AB</code>.
+     * 
+     * @param column The 0-based column index.
+     * @param out The builder to append the name to.
+     */
+    private static void appendColumnName(int column, @NonNull StringBuilder out) {
+        int start = out.length();
+        int remaining = column + 1;
+        while (remaining > 0) {
+            remaining--;
+            out.insert(start, (char) ('A' + remaining % 26));
+            remaining /= 26;
+        }
+    }
+    
+    /**
+     * The destination of the deflated data of a sheet: memory (or a temporary file, after the sheet was flushed),
+     * until the sheet streams into the archive.
+     */
+    private static final class SwitchableSink extends OutputStream {
+        
+        private @Nullable ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        
+        /**
+         * The temporary file, which replaces the {@link #buffer} when this sink is flushed before the sheet streams
+         * into the archive. <code>null</code> if the data is not in a temporary file.
+         */
+        private @Nullable File spillFile;
+        
+        private @Nullable OutputStream spill;
+        
+        private @Nullable OutputStream target;
+        
+        /**
+         * Copies the buffered data to the given stream and writes all further data to it.
+         * 
+         * @param target The stream to write to.
+         * 
+         * @throws IOException If writing to the stream fails.
+         */
+        void switchTo(@NonNull OutputStream target) throws IOException {
+            OutputStream spill = this.spill;
+            if (spill != null) {
+                spill.close();
+                File spillFile = notNull(this.spillFile);
+                Files.copy(spillFile.toPath(), target);
+                discard();
+            } else {
+                notNull(buffer).writeTo(target);
+            }
+            this.buffer = null;
+            this.target = target;
+        }
+        
+        /**
+         * Deletes the temporary file, if the data was written to one. No data can be written afterwards.
+         */
+        void discard() {
+            OutputStream spill = this.spill;
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    // the file is deleted anyway
+                }
+                notNull(spillFile).delete();
+                this.spill = null;
+                this.spillFile = null;
+            }
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            OutputStream target = this.target;
+            OutputStream spill = this.spill;
+            if (target != null) {
+                target.write(b);
+            } else if (spill != null) {
+                spill.write(b);
+            } else {
+                notNull(buffer).write(b);
+            }
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            OutputStream target = this.target;
+            OutputStream spill = this.spill;
+            if (target != null) {
+                target.write(b, off, len);
+            } else if (spill != null) {
+                spill.write(b, off, len);
+            } else {
+                notNull(buffer).write(b, off, len);
+            }
+        }
+        
+        /**
+         * Flushes the stream of the archive, if the sheet streams into the archive. Otherwise, the data is moved from
+         * memory into a temporary file.
+         */
+        @Override
+        public void flush() throws IOException {
+            OutputStream target = this.target;
+            if (target != null) {
+                target.flush();
+            } else if (spill == null) {
+                File spillFile = notNull(TempFile.createTempFile("kernelhaven-sheet", ".deflated"));
+                OutputStream spill = new FileOutputStream(spillFile);
+                this.spillFile = spillFile;
+                this.spill = spill;
+                notNull(buffer).writeTo(spill);
+                buffer = null;
+            }
+        }
+        
+    }
+    
+    /**
+     * A sheet of the workbook. Its rows are written as XML into a deflating stream. All methods must be called while
+     * holding the lock of this object.
+     */
+    static final class SheetStream {
+        
+        private @NonNull String name;
+        
+        private int id;
+        
+        private boolean selected;
+        
+        private @NonNull Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        
+        private @NonNull CRC32 crc = new CRC32();
+        
+        private @NonNull SwitchableSink sink = new SwitchableSink();
+        
+        private @NonNull DeflaterOutputStream deflated;
+        
+        /**
+         * The stream of the uncompressed XML.
+         */
+        private @NonNull OutputStream out;
+        
+        /**
+         * The XML of the current row, which is encoded into {@link #bytes} when the row is complete.
+         */
+        private @NonNull StringBuilder xml = new StringBuilder(1024);
+        
+        /**
+         * The encoded XML, which is not written to {@link #out} yet.
+         */
+        private byte @NonNull [] bytes = new byte[64 * 1024];
+        
+        private int used;
+        
+        private boolean started;
+        
+        private boolean finished;
+        
+        /**
+         * Creates a sheet.
+         * 
+         * @param name The name of the sheet.
+         * @param id The unique ID of the sheet, which is also used in the part name.
+         * @param selected Whether this is the selected sheet of the workbook.
+         */
+        private SheetStream(@NonNull String name, int id, boolean selected) {
+            this.name = name;
+            this.id = id;
+            this.selected = selected;
+            // sync flush, so that the flushed data can be inflated
+            deflated = new DeflaterOutputStream(sink, deflater, 64 * 1024, true);
+            out = new CheckedOutputStream(deflated, crc);
+        }
+        
+        /**
+         * Returns the name of this sheet.
+         * 
+         * @return The name of the sheet.
+         */
+        @NonNull String getName() {
+            return name;
+        }
+        
+        /**
+         * Returns the name of the ZIP entry of this sheet.
+         * 
+         * @return The part name, without leading slash.
+         */
+        @NonNull String getPartName() {
+            return "xl/worksheets/sheet" + id + ".xml";
+        }
+        
+        /**
+         * Writes a row.
+         * 
+         * @param row The 0-based index of the row.
+         * @param cells The cells of the row.
+         * @param header Whether this is a header row, which uses the bold style. If it is the first row of the
+         *      sheet, it is frozen.
+         * 
+         * @throws IOException If writing the row fails, or if the row or a cell is outside of the limits of Excel.
+         */
+        void writeRow(int row, @NonNull List<@NonNull CellValue> cells, boolean header) throws IOException {
+            if (row >= MAX_ROWS || cells.size() > MAX_COLUMNS) {
+                throw new IOException("Row " + row + " with " + cells.size() + " cells exceeds the size of a sheet");
+            }
+            start(header && row == 0);
+            
+            String rowNumber = Integer.toString(row + 1);
+            xml.append("<row r=\"");
+            xml.append(rowNumber);
+            xml.append("\">");
+            for (int column = 0; column < cells.size(); column++) {
+                CellValue cell = cells.get(column);
+                xml.append("<c r=\"");
+                appendColumnName(column, xml);
+                xml.append(rowNumber);
+                xml.append('"');
+                if (header) {
+                    xml.append(" s=\"").append(HEADER_STYLE).append('"');
+                }
+                writeValue(cell.getType(), cell.getValue());
+            }
+            xml.append("</row>");
+            writeXml();
+        }
+        
+        /**
+         * Writes the type and the value of a cell, after its reference and style, and closes the cell element.
+         * 
+         * @param type The type of the cell.
+         * @param value The value of the cell.
+         * 
+         * @throws IOException If writing fails.
+         */
+        private void writeValue(@NonNull CellType type, @Nullable Object value) throws IOException {
+            switch (type) {
+            case BLANK:
+                xml.append("/>");
+                break;
+            
+            case NUMERIC:
+                double number = ((Number) notNull(value)).doubleValue();
+                // like POI, Excel errors are stored for numbers that Excel can't represent
+                if (Double.isInfinite(number)) {
+                    xml.append(" t=\"e\"><v>#DIV/0!</v></c>");
+                } else if (Double.isNaN(number)) {
+                    xml.append(" t=\"e\"><v>#NUM!</v></c>");
+                } else {
+                    xml.append("><v>");
+                    xml.append(Double.toString(number));
+                    xml.append("</v></c>");
+                }
+                break;
+            
+            case BOOLEAN:
+                xml.append(" t=\"b\"><v>");
+                xml.append((Boolean) notNull(value) ? '1' : '0');
+                xml.append("</v></c>");
+                break;
+            
+            default:
+                String text = notNull(value).toString();
+                xml.append(" t=\"inlineStr\"><is><t");
+                if (!text.isEmpty() && (Character.isWhitespace(text.charAt(0))
+                        || Character.isWhitespace(text.charAt(text.length() - 1)))) {
+                    xml.append(" xml:space=\"preserve\"");
+                }
+                xml.append('>');
+                appendEscaped(xml, text);
+                xml.append("</t></is></c>");
+                break;
+            }
+        }
+        
+        /**
+         * Writes the start of the worksheet, if this was not done before.
+         * 
+         * @param freezeHeader Whether the first row is frozen.
+         * 
+         * @throws IOException If writing fails.
+         */
+        private void start(boolean freezeHeader) throws IOException {
+            if (!started) {
+                started = true;
+                xml.append(XML_HEADER);
+                xml.append("<worksheet xmlns=\"" + NS_MAIN + "\" xmlns:r=\"" + NS_RELATIONSHIPS + "\">");
+                xml.append("<sheetViews><sheetView workbookViewId=\"0\"");
+                if (selected) {
+                    xml.append(" tabSelected=\"true\"");
+                }
+                if (freezeHeader) {
+                    xml.append("><pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/>"
+                            + "<selection pane=\"bottomLeft\"/></sheetView>");
+                } else {
+                    xml.append("/>");
+                }
+                xml.append("</sheetViews><sheetData>");
+                writeXml();
+            }
+        }
+        
+        /**
+         * Encodes the {@link #xml} as UTF-8 into the {@link #bytes} and clears it.
+         * 
+         * @throws IOException If writing the encoded XML fails.
+         */
+        private void writeXml() throws IOException {
+            int length = xml.length();
+            if (bytes.length - used < length) {
+                drain();
+            }
+            // most XML is ASCII; other texts are encoded by the JDK
+            boolean ascii = length <= bytes.length;
+            for (int i = 0; i < length && ascii; i++) {
+                char c = xml.charAt(i);
+                bytes[used + i] = (byte) c;
+                ascii = c < 0x80;
+            }
+            if (ascii) {
+                used += length;
+            } else {
+                drain();
+                out.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            xml.setLength(0);
+        }
+        
+        /**
+         * Writes the encoded XML to the deflating stream.
+         * 
+         * @throws IOException If writing fails.
+         */
+        private void drain() throws IOException {
+            if (used > 0) {
+                out.write(bytes, 0, used);
+                used = 0;
+            }
+        }
+        
+        /**
+         * Writes the rows, which were written so far, through the deflater into the archive (or into a temporary
+         * file, if this sheet is not streaming into the archive yet). Does nothing if this sheet is finished.
+         * 
+         * @throws IOException If writing fails.
+         */
+        void flush() throws IOException {
+            if (!finished) {
+                drain();
+                deflated.flush();
+            }
+        }
+        
+        /**
+         * Deletes the temporary data of this sheet, if it never streamed into the archive.
+         */
+        private void discard() {
+            sink.discard();
+            deflater.end();
+        }
+        
+        /**
+         * Writes the end of the worksheet and finishes the deflated data. Does nothing if this sheet is finished
+         * already.
+         * 
+         * @throws IOException If writing fails.
+         */
+        private void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+                start(false);
+                xml.append("</sheetData></worksheet>");
+                writeXml();
+                drain();
+                // finishes the deflater, but doesn't flush or close the sink
+                deflated.finish();
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,626 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.poi.util.TempFile;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * Writes a ZIP archive from parts, which are deflated in advance. The compressed data of a {@link DeflatedPart} is
+ * copied into the archive without recompression, thus the parts can be deflated in parallel and the archive is
+ * assembled on a single thread. Alternatively, the deflated data of an entry can be streamed into the archive, see
+ * {@link #beginEntry(String)}. Entries, sizes and offsets larger than 4 GB are stored in the ZIP64 format; only
+ * streamed entries are limited to 4 GB.
+ * 
+ * @author Adam
+ */
+class ZipPartWriter implements Closeable {
+    
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+    
+    /**
+     * General purpose flag: the names are encoded in UTF-8.
+     */
+    private static final int FLAG_UTF8 = 0x0800;
+    
+    /**
+     * General purpose flag: the checksum and the sizes follow the data in a data descriptor.
+     */
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    
+    private static final int METHOD_DEFLATED = 8;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * A part, which is deflated into a temporary file. Created by {@link PartOutputStream#finish()}.
+     */
+    static final class DeflatedPart {
+        
+        private @NonNull File file;
+        
+        private long crc;
+        
+        private long size;
+        
+        private long compressedSize;
+        
+        /**
+         * Creates a deflated part.
+         * 
+         * @param file The temporary file with the raw deflated data.
+         * @param crc The CRC-32 of the uncompressed data.
+         * @param size The size of the uncompressed data.
+         * @param compressedSize The size of the deflated data.
+         */
+        private DeflatedPart(@NonNull File file, long crc, long size, long compressedSize) {
+            this.file = file;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+        }
+        
+        /**
+         * Returns the size of the uncompressed data.
+         * 
+         * @return The uncompressed size in bytes.
+         */
+        long getSize() {
+            return size;
+        }
+        
+        /**
+         * Deletes the temporary file of this part.
+         */
+        void delete() {
+            file.delete();
+        }
+        
+    }
+    
+    /**
+     * Deflates the data of a part into a temporary file, while computing the checksum.
+     */
+    static final class PartOutputStream extends OutputStream {
+        
+        private @NonNull File file;
+        
+        private @NonNull Deflater deflater;
+        
+        private @NonNull DeflaterOutputStream out;
+        
+        private @NonNull CRC32 crc = new CRC32();
+        
+        /**
+         * Creates a stream for a new part.
+         * 
+         * @throws IOException If creating the temporary file fails.
+         */
+        PartOutputStream() throws IOException {
+            file = notNull(TempFile.createTempFile("poi-sxssf-part", ".deflated"));
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                out = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE),
+                        deflater, BUFFER_SIZE);
+            } catch (IOException e) {
+                deflater.end();
+                file.delete();
+                throw e;
+            }
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+        }
+        
+        /**
+         * Finishes the deflated data and closes the temporary file.
+         * 
+         * @return The deflated part. The caller is responsible for deleting it.
+         * 
+         * @throws IOException If writing the temporary file fails.
+         */
+        @NonNull DeflatedPart finish() throws IOException {
+            DeflatedPart result;
+            try {
+                out.finish();
+                out.close();
+                result = new DeflatedPart(file, crc.getValue(), deflater.getBytesRead(), deflater.getBytesWritten());
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            } finally {
+                deflater.end();
+            }
+            return result;
+        }
+        
+        /**
+         * Discards this part, e.g. if writing its data failed.
+         */
+        void discard() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            deflater.end();
+            file.delete();
+        }
+        
+    }
+    
+    /**
+     * An entry, which was written to the archive; kept for the central directory.
+     */
+    private static final class Entry {
+        
+        private byte @NonNull [] name;
+        
+        private long crc;
+        
+        private long size;
+        
+        private long compressedSize;
+        
+        private long offset;
+        
+        private int flags;
+        
+        /**
+         * Creates an entry.
+         * 
+         * @param name The UTF-8 encoded name.
+         * @param part The data of the entry.
+         * @param offset The offset of the local header in the archive.
+         */
+        Entry(byte @NonNull [] name, @NonNull DeflatedPart part, long offset) {
+            this(name, part.crc, part.size, part.compressedSize, offset, 0);
+        }
+        
+        /**
+         * Creates an entry.
+         * 
+         * @param name The UTF-8 encoded name.
+         * @param crc The CRC-32 of the uncompressed data.
+         * @param size The size of the uncompressed data.
+         * @param compressedSize The size of the deflated data.
+         * @param offset The offset of the local header in the archive.
+         * @param flags The additional general purpose flags of the entry.
+         */
+        Entry(byte @NonNull [] name, long crc, long size, long compressedSize, long offset, int flags) {
+            this.name = name;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+            this.flags = flags;
+        }
+        
+        /**
+         * Returns whether this entry needs the ZIP64 extra field.
+         * 
+         * @return Whether a size or the offset doesn't fit into 32 bits.
+         */
+        boolean isZip64() {
+            return size >= ZIP64_LIMIT || compressedSize >= ZIP64_LIMIT || offset >= ZIP64_LIMIT;
+        }
+        
+    }
+    
+    private @NonNull OutputStream out;
+    
+    private long position;
+    
+    private @NonNull List<@NonNull Entry> entries = new ArrayList<>();
+    
+    private int dosTime;
+    
+    private int dosDate;
+    
+    /**
+     * The name of the entry, which is currently streamed, see {@link #beginEntry(String)}. <code>null</code> if no
+     * entry is streamed.
+     */
+    private byte @Nullable [] streamedName;
+    
+    private long streamedOffset;
+    
+    /**
+     * Whether an entry could not be written completely, e.g. because writing its header or data failed or a streamed
+     * entry is too large. The central directory is not written then, so that the incomplete archive is not mistaken
+     * for a valid one.
+     */
+    private boolean failed;
+    
+    /**
+     * Creates a writer for a new archive.
+     * 
+     * @param out The stream to write the archive to. Closed by {@link #close()}.
+     */
+    ZipPartWriter(@NonNull OutputStream out) {
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+        
+        LocalDateTime now = LocalDateTime.now();
+        dosTime = now.getHour() << 11 | now.getMinute() << 5 | now.getSecond() / 2;
+        dosDate = Math.max(now.getYear() - 1980, 0) << 9 | now.getMonthValue() << 5 | now.getDayOfMonth();
+    }
+    
+    /**
+     * Deflates the given data and adds it as a new entry. Intended for small parts.
+     * 
+     * @param name The name of the entry.
+     * @param data The uncompressed data of the entry. Not closed by this method.
+     * 
+     * @throws IOException If reading the data or writing the archive fails.
+     */
+    void addEntry(@NonNull String name, @NonNull InputStream data) throws IOException {
+        PartOutputStream part = new PartOutputStream();
+        DeflatedPart deflated;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                part.write(buffer, 0, read);
+            }
+            deflated = part.finish();
+        } catch (IOException e) {
+            part.discard();
+            throw e;
+        }
+        try {
+            addEntry(name, deflated);
+        } finally {
+            deflated.delete();
+        }
+    }
+    
+    /**
+     * Adds the given part as a new entry. The deflated data is copied without recompression; the part is not
+     * deleted.
+     * 
+     * @param name The name of the entry.
+     * @param part The deflated data of the entry.
+     * 
+     * @throws IOException If reading the part or writing the archive fails.
+     */
+    void addEntry(@NonNull String name, @NonNull DeflatedPart part) throws IOException {
+        checkNotStreaming();
+        Entry entry = new Entry(notNull(name.getBytes(StandardCharsets.UTF_8)), part, position);
+        boolean zip64 = entry.isZip64();
+        
+        ByteBuffer header = newBuffer(30 + entry.name.length + (zip64 ? 20 : 0));
+        header.putInt(0x04034b50);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) METHOD_DEFLATED);
+        header.putShort((short) dosTime);
+        header.putShort((short) dosDate);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.size));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(entry.name);
+        if (zip64) {
+            // the local header must contain both sizes
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+        }
+        write(header);
+        
+        try (InputStream in = new FileInputStream(part.file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            // the local header is written, but not the data
+            failed = true;
+            throw e;
+        }
+        position += part.compressedSize;
+        entries.add(entry);
+    }
+    
+    /**
+     * Starts a new entry, whose deflated data is streamed into the archive. The checksum and the sizes are written
+     * after the data by {@link #endEntry(long, long, long)}. No other entry can be added until then.
+     * <p>
+     * The local header doesn't announce the ZIP64 format, as the JDK before version 21 can't read streamed entries
+     * with ZIP64 data descriptors sequentially. Thus, the entry must be smaller than 4 GB.
+     * 
+     * @param name The name of the entry.
+     * @return The stream to write the raw deflated data of the entry to. Closing it has no effect; flushing it
+     *      flushes the archive, see {@link #flush()}.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    @NonNull OutputStream beginEntry(@NonNull String name) throws IOException {
+        checkNotStreaming();
+        byte[] nameBytes = notNull(name.getBytes(StandardCharsets.UTF_8));
+        streamedOffset = position;
+        
+        ByteBuffer header = newBuffer(30 + nameBytes.length);
+        header.putInt(0x04034b50);
+        header.putShort((short) 20);
+        header.putShort((short) (FLAG_UTF8 | FLAG_DATA_DESCRIPTOR));
+        header.putShort((short) METHOD_DEFLATED);
+        header.putShort((short) dosTime);
+        header.putShort((short) dosDate);
+        // checksum and sizes follow in the data descriptor
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putShort((short) nameBytes.length);
+        header.putShort((short) 0);
+        header.put(nameBytes);
+        write(header);
+        streamedName = nameBytes;
+        
+        return new OutputStream() {
+            
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    out.write(b);
+                } catch (IOException e) {
+                    failed = true;
+                    throw e;
+                }
+                position++;
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    out.write(b, off, len);
+                } catch (IOException e) {
+                    failed = true;
+                    throw e;
+                }
+                position += len;
+            }
+            
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+            
+        };
+    }
+    
+    /**
+     * Writes the buffered data of the archive to the underlying stream.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    void flush() throws IOException {
+        out.flush();
+    }
+    
+    /**
+     * Ends the entry started by {@link #beginEntry(String)}, by writing the data descriptor.
+     * 
+     * @param crc The CRC-32 of the uncompressed data.
+     * @param size The size of the uncompressed data.
+     * @param compressedSize The size of the deflated data, which was written to the stream of the entry.
+     * 
+     * @throws IOException If writing the archive fails or the entry is too large for a streamed entry; no central
+     *      directory is written in the latter case.
+     */
+    void endEntry(long crc, long size, long compressedSize) throws IOException {
+        byte[] name = streamedName;
+        if (name == null) {
+            throw new IllegalStateException("No entry is streamed");
+        }
+        if (size >= ZIP64_LIMIT || compressedSize >= ZIP64_LIMIT) {
+            streamedName = null;
+            failed = true;
+            throw new IOException("Streamed entry " + new String(name, StandardCharsets.UTF_8)
+                    + " is too large; it must be smaller than 4 GB");
+        }
+        Entry entry = new Entry(name, crc, size, compressedSize, streamedOffset, FLAG_DATA_DESCRIPTOR);
+        
+        ByteBuffer descriptor = newBuffer(16);
+        descriptor.putInt(0x08074b50);
+        descriptor.putInt((int) crc);
+        descriptor.putInt((int) compressedSize);
+        descriptor.putInt((int) size);
+        write(descriptor);
+        entries.add(entry);
+        streamedName = null;
+    }
+    
+    /**
+     * Checks that no entry is currently streamed.
+     * 
+     * @throws IllegalStateException If an entry is streamed.
+     */
+    private void checkNotStreaming() throws IllegalStateException {
+        if (streamedName != null) {
+            throw new IllegalStateException("An entry is still streamed");
+        }
+    }
+    
+    /**
+     * Writes the central directory and closes the stream. If an entry could not be written, only the stream is
+     * closed.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!failed) {
+                writeCentralDirectory();
+            }
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * Writes the central directory and the end of central directory record.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    private void writeCentralDirectory() throws IOException {
+        checkNotStreaming();
+        long directoryOffset = position;
+        for (Entry entry : entries) {
+            writeDirectoryEntry(entry);
+        }
+        long directorySize = position - directoryOffset;
+        
+        if (entries.size() >= ZIP64_ENTRY_LIMIT || directoryOffset >= ZIP64_LIMIT
+                || directorySize >= ZIP64_LIMIT) {
+            long recordOffset = position;
+            ByteBuffer record = newBuffer(56 + 20);
+            // ZIP64 end of central directory record
+            record.putInt(0x06064b50);
+            record.putLong(44);
+            record.putShort((short) 45);
+            record.putShort((short) 45);
+            record.putInt(0);
+            record.putInt(0);
+            record.putLong(entries.size());
+            record.putLong(entries.size());
+            record.putLong(directorySize);
+            record.putLong(directoryOffset);
+            // ZIP64 end of central directory locator
+            record.putInt(0x07064b50);
+            record.putInt(0);
+            record.putLong(recordOffset);
+            record.putInt(1);
+            write(record);
+        }
+        
+        ByteBuffer end = newBuffer(22);
+        end.putInt(0x06054b50);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(entries.size(), ZIP64_ENTRY_LIMIT));
+        end.putShort((short) Math.min(entries.size(), ZIP64_ENTRY_LIMIT));
+        end.putInt((int) Math.min(directorySize, ZIP64_LIMIT));
+        end.putInt((int) Math.min(directoryOffset, ZIP64_LIMIT));
+        end.putShort((short) 0);
+        write(end);
+    }
+    
+    /**
+     * Writes the central directory header of the given entry.
+     * 
+     * @param entry The entry.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    private void writeDirectoryEntry(@NonNull Entry entry) throws IOException {
+        boolean zip64 = entry.isZip64();
+        
+        ByteBuffer header = newBuffer(46 + entry.name.length + (zip64 ? 28 : 0));
+        header.putInt(0x02014b50);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) (FLAG_UTF8 | entry.flags));
+        header.putShort((short) METHOD_DEFLATED);
+        header.putShort((short) dosTime);
+        header.putShort((short) dosDate);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.size));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (zip64 ? 28 : 0));
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.offset));
+        header.put(entry.name);
+        if (zip64) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 24);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+            header.putLong(entry.offset);
+        }
+        write(header);
+    }
+    
+    /**
+     * Creates a little endian buffer for a header.
+     * 
+     * @param size The size of the header.
+     * @return The buffer.
+     */
+    private static @NonNull ByteBuffer newBuffer(int size) {
+        return notNull(ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN));
+    }
+    
+    /**
+     * Writes the given header to the archive.
+     * 
+     * @param header The filled buffer.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    private void write(@NonNull ByteBuffer header) throws IOException {
+        try {
+            out.write(header.array(), 0, header.position());
+        } catch (IOException e) {
+            // the header may be written partially
+            failed = true;
+            throw e;
+        }
+        position += header.position();
+    }
+    
+}
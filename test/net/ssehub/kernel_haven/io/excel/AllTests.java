@@ -26,8 +26,16 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 @RunWith(Suite.class)
 @SuiteClasses({
+    ColumnarSheetSourceTest.class,
+    ColumnTableTest.class,
     ExcelBookTest.class,
+    NumbersTest.class,
+    OffHeapStringTableTest.class,
+    SidecarIndexTest.class,
+    StringDictionaryTest.class,
     TableCollectionFactoryTest.class,
+    XlsxSharedFormulaTest.class,
+    ZipPartWriterTest.class,
     })
 public class AllTests {
 
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.io.excel.ColumnTable.ColumnType;
+
+/**
+ * Tests the {@link ColumnTable}.
+ * 
+ * @author Adam
+ */
+public class ColumnTableTest {
+    
+    private static final File TESTDATA = new File("testdata");
+    
+    private static final File TMPFOLDER = new File(TESTDATA, "tmpFiles");
+    
+    /**
+     * Creates the folder for the temporary test files.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        TMPFOLDER.mkdirs();
+    }
+    
+    /**
+     * Creates a workbook with columns of different types. Every third row has no value in the "Mixed" column, the
+     * values of the "Number" column become fractional after row 1000 and the "Mixed" column contains a text in
+     * the last row.
+     * 
+     * @param name The name of the file to create.
+     * @param numRows The number of rows, without the header.
+     * @return The created file.
+     * 
+     * @throws IOException If writing the file fails.
+     */
+    private static File createTable(String name, int numRows) throws IOException {
+        File file = new File(TMPFOLDER, name);
+        try (Workbook wb = new XSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Values");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Id");
+            header.createCell(1).setCellValue("Number");
+            header.createCell(2).setCellValue("Flag");
+            header.createCell(3).setCellValue("Name");
+            header.createCell(4).setCellValue("Mixed");
+            for (int i = 0; i < numRows; i++) {
+                Row row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue(i);
+                row.createCell(1).setCellValue(i < 1000 ? i : i + 0.5);
+                row.createCell(2).setCellValue(i % 2 == 0);
+                row.createCell(3).setCellValue("Name " + (i % 10));
+                if (i == numRows - 1) {
+                    row.createCell(4).setCellValue("text");
+                } else if (i % 3 != 0) {
+                    row.createCell(4).setCellValue(i);
+                }
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
+        return file;
+    }
+    
+    /**
+     * Tests that the column types are inferred from the values, and that the table returns the same texts as the
+     * reader.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testTypesAndTexts() throws IOException {
+        File file = createTable("testColumnTableTypes.xlsx", 2500);
+        try (ExcelBook book = new ExcelBook(file)) {
+            ExcelSheetReader reader = book.getReader(0);
+            ColumnTable table = ColumnTable.load(reader);
+            
+            assertThat(table.getRowCount(), is(2500));
+            assertThat(table.getColumnCount(), is(5));
+            assertThat(table.getColumnName(3), is("Name"));
+            assertThat(table.getColumnIndex("Flag"), is(2));
+            assertThat(table.getColumnIndex("Unknown"), is(-1));
+            assertThat(table.getColumnType(0), is(ColumnType.LONG));
+            assertThat(table.getColumnType(1), is(ColumnType.DOUBLE));
+            assertThat(table.getColumnType(2), is(ColumnType.BOOLEAN));
+            assertThat(table.getColumnType(3), is(ColumnType.STRING));
+            assertThat(table.getColumnType(4), is(ColumnType.STRING));
+            
+            assertThat(reader.readNextRow(), is(new String[] {"Id", "Number", "Flag", "Name", "Mixed"}));
+            for (int row = 0; row < table.getRowCount(); row++) {
+                String[] expected = reader.readNextRow();
+                String[] actual = new String[table.getColumnCount()];
+                for (int column = 0; column < actual.length; column++) {
+                    actual[column] = table.getString(row, column);
+                }
+                assertThat(Arrays.toString(actual), is(Arrays.toString(expected)));
+            }
+            
+            assertThat(table.getLong(7, 0), is(7L));
+            assertThat(table.getDouble(1001, 1), is(1001.5));
+            assertThat(table.getDouble(3, 1), is(3.0));
+            assertThat(table.getBoolean(4, 2), is(true));
+            assertThat(table.getBoolean(5, 2), is(false));
+            assertThat(table.isMissing(3, 4), is(true));
+            assertThat(table.isMissing(4, 4), is(false));
+            assertThat(table.getString(3, 4), is(""));
+            assertThat(table.getString(4, 4), is("4.0"));
+            assertThat(table.getString(2499, 4), is("text"));
+        }
+    }
+    
+    /**
+     * Tests the aggregates and scans over the columns.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testAggregates() throws IOException {
+        File file = createTable("testColumnTableAggregates.xlsx", 2000);
+        try (ExcelBook book = new ExcelBook(file)) {
+            ColumnTable table = ColumnTable.load(book.getReader(0));
+            
+            assertThat(table.count(0), is(2000));
+            assertThat(table.count(4), is(1333));
+            assertThat(table.sum(0), is(1999.0 * 2000 / 2));
+            assertThat(table.sum(1), is(1999.0 * 2000 / 2 + 500));
+            assertThat(table.sum(2), is(1000.0));
+            assertThat(table.min(1), is(0.0));
+            assertThat(table.max(1), is(1999.5));
+            assertThat(Double.isNaN(table.min(3)), is(true));
+            
+            int[] rows = table.findRows(3, "Name 7");
+            assertThat(rows.length, is(200));
+            assertThat(rows[0], is(7));
+            assertThat(rows[199], is(1997));
+            assertThat(table.findRows(3, "Unknown").length, is(0));
+            assertThat(table.findRows(0, "5.0"), is(new int[] {5}));
+            assertThat(table.findRows(1, value -> value > 1998).length, is(2));
+            
+            Map<String, Integer> counts = table.countValues(3);
+            assertThat(counts.size(), is(10));
+            assertThat(counts.get("Name 0"), is(200));
+            assertThat(table.countValues(2).get("true"), is(1000));
+        }
+    }
+    
+    /**
+     * Tests that empty sheets and sheets with only a header are loaded as empty tables.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        File file = createTable("testColumnTableEmpty.xlsx", 0);
+        try (ExcelBook book = new ExcelBook(file)) {
+            ColumnTable table = ColumnTable.load(book.getReader(0));
+            assertThat(table.getRowCount(), is(0));
+            assertThat(table.getColumnCount(), is(5));
+            assertThat(table.getColumnType(0), is(ColumnType.STRING));
+            assertThat(table.countValues(0).isEmpty(), is(true));
+        }
+    }
+    
+}
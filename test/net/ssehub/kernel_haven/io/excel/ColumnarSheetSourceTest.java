@@ -0,0 +1,353 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ColumnarSheetSource}, which is used by {@link ExcelBook}s if {@link ExcelBook#TRANSCODE_CACHE}
+ * is enabled.
+ * 
+ * @author Adam
+ */
+public class ColumnarSheetSourceTest {
+    
+    private static final File TESTDATA = new File("testdata");
+    
+    private static final File TMPFOLDER = new File(TESTDATA, "tmpFiles");
+    
+    /**
+     * Creates the temporary folder.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        TMPFOLDER.mkdirs();
+    }
+    
+    /**
+     * Disables the cache files again.
+     */
+    @AfterClass
+    public static void tearDownAfterClass() {
+        ExcelBook.setTranscodeCache(false);
+    }
+    
+    /**
+     * Tests that reading the cache files gives the same results as reading the workbooks.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testSameContent() throws IOException {
+        String[] names = {"DifferentContentTypes.xlsx", "EmptyRows.xlsx", "EmptySheet.xlsx", "GroupedValues.xlsx",
+            "GroupedValues2.xlsx", "MultipleSheets.xlsx", "NullCell.xlsx", "UndefinedIntermediateCell.xlsx",
+            "UndefinedLastCell.xlsx"};
+        
+        for (String name : names) {
+            File file = copy(name, "testSameContent_" + name);
+            for (boolean ignoreEmptyRows : new boolean[] {false, true}) {
+                List<String> expected = readAll(file, ignoreEmptyRows, false);
+                
+                // transcodes the sheets
+                assertThat(name, readAll(file, ignoreEmptyRows, true), is(expected));
+                assertThat(name, ColumnarSheetWriter.getFile(file, 0).isFile(), is(true));
+                
+                // reads the existing cache files
+                assertThat(name, readAll(file, ignoreEmptyRows, true), is(expected));
+            }
+        }
+    }
+    
+    /**
+     * Tests the different cell types of an XLS workbook, read through a cache file.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testCellTypes() throws IOException {
+        File file = new File(TMPFOLDER, "testCellTypes.xls");
+        try (Workbook wb = new HSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Types");
+            Row row = sheet.createRow(0);
+            row.createCell(0).setCellValue("Text");
+            row.createCell(1).setCellValue(1.5);
+            row.createCell(2).setCellValue(true);
+            row.createCell(3).setCellFormula("B1*2");
+            row.createCell(4).setCellErrorValue(FormulaError.DIV0.getCode());
+            row.createCell(6);
+            row = sheet.createRow(2);
+            row.createCell(1).setCellValue("Text");
+            row.createCell(2).setCellValue(false);
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
+        deleteCacheFiles(file);
+        
+        List<String> expected = readAll(file, false, false);
+        assertThat(expected.get(1), is("[Text, 1.5, true, B1*2, #DIV/0!, , ]"));
+        assertThat(readAll(file, false, true), is(expected));
+        assertThat(readAll(file, false, true), is(expected));
+    }
+    
+    /**
+     * Tests that the cached results of formula cells are read from the cache file, and that formulas without a
+     * cached result are evaluated.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testFormulaResults() throws IOException {
+        File file = new File(TMPFOLDER, "testFormulaResults.xlsx");
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Formulas");
+            for (int i = 0; i < 3; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i + 1);
+                row.createCell(1).setCellFormula("A" + (i + 1) + "*2");
+                row.createCell(2).setCellFormula("IF(A" + (i + 1) + ">1,\"big\",\"small\")");
+                row.createCell(3).setCellFormula("A" + (i + 1) + ">2");
+                row.createCell(4).setCellFormula("A" + (i + 1) + "/0");
+            }
+            // only the first and the last row have cached results
+            FormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
+            for (int column = 1; column < 5; column++) {
+                evaluator.evaluateFormulaCellEnum(sheet.getRow(0).getCell(column));
+                evaluator.evaluateFormulaCellEnum(sheet.getRow(2).getCell(column));
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
+        deleteCacheFiles(file);
+        
+        List<String> formulas = readAll(file, false, false);
+        assertThat(formulas.get(3), is("[2.0, A2*2, IF(A2>1,\"big\",\"small\"), A2>2, A2/0]"));
+        assertThat(readAll(file, false, true), is(formulas));
+        
+        ExcelBook.setFormulaResults(true);
+        try {
+            List<String> expected = readAll(file, false, false);
+            assertThat(expected.get(1), is("[1.0, 2.0, small, false, #DIV/0!]"));
+            assertThat(expected.get(3), is("[2.0, 4.0, big, false, #DIV/0!]"));
+            assertThat(expected.get(5), is("[3.0, 6.0, big, true, #DIV/0!]"));
+            assertThat(readAll(file, false, true), is(expected));
+        } finally {
+            ExcelBook.setFormulaResults(false);
+        }
+    }
+    
+    /**
+     * Tests that an existing cache file is not written again.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testReuseCacheFile() throws IOException {
+        File file = copy("MultipleSheets.xlsx", "testReuseCacheFile.xlsx");
+        List<String> expected = readAll(file, false, true);
+        
+        File cacheFile = ColumnarSheetWriter.getFile(file, 1);
+        long lastModified = cacheFile.lastModified() - 10000;
+        assertThat(cacheFile.setLastModified(lastModified), is(true));
+        
+        assertThat(readAll(file, false, true), is(expected));
+        assertThat(cacheFile.lastModified(), is(lastModified));
+    }
+    
+    /**
+     * Tests that the cache files of a changed workbook are not used, and that they are rebuilt.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStaleCacheFile() throws IOException {
+        File file = copy("GroupedValues.xlsx", "testStaleCacheFile.xlsx");
+        readAll(file, false, true);
+        
+        // different content, with the same modification time
+        long lastModified = file.lastModified();
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Other");
+            sheet.createRow(0).createCell(0).setCellValue("Changed");
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
+        assertThat(file.setLastModified(lastModified), is(true));
+        
+        List<String> expected = readAll(file, false, false);
+        assertThat(expected.get(1), is("[Changed]"));
+        assertThat(readAll(file, false, true), is(expected));
+    }
+    
+    /**
+     * Tests that an invalid cache file is ignored and overwritten.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testInvalidCacheFile() throws IOException {
+        File file = copy("DifferentContentTypes.xlsx", "testInvalidCacheFile.xlsx");
+        File cacheFile = ColumnarSheetWriter.getFile(file, 0);
+        Files.write(cacheFile.toPath(), new byte[] {'K', 'H', 'X', 'C', 0, 0});
+        
+        List<String> expected = readAll(file, false, false);
+        assertThat(readAll(file, false, true), is(expected));
+        assertThat(cacheFile.length() > 6, is(true));
+    }
+    
+    /**
+     * Tests that a sheet, which is too large for a cache file, is read from the workbook, and that it is not
+     * transcoded again when the workbook is opened again.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testTooLargeSheet() throws IOException {
+        File file = new File(TMPFOLDER, "testTooLargeSheet.xlsx");
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            // 15000 rows * 16384 columns * 9 bytes exceed the 2 GB of a cache file
+            Sheet sheet = wb.createSheet("Wide");
+            sheet.createRow(0).createCell(SpreadsheetVersion.EXCEL2007.getLastColumnIndex()).setCellValue("Last");
+            for (int i = 1; i < 15000; i++) {
+                sheet.createRow(i).createCell(0).setCellValue(i);
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
+        deleteCacheFiles(file);
+        
+        List<String> expected = readFirstRows(file, false);
+        assertThat(expected.get(1), is("1.0"));
+        assertThat(readFirstRows(file, true), is(expected));
+        File cacheFile = ColumnarSheetWriter.getFile(file, 0);
+        File marker = ColumnarSheetWriter.getTooLargeFile(cacheFile);
+        assertThat(cacheFile.exists(), is(false));
+        assertThat(marker.isFile(), is(true));
+        
+        long lastModified = marker.lastModified() - 10000;
+        assertThat(marker.setLastModified(lastModified), is(true));
+        assertThat(readFirstRows(file, true), is(expected));
+        assertThat(marker.lastModified(), is(lastModified));
+    }
+    
+    /**
+     * Reads the last cell of the first row and the first cell of the second row of the first sheet of the given
+     * workbook in streaming mode.
+     * 
+     * @param file The workbook.
+     * @param cached Whether the sheet is read through a cache file.
+     * @return The two cells.
+     * 
+     * @throws IOException If reading fails.
+     */
+    private static List<String> readFirstRows(File file, boolean cached) throws IOException {
+        List<String> result = new ArrayList<>();
+        ExcelBook.setTranscodeCache(cached);
+        try (ExcelBook book = new ExcelBook(file, true)) {
+            ExcelSheetReader reader = book.getReader(0);
+            String[] row = reader.readNextRow();
+            result.add(row[row.length - 1]);
+            result.add(reader.readNextRow()[0]);
+        } finally {
+            ExcelBook.setTranscodeCache(false);
+        }
+        return result;
+    }
+    
+    /**
+     * Reads all sheets of the given workbook in streaming mode.
+     * 
+     * @param file The workbook.
+     * @param ignoreEmptyRows Whether empty rows are skipped.
+     * @param cached Whether the sheets are read through cache files.
+     * @return For each sheet, its name, groups and dimension, followed by its rows with their line numbers.
+     * 
+     * @throws IOException If reading fails.
+     */
+    private static List<String> readAll(File file, boolean ignoreEmptyRows, boolean cached) throws IOException {
+        List<String> result = new ArrayList<>();
+        ExcelBook.setTranscodeCache(cached);
+        try (ExcelBook book = new ExcelBook(file, ignoreEmptyRows)) {
+            for (ExcelSheetReader reader : book.getAllSheetReaders()) {
+                result.add(reader.getSheetName() + " " + reader.getGroupedRows() + " "
+                        + reader.getEstimatedRowCount());
+                String[] row;
+                while ((row = reader.readNextRow()) != null) {
+                    result.add(Arrays.toString(row));
+                    result.add(Integer.toString(reader.getLineNumber()));
+                }
+            }
+        } finally {
+            ExcelBook.setTranscodeCache(false);
+        }
+        return result;
+    }
+    
+    /**
+     * Copies a file from the test data to the temporary folder.
+     * 
+     * @param name The name of the file in the test data.
+     * @param target The name of the copy.
+     * @return The copy.
+     * 
+     * @throws IOException If copying fails.
+     */
+    private static File copy(String name, String target) throws IOException {
+        File result = new File(TMPFOLDER, target);
+        Files.copy(new File(TESTDATA, name).toPath(), result.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        deleteCacheFiles(result);
+        return result;
+    }
+    
+    /**
+     * Deletes the cache files of the given workbook.
+     * 
+     * @param file The workbook.
+     */
+    private static void deleteCacheFiles(File file) {
+        for (int i = 0; i < 10; i++) {
+            File cacheFile = ColumnarSheetWriter.getFile(file, i);
+            cacheFile.delete();
+            ColumnarSheetWriter.getTooLargeFile(cacheFile).delete();
+        }
+    }
+    
+}
@@ -17,20 +17,54 @@ package net.ssehub.kernel_haven.io.excel;
 
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.apache.poi.POIXMLProperties;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -180,6 +214,69 @@ public class ExcelBookTest {
         }
     }
     
+    /**
+     * Tests that {@link ExcelSheetReader#getRowGroups(int)} returns the same groups as a linear scan over all groups,
+     * independent of the order in which the rows are queried.
+     * 
+     * @throws IOException Should not occur, otherwise the tested Excel document cannot be opened.
+     */
+    @Test
+    public void testGetRowGroupsInAnyOrder() throws IOException {
+        File inputFile = new File(TESTDATA, "GroupedValues2.xlsx");
+        
+        try (ExcelBook book = new ExcelBook(inputFile, true)) {
+            ExcelSheetReader reader = book.getReader("Test Sheet");
+            List<Group> allGroups = reader.getGroupedRows();
+            
+            for (int row = 8; row >= -1; row--) {
+                assertRowGroups(allGroups, row, reader.getRowGroups(row));
+            }
+            for (int row = -1; row <= 8; row++) {
+                assertRowGroups(allGroups, row, reader.getRowGroups(row));
+            }
+            for (int row : new int[] {5, 1, 3, 0, 2, 7, 4}) {
+                assertRowGroups(allGroups, row, reader.getRowGroups(row));
+            }
+        }
+    }
+    
+    /**
+     * Tests the order of the groups returned by a {@link GroupIndex} for overlapping groups with the same start.
+     */
+    @Test
+    public void testGroupIndexOrder() {
+        Group outer = new Group(2, 10);
+        Group inner = new Group(4, 6);
+        Group innerSameStart = new Group(4, 5);
+        Group empty = new Group(7, 6);
+        List<Group> allGroups = Arrays.asList(outer, inner, empty, innerSameStart, new Group(12, 12));
+        GroupIndex index = new GroupIndex(allGroups);
+        
+        for (int row = -1; row <= 14; row++) {
+            assertRowGroups(allGroups, row, index.getGroups(row));
+        }
+        assertThat(index.getGroups(4), is(Arrays.asList(inner, innerSameStart, outer)));
+    }
+    
+    /**
+     * Asserts that the given groups of a row are the groups a linear scan over all groups finds, sorted by descending
+     * start index.
+     * 
+     * @param allGroups All groups of the sheet.
+     * @param row The row that the groups were retrieved for.
+     * @param actual The retrieved groups.
+     */
+    private void assertRowGroups(List<Group> allGroups, int row, List<Group> actual) {
+        List<Group> expected = new ArrayList<>();
+        for (Group group : allGroups) {
+            if (group.getStartIndex() <= row && group.getEndIndex() >= row) {
+                expected.add(group);
+            }
+        }
+        expected.sort((g1, g2) -> Integer.compare(g2.getStartIndex(), g1.getStartIndex()));
+        Assert.assertEquals("Groups of row " + row, expected, actual);
+    }
+    
     /**
      * Asserts the correct setting of the tested group.
      * @param group The group to test.
@@ -602,6 +699,384 @@ public class ExcelBookTest {
         }
     }
     
+    /**
+     * Tests reading the cells of different types through the cursor-style API.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testReadCellsWithoutRowArrays() throws IOException {
+        try (ExcelBook book = new ExcelBook(new File("testdata/DifferentContentTypes.xlsx"))) {
+            ExcelSheetReader reader = book.getReader(0);
+            CellType[] expectedTypes = {CellType.STRING, CellType.NUMERIC, CellType.BOOLEAN, CellType.FORMULA,
+                CellType.BLANK, CellType.FORMULA};
+            String[] expectedTexts = {"Text", "1.0", "true", "3+2", "", "4/0"};
+            
+            for (int i = 0; i < expectedTypes.length; i++) {
+                assertThat(reader.nextRow(), is(true));
+                assertThat(reader.getLineNumber(), is(i + 1));
+                assertThat(reader.getCellCount(), is(2));
+                assertThat(reader.getCellType(0), is(CellType.STRING));
+                assertThat(reader.getCellType(1), is(expectedTypes[i]));
+                assertThat(reader.getCellText(1).toString(), is(expectedTexts[i]));
+            }
+            assertThat(reader.nextRow(), is(false));
+            assertThat(reader.getCellCount(), is(0));
+            reader.close();
+            
+            // typed access
+            assertThat(reader.nextRow(), is(true));
+            assertThat(reader.nextRow(), is(true));
+            assertThat(reader.getNumericValue(1), is(1.0));
+            assertThat(reader.isIntegerValue(1), is(true));
+            assertThat(reader.getLongValue(1), is(1L));
+            assertThat(reader.isIntegerValue(0), is(false));
+            assertThat(reader.nextRow(), is(true));
+            assertThat(reader.getBooleanValue(1), is(true));
+            assertThat(reader.getNumericValue(1), is(0.0));
+            reader.close();
+        }
+    }
+    
+    /**
+     * Tests that {@link ExcelSheetReader#selectColumns(int...)} returns the selected columns of the complete rows.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testSelectColumns() throws IOException {
+        String[] files = {"DifferentContentTypes.xlsx", "GroupedValues2.xlsx", "UndefinedIntermediateCell.xlsx",
+            "UndefinedLastCell.xlsx", "NullCell.xlsx"};
+        int[] columns = {2, 0, 2};
+        
+        for (String file : files) {
+            for (boolean streaming : new boolean[] {false, true}) {
+                try (ExcelBook book = new ExcelBook(new File(TESTDATA, file), false, streaming)) {
+                    ExcelSheetReader reader = book.getReader(0);
+                    String[][] allRows = reader.readFull();
+                    
+                    ExcelSheetReader projected = book.getReader(0);
+                    projected.selectColumns(columns);
+                    for (String[] row : allRows) {
+                        String[] expected = new String[columns.length];
+                        for (int i = 0; i < columns.length; i++) {
+                            expected[i] = columns[i] < row.length ? row[columns[i]] : "";
+                        }
+                        assertThat(file, projected.readNextRow(), is(expected));
+                        assertThat(file, projected.getCellCount(), is(columns.length));
+                        assertThat(file, projected.getCellText(1).toString(), is(expected[1]));
+                    }
+                    assertThat(file, projected.readNextRow(), nullValue());
+                    assertThat(file, projected.getGroupedRows().toString(), is(reader.getGroupedRows().toString()));
+                    
+                    // all columns again
+                    projected.close();
+                    projected.selectAllColumns();
+                    assertThat(file, projected.readFull(), is(allRows));
+                    
+                    reader.close();
+                    projected.close();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests selecting columns by the headers in the first row.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testSelectColumnsByHeader() throws IOException {
+        File file = new File(TMPFOLDER, "testSelectColumnsByHeader.xlsx");
+        try (ExcelBook book = new ExcelBook(file)) {
+            ExcelSheetWriter writer = book.getWriter("Results");
+            writer.writeRow("File", "Function", "LoC", "McCabe");
+            writer.writeRow("a.c", "main", 15, 3);
+            writer.writeRow("b.c", "init", 7, 1);
+        }
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            ExcelSheetReader reader = book.getReader("Results");
+            reader.selectColumns("McCabe", "File");
+            assertThat(reader.readFull(), is(new String[][] {
+                {"McCabe", "File"},
+                {"3.0", "a.c"},
+                {"1.0", "b.c"},
+            }));
+            
+            try {
+                reader.selectColumns("Nesting");
+                Assert.fail("Expected an IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            reader.close();
+        }
+    }
+    
+    /**
+     * Tests that skipping the master cell of a shared formula still provides the formula of the other cells of the
+     * group.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testSelectColumnsWithSharedFormula() throws IOException {
+        String xml = "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+                + "<row r=\"1\"><c r=\"A1\"><v>1</v></c><c r=\"B1\"><f t=\"shared\" ref=\"B1:B2\" si=\"0\">A1*2</f>"
+                + "<v>2</v></c><c r=\"C1\" t=\"inlineStr\"><is><t>x</t></is></c></row>"
+                + "<row r=\"2\"><c r=\"A2\"><v>2</v></c><c r=\"B2\"><f t=\"shared\" si=\"0\"/><v>4</v></c></row>"
+                + "</sheetData></worksheet>";
+        BitSet firstColumn = new BitSet();
+        firstColumn.set(0);
+        BitSet columns = new BitSet();
+        columns.set(1);
+        columns.set(2);
+        
+        try (SheetCursor cursor = new XlsxSheetCursor(new ByteArrayInputStream(xml.getBytes("UTF-8")),
+                new XlsxSharedStrings(null))) {
+            
+            // skip the master cell
+            assertThat(cursor.nextRow(), is(true));
+            assertThat(cursor.nextCell(firstColumn), is(true));
+            assertThat(cursor.getColumnIndex(), is(0));
+            assertThat(cursor.nextCell(firstColumn), is(false));
+            
+            assertThat(cursor.nextRow(), is(true));
+            assertThat(cursor.nextCell(columns), is(true));
+            assertThat(cursor.getColumnIndex(), is(1));
+            assertThat(cursor.getFormula(), is("A2*2"));
+            assertThat(cursor.nextCell(columns), is(false));
+            assertThat(cursor.nextRow(), is(false));
+        }
+    }
+    
+    /**
+     * Tests that {@link ExcelSheetReader#setRowFilter(int[], java.util.function.Predicate)} returns the accepted
+     * rows with the same line numbers as a reader without a filter.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testRowFilter() throws IOException {
+        String[] files = {"DifferentContentTypes.xlsx", "EmptyRows.xlsx", "GroupedValues2.xlsx",
+            "UndefinedIntermediateCell.xlsx", "UndefinedLastCell.xlsx"};
+        
+        for (String file : files) {
+            for (boolean ignoreEmptyRows : new boolean[] {false, true}) {
+                for (boolean streaming : new boolean[] {false, true}) {
+                    try (ExcelBook book = new ExcelBook(new File(TESTDATA, file), ignoreEmptyRows, streaming)) {
+                        ExcelSheetReader reader = book.getReader(0);
+                        ExcelSheetReader filtered = book.getReader(0);
+                        // keep rows whose first and third cell have an odd length in total
+                        filtered.setRowFilter(new int[] {2, 0},
+                            (values) -> (values[0].length() + values[1].length()) % 2 == 1);
+                        
+                        String[] row;
+                        while ((row = reader.readNextRow()) != null) {
+                            int length = (row.length > 0 ? row[0].length() : 0)
+                                    + (row.length > 2 ? row[2].length() : 0);
+                            if (length % 2 == 1) {
+                                assertThat(file, filtered.readNextRow(), is(row));
+                                assertThat(file, filtered.getLineNumber(), is(reader.getLineNumber()));
+                            }
+                        }
+                        assertThat(file, filtered.readNextRow(), nullValue());
+                        assertThat(file, filtered.getGroupedRows().toString(), is(reader.getGroupedRows().toString()));
+                        
+                        reader.close();
+                        filtered.close();
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests a row filter on a single column together with selected columns.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testRowFilterWithSelectedColumns() throws IOException {
+        try (ExcelBook book = new ExcelBook(new File(TESTDATA, "DifferentContentTypes.xlsx"))) {
+            ExcelSheetReader reader = book.getReader(0);
+            reader.selectColumns(1);
+            reader.setRowFilter(0, (value) -> value.toString().startsWith("B"));
+            
+            assertThat(reader.readNextRow(), is(new String[] {"true"}));
+            assertThat(reader.getLineNumber(), is(3));
+            assertThat(reader.readNextRow(), is(new String[] {""}));
+            assertThat(reader.getLineNumber(), is(5));
+            assertThat(reader.readNextRow(), nullValue());
+            
+            // all rows again
+            reader.close();
+            reader.removeRowFilter();
+            assertThat(reader.readFull().length, is(6));
+            reader.close();
+        }
+    }
+    
+    /**
+     * Tests reading ranges of rows with {@link ExcelSheetReader#openRange(int, int)}.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testOpenRange() throws IOException {
+        File xlsx = new File(TMPFOLDER, "testOpenRange.xlsx");
+        File xls = new File(TMPFOLDER, "testOpenRange.xls");
+        try (XSSFWorkbook xssf = new XSSFWorkbook(); HSSFWorkbook hssf = new HSSFWorkbook()) {
+            for (org.apache.poi.ss.usermodel.Workbook wb : new org.apache.poi.ss.usermodel.Workbook[] {xssf, hssf}) {
+                Sheet sheet = wb.createSheet("Data");
+                for (int i = 0; i < 1000; i++) {
+                    // every 7th row is missing
+                    if (i % 7 != 3) {
+                        Row row = sheet.createRow(i);
+                        row.createCell(0).setCellValue("R" + i);
+                        row.createCell(1).setCellValue(i);
+                        if (i == 0) {
+                            row.createCell(2).setCellValue("Header");
+                        }
+                    }
+                }
+            }
+            try (FileOutputStream out = new FileOutputStream(xlsx)) {
+                xssf.write(out);
+            }
+            try (FileOutputStream out = new FileOutputStream(xls)) {
+                hssf.write(out);
+            }
+        }
+        
+        int[][] ranges = {{0, 10}, {100, 300}, {3, 3}, {63, 64}, {500, 500}, {990, 2000}, {1000, 1100}, {0, 0}};
+        for (File file : new File[] {xlsx, xls}) {
+            for (boolean streaming : new boolean[] {false, true}) {
+                try (ExcelBook book = new ExcelBook(file, false, streaming)) {
+                    ExcelSheetReader reader = book.getReader("Data");
+                    
+                    for (int repetition = 0; repetition < 2; repetition++) {
+                        for (int[] range : ranges) {
+                            String message = file.getName() + " " + range[0] + "-" + range[1];
+                            reader.openRange(range[0], range[1]);
+                            
+                            for (int i = range[0]; i <= Math.min(range[1], 999); i++) {
+                                if (i % 7 != 3) {
+                                    String[] row = reader.readNextRow();
+                                    assertThat(message, row[0], is("R" + i));
+                                    assertThat(message, row[1], is(i + ".0"));
+                                    assertThat(message, row.length, is(3));
+                                    // the number of existing rows up to this row
+                                    assertThat(message, reader.getLineNumber(), is(i + 1 - (i + 4) / 7));
+                                }
+                            }
+                            assertThat(message, reader.readNextRow(), nullValue());
+                        }
+                    }
+                    
+                    // reading the whole sheet again
+                    reader.close();
+                    assertThat(reader.readFull().length, is(1000 - 143));
+                    reader.close();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests that the index of an XLSX sheet starts before the first cell of a shared formula, and that comments and
+     * CDATA sections in the XML are skipped.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testXlsxRowIndex() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<x:worksheet xmlns:x=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+                + "<x:dimension ref=\"A1:B200\"/><!-- <row r=\"1\"> --><x:sheetData>");
+        for (int i = 1; i <= 200; i++) {
+            xml.append("<x:row r=\"").append(i).append("\" spans=\"1:2\">");
+            xml.append("<x:c r=\"A").append(i).append("\" t=\"inlineStr\"><x:is><x:t><![CDATA[<row>]]>")
+                    .append(i).append("</x:t></x:is></x:c>");
+            if (i == 5) {
+                xml.append("<x:c r=\"B5\"><x:f t=\"shared\" ref=\"B5:B200\" si=\"0\">A5&amp;\"&gt;\"</x:f></x:c>");
+            } else if (i > 5) {
+                xml.append("<x:c r=\"B").append(i).append("\"><x:f t='shared' si='0'/></x:c>");
+            }
+            xml.append("</x:row>");
+        }
+        xml.append("</x:sheetData><x:rowBreaks count=\"0\"/></x:worksheet>");
+        byte[] bytes = xml.toString().getBytes("UTF-8");
+        
+        XlsxRowIndex index = XlsxRowIndex.read(new ByteArrayInputStream(bytes));
+        assertThat(index.find(0).getPrecedingRows(), is(0));
+        assertThat(index.find(3).getPrecedingRows(), is(0));
+        // the rows after the first shared formula start at this formula
+        assertThat(index.find(150).getPrecedingRows(), is(4));
+        
+        XlsxRowIndex.Position position = index.find(150);
+        InputStream in = index.open(new ByteArrayInputStream(bytes), position);
+        try (RangeCursor cursor = new RangeCursor(new XlsxSheetCursor(in, new XlsxSharedStrings(null)),
+                position.getPrecedingRows(), 149, 150)) {
+            
+            assertThat(cursor.getPrecedingRows(), is(149));
+            assertThat(cursor.nextRow(), is(true));
+            assertThat(cursor.getRowIndex(), is(149));
+            assertThat(cursor.nextCell(), is(true));
+            assertThat(cursor.getStringValue(), is("<row>150"));
+            assertThat(cursor.nextCell(), is(true));
+            assertThat(cursor.getFormula(), is("A150&\">\""));
+            assertThat(cursor.nextRow(), is(true));
+            assertThat(cursor.getRowIndex(), is(150));
+            assertThat(cursor.nextRow(), is(false));
+        }
+        
+        // without shared formulas, the index starts at the last checkpoint
+        String plain = xml.toString().replaceAll("<x:c r=\"B\\d+\">.*?</x:c>", "");
+        index = XlsxRowIndex.read(new ByteArrayInputStream(plain.getBytes("UTF-8")));
+        assertThat(index.find(150).getPrecedingRows(), is(128));
+        
+        // UTF-16 is not supported
+        assertThat(XlsxRowIndex.read(new ByteArrayInputStream(xml.toString().getBytes("UTF-16"))), nullValue());
+    }
+    
+    /**
+     * Tests that the cursor-style API returns the same rows as {@link ExcelSheetReader#readNextRow()}.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testNextRowMatchesReadNextRow() throws IOException {
+        String[] files = {"EmptyRows.xlsx", "GroupedValues2.xlsx", "NullCell.xlsx", "UndefinedIntermediateCell.xlsx",
+            "UndefinedLastCell.xlsx"};
+        
+        for (String file : files) {
+            for (boolean ignoreEmptyRows : new boolean[] {false, true}) {
+                try (ExcelBook book = new ExcelBook(new File(TESTDATA, file), ignoreEmptyRows)) {
+                    ExcelSheetReader cursor = book.getReader(0);
+                    ExcelSheetReader reader = book.getReader(0);
+                    
+                    String[] expected;
+                    while ((expected = reader.readNextRow()) != null) {
+                        assertThat(file, cursor.nextRow(), is(true));
+                        String[] actual = new String[cursor.getCellCount()];
+                        for (int i = 0; i < actual.length; i++) {
+                            actual[i] = cursor.getCellText(i).toString();
+                        }
+                        assertThat(file, actual, is(expected));
+                        assertThat(file, cursor.getLineNumber(), is(reader.getLineNumber()));
+                    }
+                    assertThat(file, cursor.nextRow(), is(false));
+                    
+                    cursor.close();
+                    reader.close();
+                }
+            }
+        }
+    }
+    
     /**
      * Tests that writing really long field names is handled correctly.
      * 
@@ -831,23 +1306,1198 @@ public class ExcelBookTest {
     }
     
     /**
-     * Tests closing an {@link ExcelBook} while a writer is still open.
+     * Tests that the streaming mode returns the same rows and groups as a completely loaded workbook.
      * 
      * @throws IOException unwanted.
      */
     @Test
-    public void testCloseWithOpenWriter() throws IOException {
-        File file = new File(TMPFOLDER, "testCloseWithOpenWriter.xlsx");
-        assertThat(file.exists(), is(false));
+    public void testStreamingMatchesLoadedWorkbook() throws IOException {
+        String[] files = {"DifferentContentTypes.xlsx", "EmptyRows.xlsx", "GroupedValues.xlsx", "GroupedValues2.xlsx",
+            "MultipleSheets.xlsx", "NullCell.xlsx", "UndefinedIntermediateCell.xlsx", "UndefinedLastCell.xlsx"};
         
-        ExcelBook book = new ExcelBook(file);
+        for (String file : files) {
+            for (boolean ignoreEmptyRows : new boolean[] {false, true}) {
+                try (ExcelBook streamed = new ExcelBook(new File(TESTDATA, file), ignoreEmptyRows, true);
+                        ExcelBook loaded = new ExcelBook(new File(TESTDATA, file), ignoreEmptyRows, false)) {
+                    
+                    assertThat(file, streamed.getTableNames(), is(loaded.getTableNames()));
+                    
+                    List<ExcelSheetReader> streamedReaders = streamed.getAllSheetReaders();
+                    List<ExcelSheetReader> loadedReaders = loaded.getAllSheetReaders();
+                    assertThat(file, streamedReaders.size(), is(loadedReaders.size()));
+                    
+                    for (int i = 0; i < streamedReaders.size(); i++) {
+                        ExcelSheetReader streamedReader = streamedReaders.get(i);
+                        ExcelSheetReader loadedReader = loadedReaders.get(i);
+                        
+                        assertThat(file, streamedReader.getSheetName(), is(loadedReader.getSheetName()));
+                        assertThat(file, streamedReader.readFull(), is(loadedReader.readFull()));
+                        assertThat(file, streamedReader.getLineNumber(), is(loadedReader.getLineNumber()));
+                        assertThat(file, streamedReader.getGroupedRows().toString(),
+                            is(loadedReader.getGroupedRows().toString()));
+                        
+                        streamedReader.close();
+                        loadedReader.close();
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests that the streaming mode returns the same formulas and formula results for the cells of an array formula
+     * and for escaped string results as a completely loaded workbook.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStreamingArrayFormulaMatchesLoadedWorkbook() throws IOException {
+        File file = new File(TMPFOLDER, "testStreamingArrayFormula.xlsx");
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Arrays");
+            for (int i = 0; i < 4; i++) {
+                sheet.createRow(i).createCell(2).setCellValue(i + 1);
+            }
+            sheet.setArrayFormula("C1:C3*2", CellRangeAddress.valueOf("A1:A3"));
+            for (int i = 0; i < 3; i++) {
+                sheet.getRow(i).getCell(0).setCellValue((i + 1) * 2);
+            }
+            // a string result with an escaped character
+            Cell cell = sheet.getRow(3).createCell(1);
+            cell.setCellFormula("\"x\"&\"A\"");
+            cell.setCellValue("x_x0041_");
+            
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
         
-        book.getWriter("SomeSheet");
+        for (boolean formulaResults : new boolean[] {false, true}) {
+            try (ExcelBook streamed = new ExcelBook(file, false, true);
+                    ExcelBook loaded = new ExcelBook(file, false, false)) {
+                
+                ExcelSheetReader streamedReader = streamed.getReader("Arrays");
+                ExcelSheetReader loadedReader = loaded.getReader("Arrays");
+                streamedReader.setFormulaResults(formulaResults);
+                loadedReader.setFormulaResults(formulaResults);
+                
+                String[][] rows = streamedReader.readFull();
+                assertThat(rows, is(loadedReader.readFull()));
+                assertThat(rows[1][0], is(formulaResults ? "4.0" : "C1:C3*2"));
+                assertThat(rows[3][1], is(formulaResults ? "xA" : "\"x\"&\"A\""));
+                
+                streamedReader.close();
+                loadedReader.close();
+            }
+        }
+    }
+    
+    /**
+     * Tests that the groups computed while reading all rows are the same as the groups of the separate scan.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testGroupsComputedWhileReading() throws IOException {
+        String[] files = {"GroupedValues.xlsx", "GroupedValues2.xlsx", "EmptyRows.xlsx", "DifferentContentTypes.xlsx"};
         
-        book.close();
+        for (String file : files) {
+            for (boolean streaming : new boolean[] {false, true}) {
+                try (ExcelBook book = new ExcelBook(new File(TESTDATA, file), true, streaming)) {
+                    ExcelSheetReader scanned = book.getReader(0);
+                    List<Group> expected = scanned.getGroupedRows();
+                    
+                    ExcelSheetReader read = book.getReader(0);
+                    read.readFull();
+                    assertThat(file, read.getGroupedRows().toString(), is(expected.toString()));
+                    
+                    // reading only a part of the sheet must not produce incomplete groups
+                    ExcelSheetReader partial = book.getReader(0);
+                    partial.readNextRow();
+                    partial.close();
+                    partial.readNextRow();
+                    assertThat(file, partial.getGroupedRows().toString(), is(expected.toString()));
+                    
+                    scanned.close();
+                    read.close();
+                    partial.close();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests that the streaming mode returns the same rows and groups for XLS files as a completely loaded workbook.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStreamingXlsMatchesLoadedWorkbook() throws IOException {
+        File file = new File(TMPFOLDER, "testStreamingXls.xls");
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Data");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(1).setCellValue("Value");
+            header.createCell(2).setCellValue("Flag");
+            header.createCell(3).setCellValue("Formula");
+            
+            for (int i = 1; i < 100; i++) {
+                Row row = sheet.createRow(i);
+                if (i % 10 == 5) {
+                    // empty row
+                    continue;
+                }
+                row.createCell(0).setCellValue("Row " + (i % 7));
+                if (i % 3 != 0) {
+                    // leave some intermediate cells undefined
+                    row.createCell(1).setCellValue(i * 1.5);
+                }
+                row.createCell(2).setCellValue(i % 2 == 0);
+                row.createCell(3).setCellFormula("B" + (i + 1) + "*2");
+                if (i % 11 == 0) {
+                    row.createCell(4).setCellErrorValue(FormulaError.DIV0.getCode());
+                    row.createCell(5);
+                }
+            }
+            sheet.groupRow(2, 4);
+            sheet.groupRow(40, 60);
+            sheet.groupRow(45, 50);
+            
+            wb.createSheet("Empty");
+            Sheet other = wb.createSheet("Other");
+            other.createRow(3).createCell(2).setCellValue("Other value");
+            // all cells of the range show the formula of the array
+            other.setArrayFormula("ROW(C1:C2)*2", CellRangeAddress.valueOf("A1:A2"));
+            
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
         
-        assertThat(file.isFile(), is(true));
-        assertThat(file.length() > 0, is(true));
+        try (ExcelBook streamed = new ExcelBook(file, false, true)) {
+            String[][] rows = streamed.getReader("Other").readFull();
+            assertThat(rows[0][0], is("ROW(C1:C2)*2"));
+            assertThat(rows[1][0], is("ROW(C1:C2)*2"));
+        }
+        
+        for (boolean ignoreEmptyRows : new boolean[] {false, true}) {
+            try (ExcelBook streamed = new ExcelBook(file, ignoreEmptyRows, true);
+                    ExcelBook loaded = new ExcelBook(file, ignoreEmptyRows, false)) {
+                
+                List<ExcelSheetReader> streamedReaders = streamed.getAllSheetReaders();
+                List<ExcelSheetReader> loadedReaders = loaded.getAllSheetReaders();
+                assertThat(streamedReaders.size(), is(3));
+                
+                for (int i = 0; i < streamedReaders.size(); i++) {
+                    ExcelSheetReader streamedReader = streamedReaders.get(i);
+                    ExcelSheetReader loadedReader = loadedReaders.get(i);
+                    
+                    assertThat(streamedReader.getSheetName(), is(loadedReader.getSheetName()));
+                    assertThat(streamedReader.readFull(), is(loadedReader.readFull()));
+                    assertThat(streamedReader.getLineNumber(), is(loadedReader.getLineNumber()));
+                    assertThat(streamedReader.getGroupedRows().toString(),
+                        is(loadedReader.getGroupedRows().toString()));
+                    
+                    streamedReader.close();
+                    loadedReader.close();
+                }
+            }
+        }
+        
+        try (ExcelBook streamed = new ExcelBook(file, false, true)) {
+            ExcelSheetReader reader = streamed.getReader("Data");
+            assertThat(reader.getEstimatedRowCount(), is(100));
+            assertThat(reader.getEstimatedColumnCount(), is(6));
+            
+            reader = streamed.getReader("Other");
+            assertThat(reader.getEstimatedRowCount(), is(4));
+            assertThat(reader.getEstimatedColumnCount(), is(3));
+        }
+    }
+    
+    /**
+     * Tests that closing a streaming reader restarts reading at the first row.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    @SuppressWarnings("null")
+    public void testStreamingReaderRestartsAfterClose() throws IOException {
+        try (ExcelBook book = new ExcelBook(new File(TESTDATA, "NullCell.xlsx"), false, true)) {
+            ExcelSheetReader reader = book.getReader("Sheet 1");
+            assertThat(reader.readNextRow(), is(new String[] {"Name", "Value"}));
+            assertThat(reader.readNextRow(), is(new String[] {"A", "Val1"}));
+            reader.close();
+            
+            assertThat(reader.getLineNumber(), is(0));
+            assertThat(reader.readNextRow(), is(new String[] {"Name", "Value"}));
+            assertThat(reader.getLineNumber(), is(1));
+            reader.close();
+        }
+    }
+    
+    /**
+     * Tests that parsing the sheets in parallel returns the same rows and groups as parsing them while reading.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testParallelSheetReading() throws IOException {
+        String[] files = {"MultipleSheets.xlsx", "GroupedValues2.xlsx", "UndefinedIntermediateCell.xlsx"};
+        
+        ExcelBook.setParallelReadThreads(4);
+        try {
+            for (String file : files) {
+                try (ExcelBook parallel = new ExcelBook(new File(TESTDATA, file), true);
+                        ExcelBook loaded = new ExcelBook(new File(TESTDATA, file), true, false)) {
+                    
+                    List<ExcelSheetReader> parallelReaders = parallel.getAllSheetReaders();
+                    List<ExcelSheetReader> loadedReaders = loaded.getAllSheetReaders();
+                    assertThat(file, parallelReaders.size(), is(loadedReaders.size()));
+                    
+                    // read the sheets in reverse order, to read sheets that were parsed last first
+                    for (int i = parallelReaders.size() - 1; i >= 0; i--) {
+                        ExcelSheetReader parallelReader = parallelReaders.get(i);
+                        ExcelSheetReader loadedReader = loadedReaders.get(i);
+                        
+                        assertThat(file, parallelReader.getSheetName(), is(loadedReader.getSheetName()));
+                        assertThat(file, parallelReader.readFull(), is(loadedReader.readFull()));
+                        assertThat(file, parallelReader.getGroupedRows().toString(),
+                            is(loadedReader.getGroupedRows().toString()));
+                        
+                        parallelReader.close();
+                        loadedReader.close();
+                    }
+                }
+            }
+        } finally {
+            ExcelBook.setParallelReadThreads(1);
+        }
+    }
+    
+    /**
+     * Tests that the sheets of streamed workbooks are read correctly if they are parsed ahead on a producer thread,
+     * with batches that are smaller than the sheets.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testPrefetchReading() throws IOException {
+        String[] files = {"MultipleSheets.xlsx", "GroupedValues2.xlsx", "EmptyRows.xlsx",
+            "UndefinedIntermediateCell.xlsx"};
+        
+        ExcelBook.setPrefetchRows(4);
+        ExcelBook.setPrefetchBatchRows(2);
+        try {
+            for (String file : files) {
+                try (ExcelBook prefetched = new ExcelBook(new File(TESTDATA, file), true);
+                        ExcelBook loaded = new ExcelBook(new File(TESTDATA, file), true, false)) {
+                    
+                    List<ExcelSheetReader> prefetchedReaders = prefetched.getAllSheetReaders();
+                    List<ExcelSheetReader> loadedReaders = loaded.getAllSheetReaders();
+                    for (int i = 0; i < prefetchedReaders.size(); i++) {
+                        ExcelSheetReader prefetchedReader = prefetchedReaders.get(i);
+                        ExcelSheetReader loadedReader = loadedReaders.get(i);
+                        
+                        assertThat(file, prefetchedReader.readFull(), is(loadedReader.readFull()));
+                        assertThat(file, prefetchedReader.getGroupedRows().toString(),
+                            is(loadedReader.getGroupedRows().toString()));
+                        
+                        prefetchedReader.openRange(1, 3);
+                        loadedReader.openRange(1, 3);
+                        assertThat(file, prefetchedReader.readFull(), is(loadedReader.readFull()));
+                        assertThat(file, prefetchedReader.getLineNumber(), is(loadedReader.getLineNumber()));
+                        
+                        // stop reading in the middle of the sheet; closing stops the producer thread
+                        prefetchedReader.close();
+                        prefetchedReader.nextRow();
+                        prefetchedReader.close();
+                        loadedReader.close();
+                    }
+                }
+            }
+        } finally {
+            ExcelBook.setPrefetchRows(0);
+            ExcelBook.setPrefetchBatchRows(256);
+        }
+    }
+    
+    /**
+     * Tests that an error of the producer thread is thrown for the failing row, after the rows before it were read.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testPrefetchError() throws IOException {
+        String xml = "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+                + "<row r=\"1\"><c r=\"A1\"><v>1</v></c></row>"
+                + "<row r=\"2\"><c r=\"A2\"><v>2</v></c></row>"
+                + "<row r=\"3\"><c r=\"A3\"><v>3</v></c></row>"
+                + "<row r=\"4\"><c r=\"A4\"><v>4</v></x></row>"
+                + "</sheetData></worksheet>";
+        
+        try (SheetCursor cursor = new PrefetchCursor(new XlsxSheetCursor(new ByteArrayInputStream(
+                xml.getBytes("UTF-8")), new XlsxSharedStrings(null)), "Test", 2, 1)) {
+            
+            for (int i = 0; i < 3; i++) {
+                assertThat(cursor.nextRow(), is(true));
+                assertThat(cursor.getRowIndex(), is(i));
+                assertThat(cursor.nextCell(), is(true));
+                assertThat(cursor.getNumericValue(), is(i + 1.0));
+            }
+            
+            IOException error = null;
+            try {
+                cursor.nextRow();
+            } catch (IOException e) {
+                error = e;
+            }
+            assertThat(error != null, is(true));
+            assertThat(cursor.nextRow(), is(false));
+        }
+    }
+    
+    /**
+     * Tests that a parallel stream over the rows of a sheet, split into ranges of single rows, returns the same rows
+     * with the same row indices and line numbers as a sequential reader.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStreamRows() throws IOException {
+        String[] files = {"DifferentContentTypes.xlsx", "EmptyRows.xlsx", "GroupedValues2.xlsx",
+            "UndefinedIntermediateCell.xlsx", "UndefinedLastCell.xlsx"};
+        
+        for (String file : files) {
+            for (boolean ignoreEmptyRows : new boolean[] {false, true}) {
+                try (ExcelBook book = new ExcelBook(new File(TESTDATA, file), ignoreEmptyRows)) {
+                    ExcelSheetReader reader = book.getReader(0);
+                    reader.selectColumns(1, 0);
+                    
+                    List<String> expected = new ArrayList<>();
+                    String[] row;
+                    while ((row = reader.readNextRow()) != null) {
+                        expected.add(reader.getRowIndex() + " " + reader.getLineNumber() + " " + Arrays.toString(row));
+                    }
+                    assertThat(reader.getRowIndex(), is(-1));
+                    
+                    Set<ExcelSheetReader> openReaders = ConcurrentHashMap.newKeySet();
+                    SheetRowSpliterator spliterator = reader.spliterator(1, openReaders);
+                    List<String> actual = StreamSupport.stream(spliterator, true)
+                        .map((r) -> r.getRowIndex() + " " + r.getLineNumber() + " " + Arrays.toString(r.getCells()))
+                        .collect(Collectors.toList());
+                    
+                    assertThat(file, actual, is(expected));
+                    assertThat(file, openReaders.isEmpty(), is(true));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests the {@link ExcelSheetReader#stream()} of a sheet: the rows before a range can be skipped, and closing the
+     * stream closes the readers of unfinished parts.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStreamSplitting() throws IOException {
+        try (ExcelBook book = new ExcelBook(new File(TESTDATA, "GroupedValues2.xlsx"))) {
+            ExcelSheetReader reader = book.getReader(0);
+            String[][] expected = reader.readFull();
+            
+            // small sheets are not split
+            assertThat(reader.spliterator().trySplit(), nullValue());
+            try (Stream<SheetRow> stream = reader.stream()) {
+                assertThat(stream.map(SheetRow::getCells).toArray(), is(expected));
+            }
+            
+            Set<ExcelSheetReader> openReaders = ConcurrentHashMap.newKeySet();
+            SheetRowSpliterator second = reader.spliterator(2, openReaders);
+            Spliterator<SheetRow> first = second.trySplit();
+            assertThat(first.tryAdvance((r) -> assertThat(r.getRowIndex(), is(0))), is(true));
+            assertThat(second.tryAdvance((r) -> assertThat(r.getLineNumber(), is(r.getRowIndex() + 1))), is(true));
+            assertThat(openReaders.size(), is(2));
+            for (ExcelSheetReader open : openReaders) {
+                open.close();
+            }
+        }
+    }
+    
+    /**
+     * Tests that {@link ExcelSheetReader#readRows(RowBatch)} returns the same rows as
+     * {@link ExcelSheetReader#readNextRow()}, with and without empty rows and selected columns.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testReadRows() throws IOException {
+        String[] files = {"DifferentContentTypes.xlsx", "EmptyRows.xlsx", "GroupedValues2.xlsx",
+            "MultipleSheets.xlsx", "UndefinedIntermediateCell.xlsx", "UndefinedLastCell.xlsx"};
+        
+        for (String file : files) {
+            for (boolean ignoreEmptyRows : new boolean[] {false, true}) {
+                try (ExcelBook book = new ExcelBook(new File(TESTDATA, file), ignoreEmptyRows)) {
+                    for (ExcelSheetReader reader : book.getAllSheetReaders()) {
+                        for (int[] columns : new int[][] {null, {2, 0}}) {
+                            String message = file + " " + reader.getSheetName() + " " + ignoreEmptyRows;
+                            if (columns != null) {
+                                reader.selectColumns(columns);
+                            }
+                            
+                            List<String> expected = new ArrayList<>();
+                            String[] row;
+                            while ((row = reader.readNextRow()) != null) {
+                                expected.add(reader.getLineNumber() + " " + Arrays.toString(row));
+                            }
+                            reader.close();
+                            
+                            List<String> actual = new ArrayList<>();
+                            RowBatch batch = new RowBatch(3);
+                            while (reader.readRows(batch) > 0) {
+                                for (int i = 0; i < batch.getRowCount(); i++) {
+                                    actual.add(batch.getLineNumber(i) + " " + Arrays.toString(batch.getRow(i)));
+                                    for (int column = batch.getCellCount(i); column < batch.getColumnCount();
+                                            column++) {
+                                        assertThat(message, batch.getCellType(i, column), is(CellType.BLANK));
+                                        assertThat(message, batch.getString(i, column), is(""));
+                                    }
+                                }
+                                assertThat(message, reader.getLineNumber(),
+                                        is(batch.getLineNumber(batch.getRowCount() - 1)));
+                            }
+                            assertThat(message, actual, is(expected));
+                            assertThat(message, reader.readRows(5), nullValue());
+                            reader.close();
+                            reader.selectAllColumns();
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests the columns of a {@link RowBatch}.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testRowBatchColumns() throws IOException {
+        File file = new File(TMPFOLDER, "testRowBatchColumns.xlsx");
+        try (Workbook wb = new XSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Values");
+            for (int i = 0; i < 10; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i);
+                row.createCell(1).setCellValue("Value " + i);
+                row.createCell(2).setCellValue(i % 2 == 0);
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            ExcelSheetReader reader = book.getReader(0);
+            RowBatch batch = reader.readRows(4);
+            assertThat(batch.getRowCount(), is(4));
+            assertThat(batch.getColumnCount(), is(3));
+            
+            batch = reader.readRows(100);
+            assertThat(batch.getRowCount(), is(6));
+            assertThat(batch.getRowIndex(0), is(4));
+            double sum = 0;
+            double[] numbers = batch.getNumericColumn(0);
+            for (int i = 0; i < batch.getRowCount(); i++) {
+                sum += numbers[i];
+            }
+            assertThat(sum, is(39.0));
+            assertThat(batch.getStringColumn(1)[5], is("Value 9"));
+            assertThat(batch.getStringColumn(0)[5], nullValue());
+            assertThat(batch.getCellType(5, 2), is(CellType.BOOLEAN));
+            assertThat(batch.getBooleanValue(4, 2), is(true));
+            assertThat(batch.getString(5, 2), is("false"));
+            assertThat(batch.getString(5, 0), is("9.0"));
+            
+            assertThat(reader.readRows(100), nullValue());
+        }
+    }
+    
+    /**
+     * Tests that readers return the results of formula cells if {@link ExcelBook#FORMULA_RESULTS} is enabled: the
+     * cached results and, for formulas without a cached result, the evaluated results.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testFormulaResults() throws IOException {
+        String[][] expected = {
+            {"Number", "Double", "Size", "Large", "Error"},
+            {"1.0", "2.0", "small", "false", "#DIV/0!"},
+            {"2.0", "4.0", "big", "false", "#DIV/0!"},
+            {"3.0", "6.0", "big", "true", "#DIV/0!"},
+        };
+        
+        for (String name : new String[] {"testFormulaResults.xlsx", "testFormulaResults.xls"}) {
+            File file = new File(TMPFOLDER, name);
+            try (Workbook wb = name.endsWith(".xls") ? new HSSFWorkbook() : new XSSFWorkbook()) {
+                for (String sheetName : new String[] {"Formulas", "Copy"}) {
+                    Sheet sheet = wb.createSheet(sheetName);
+                    Row header = sheet.createRow(0);
+                    for (int i = 0; i < expected[0].length; i++) {
+                        header.createCell(i).setCellValue(expected[0][i]);
+                    }
+                    for (int i = 1; i < expected.length; i++) {
+                        Row row = sheet.createRow(i);
+                        row.createCell(0).setCellValue(i);
+                        row.createCell(1).setCellFormula("A" + (i + 1) + "*2");
+                        row.createCell(2).setCellFormula("IF(A" + (i + 1) + ">1,\"big\",\"small\")");
+                        row.createCell(3).setCellFormula("A" + (i + 1) + ">2");
+                        row.createCell(4).setCellFormula("A" + (i + 1) + "/0");
+                    }
+                    
+                    // XLSX stores no results for formulas that were not evaluated; XLS always stores a result
+                    FormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
+                    for (int i = 1; i < expected.length; i++) {
+                        if (i == 1 || name.endsWith(".xls")) {
+                            for (int column = 1; column < expected[i].length; column++) {
+                                evaluator.evaluateFormulaCellEnum(sheet.getRow(i).getCell(column));
+                            }
+                        }
+                    }
+                }
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    wb.write(out);
+                }
+            }
+            
+            for (boolean streaming : new boolean[] {true, false}) {
+                try (ExcelBook book = new ExcelBook(file, false, streaming)) {
+                    ExcelSheetReader reader = book.getReader(0);
+                    assertThat(name, reader.readFull()[1][1], is("A2*2"));
+                    
+                    reader.setFormulaResults(true);
+                    reader.close();
+                    assertThat(name, reader.readFull(), is(expected));
+                    
+                    // the evaluated results are reused by other readers
+                    ExcelSheetReader other = book.getReader("Formulas");
+                    other.setFormulaResults(true);
+                    other.openRange(2, 3);
+                    assertThat(name, other.readFull(), is(Arrays.copyOfRange(expected, 2, 4)));
+                }
+            }
+            
+            ExcelBook.setFormulaResults(true);
+            ExcelBook.setParallelReadThreads(2);
+            ExcelBook.setPrefetchRows(2);
+            try (ExcelBook book = new ExcelBook(file)) {
+                for (ExcelSheetReader reader : book.getAllSheetReaders()) {
+                    assertThat(name, reader.readFull(), is(expected));
+                }
+                assertThat(name, book.getReader(1).readFull(), is(expected));
+            } finally {
+                ExcelBook.setFormulaResults(false);
+                ExcelBook.setParallelReadThreads(1);
+                ExcelBook.setPrefetchRows(0);
+            }
+        }
+    }
+    
+    /**
+     * Tests that readers with a string dictionary return the same instance for equal cell texts, in streamed XLSX
+     * and XLS workbooks and in loaded workbooks.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStringDictionary() throws IOException {
+        for (String name : new String[] {"testStringDictionary.xlsx", "testStringDictionary.xls"}) {
+            File file = new File(TMPFOLDER, name);
+            try (Workbook wb = name.endsWith(".xls") ? new HSSFWorkbook() : new XSSFWorkbook()) {
+                Sheet sheet = wb.createSheet("Values");
+                for (int i = 0; i < 3; i++) {
+                    Row row = sheet.createRow(i);
+                    row.createCell(0).setCellValue("file.c");
+                    row.createCell(1).setCellValue(1.5);
+                    row.createCell(2).setCellValue(true);
+                    row.createCell(3).setCellFormula("B" + (i + 1) + "*2");
+                }
+                sheet.getRow(2).createCell(3).setCellFormula("B2*2");
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    wb.write(out);
+                }
+            }
+            
+            for (boolean streaming : new boolean[] {true, false}) {
+                try (ExcelBook book = new ExcelBook(file, false, streaming)) {
+                    ExcelSheetReader reader = book.getReader(0);
+                    String[][] rows = reader.readFull();
+                    assertThat(name, rows[1][1], is("1.5"));
+                    assertThat(name, rows[1][1], not(sameInstance(rows[0][1])));
+                    
+                    reader.setStringDictionary(true);
+                    reader.close();
+                    String[][] shared = reader.readFull();
+                    assertThat(name, shared, is(rows));
+                    for (int column = 0; column < 3; column++) {
+                        assertThat(name, shared[1][column], sameInstance(shared[0][column]));
+                        assertThat(name, shared[2][column], sameInstance(shared[0][column]));
+                    }
+                    assertThat(name, shared[2][3], sameInstance(shared[1][3]));
+                    assertThat(name, shared[1][3], not(sameInstance(shared[0][3])));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests that streamed XLSX workbooks are read the same when the shared strings table is kept off the heap.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testOffHeapSharedStrings() throws IOException {
+        File file = new File(TMPFOLDER, "testOffHeapSharedStrings.xlsx");
+        try (Workbook wb = new XSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Values");
+            for (int i = 0; i < 100; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("file_" + (i % 10) + ".c");
+                row.createCell(1).setCellValue("Ümlaut_x000D_ " + i);
+                row.createCell(2).setCellValue("");
+                row.createCell(3).setCellValue(i);
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
+        
+        String[][] expected;
+        try (ExcelBook book = new ExcelBook(file, false, true)) {
+            expected = book.getReader(0).readFull();
+        }
+        
+        ExcelBook.setOffHeapSharedStrings(true);
+        try (ExcelBook book = new ExcelBook(file, false, true)) {
+            ExcelSheetReader reader = book.getReader(0);
+            assertThat(reader.readFull(), is(expected));
+            assertThat(expected[5][1], is("\u00dcmlaut\r 5"));
+            assertThat(expected[5][2], is(""));
+            
+            reader.setStringDictionary(true);
+            reader.close();
+            String[][] shared = reader.readFull();
+            assertThat(shared, is(expected));
+            assertThat(shared[10][0], sameInstance(shared[0][0]));
+        } finally {
+            ExcelBook.setOffHeapSharedStrings(false);
+        }
+    }
+    
+    /**
+     * Tests that sheet indices and estimated sizes are available from the catalog of a streamed workbook.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStreamingCatalog() throws IOException {
+        try (ExcelBook book = new ExcelBook(new File(TESTDATA, "MultipleSheets.xlsx"))) {
+            assertThat(book.getSheetIndex("Sheet1"), is(0));
+            assertThat(book.getSheetIndex("Sheet3"), is(2));
+            assertThat(book.getSheetIndex("DoesntExist"), is(-1));
+            
+            ExcelSheetReader reader = book.getReader("Sheet2");
+            assertThat(reader.getEstimatedRowCount(), is(1));
+            assertThat(reader.getEstimatedColumnCount(), is(2));
+            assertThat(reader.getLineNumber(), is(0));
+            reader.close();
+        }
+        
+        try (ExcelBook book = new ExcelBook(new File(TESTDATA, "GroupedValues.xlsx"))) {
+            ExcelSheetReader reader = book.getReader(0);
+            assertThat(reader.getEstimatedRowCount(), is(6));
+            assertThat(reader.getEstimatedColumnCount(), is(2));
+            assertThat(reader.readFull().length, is(6));
+            reader.close();
+        }
+    }
+    
+    /**
+     * Tests closing an {@link ExcelBook} while a writer is still open.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testCloseWithOpenWriter() throws IOException {
+        File file = new File(TMPFOLDER, "testCloseWithOpenWriter.xlsx");
+        assertThat(file.exists(), is(false));
+        
+        ExcelBook book = new ExcelBook(file);
+        
+        book.getWriter("SomeSheet");
+        
+        book.close();
+        
+        assertThat(file.isFile(), is(true));
+        assertThat(file.length() > 0, is(true));
+    }
+    
+    /**
+     * Tests that the sheets of one book can be written concurrently from different threads, and that writers reject
+     * rows after they are closed.
+     * 
+     * @throws Exception unwanted.
+     */
+    @Test
+    public void testConcurrentSheetWriters() throws Exception {
+        File file = new File(TMPFOLDER, "testConcurrentSheetWriters.xlsx");
+        int numSheets = 4;
+        int numRows = 2000;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numSheets);
+        List<ExcelSheetWriter> writers = new ArrayList<>();
+        try (ExcelBook book = new ExcelBook(file)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numSheets; i++) {
+                ExcelSheetWriter writer = book.getWriter("Sheet " + i);
+                writers.add(writer);
+                int sheet = i;
+                futures.add(executor.submit(() -> {
+                    writer.writeHeader("Sheet", "Row");
+                    for (int row = 0; row < numRows; row++) {
+                        writer.writeRow(sheet, row);
+                    }
+                    writer.close();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            executor.shutdown();
+        }
+        
+        try {
+            writers.get(0).writeRow("closed");
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            for (int i = 0; i < numSheets; i++) {
+                String[][] content = book.getReader("Sheet " + i).readFull();
+                assertThat(content.length, is(numRows + 1));
+                assertThat(content[0], is(new String[] {"Sheet", "Row"}));
+                for (int row = 0; row < numRows; row++) {
+                    assertThat(content[row + 1], is(new String[] {i + ".0", row + ".0"}));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests that a new workbook, whose sheets are deflated in parallel (see {@link ExcelBook#PARALLEL_WRITE_THREADS}),
+     * contains the same content as a workbook written sequentially.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testParallelWrite() throws IOException {
+        File file = new File(TMPFOLDER, "testParallelWrite.xlsx");
+        ExcelBook.setParallelWriteThreads(3);
+        try (ExcelBook book = new ExcelBook(file)) {
+            for (int i = 0; i < 5; i++) {
+                try (ExcelSheetWriter writer = book.getWriter("Sheet " + i)) {
+                    writer.writeHeader("Id", "Text");
+                    for (int row = 0; row < 100 * i; row++) {
+                        writer.writeRow(row, "Text " + i + " " + row);
+                    }
+                }
+            }
+        } finally {
+            ExcelBook.setParallelWriteThreads(1);
+        }
+        
+        for (boolean streaming : new boolean[] {true, false}) {
+            try (ExcelBook book = new ExcelBook(file, false, streaming)) {
+                assertThat(book.getTableNames().size(), is(5));
+                for (int i = 0; i < 5; i++) {
+                    String[][] content = book.getReader("Sheet " + i).readFull();
+                    assertThat(content.length, is(100 * i + 1));
+                    assertThat(content[0], is(new String[] {"Id", "Text"}));
+                    for (int row = 0; row < 100 * i; row++) {
+                        assertThat(content[row + 1], is(new String[] {row + ".0", "Text " + i + " " + row}));
+                    }
+                }
+            }
+        }
+        
+        try (XSSFWorkbook wb = new XSSFWorkbook(file)) {
+            // the header is frozen
+            assertThat(wb.getSheetAt(4).getPaneInformation().getHorizontalSplitPosition(), is((short) 1));
+        } catch (InvalidFormatException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    /**
+     * Tests that no deflated sheets are left in the temporary folder, if the thread that writes a workbook with
+     * sheets deflated in parallel is interrupted.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testParallelWriteInterrupted() throws IOException {
+        File file = new File(TMPFOLDER, "testParallelWriteInterrupted.xlsx");
+        File poiTemp = new File(System.getProperty("java.io.tmpdir"), "poifiles");
+        ExcelBook.setParallelWriteThreads(3);
+        try {
+            ExcelBook book = new ExcelBook(file);
+            for (int i = 0; i < 5; i++) {
+                try (ExcelSheetWriter writer = book.getWriter("Sheet " + i)) {
+                    for (int row = 0; row < 1000; row++) {
+                        writer.writeRow(row, "Text " + i + " " + row);
+                    }
+                }
+            }
+            
+            Thread.currentThread().interrupt();
+            try {
+                book.close();
+            } catch (InterruptedIOException e) {
+                // expected, unless all sheets were deflated before the book waits for them
+            }
+            assertThat(Thread.interrupted(), is(true));
+            
+            String[] parts = poiTemp.list((dir, name) -> name.startsWith("poi-sxssf-part"));
+            assertThat(parts == null ? 0 : parts.length, is(0));
+        } finally {
+            Thread.interrupted();
+            ExcelBook.setParallelWriteThreads(1);
+        }
+    }
+    
+    /**
+     * Tests that workbooks written directly (see {@link ExcelBook#DIRECT_XLSX_WRITER}) have the same content as
+     * workbooks written with POI.
+     * 
+     * @throws Exception unwanted.
+     */
+    @Test
+    public void testDirectXlsxWriter() throws Exception {
+        File poiFile = new File(TMPFOLDER, "testDirectXlsxWriterPoi.xlsx");
+        File directFile = new File(TMPFOLDER, "testDirectXlsxWriter.xlsx");
+        writeDirectTestBook(poiFile);
+        ExcelBook.setDirectXlsxWriter(true);
+        try {
+            writeDirectTestBook(directFile);
+        } finally {
+            ExcelBook.setDirectXlsxWriter(false);
+        }
+        
+        for (boolean streaming : new boolean[] {true, false}) {
+            try (ExcelBook expected = new ExcelBook(poiFile, false, streaming);
+                    ExcelBook actual = new ExcelBook(directFile, false, streaming)) {
+                
+                assertThat(actual.getTableNames(), is(expected.getTableNames()));
+                List<ExcelSheetReader> expectedReaders = expected.getAllSheetReaders();
+                List<ExcelSheetReader> actualReaders = actual.getAllSheetReaders();
+                assertThat(actualReaders.size(), is(expectedReaders.size()));
+                for (int i = 0; i < expectedReaders.size(); i++) {
+                    assertThat(actualReaders.get(i).getSheetName(), is(expectedReaders.get(i).getSheetName()));
+                    assertThat(actualReaders.get(i).readFull(), is(expectedReaders.get(i).readFull()));
+                }
+            }
+        }
+        
+        try (XSSFWorkbook wb = new XSSFWorkbook(directFile)) {
+            assertThat(wb.getSheetName(0), is("Results"));
+            assertThat(wb.getSheetAt(0).getPaneInformation().getHorizontalSplitPosition(), is((short) 1));
+            assertThat(wb.getSheetAt(0).getRow(0).getCell(0).getCellStyle().getFont().getBold(), is(true));
+            assertThat(wb.getSheetAt(0).getRow(1).getCell(0).getCellStyle().getFont().getBold(), is(false));
+            assertThat(wb.getSheetAt(0).getRow(1).getCell(2).getCellTypeEnum(), is(CellType.BOOLEAN));
+            assertThat(wb.getProperties().getCoreProperties().getCreator(), is("KernelHaven"));
+            assertThat(wb.getProperties().getCoreProperties().getTitle().startsWith("Results "), is(true));
+        }
+    }
+    
+    /**
+     * Writes the workbook for {@link #testDirectXlsxWriter()}.
+     * 
+     * @param file The file to write.
+     * 
+     * @throws Exception If writing fails.
+     */
+    private static void writeDirectTestBook(File file) throws Exception {
+        try (ExcelBook book = new ExcelBook(file)) {
+            ExcelSheetWriter results = book.getWriter("Results");
+            results.writeHeader("Name", "Value", "Flag", "Empty");
+            
+            // written at the same time as the first sheet
+            ExcelSheetWriter other = book.getWriter("Other");
+            other.writeRow("Other", 1);
+            for (int i = 0; i < 500; i++) {
+                results.writeRow("Row " + i, i * 1.5, i % 2 == 0, null);
+            }
+            results.writeRow("<&>\"'", Double.NaN, Double.POSITIVE_INFINITY, Long.MAX_VALUE);
+            results.writeRow("  spaces  ", "tab\tnew\nline", "\u00e4\u00f6\u00fc\u20ac", 0);
+            results.writeRow("", null, null, null);
+            results.close();
+            
+            assertThat(book.getTableNames().size(), is(2));
+            
+            other.writeRow("More", 2);
+            other.close();
+            
+            // overwrites the previous sheet
+            try (ExcelSheetWriter replaced = book.getWriter("other")) {
+                replaced.writeRow("Replaced", 3);
+            }
+            try (ExcelSheetWriter empty = book.getWriter("Empty")) {
+                empty.flush();
+            }
+        }
+    }
+    
+    /**
+     * Tests that texts, which can't be stored in XML or look like Excel escape sequences, are read back unchanged
+     * from workbooks written directly.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testDirectXlsxWriterEscapes() throws IOException {
+        File file = new File(TMPFOLDER, "testDirectXlsxWriterEscapes.xlsx");
+        String[] texts = {"_x0041_", "a_x00", "control\u0001\u001f", "_x005F_x0041_"};
+        ExcelBook.setDirectXlsxWriter(true);
+        try (ExcelBook book = new ExcelBook(file)) {
+            try (ExcelSheetWriter writer = book.getWriter("Sheet")) {
+                writer.writeRow((Object[]) texts);
+            }
+        } finally {
+            ExcelBook.setDirectXlsxWriter(false);
+        }
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            assertThat(book.getReader(0).readFull(), is(new String[][] {texts}));
+        }
+    }
+    
+    /**
+     * Tests that sheets are looked up by their exact (case sensitive) name in all modes.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testSheetLookupIsCaseSensitive() throws IOException {
+        File xls = new File(TMPFOLDER, "testSheetLookupIsCaseSensitive.xls");
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            wb.createSheet("Other");
+            wb.createSheet("Sheet2");
+            try (FileOutputStream out = new FileOutputStream(xls)) {
+                wb.write(out);
+            }
+        }
+        
+        // streamed and loaded XLSX and XLS workbooks
+        for (File file : new File[] {new File(TESTDATA, "MultipleSheets.xlsx"), xls}) {
+            for (boolean streaming : new boolean[] {false, true}) {
+                try (ExcelBook book = new ExcelBook(file, false, streaming)) {
+                    assertThat(file.getName(), book.getSheetIndex("Sheet2"), is(1));
+                    assertThat(file.getName(), book.getSheetIndex("sheet2"), is(-1));
+                    assertThat(file.getName(), book.getSheetIndex("SHEET2"), is(-1));
+                    assertThat(file.getName(), book.getReader("Sheet2").getSheetName(), is("Sheet2"));
+                    try {
+                        book.getReader("sheet2");
+                        Assert.fail("Expected IOException for " + file.getName());
+                    } catch (IOException e) {
+                        // expected
+                    }
+                }
+            }
+        }
+        
+        // new workbooks, written with POI and directly
+        for (boolean direct : new boolean[] {false, true}) {
+            File file = new File(TMPFOLDER, "testSheetLookupIsCaseSensitive" + direct + ".xlsx");
+            ExcelBook.setDirectXlsxWriter(direct);
+            try (ExcelBook book = new ExcelBook(file)) {
+                book.getWriter("Other").close();
+                book.getWriter("Sheet2").close();
+                assertThat(book.getSheetIndex("Sheet2"), is(1));
+                assertThat(book.getSheetIndex("sheet2"), is(-1));
+            } finally {
+                ExcelBook.setDirectXlsxWriter(false);
+            }
+        }
+    }
+    
+    /**
+     * Tests that the sheets of a workbook can't be read while it is written directly.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testDirectXlsxWriterNotReadable() throws IOException {
+        File file = new File(TMPFOLDER, "testDirectXlsxWriterNotReadable.xlsx");
+        ExcelBook.setDirectXlsxWriter(true);
+        try (ExcelBook book = new ExcelBook(file)) {
+            try (ExcelSheetWriter writer = book.getWriter("Sheet")) {
+                writer.writeRow("A");
+            }
+            assertThat(book.getSheetIndex("Sheet"), is(0));
+            book.getReader(0);
+        } finally {
+            ExcelBook.setDirectXlsxWriter(false);
+        }
+    }
+    
+    /**
+     * Tests that flushing a directly written sheet writes its rows to a file, and that a sheet is complete in the
+     * destination file as soon as its writer is closed.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testDirectXlsxWriterFlush() throws IOException {
+        File file = new File(TMPFOLDER, "testDirectXlsxWriterFlush.xlsx");
+        ExcelBook.setDirectXlsxWriter(true);
+        try (ExcelBook book = new ExcelBook(file)) {
+            ExcelSheetWriter first = book.getWriter("First");
+            ExcelSheetWriter second = book.getWriter("Second");
+            
+            first.writeRow("a1");
+            long before = file.length();
+            first.flush();
+            assertThat(file.length() > before, is(true));
+            
+            // the second sheet waits for the first one; flushing moves its data into a temporary file
+            second.writeRow("b1");
+            second.flush();
+            second.writeRow("b2");
+            
+            first.close();
+            try (ZipInputStream zip = new ZipInputStream(new FileInputStream(file))) {
+                ZipEntry entry = zip.getNextEntry();
+                assertThat(entry.getName(), is("xl/worksheets/sheet1.xml"));
+                byte[] buffer = new byte[1024];
+                StringBuilder xml = new StringBuilder();
+                int read;
+                while ((read = zip.read(buffer)) != -1) {
+                    xml.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+                }
+                assertThat(xml.toString().endsWith("<t>a1</t></is></c></row></sheetData></worksheet>"), is(true));
+            }
+            
+            second.close();
+        } finally {
+            ExcelBook.setDirectXlsxWriter(false);
+        }
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            assertThat(book.getReader("First").readFull(), is(new String[][] {{"a1"}}));
+            assertThat(book.getReader("Second").readFull(), is(new String[][] {{"b1"}, {"b2"}}));
+        }
+    }
+    
+    /**
+     * Tests that closing a book returns as soon as the last open writer is closed by another thread.
+     * 
+     * @throws Exception unwanted.
+     */
+    @Test
+    public void testCloseWaitsForWriter() throws Exception {
+        File file = new File(TMPFOLDER, "testCloseWaitsForWriter.xlsx");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        long duration;
+        try {
+            ExcelBook book = new ExcelBook(file);
+            ExcelSheetWriter writer = book.getWriter("Sheet");
+            writer.writeRow("first");
+            Future<?> future = executor.submit(() -> {
+                Thread.sleep(200);
+                writer.writeRow("second");
+                writer.close();
+                return null;
+            });
+            
+            long start = System.nanoTime();
+            book.close();
+            duration = System.nanoTime() - start;
+            future.get();
+        } finally {
+            executor.shutdown();
+        }
+        
+        assertThat(duration < TimeUnit.SECONDS.toNanos(4), is(true));
+        try (ExcelBook book = new ExcelBook(file)) {
+            assertThat(book.getReader("Sheet").readFull(), is(new String[][] {{"first"}, {"second"}}));
+        }
+    }
+    
+    /**
+     * Tests that writers, which are still open after the {@link ExcelBook#CLOSE_TIMEOUT}, are closed by the book.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testCloseTimeout() throws IOException {
+        File file = new File(TMPFOLDER, "testCloseTimeout.xlsx");
+        ExcelBook.setCloseTimeout(0);
+        ExcelSheetWriter writer;
+        try (ExcelBook book = new ExcelBook(file)) {
+            writer = book.getWriter("Sheet");
+            writer.writeRow("written");
+        } finally {
+            ExcelBook.setCloseTimeout(5000);
+        }
+        
+        try {
+            writer.writeRow("rejected");
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try (ExcelBook book = new ExcelBook(file)) {
+            assertThat(book.getReader("Sheet").readFull(), is(new String[][] {{"written"}}));
+        }
+    }
+    
+    /**
+     * Tests that {@link ExcelBook#closeAsync()} completes when the open writers are closed and the book is written.
+     * 
+     * @throws Exception unwanted.
+     */
+    @Test
+    public void testCloseAsync() throws Exception {
+        File file = new File(TMPFOLDER, "testCloseAsync.xlsx");
+        ExcelBook.setCloseTimeout(-1);
+        try {
+            ExcelBook book = new ExcelBook(file);
+            ExcelSheetWriter writer = book.getWriter("Sheet");
+            CompletableFuture<Void> closed = book.closeAsync();
+            
+            writer.writeRow("value");
+            assertThat(closed.isDone(), is(false));
+            writer.close();
+            closed.get(10, TimeUnit.SECONDS);
+            
+            // closing again has no effect
+            book.close();
+        } finally {
+            ExcelBook.setCloseTimeout(5000);
+        }
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            assertThat(book.getReader("Sheet").readFull(), is(new String[][] {{"value"}}));
+        }
     }
     
 }
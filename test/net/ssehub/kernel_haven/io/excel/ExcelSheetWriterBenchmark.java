@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the write throughput of {@link ExcelSheetWriter}s, when the sheets of one book are written from one thread
+ * per sheet. Not part of the test suite; run it manually with the number of rows per sheet as optional argument, and
+ * <code>direct</code> as optional second argument to write the books with {@link ExcelBook#DIRECT_XLSX_WRITER}.
+ * 
+ * @author Adam
+ */
+public class ExcelSheetWriterBenchmark {
+    
+    private static final File TMPFOLDER = new File(new File("testdata"), "tmpFiles");
+    
+    private static final int[] SHEET_COUNTS = {1, 2, 4, 8};
+    
+    /**
+     * Writes books with an increasing number of sheets and prints the rows per second.
+     * 
+     * @param args Optional: the number of rows per sheet and <code>direct</code>.
+     * 
+     * @throws Exception If writing a book fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        ExcelBook.setDirectXlsxWriter(args.length > 1 && args[1].equals("direct"));
+        TMPFOLDER.mkdirs();
+        
+        // warm up
+        run(2, numRows / 10);
+        
+        System.out.println("sheets\trows/s (writing)\trows/s (incl. close)");
+        for (int numSheets : SHEET_COUNTS) {
+            System.out.println(run(numSheets, numRows));
+        }
+    }
+    
+    /**
+     * Writes a book with the given number of sheets and measures the throughput.
+     * 
+     * @param numSheets The number of sheets, each written by its own thread.
+     * @param numRows The number of rows per sheet.
+     * @return A line with the number of sheets and the rows per second.
+     * 
+     * @throws Exception If writing the book fails.
+     */
+    private static String run(int numSheets, int numRows) throws Exception {
+        File file = new File(TMPFOLDER, "benchmark_" + numSheets + ".xlsx");
+        file.delete();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numSheets);
+        long start = System.nanoTime();
+        long written;
+        try (ExcelBook book = new ExcelBook(file)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numSheets; i++) {
+                ExcelSheetWriter writer = book.getWriter("Sheet " + i);
+                futures.add(executor.submit(() -> {
+                    writeSheet(writer, numRows);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            written = System.nanoTime();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            executor.shutdown();
+        }
+        long closed = System.nanoTime();
+        
+        long totalRows = (long) numSheets * numRows;
+        file.delete();
+        return numSheets + "\t" + totalRows * 1000000000L / (written - start) + "\t\t\t"
+                + totalRows * 1000000000L / (closed - start);
+    }
+    
+    /**
+     * Writes the rows of a single sheet.
+     * 
+     * @param writer The writer of the sheet.
+     * @param numRows The number of rows to write.
+     * 
+     * @throws IOException If writing fails.
+     */
+    private static void writeSheet(ExcelSheetWriter writer, int numRows) throws IOException {
+        writer.writeHeader("Id", "Name", "Value", "Flag");
+        for (int row = 0; row < numRows; row++) {
+            writer.writeRow(row, "Element " + (row % 1000), row * 0.5, row % 2 == 0);
+        }
+        writer.close();
+    }
+    
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link Numbers} class.
+ * 
+ * @author Adam
+ */
+public class NumbersTest {
+    
+    /**
+     * Tests that parsing numbers returns the same results as {@link Double#parseDouble(String)}.
+     */
+    @Test
+    public void testParseDouble() {
+        String[] values = {"0", "-0", "1", "-1", "+7", "42", "123456789012345", "1234567890123456789", "0.5", ".25",
+            "-4.75", "3.14159265358979", "0.1", "0.000000000000000000000000001", "1e5", "1.5E-3", "5.", " 12 ",
+            "9007199254740993", "-0.0"};
+        for (String value : values) {
+            assertThat(value, Numbers.parseDouble(value), is(Double.parseDouble(value)));
+        }
+        
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            String value = Double.toString(random.nextInt(2000000) / Math.pow(10, random.nextInt(8)) - 1000);
+            assertThat(value, Numbers.parseDouble(value), is(Double.parseDouble(value)));
+        }
+    }
+    
+    /**
+     * Tests that invalid numbers are rejected like by {@link Double#parseDouble(String)}.
+     */
+    @Test(expected = NumberFormatException.class)
+    public void testParseInvalidDouble() {
+        Numbers.parseDouble("1.2.3");
+    }
+    
+    /**
+     * Tests that rendering numbers returns the same text as {@link Double#toString(double)}.
+     */
+    @Test
+    public void testAppendDouble() {
+        double[] values = {0.0, -0.0, 1.0, -1.0, 42.0, 9999999.0, 10000000.0, -9999999.0, 0.5, 1e-4, 1e20,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.MAX_VALUE, Long.MAX_VALUE};
+        StringBuilder builder = new StringBuilder();
+        for (double value : values) {
+            builder.setLength(0);
+            Numbers.appendDouble(builder, value);
+            assertThat(builder.toString(), is(Double.toString(value)));
+        }
+    }
+    
+    /**
+     * Tests the detection of whole numbers.
+     */
+    @Test
+    public void testIsInteger() {
+        assertThat(Numbers.isInteger(3.0), is(true));
+        assertThat(Numbers.isInteger(-3.0), is(true));
+        assertThat(Numbers.isInteger(3.5), is(false));
+        assertThat(Numbers.isInteger(1e30), is(false));
+        assertThat(Numbers.isInteger(Double.NaN), is(false));
+    }
+    
+}
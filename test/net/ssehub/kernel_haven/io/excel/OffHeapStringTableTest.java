@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link OffHeapStringTable} class.
+ * 
+ * @author Adam
+ */
+public class OffHeapStringTableTest {
+    
+    /**
+     * Tests that the stored strings are decoded correctly, also after the buffers have grown and cached strings have
+     * been evicted.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testGet() throws IOException {
+        OffHeapStringTable table = new OffHeapStringTable();
+        int size = OffHeapStringTable.CACHE_SIZE * 5;
+        for (int i = 0; i < size; i++) {
+            table.add(i % 7 == 0 ? "" : "value_ä€_" + i);
+        }
+        assertThat(table.size(), is(size));
+        
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < size; i++) {
+                String expected = i % 7 == 0 ? "" : "value_ä€_" + i;
+                assertThat(expected, table.get(i), is(expected));
+                assertThat(expected, table.isEmpty(i), is(expected.isEmpty()));
+            }
+        }
+    }
+    
+    /**
+     * Tests that strings, which span multiple chunks of the buffers, and offsets in later chunks are stored
+     * correctly.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testChunks() throws IOException {
+        StringBuilder large = new StringBuilder();
+        while (large.length() < OffHeapStringTable.CHUNK_SIZE) {
+            // multi-byte characters, so that chunk boundaries are inside characters
+            large.append("€ä").append(large.length());
+        }
+        
+        OffHeapStringTable table = new OffHeapStringTable();
+        // more offsets than fit into one chunk
+        int size = OffHeapStringTable.CHUNK_SIZE / 4 + 100;
+        for (int i = 0; i < size; i++) {
+            table.add(i % 1000 == 1 ? large.toString() + i : "v" + i);
+        }
+        assertThat(table.size(), is(size));
+        
+        for (int i = 0; i < size; i++) {
+            String expected = i % 1000 == 1 ? large.toString() + i : "v" + i;
+            assertThat(table.get(i), is(expected));
+        }
+    }
+    
+}
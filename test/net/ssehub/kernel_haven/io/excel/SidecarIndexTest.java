@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@link SidecarIndex}, which is used by {@link ExcelBook}s if {@link ExcelBook#SIDECAR_INDEX} is enabled.
+ * 
+ * @author Adam
+ */
+public class SidecarIndexTest {
+    
+    private static final File TESTDATA = new File("testdata");
+    
+    private static final File TMPFOLDER = new File(TESTDATA, "tmpFiles");
+    
+    /**
+     * Enables the index files.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        TMPFOLDER.mkdirs();
+        ExcelBook.setSidecarIndex(true);
+    }
+    
+    /**
+     * Disables the index files again.
+     */
+    @AfterClass
+    public static void tearDownAfterClass() {
+        ExcelBook.setSidecarIndex(false);
+    }
+    
+    /**
+     * Tests that the information computed while a book is open is restored from the index file when the book is
+     * opened again.
+     * 
+     * @throws IOException unwanted.
+     * @throws InvalidFormatException unwanted.
+     */
+    @Test
+    public void testRestoreFromIndexFile() throws IOException, InvalidFormatException {
+        File file = copy("GroupedValues2.xlsx", "testRestoreFromIndexFile.xlsx");
+        File indexFile = SidecarIndex.getFile(file);
+        
+        List<Group> groups;
+        int rowCount;
+        String[][] rows;
+        try (ExcelBook book = new ExcelBook(file)) {
+            ExcelSheetReader reader = book.getReader("Test Sheet");
+            groups = reader.getGroupedRows();
+            rowCount = reader.getEstimatedRowCount();
+            reader.openRange(2, 4);
+            rows = reader.readFull();
+        }
+        assertThat(indexFile.isFile(), is(true));
+        
+        // the sheets of the catalog already know everything that was computed before
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            WorkbookCatalog catalog = new SidecarIndex(file, SidecarIndex.computeKey(file)).read(pkg, false);
+            assertThat(catalog, notNullValue());
+            XlsxSheetSource sheet = (XlsxSheetSource) catalog.getSheet(0);
+            assertThat(sheet.getName(), is("Test Sheet"));
+            assertThat(sheet.getGroups().toString(), is(groups.toString()));
+            assertThat(sheet.getKnownDimension().getRowCount(), is(rowCount));
+            assertThat(sheet.isRowIndexKnown(), is(true));
+            pkg.revert();
+        }
+        
+        // the restored information gives the same results
+        try (ExcelBook book = new ExcelBook(file)) {
+            ExcelSheetReader reader = book.getReader("Test Sheet");
+            assertThat(reader.getGroupedRows().toString(), is(groups.toString()));
+            assertThat(reader.getEstimatedRowCount(), is(rowCount));
+            reader.openRange(2, 4);
+            assertThat(reader.readFull(), is(rows));
+        }
+    }
+    
+    /**
+     * Tests that an index file of a changed workbook is not used, and that it is rebuilt.
+     * 
+     * @throws IOException unwanted.
+     * @throws InvalidFormatException unwanted.
+     */
+    @Test
+    public void testStaleIndexFile() throws IOException, InvalidFormatException {
+        File file = copy("GroupedValues.xlsx", "testStaleIndexFile.xlsx");
+        try (ExcelBook book = new ExcelBook(file)) {
+            book.getReader(0).getGroupedRows();
+        }
+        assertThat(readCatalog(file), notNullValue());
+        
+        // only the modification time changes
+        assertThat(file.setLastModified(file.lastModified() - 10000), is(true));
+        assertThat(readCatalog(file), nullValue());
+        
+        // the index file is rebuilt
+        try (ExcelBook book = new ExcelBook(file)) {
+            book.getReader(0).getGroupedRows();
+        }
+        assertThat(readCatalog(file), notNullValue());
+        
+        // different content, with the same modification time
+        long lastModified = file.lastModified();
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            Sheet sheet = wb.createSheet("Other");
+            sheet.createRow(0).createCell(0).setCellValue("Changed");
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                wb.write(out);
+            }
+        }
+        assertThat(file.setLastModified(lastModified), is(true));
+        assertThat(readCatalog(file), nullValue());
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            assertThat(book.getReader(0).getSheetName(), is("Other"));
+            assertThat(book.getReader(0).readNextRow(), is(new String[] {"Changed"}));
+        }
+        assertThat(readCatalog(file), notNullValue());
+    }
+    
+    /**
+     * Tests that an invalid index file is ignored and overwritten.
+     * 
+     * @throws IOException unwanted.
+     * @throws InvalidFormatException unwanted.
+     */
+    @Test
+    public void testInvalidIndexFile() throws IOException, InvalidFormatException {
+        File file = copy("MultipleSheets.xlsx", "testInvalidIndexFile.xlsx");
+        Files.write(SidecarIndex.getFile(file).toPath(), new byte[] {'K', 'H', 'X'});
+        assertThat(readCatalog(file), nullValue());
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            assertThat(book.getAllSheetReaders().size(), is(3));
+        }
+        assertThat(readCatalog(file), notNullValue());
+    }
+    
+    /**
+     * Tests that an index file with corrupt lengths is ignored instead of allocating arrays for them, and that it is
+     * rebuilt without leaving temporary files behind.
+     * 
+     * @throws IOException unwanted.
+     * @throws InvalidFormatException unwanted.
+     */
+    @Test
+    public void testCorruptLengthsInIndexFile() throws IOException, InvalidFormatException {
+        File file = copy("GroupedValues2.xlsx", "testCorruptLengthsInIndexFile.xlsx");
+        File indexFile = SidecarIndex.getFile(file);
+        try (ExcelBook book = new ExcelBook(file)) {
+            book.getReader("Test Sheet").getGroupedRows();
+        }
+        byte[] valid = Files.readAllBytes(indexFile.toPath());
+        assertThat(readCatalog(file), notNullValue());
+        
+        // magic, version, key length, key, name of the shared strings part, number of sheets
+        ByteBuffer content = ByteBuffer.wrap(valid);
+        int keyLength = content.getInt(8);
+        int numSheetsOffset = 12 + keyLength + 2 + content.getShort(12 + keyLength);
+        
+        for (int offset : new int[] {8, numSheetsOffset}) {
+            for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+                ByteBuffer corrupt = ByteBuffer.wrap(valid.clone());
+                corrupt.putInt(offset, length);
+                Files.write(indexFile.toPath(), corrupt.array());
+                assertThat(readCatalog(file), nullValue());
+            }
+        }
+        
+        try (ExcelBook book = new ExcelBook(file)) {
+            assertThat(book.getReader("Test Sheet").getGroupedRows().isEmpty(), is(false));
+        }
+        assertThat(readCatalog(file), notNullValue());
+        assertThat(TMPFOLDER.list((dir, name) -> name.endsWith(".tmp")).length, is(0));
+    }
+    
+    /**
+     * Copies a file from the test data to the temporary folder.
+     * 
+     * @param name The name of the file in the test data.
+     * @param target The name of the copy.
+     * @return The copy.
+     * 
+     * @throws IOException If copying fails.
+     */
+    private static File copy(String name, String target) throws IOException {
+        File result = new File(TMPFOLDER, target);
+        Files.copy(new File(TESTDATA, name).toPath(), result.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        SidecarIndex.getFile(result).delete();
+        return result;
+    }
+    
+    /**
+     * Reads the catalog of the given workbook from its index file.
+     * 
+     * @param file The workbook.
+     * @return The catalog, <code>null</code> if the index file is not valid for the workbook.
+     * 
+     * @throws IOException If opening the workbook fails.
+     * @throws InvalidFormatException If opening the workbook fails.
+     */
+    private static WorkbookCatalog readCatalog(File file) throws IOException, InvalidFormatException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            WorkbookCatalog result = new SidecarIndex(file, SidecarIndex.computeKey(file)).read(pkg, false);
+            pkg.revert();
+            return result;
+        }
+    }
+    
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link StringDictionary} class.
+ * 
+ * @author Adam
+ */
+public class StringDictionaryTest {
+    
+    /**
+     * Tests that equal texts are returned as the same instance, also after the table has grown.
+     */
+    @Test
+    public void testSameInstance() {
+        StringDictionary dictionary = new StringDictionary();
+        String[] first = new String[10000];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = dictionary.get(new StringBuilder("value_").append(i));
+        }
+        assertThat(dictionary.getSize(), is(first.length));
+        
+        for (int i = 0; i < first.length; i++) {
+            String text = "value_" + i;
+            assertThat(text, dictionary.get(text), sameInstance(first[i]));
+            assertThat(text, dictionary.get(new StringBuilder(text)), sameInstance(first[i]));
+        }
+        assertThat(dictionary.getSize(), is(first.length));
+        
+        assertThat(dictionary.get(""), is(""));
+        assertThat(dictionary.get(new StringBuilder()), sameInstance(dictionary.get("")));
+        assertThat(dictionary.get("value_1"), not(sameInstance(dictionary.get("value_2"))));
+    }
+    
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link XlsxSharedFormula} class.
+ * 
+ * @author Adam
+ */
+public class XlsxSharedFormulaTest {
+    
+    /**
+     * Moves the given formula from <code>A1</code> by one row and one column.
+     * 
+     * @param formula The formula of the master cell.
+     * @return The formula of the cell <code>B2</code>.
+     */
+    private static String shift(String formula) {
+        return new XlsxSharedFormula(formula, 0, 0).shiftTo(1, 1);
+    }
+    
+    /**
+     * Tests that relative references are moved, and absolute ones are not.
+     */
+    @Test
+    public void testReferences() {
+        assertThat(shift("A1+$A1+A$1+$A$1"), is("B2+$A2+B$1+$A$1"));
+        assertThat(shift("SUM(A1:C3)"), is("SUM(B2:D4)"));
+        assertThat(new XlsxSharedFormula("B2*2", 1, 1).shiftTo(5, 1), is("B6*2"));
+    }
+    
+    /**
+     * Tests that the exponents of number literals are not treated as references.
+     */
+    @Test
+    public void testNumberLiterals() {
+        assertThat(shift("A1*1E5"), is("B2*100000"));
+        assertThat(shift("A1*2.5E3"), is("B2*2500"));
+    }
+    
+    /**
+     * Tests that whole columns and whole rows are moved.
+     */
+    @Test
+    public void testColumnAndRowRanges() {
+        assertThat(shift("SUM(A:A)+SUM(1:1)"), is("SUM(B$1:B$1048576)+SUM($A2:$XFD2)"));
+    }
+    
+    /**
+     * Tests that references, which are moved beyond the limits of a sheet, become <code>#REF!</code>.
+     */
+    @Test
+    public void testReferencesBeyondLimits() {
+        assertThat(shift("A1+XFD1"), is("B2+#REF!"));
+        assertThat(shift("A1+A1048576"), is("B2+#REF!"));
+        assertThat(shift("SUM(A1:XFD1)"), is("SUM(#REF!)"));
+        assertThat(shift("$XFD$1048576"), is("$XFD$1048576"));
+    }
+    
+    /**
+     * Tests that references to other sheets keep their sheet, and that names and strings are not changed.
+     */
+    @Test
+    public void testSheetsNamesAndStrings() {
+        assertThat(shift("'Other Sheet'!A1+Sheet1!$B$2+SUM(Sheet1!A1:B2)"),
+                is("'Other Sheet'!B2+Sheet1!$B$2+SUM(Sheet1!B2:C3)"));
+        assertThat(shift("MyName+LEN(\"A1\")"), is("MyName+LEN(\"A1\")"));
+        assertThat(shift("MyFunction(A1)+[1]Sheet1!A1"), is("MyFunction(B2)+[1]Sheet1!B2"));
+    }
+    
+}
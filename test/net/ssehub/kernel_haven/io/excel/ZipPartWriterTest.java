@@ -0,0 +1,284 @@
+/*
+ * Copyright 2017-2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.io.excel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.io.excel.ZipPartWriter.DeflatedPart;
+import net.ssehub.kernel_haven.io.excel.ZipPartWriter.PartOutputStream;
+
+/**
+ * Tests the {@link ZipPartWriter}.
+ * 
+ * @author Adam
+ */
+public class ZipPartWriterTest {
+    
+    private static final File TESTDATA = new File("testdata");
+    
+    private static final File TMPFOLDER = new File(TESTDATA, "tmpFiles");
+    
+    /**
+     * Creates the folder for the temporary test files.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        TMPFOLDER.mkdirs();
+    }
+    
+    /**
+     * Tests that the written archive can be read by the ZIP classes of the JDK, both through the central directory
+     * and sequentially through the local headers.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testReadable() throws IOException {
+        File file = new File(TMPFOLDER, "testZipPartWriter.zip");
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            large.append("<row r=\"").append(i).append("\"/>");
+        }
+        
+        PartOutputStream out = new PartOutputStream();
+        out.write(large.toString().getBytes(StandardCharsets.UTF_8));
+        DeflatedPart part = out.finish();
+        assertThat(part.getSize(), is((long) large.length()));
+        try (ZipPartWriter zip = new ZipPartWriter(new FileOutputStream(file))) {
+            zip.addEntry("[Content_Types].xml", new ByteArrayInputStream("types".getBytes(StandardCharsets.UTF_8)));
+            zip.addEntry("xl/worksheets/sheet1.xml", part);
+            zip.addEntry("empty", new ByteArrayInputStream(new byte[0]));
+            zip.addEntry("\u00e4\u00f6\u00fc.txt",
+                    new ByteArrayInputStream("umlauts".getBytes(StandardCharsets.UTF_8)));
+        } finally {
+            part.delete();
+        }
+        
+        try (ZipFile zip = new ZipFile(file)) {
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            assertThat(entries.size(), is(4));
+            assertThat(entries.get(0).getName(), is("[Content_Types].xml"));
+            assertThat(read(zip.getInputStream(entries.get(0))), is("types"));
+            assertThat(read(zip.getInputStream(entries.get(1))), is(large.toString()));
+            assertThat(read(zip.getInputStream(entries.get(2))), is(""));
+            assertThat(read(zip.getInputStream(zip.getEntry("\u00e4\u00f6\u00fc.txt"))), is("umlauts"));
+        }
+        
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(file))) {
+            assertThat(zip.getNextEntry().getName(), is("[Content_Types].xml"));
+            assertThat(read(zip), is("types"));
+            assertThat(zip.getNextEntry().getName(), is("xl/worksheets/sheet1.xml"));
+            assertThat(read(zip), is(large.toString()));
+            assertThat(zip.getNextEntry().getName(), is("empty"));
+            assertThat(zip.getNextEntry().getName(), is("\u00e4\u00f6\u00fc.txt"));
+            assertThat(read(zip), is("umlauts"));
+            assertThat(zip.getNextEntry(), nullValue());
+        }
+    }
+    
+    /**
+     * Tests that a streamed entry has a local header without the ZIP64 format, so that the archive can also be read
+     * sequentially by the ZIP classes of the JDK.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStreamedEntry() throws IOException {
+        File file = new File(TMPFOLDER, "testStreamedEntry.zip");
+        byte[] data = "<worksheet/>".getBytes(StandardCharsets.UTF_8);
+        
+        int compressedSize;
+        try (ZipPartWriter zip = new ZipPartWriter(new FileOutputStream(file))) {
+            compressedSize = writeStreamedEntry(zip, "sheet.xml", data, data.length);
+            zip.addEntry("after.txt", new ByteArrayInputStream("after".getBytes(StandardCharsets.UTF_8)));
+        }
+        
+        ByteBuffer archive = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertThat(archive.getInt(0), is(0x04034b50));
+        assertThat(archive.getShort(4), is((short) 20));
+        assertThat(archive.getShort(28), is((short) 0));
+        // the data descriptor with 4 byte sizes is followed by the next local header
+        int descriptor = 30 + "sheet.xml".length() + compressedSize;
+        assertThat(archive.getInt(descriptor), is(0x08074b50));
+        assertThat(archive.getInt(descriptor + 8), is(compressedSize));
+        assertThat(archive.getInt(descriptor + 12), is(data.length));
+        assertThat(archive.getInt(descriptor + 16), is(0x04034b50));
+        
+        try (ZipFile zip = new ZipFile(file)) {
+            assertThat(read(zip.getInputStream(zip.getEntry("sheet.xml"))), is("<worksheet/>"));
+            assertThat(read(zip.getInputStream(zip.getEntry("after.txt"))), is("after"));
+        }
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(file))) {
+            assertThat(zip.getNextEntry().getName(), is("sheet.xml"));
+            assertThat(read(zip), is("<worksheet/>"));
+            assertThat(zip.getNextEntry().getName(), is("after.txt"));
+            assertThat(read(zip), is("after"));
+        }
+    }
+    
+    /**
+     * Tests that a streamed entry of 4 GB or more, which would need the ZIP64 format, is refused and that no central
+     * directory is written for the incomplete archive. The sizes are only declared, so that no 4 GB have to be
+     * written.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testStreamedEntryTooLarge() throws IOException {
+        byte[] data = "<worksheet/>".getBytes(StandardCharsets.UTF_8);
+        for (long size : new long[] {0xFFFFFFFFL, 5L * 1024 * 1024 * 1024}) {
+            File file = new File(TMPFOLDER, "testStreamedEntryTooLarge.zip");
+            try (ZipPartWriter zip = new ZipPartWriter(new FileOutputStream(file))) {
+                try {
+                    writeStreamedEntry(zip, "sheet.xml", data, size);
+                    fail("Expected IOException");
+                } catch (IOException e) {
+                    assertThat(e.getMessage().contains("sheet.xml"), is(true));
+                }
+            }
+            
+            try (ZipFile zip = new ZipFile(file)) {
+                fail("Expected ZipException, but read " + zip.size() + " entries");
+            } catch (ZipException e) {
+                // no central directory
+            }
+        }
+    }
+    
+    /**
+     * Tests that no central directory is written if copying the data of a part fails after its local header is
+     * written, even if the stream accepts the following writes again.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testFailedEntry() throws IOException {
+        // incompressible data, so that the deflated part is larger than the buffer of the writer
+        byte[] data = new byte[256 * 1024];
+        new Random(42).nextBytes(data);
+        PartOutputStream part = new PartOutputStream();
+        part.write(data);
+        DeflatedPart deflated = part.finish();
+        
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        OutputStream failingOnce = new FilterOutputStream(archive) {
+            
+            private boolean failed;
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (!failed && archive.size() > 0) {
+                    failed = true;
+                    throw new IOException("Disk full");
+                }
+                archive.write(b, off, len);
+            }
+            
+        };
+        
+        try (ZipPartWriter zip = new ZipPartWriter(failingOnce)) {
+            zip.addEntry("first.txt", new ByteArrayInputStream("first".getBytes(StandardCharsets.UTF_8)));
+            try {
+                zip.addEntry("sheet.xml", deflated);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertThat(e.getMessage(), is("Disk full"));
+            }
+        } finally {
+            deflated.delete();
+        }
+        
+        // the signature of the end of central directory record
+        String content = new String(archive.toByteArray(), StandardCharsets.ISO_8859_1);
+        assertThat(archive.size() > 0, is(true));
+        assertThat(content.contains("PK\u0005\u0006"), is(false));
+    }
+    
+    /**
+     * Deflates the given data and streams it as a new entry.
+     * 
+     * @param zip The archive to write to.
+     * @param name The name of the entry.
+     * @param data The uncompressed data.
+     * @param size The uncompressed size to store for the entry.
+     * @return The size of the deflated data.
+     * 
+     * @throws IOException If writing the archive fails.
+     */
+    private static int writeStreamedEntry(ZipPartWriter zip, String name, byte[] data, long size)
+            throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] deflated = new byte[1024];
+        int compressedSize = deflater.deflate(deflated);
+        deflater.end();
+        
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        zip.beginEntry(name).write(deflated, 0, compressedSize);
+        zip.endEntry(crc.getValue(), size, compressedSize);
+        return compressedSize;
+    }
+    
+    /**
+     * Reads the given stream completely. Does not close the stream.
+     * 
+     * @param in The stream to read.
+     * @return The UTF-8 decoded content.
+     * 
+     * @throws IOException If reading fails.
+     */
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            result.write(buffer, 0, read);
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+    
+}